@@ -0,0 +1,193 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.util.FileDocument;
+import uk.ac.sanger.artemis.util.LinePushBackReader;
+
+public class ComparisonDataTest
+{
+  private static final String MSPCRUNCH =
+    "1234 98.50 100 600 query 2000 1501 subject\n" +
+    "55 100 7 30 query 8 31 subject\r\n" +
+    "1.5e+03 85.123456 900 1000 query 3000 3100 subject\n" +
+    "\n" +
+    "1021.4 75 20 10 query 40 50 subject extra fields\n";
+
+  private static final String BLAST_M8 =
+    "# BLASTN 2.2.26\n" +
+    "q1\ts1\t97.30\t450\t12\t0\t1\t450\t1000\t551\t1e-100\t800\n" +
+    "q1\ts1\t100\t20\t0\t0\t900\t919\t5\t24\t\t40\n";
+
+  private static final String SSAHA =
+    "F\tq\t10\t110\ts\t200\t300\t90\t99.0\n" +
+    "R\tq\t10\t110\ts\t200\t300\t80\t90.5\n";
+
+  private static final String MUMMER =
+    "> query\n" +
+    "  100  200  50\n" +
+    "  300  400  25 - 12\n" +
+    "  x  400  25\n";
+
+  /**
+   * Matches read from bytes should be the same as those read a line at a
+   * time by makeMatchFromString(), including lines that have to be passed
+   * to makeMatchFromString().
+   */
+  @Test
+  public void testReadMatches() throws IOException
+  {
+    checkRead(new MSPcrunchComparisonData(new LinePushBackReader(
+        new StringReader(MSPCRUNCH))), new MSPcrunchComparisonData(), MSPCRUNCH, 4);
+    checkRead(new BlastM8ComparisonData(new LinePushBackReader(
+        new StringReader(BLAST_M8))), new BlastM8ComparisonData(), BLAST_M8, 2);
+    checkRead(new SSAHAComparisonData(new LinePushBackReader(
+        new StringReader(SSAHA))), new SSAHAComparisonData(), SSAHA, 2);
+    checkRead(new MUMmerComparisonData(new LinePushBackReader(
+        new StringReader(MUMMER))), new MUMmerComparisonData(), MUMMER, 2);
+
+    try
+    {
+      new MSPcrunchComparisonData().readMatches(
+          new ByteArrayInputStream("1234 98 100 600 query\n".getBytes()));
+      fail("short line should not be read");
+    }
+    catch(ComparisonDataParseException e) {}
+  }
+
+  /**
+   * The matches should be read from the cache the second time a file is
+   * read, and the cache should be remade when the file changes.
+   */
+  @Test
+  public void testCache() throws IOException
+  {
+    final File file = File.createTempFile("comparison", ".crunch");
+    final File cache_file = AlignMatchStore.getCacheFile(file);
+    try
+    {
+      write(file, MSPCRUNCH);
+      cache_file.delete();
+
+      final ComparisonData read = ComparisonDataFactory.readComparisonData(
+          new FileDocument(file));
+      assertTrue(cache_file.exists());
+      final ComparisonData cached = ComparisonDataFactory.readComparisonData(
+          new FileDocument(file));
+      assertTrue(cached instanceof MSPcrunchComparisonData);
+      assertMatchesEqual(read.getMatches(), cached.getMatches());
+      assertEquals(read.getMaximumScore(), cached.getMaximumScore());
+      assertEquals(read.getMinimumScore(), cached.getMinimumScore());
+
+      write(file, MSPCRUNCH.substring(0, MSPCRUNCH.indexOf('\n') + 1));
+      file.setLastModified(file.lastModified() + 2000);
+      assertEquals(1, ComparisonDataFactory.readComparisonData(
+          new FileDocument(file)).getMatches().length);
+    }
+    finally
+    {
+      file.delete();
+      cache_file.delete();
+    }
+  }
+
+  /**
+   * An AlignMatch should only be made for a match that is asked for, should
+   * be the same object each time, and should follow edits to the store.
+   */
+  @Test
+  public void testMatchStore() throws IOException
+  {
+    final MSPcrunchComparisonData data = new MSPcrunchComparisonData();
+    data.readMatches(new ByteArrayInputStream(MSPCRUNCH.getBytes()));
+    final AlignMatchStore store = data.getMatchStore();
+
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
+    assertSame(flyweight, store.getMatch(1, flyweight));
+    assertEquals(8, flyweight.getSubjectSequenceStart());
+
+    final AlignMatch match = store.getMatch(1);
+    assertSame(match, store.getMatch(1));
+    assertSame(match, store.getMatch(1, flyweight));
+
+    // 55 100 7 30 query 8 31 subject
+    store.setRange(1, 10, 20, true, true);
+    assertEquals(10, match.getSubjectSequenceStart());
+    assertEquals(20, match.getSubjectSequenceEnd());
+    assertTrue(match.isRevMatch());
+
+    final int copy = store.copyMatch(1);
+    assertEquals(4, copy);
+    assertEquals(10, store.getSubjectStart(copy));
+    assertTrue(store.getMatch(copy) != match);
+
+    store.removeMatches(new int[] { 0, 2 });
+    assertEquals(3, store.size());
+    assertSame(match, store.getMatch(0));
+    assertEquals(10, store.getSubjectStart(2));
+  }
+
+  private static void checkRead(final SimpleComparisonData expected,
+                                final SimpleComparisonData data,
+                                final String text, final int count)
+      throws IOException
+  {
+    data.readMatches(new ByteArrayInputStream(text.getBytes()));
+    assertEquals(count, expected.getMatches().length);
+    assertMatchesEqual(expected.getMatches(), data.getMatches());
+  }
+
+  private static void assertMatchesEqual(final AlignMatch[] expected,
+                                         final AlignMatch[] matches)
+  {
+    assertEquals(expected.length, matches.length);
+    for(int i = 0; i < expected.length; i++)
+    {
+      assertEquals(expected[i].getSubjectSequenceStart(), matches[i].getSubjectSequenceStart());
+      assertEquals(expected[i].getSubjectSequenceEnd(), matches[i].getSubjectSequenceEnd());
+      assertEquals(expected[i].getQuerySequenceStart(), matches[i].getQuerySequenceStart());
+      assertEquals(expected[i].getQuerySequenceEnd(), matches[i].getQuerySequenceEnd());
+      assertEquals(expected[i].isRevMatch(), matches[i].isRevMatch());
+      assertEquals(expected[i].getScore(), matches[i].getScore());
+      assertEquals(expected[i].getPercentID(), matches[i].getPercentID());
+    }
+  }
+
+  private static void write(final File file, final String text) throws IOException
+  {
+    final FileWriter writer = new FileWriter(file);
+    writer.write(text);
+    writer.close();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.Key;
+import uk.ac.sanger.artemis.io.Location;
+import uk.ac.sanger.artemis.io.Utils;
+
+public class EntryGroupTest
+{
+  /**
+   * featureAt() and indexOf() should follow the order of the features of
+   * the active entries as features are added, moved and removed and as
+   * entries are made inactive.
+   */
+  @Test
+  public void testFeatureIndex() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final Entry entry = egrp.elementAt(0);
+    final Entry new_entry = egrp.createEntry("new");
+    checkIndex(egrp);
+
+    final Feature feature = new_entry.createFeature(new Key("misc_feature"),
+        new Location("100..200"));
+    entry.createFeature(new Key("misc_feature"), new Location("5000..5100"));
+    checkIndex(egrp);
+
+    feature.setLocation(new Location("complement(300..400)"));
+    checkIndex(egrp);
+
+    egrp.setIsActive(entry, false);
+    checkIndex(egrp);
+    assertEquals(0, egrp.indexOf(feature));
+    assertEquals(-1, egrp.indexOf(entry.getFeature(0)));
+
+    egrp.setIsActive(entry, true);
+    entry.getFeature(10).removeFromEntry();
+    feature.removeFromEntry();
+    checkIndex(egrp);
+  }
+
+  private static void checkIndex(final EntryGroup egrp)
+  {
+    final FeatureEnumeration features = egrp.features();
+    int i = 0;
+    while(features.hasMoreFeatures())
+    {
+      final Feature feature = features.nextFeature();
+      assertSame(feature, egrp.featureAt(i));
+      assertEquals(i, egrp.indexOf(feature));
+      i++;
+    }
+    assertEquals(egrp.getAllFeaturesCount(), i);
+  }
+}
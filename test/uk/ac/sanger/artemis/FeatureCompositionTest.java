@@ -0,0 +1,168 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.Utils;
+import uk.ac.sanger.artemis.sequence.Bases;
+import uk.ac.sanger.artemis.sequence.Strand;
+
+public class FeatureCompositionTest
+{
+  /**
+   * The counts of the bases of CDS features counted together in several
+   * threads should be the same as counting the bases of each feature.
+   */
+  @Test
+  public void testCountAll()
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final FeatureVector cds = getCDS(egrp);
+    assertTrue(cds.size() > 0);
+
+    Options.getOptions().put("composition_threads", "3");
+    try
+    {
+      FeatureComposition.countAll(cds);
+    }
+    finally
+    {
+      Options.getOptions().remove("composition_threads");
+    }
+
+    for(int i = 0; i < cds.size(); i++)
+    {
+      final Feature feature = cds.elementAt(i);
+      assertTrue(feature.hasComposition());
+      compareCounts(feature);
+    }
+  }
+
+  /**
+   * Only the features that contain a change to the sequence should be
+   * counted again.
+   */
+  @Test
+  public void testSequenceChange() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final FeatureVector cds = getCDS(egrp);
+    FeatureComposition.countAll(cds);
+
+    final Feature changed = cds.elementAt(cds.size() / 2);
+    final int position = changed.getRawFirstBase() + 1;
+    egrp.getBases().addBases(position, Bases.FORWARD, "acgtt");
+
+    for(int i = 0; i < cds.size(); i++)
+    {
+      final Feature feature = cds.elementAt(i);
+      if(feature == changed)
+        assertFalse(feature.hasComposition());
+      else if(feature.getRawFirstBase() > position + 10 ||
+              feature.getRawLastBase() < position - 10)
+        assertTrue(feature.hasComposition());
+      compareCounts(feature);
+    }
+  }
+
+  /**
+   * Resizing a segment changes the bases of the feature so they should be
+   * counted again.
+   */
+  @Test
+  public void testSegmentResize() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final FeatureVector cds = getCDS(egrp);
+
+    Feature feature = null;
+    for(int i = 0; i < cds.size() && feature == null; i++)
+      if(cds.elementAt(i).getSegments().elementAt(0).getRawRange().getCount() > 300)
+        feature = cds.elementAt(i);
+
+    final double old_gc = feature.getPercentGC();
+    final FeatureSegment segment = feature.getSegments().elementAt(0);
+    segment.setStartPosition(segment.getStart().getPosition() + 150);
+
+    assertFalse(feature.hasComposition());
+    assertTrue(old_gc != feature.getPercentGC());
+    compareCounts(feature);
+  }
+
+  private static FeatureVector getCDS(final EntryGroup egrp)
+  {
+    final FeatureVector cds = new FeatureVector();
+    final FeatureEnumeration features = egrp.features();
+    while(features.hasMoreFeatures())
+    {
+      final Feature feature = features.nextFeature();
+      if(feature.isCDS())
+        cds.add(feature);
+    }
+    return cds;
+  }
+
+  /**
+   * Compare the counts of a feature with counts of the bases from
+   * getBases() and getTranslationBases().
+   */
+  private static void compareCounts(final Feature feature)
+  {
+    final String translation_bases = feature.getTranslationBases();
+    final int[] positional = new int[12];
+    final int[] codons = new int[64];
+    for(int i = 0; i < translation_bases.length() / 3; i++)
+    {
+      final int b1 = Bases.getIndexOfBase(translation_bases.charAt(i * 3));
+      final int b2 = Bases.getIndexOfBase(translation_bases.charAt(i * 3 + 1));
+      final int b3 = Bases.getIndexOfBase(translation_bases.charAt(i * 3 + 2));
+      if(b1 < 4)
+        positional[b1]++;
+      if(b2 < 4)
+        positional[4 + b2]++;
+      if(b3 < 4)
+        positional[8 + b3]++;
+      if(b1 < 4 && b2 < 4 && b3 < 4)
+        codons[16 * b1 + 4 * b2 + b3]++;
+    }
+
+    for(int i = 0; i < 64; i++)
+      assertEquals(codons[i], feature.getCodonCount(i >> 4, (i >> 2) & 3, i & 3));
+    for(int i = 0; i < 12; i++)
+      assertEquals(positional[i], feature.getPositionalBaseCount(i / 4, i % 4));
+    for(int i = 0; i < 4; i++)
+      assertEquals(positional[i] + positional[4 + i] + positional[8 + i],
+                   feature.getBaseCount(i));
+
+    final String bases = feature.getBases();
+    int gc = 0;
+    for(int i = 0; i < bases.length(); i++)
+      if(bases.charAt(i) == 'g' || bases.charAt(i) == 'c')
+        gc++;
+    assertEquals(bases.length() == 0 ? 0 : 100.0 * gc / bases.length(),
+                 feature.getPercentGC(), 1e-9);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.Qualifier;
+import uk.ac.sanger.artemis.io.Utils;
+
+public class QualifierIndexTest
+{
+  private static final String[] SEARCHES =
+  {
+    "PF3D7_0100100", "pf3d7_0100100", "PF3D7_01001", "0100100", "3D7_01",
+    "erythrocyte membrane protein 1", "RYTHROCYTE MEMB", "protein",
+    "pro", "ro", "e", "hypothetical protein, conserved", "index test",
+    "not in any qualifier"
+  };
+
+  /**
+   * Searches that use the qualifier index should find the same features as
+   * testing the qualifiers of every feature, before and after the
+   * qualifiers are changed.
+   */
+  @Test
+  public void testSearch() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final Entry entry = egrp.getDefaultEntry();
+    compareSearches(entry);
+    final int candidates =
+      entry.getQualifierIndex().getCandidates("membrane protein", true).size();
+    assertTrue(candidates >= 0 && candidates < entry.getFeatureCount());
+
+    final Feature feature = entry.getFeature(0);
+    feature.setQualifier(new Qualifier("note", "Index Test"));
+    entry.getFeature(1).removeQualifierByName("product");
+    entry.getFeature(2).duplicate();
+    entry.remove(entry.getFeature(3));
+    compareSearches(entry);
+    assertTrue(new FeatureKeyQualifierPredicate(null, "note", "index",
+                                                true, true).testPredicate(feature));
+  }
+
+  private static void compareSearches(final Entry entry)
+  {
+    for(String search: SEARCHES)
+      for(int i = 0; i < 4; i++)
+      {
+        final boolean sub_string = (i & 1) != 0;
+        final boolean ignore_case = (i & 2) != 0;
+        final FeatureKeyQualifierPredicate predicate =
+          new FeatureKeyQualifierPredicate(null, null, search,
+                                           sub_string, ignore_case);
+        for(int j = 0; j < entry.getFeatureCount(); j++)
+        {
+          final Feature feature = entry.getFeature(j);
+          final boolean expected = feature.findOrReplaceText(search, ignore_case,
+              sub_string, false, null, null);
+          assertEquals(search+" "+sub_string+" "+ignore_case,
+                       expected, predicate.testPredicate(feature));
+        }
+      }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.Utils;
+
+public class SelectionTest
+{
+  /**
+   * Selected features should be kept in the order they were selected, once
+   * each, and removing some of them should keep the order of the rest.
+   */
+  @Test
+  public void testAddRemove()
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final FeatureVector features = egrp.getAllFeatures();
+    final Selection selection = new Selection(null);
+
+    selection.set(features);
+    selection.add(features);
+    assertEquals(features.size(), selection.getAllFeatures().size());
+
+    final FeatureVector odd = new FeatureVector();
+    for(int i = 1; i < features.size(); i += 2)
+      odd.add(features.elementAt(i));
+    selection.remove(odd);
+
+    final FeatureVector selected = selection.getAllFeatures();
+    assertEquals((features.size() + 1) / 2, selected.size());
+    for(int i = 0; i < features.size(); i++)
+    {
+      final Feature feature = features.elementAt(i);
+      assertEquals(i % 2 == 0, selection.contains(feature));
+      if(i % 2 == 0)
+        assertSame(feature, selected.elementAt(i / 2));
+    }
+
+    // the feature of a selected segment is in the selection
+    final Feature feature = odd.elementAt(0);
+    assertFalse(selection.contains(feature));
+    selection.add(feature.getSegments().elementAt(0));
+    assertTrue(selection.contains(feature));
+    assertSame(feature, selection.getAllFeatures().lastElement());
+  }
+}
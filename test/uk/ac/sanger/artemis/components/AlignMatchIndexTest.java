@@ -0,0 +1,101 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.AlignMatch;
+import uk.ac.sanger.artemis.AlignMatchStore;
+import uk.ac.sanger.artemis.io.Range;
+
+public class AlignMatchIndexTest
+{
+  /**
+   * The matches found for a subject and query range should be those that
+   * overlap either of them, in the order of the store.
+   */
+  @Test
+  public void testGetMatches() throws Exception
+  {
+    final Random rand = new Random(3);
+    final AlignMatch[] matches = new AlignMatch[5000];
+    for(int i = 0; i < matches.length; i++)
+    {
+      // a few long matches, and many starting at the same place
+      final int len = (i % 1000 == 0 ? 500000 : 1 + rand.nextInt(2000));
+      final int subject_start = 1 + (i < 500 ? rand.nextInt(20) : rand.nextInt(1000000));
+      final int query_start = 1 + rand.nextInt(1000000);
+      matches[i] = new AlignMatch(
+          new Range(subject_start, subject_start + len - 1),
+          new Range(query_start, query_start + len - 1),
+          rand.nextBoolean(), 100, 90);
+    }
+
+    final AlignMatchStore store = new AlignMatchStore();
+    for(int i = 0; i < matches.length; i++)
+      store.add(matches[i]);
+
+    final AlignMatchIndex index = new AlignMatchIndex(store);
+    for(int i = 0; i < 200; i++)
+    {
+      final int subject_start = 1 + rand.nextInt(1000000);
+      final int subject_end = subject_start + rand.nextInt(i < 100 ? 10 : 50000);
+      final int query_start = 1 + rand.nextInt(1000000);
+      final int query_end = query_start + rand.nextInt(i < 100 ? 10 : 50000);
+
+      final Vector<Integer> expected = new Vector<Integer>();
+      final Vector<Integer> expected_subject = new Vector<Integer>();
+      for(int j = 0; j < matches.length; j++)
+      {
+        final boolean subject_overlaps = matches[j].getSubjectSequenceRange()
+            .overlaps(new Range(subject_start, subject_end));
+        final boolean query_overlaps = matches[j].getQuerySequenceRange()
+            .overlaps(new Range(query_start, query_end));
+        if(subject_overlaps || query_overlaps)
+          expected.add(j);
+        if(subject_overlaps)
+          expected_subject.add(j);
+      }
+
+      assertArrayEquals(toArray(expected), index.getMatches(
+          subject_start, subject_end, query_start, query_end));
+      assertArrayEquals(toArray(expected_subject), index.getSubjectMatches(
+          new int[] { subject_start }, new int[] { subject_end }));
+    }
+
+    assertEquals(0, new AlignMatchIndex(new AlignMatchStore())
+        .getMatches(1, 100, 1, 100).length);
+  }
+
+  private static int[] toArray(final Vector<Integer> values)
+  {
+    final int[] array = new int[values.size()];
+    for(int i = 0; i < array.length; i++)
+      array[i] = values.get(i);
+    return array;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.Entry;
+import uk.ac.sanger.artemis.EntryGroup;
+import uk.ac.sanger.artemis.Feature;
+import uk.ac.sanger.artemis.FeatureSegment;
+import uk.ac.sanger.artemis.FeatureSegmentVector;
+import uk.ac.sanger.artemis.FeatureVector;
+import uk.ac.sanger.artemis.io.Key;
+import uk.ac.sanger.artemis.io.Location;
+import uk.ac.sanger.artemis.io.Utils;
+
+public class FeatureDensityTest
+{
+  /**
+   * The coverage of each frame should be the bases of the segments that
+   * are drawn in that frame.
+   */
+  @Test
+  public void testFrameCoverage() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final Entry entry = egrp.elementAt(0);
+    final FeatureDensity density = makeDensity(egrp);
+
+    final int[] expected = new int[FeatureSegment.REVERSE_FRAME_1 + 1];
+    final FeatureVector features = egrp.getAllFeatures();
+    for(int i = 0; i < features.size(); i++)
+    {
+      final FeatureSegmentVector segments = features.elementAt(i).getSegments();
+      for(int j = 0; j < segments.size(); j++)
+        expected[segments.elementAt(j).getFrameID()] +=
+          segments.elementAt(j).getRawRange().getCount();
+    }
+
+    final int[] coverage = new int[expected.length];
+    for(FeatureDensity.Lane lane: density.getLanes(entry))
+      for(int bin = 0; bin < lane.coverage.length; bin++)
+        coverage[lane.frame_id] += lane.coverage[bin];
+
+    for(int i = 0; i < expected.length; i++)
+      assertEquals("frame " + i, expected[i], coverage[i]);
+    density.dispose();
+  }
+
+  /**
+   * The coverage should follow features that are added, moved and removed.
+   */
+  @Test
+  public void testUpdate() throws Exception
+  {
+    final EntryGroup egrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final Entry entry = egrp.elementAt(0);
+    final FeatureDensity density = makeDensity(egrp);
+    final int bin_size = density.getBinSize();
+    final int before = density.getFeatureCount(1, egrp.getSequenceLength());
+    assertEquals(egrp.getAllFeaturesCount(), before);
+
+    final int coverage_1 = getCoverage(density, entry, "misc_feature", 1);
+    final int coverage_3 = getCoverage(density, entry, "misc_feature", 3);
+
+    final Feature feature = entry.createFeature(new Key("misc_feature"),
+        new Location((bin_size + 1) + ".." + (bin_size + 10)));
+    assertEquals(before + 1, density.getFeatureCount(1, egrp.getSequenceLength()));
+    assertEquals(coverage_1 + 10, getCoverage(density, entry, "misc_feature", 1));
+
+    feature.setLocation(new Location((3 * bin_size + 1) + ".." + (3 * bin_size + 5)));
+    assertEquals(coverage_1, getCoverage(density, entry, "misc_feature", 1));
+    assertEquals(coverage_3 + 5, getCoverage(density, entry, "misc_feature", 3));
+
+    feature.removeFromEntry();
+    assertEquals(coverage_3, getCoverage(density, entry, "misc_feature", 3));
+    assertEquals(before, density.getFeatureCount(1, egrp.getSequenceLength()));
+
+    // changes are not followed once disposed
+    density.dispose();
+    entry.createFeature(new Key("misc_feature"),
+        new Location((bin_size + 1) + ".." + (bin_size + 10)));
+    assertEquals(before, density.getFeatureCount(1, egrp.getSequenceLength()));
+  }
+
+  private static FeatureDensity makeDensity(final EntryGroup egrp)
+      throws Exception
+  {
+    final CountDownLatch ready = new CountDownLatch(1);
+    final FeatureDensity[] density = new FeatureDensity[1];
+    SwingUtilities.invokeAndWait(new Runnable()
+    {
+      public void run()
+      {
+        density[0] = new FeatureDensity(egrp, new Runnable()
+        {
+          public void run()
+          {
+            ready.countDown();
+          }
+        });
+      }
+    });
+    assertTrue(ready.await(60, TimeUnit.SECONDS));
+    assertTrue(density[0].isReady());
+    return density[0];
+  }
+
+  /**
+   * Return the bases of the features of a key covered in a bin, in all
+   * frames.
+   */
+  private static int getCoverage(final FeatureDensity density,
+                                 final Entry entry, final String key,
+                                 final int bin)
+  {
+    int coverage = 0;
+    for(FeatureDensity.Lane lane: density.getLanes(entry))
+      if(lane.key.equals(key))
+        coverage += lane.coverage[bin];
+    return coverage;
+  }
+}
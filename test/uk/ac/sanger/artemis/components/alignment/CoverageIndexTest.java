@@ -0,0 +1,137 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.components.alignment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CoverageIndexTest
+{
+  private static String bam;
+  private static File indexFile;
+  private static CoverageIndex index;
+  private static String refName;
+  private static int refLength;
+  private static long coverage[][];
+
+  @BeforeClass
+  public static void setUp() throws IOException
+  {
+    bam = CoverageIndexTest.class.getResource("/data/MAL_8h.bam").getFile();
+    indexFile = File.createTempFile("MAL_8h", ".cov");
+    CoverageIndex.build(bam, new File(bam+".bai"), indexFile);
+    index = CoverageIndex.open(bam, indexFile);
+
+    // count the coverage of each base from the reads
+    final SAMFileReader inputSam = new SAMFileReader(new File(bam), new File(bam+".bai"));
+    inputSam.setValidationStringency(ValidationStringency.SILENT);
+    refName = inputSam.getFileHeader().getSequenceDictionary().getSequence(0).getSequenceName();
+    refLength = inputSam.getFileHeader().getSequenceDictionary().getSequence(0).getSequenceLength();
+    coverage = new long[refLength+1][2];
+    final CloseableIterator<SAMRecord> it = inputSam.queryOverlapping(refName, 1, refLength);
+    while(it.hasNext())
+    {
+      final SAMRecord samRecord = it.next();
+      if(samRecord.getReadUnmappedFlag())
+        continue;
+      final int strand = (samRecord.getReadNegativeStrandFlag() ? 1 : 0);
+      for(AlignmentBlock block: samRecord.getAlignmentBlocks())
+        for(int i=0; i<block.getLength(); i++)
+          coverage[block.getReferenceStart()+i][strand]++;
+    }
+    it.close();
+    inputSam.close();
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException
+  {
+    index.close();
+    indexFile.delete();
+  }
+
+  /**
+   * The index should only be used with the BAM it was built from.
+   */
+  @Test
+  public void testUpToDate()
+  {
+    assertNotNull(index);
+    assertTrue(CoverageIndex.isUpToDate(bam, indexFile));
+    assertTrue(!CoverageIndex.isUpToDate(bam, new File(indexFile.getPath()+".missing")));
+  }
+
+  /**
+   * Summed coverage should match the coverage counted from the reads,
+   * including ranges that are not aligned to the bins.
+   */
+  @Test
+  public void testCoverage() throws IOException
+  {
+    assertTrue(index.hasBaseLevel(refName));
+    final int ranges[][] = { {1, refLength}, {1, 1}, {9995, 20005},
+                             {123, 45678}, {99999, 100001}, {refLength-12345, refLength} };
+    for(int i=0; i<ranges.length; i++)
+    {
+      final long expected[] = new long[2];
+      for(int pos=ranges[i][0]; pos<=ranges[i][1]; pos++)
+      {
+        expected[0] += coverage[pos][0];
+        expected[1] += coverage[pos][1];
+      }
+      final long cnt[] = new long[2];
+      index.addCoverage(refName, ranges[i][0], ranges[i][1], cnt);
+      assertEquals("Forward "+ranges[i][0]+".."+ranges[i][1], expected[0], cnt[0]);
+      assertEquals("Reverse "+ranges[i][0]+".."+ranges[i][1], expected[1], cnt[1]);
+    }
+  }
+
+  /**
+   * Coverage of single bases.
+   */
+  @Test
+  public void testBaseCoverage() throws IOException
+  {
+    final int start = 50000;
+    final int cnt[][] = new int[2000][2];
+    index.addBaseCoverage(refName, start, start+cnt.length-1, 0, cnt);
+    for(int i=0; i<cnt.length; i++)
+    {
+      assertEquals(coverage[start+i][0], cnt[i][0]);
+      assertEquals(coverage[start+i][1], cnt[i][1]);
+    }
+  }
+}
@@ -127,13 +127,11 @@ public class MappedReadsTest
     if(GraphicsEnvironment.getLocalGraphicsEnvironment().isHeadless())
       return;
 
-    String refName = (String) bv.getCombo().getSelectedItem();
-    int thisLength = bv.getSeqLengths().get(refName);
-    int mappedReads[] = BamUtils.calc(bv, refName, thisLength, 
-        false, null);
-
-    Hashtable<String, List<ReadCount>> featureReadCount =
-        BamUtils.calculateMappedReads(bv, fv, false, true, false, mappedReads, null);
+    // the mapped reads are counted in the same pass as the feature reads
+    final FeatureReadCounter counter =
+        new FeatureReadCounter(bv, fv, false, true, false);
+    final Hashtable<String, List<ReadCount>> featureReadCount =
+        counter.countRPKM(false);
     final List<ReadCount> cnts = featureReadCount.get("PFA0110w");
     
     ReadCount c = cnts.get(0);
@@ -0,0 +1,103 @@
+package uk.ac.sanger.artemis.components.variant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Vector;
+
+import javax.swing.JPanel;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the cache of decoded VCF records.
+ */
+public class VCFRecordCacheTest
+{
+  private static AbstractVCFReader reader;
+
+  /**
+   * Records from the cache should be the same as those read directly,
+   * including ranges that cross tile boundaries.
+   */
+  @Test
+  public void testCachedRecords() throws IOException
+  {
+    int ranges[][] = { {1, 5000}, {9500, 10500}, {11203, 11203},
+                       {95000, 120768}, {396830, 396845}, {1, 450000} };
+    for(int i=0; i<ranges.length; i++)
+    {
+      List<VCFRecord> cached = reader.getRecords("test", ranges[i][0], ranges[i][1]);
+      List<String> direct = new Vector<String>();
+      VCFRecord record;
+      while((record = reader.getNextRecord("test", ranges[i][0], ranges[i][1])) != null)
+        direct.add(record.toString());
+
+      assertEquals("Number of records "+ranges[i][0]+".."+ranges[i][1],
+          direct.size(), cached.size());
+      for(int j=0; j<direct.size(); j++)
+        assertEquals("Record "+j, direct.get(j), cached.get(j).toString());
+    }
+  }
+
+  /**
+   * Repeated reads should return the decoded records held by the cache.
+   */
+  @Test
+  public void testRecordsReused() throws IOException
+  {
+    List<VCFRecord> first  = reader.getRecords("test", 50000, 60000);
+    List<VCFRecord> second = reader.getRecords("test", 50000, 60000);
+    assertTrue("Records in range", first.size() > 0);
+    for(int i=0; i<first.size(); i++)
+      assertSame("Cached record", first.get(i), second.get(i));
+  }
+
+  /**
+   * The new stop flag of a cached record is worked out again each time it
+   * is read, as the CDS features may have been edited.
+   */
+  @Test
+  public void testFlagsReset() throws IOException
+  {
+    VCFRecord record = reader.getRecords("test", 50000, 60000).get(0);
+    record.setMarkAsNewStop(true);
+    assertSame("Cached record", record, reader.getRecords("test", 50000, 60000).get(0));
+    assertFalse("New stop flag reset", record.isMarkAsNewStop());
+  }
+
+  /**
+   * Least recently used tiles are evicted once over the memory budget.
+   */
+  @Test
+  public void testMemoryBudget() throws IOException
+  {
+    VCFRecordCache cache = new VCFRecordCache(reader, 20000);
+    cache.getRecords("test", 1, 400000);
+    assertTrue("Within budget", cache.getMemoryUsed() <= 20000 || cache.getNumberOfTiles() == 1);
+    cache.clear();
+    assertEquals("Cleared", 0, cache.getNumberOfTiles());
+  }
+
+  @BeforeClass
+  public static void oneTimeSetUp()
+  {
+    URL ref = VCFRecordCacheTest.class.getResource("/data/test.embl.gz");
+    URL vcf = VCFRecordCacheTest.class.getResource("/data/test.vcf.gz");
+
+    List<String> vcfFileList = new Vector<String>();
+    vcfFileList.add(vcf.getFile());
+
+    VCFview vcfView = new VCFview(null, new JPanel(),
+        vcfFileList,
+        5000, 100000000, null,
+        ref.getFile(), null, null);
+    reader = vcfView.getVcfReaders()[0];
+  }
+}
@@ -0,0 +1,83 @@
+package uk.ac.sanger.artemis.components.variant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for parsing VCF lines and decoding the sample columns.
+ */
+public class VCFRecordTest
+{
+  private static String LINE =
+      "test\t11203\t.\tC\tT\t99.0\t.\tDP=66;MQ=60\tGT:DP:PL\t" +
+      "0/1:12:255,199,0\t1|1:30:0,3,9\t./.:0\t1:5:1,2,3\t0/1/2:7:9,9,9";
+
+  @Test
+  public void testFixedColumns()
+  {
+    VCFRecord record = VCFRecord.parse(LINE, 5);
+    assertEquals("Chrom", "test", record.getChrom());
+    assertEquals("Pos", 11203, record.getPos());
+    assertEquals("Ref", "C", record.getRef());
+    assertEquals("Info", "66", record.getInfoValue("DP"));
+    assertEquals("Format", "GT:DP:PL", record.getFormat());
+  }
+
+  @Test
+  public void testFormatValues()
+  {
+    VCFRecord record = VCFRecord.parse(LINE, 5);
+    String gt[] = record.getFormatValues("GT");
+    assertEquals("Number of samples", 5, gt.length);
+    assertEquals("GT unphased", "0/1", gt[0]);
+    assertEquals("GT phased", "1|1", gt[1]);
+    assertNull("GT missing PL", gt[2]);
+    assertEquals("GT haploid", "1", gt[3]);
+    assertEquals("GT triploid", "0/1/2", gt[4]);
+
+    String dp[] = record.getFormatValues("DP");
+    assertEquals("DP", "30", dp[1]);
+    assertNull("DP missing PL", dp[2]);
+    assertEquals("PL", "1,2,3", record.getFormatValueForSample("PL", 3));
+    assertNull("Key not in FORMAT", record.getFormatValues("GQ"));
+  }
+
+  @Test
+  public void testHomozygousRef()
+  {
+    VCFRecord record = VCFRecord.parse(
+        "test\t11203\t.\tC\tT\t99.0\t.\tDP=66\tGT:DP\t" +
+        "0/0:1\t0:2\t0/0/0:3\t0/1:4\t0|0:5\t.:6\t./.:7", 7);
+    assertTrue("0/0", record.isHomozygousRef(0));
+    assertTrue("Haploid 0", record.isHomozygousRef(1));
+    assertTrue("Triploid 0/0/0", record.isHomozygousRef(2));
+    assertFalse("0/1", record.isHomozygousRef(3));
+    assertFalse("Missing", record.isHomozygousRef(5));
+    assertFalse("Missing diploid", record.isHomozygousRef(6));
+    assertFalse("No samples", VCFRecord.parse(
+        "test\t11203\t.\tC\tT\t99.0\t.\tDP=66", 0).isHomozygousRef(0));
+  }
+
+  @Test
+  public void testSampleStrings()
+  {
+    VCFRecord record = VCFRecord.parse(LINE, 5);
+    assertEquals("Sample", "./.:0", record.getFormatValueForSample(2));
+    assertEquals("Sample", "0/1/2:7:9,9,9", record.getFormatValueForSample(4));
+    assertEquals("Record", LINE, record.toString());
+  }
+
+  @Test
+  public void testNoSamples()
+  {
+    VCFRecord record = VCFRecord.parse(
+        "test\t11203\t.\tC\tT\t99.0\t.\tDP=66", 0);
+    assertNull("Format", record.getFormat());
+    assertNull("GT", record.getFormatValues("GT"));
+    assertEquals("Sample data", "", record.getSampleDataString());
+  }
+}
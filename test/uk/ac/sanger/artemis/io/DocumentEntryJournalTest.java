@@ -0,0 +1,88 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.Options;
+import uk.ac.sanger.artemis.util.FileDocument;
+
+public class DocumentEntryJournalTest
+{
+  /**
+   * Replaying the journal of an entry, before and after a checkpoint,
+   * should give the same entry as the one that was changed.
+   */
+  @Test
+  public void testRecover() throws Exception
+  {
+    final EntryInformation info = Options.getArtemisEntryInformation();
+    final File file = File.createTempFile("journal", ".embl");
+    file.deleteOnExit();
+    final Writer writer = new FileWriter(file);
+    ((DocumentEntry) Utils.getEntry("/data/MAL1.embl.gz")).writeToStream(writer);
+    writer.close();
+
+    final EmblDocumentEntry embl_entry =
+        new EmblDocumentEntry(info, new FileDocument(file), null);
+    final DocumentEntryJournal journal = DocumentEntryJournal.makeJournal(embl_entry);
+    assertNotNull(journal);
+    final uk.ac.sanger.artemis.Entry entry = new uk.ac.sanger.artemis.Entry(embl_entry);
+
+    entry.getFeature(0).setQualifier(new Qualifier("note", "journal test"));
+    entry.remove(entry.getFeature(1));
+    entry.getFeature(2).duplicate();
+    entry.createFeature(new Key("misc_feature"), new Location("10..20"));
+
+    journal.checkpoint();
+
+    entry.remove(entry.getFeature(3));
+    entry.getFeature(4).setQualifier(new Qualifier("note", "after checkpoint"));
+    entry.createFeature(new Key("misc_feature"), new Location("complement(30..40)"));
+    journal.stop();
+
+    final File recovered = DocumentEntryJournal.recover(info, new FileDocument(file));
+    assertNotNull(recovered);
+    assertFalse(new File("#" + file.getName() + "#.journal").exists());
+    final EmblDocumentEntry recovered_entry =
+        new EmblDocumentEntry(info, new FileDocument(recovered), null);
+    assertEquals(toString(embl_entry), toString(recovered_entry));
+
+    recovered.delete();
+    file.delete();
+  }
+
+  private static String toString(final DocumentEntry entry) throws Exception
+  {
+    final StringWriter writer = new StringWriter();
+    entry.writeToStream(writer);
+    return writer.toString();
+  }
+}
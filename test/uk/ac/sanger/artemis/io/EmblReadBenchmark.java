@@ -0,0 +1,138 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import uk.ac.sanger.artemis.Options;
+import uk.ac.sanger.artemis.util.FileDocument;
+
+/**
+ * Time reading an EMBL file of 40k features and a 4Mb sequence with the
+ * features parsed in one thread and in parallel, and check that the
+ * features read are the same. This is not run as part of the tests:
+ *
+ * java uk.ac.sanger.artemis.io.EmblReadBenchmark [nfeatures] [nthreads]
+ */
+public class EmblReadBenchmark
+{
+  private static final int SEQ_LENGTH = 4000000;
+
+  public static void main(String args[]) throws Exception
+  {
+    int nfeatures = (args.length > 0 ? Integer.parseInt(args[0]) : 40000);
+    int nthreads  = (args.length > 1 ? Integer.parseInt(args[1]) :
+                     Runtime.getRuntime().availableProcessors());
+
+    File embl = File.createTempFile("benchmark", ".embl");
+    embl.deleteOnExit();
+    writeEntry(embl, nfeatures);
+
+    for(int i=0; i<3; i++)  // warm up
+    {
+      read(embl, 1);
+      read(embl, nthreads);
+    }
+
+    long t = System.nanoTime();
+    Entry single = read(embl, 1);
+    System.out.println("1 thread: "+(System.nanoTime()-t)/1000000+" ms");
+
+    t = System.nanoTime();
+    Entry parallel = read(embl, nthreads);
+    System.out.println(nthreads+" threads: "+(System.nanoTime()-t)/1000000+" ms");
+
+    if(single.getFeatureCount() != parallel.getFeatureCount())
+      throw new Error("feature counts differ");
+    for(int i=0; i<single.getFeatureCount(); i++)
+      if(!toString(single.getFeatureAtIndex(i)).equals(toString(parallel.getFeatureAtIndex(i))))
+        throw new Error("features differ at "+i);
+    System.out.println(single.getFeatureCount()+" features match");
+  }
+
+  private static Entry read(File embl, int nthreads) throws Exception
+  {
+    Options.getOptions().put("feature_read_threads", Integer.toString(nthreads));
+    return new EmblDocumentEntry(Options.getArtemisEntryInformation(),
+                                 new FileDocument(embl), null);
+  }
+
+  private static String toString(Feature f) throws Exception
+  {
+    StringWriter writer = new StringWriter();
+    ((StreamFeature)f).writeToStream(writer);
+    return writer.toString();
+  }
+
+  private static void writeEntry(File embl, int nfeatures) throws Exception
+  {
+    Random rand = new Random(7);
+    Writer writer = new FileWriter(embl);
+    writer.write("ID   benchmark; SV 1; linear; genomic DNA; STD; UNC; "+SEQ_LENGTH+" BP.\n");
+    writer.write("FH   Key             Location/Qualifiers\n");
+    for(int i=0; i<nfeatures; i++)
+    {
+      int start = 1+rand.nextInt(SEQ_LENGTH-5000);
+      StringBuilder loc = new StringBuilder("join(");
+      for(int j=0; j<1+rand.nextInt(6); j++)
+      {
+        int end = start+10+rand.nextInt(400);
+        if(j > 0)
+          loc.append(',');
+        loc.append(start).append("..").append(end);
+        start = end+20+rand.nextInt(200);
+      }
+      loc.append(')');
+      String location = (rand.nextBoolean() ? "complement("+loc+")" : loc.toString());
+
+      writer.write("FT   CDS             "+location+"\n");
+      writer.write("FT                   /locus_tag=\"BENCH_"+i+"\"\n");
+      writer.write("FT                   /product=\"hypothetical protein, conserved "+
+                   "in species of the genus, with a \"\"quoted\"\" name\"\n");
+      writer.write("FT                   /note=\"a long note that wraps over the end of the "+
+                   "line\nFT                   and onto the next line of the feature table "+
+                   "("+i+")\"\n");
+      writer.write("FT                   /colour="+rand.nextInt(18)+"\n");
+      writer.write("FT                   /pseudo\n");
+    }
+    writer.write("XX\n");
+    writer.write("SQ   Sequence "+SEQ_LENGTH+" BP;\n");
+    for(int i=0; i<SEQ_LENGTH; i+=60)
+    {
+      StringBuilder line = new StringBuilder("    ");
+      for(int j=i; j<Math.min(i+60, SEQ_LENGTH); j++)
+      {
+        if((j-i)%10 == 0)
+          line.append(' ');
+        line.append("acgt".charAt(rand.nextInt(4)));
+      }
+      while(line.length() < 70)
+        line.append(' ');
+      writer.write(line+String.format("%10d", Math.min(i+60, SEQ_LENGTH))+"\n");
+    }
+    writer.write("//\n");
+    writer.close();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.Options;
+import uk.ac.sanger.artemis.util.FileDocument;
+
+public class FastaBlockReaderTest
+{
+  /**
+   * Ranges and single bases read from the mapped file should match the
+   * sequences written, for contigs with different line lengths.
+   */
+  @Test
+  public void testRead() throws IOException
+  {
+    final Random rand = new Random(17);
+    final String seqs[] = { makeSequence(rand, 20000), makeSequence(rand, 9001),
+                            makeSequence(rand, 60) };
+    final int lineLengths[] = { 60, 71, 60 };
+
+    final File fasta = File.createTempFile("test", ".fa");
+    final File fai = new File(fasta.getPath() + ".fai");
+    fasta.deleteOnExit();
+    fai.deleteOnExit();
+    writeFasta(fasta, fai, seqs, lineLengths);
+
+    final FastaBlockReader reader = new FastaBlockReader(fasta, fai);
+    assertEquals(seqs.length, reader.getContigCount());
+
+    for(int c = 0; c < seqs.length; c++)
+    {
+      reader.setContig(c);
+      final String seq = seqs[c].toLowerCase();
+      assertEquals("contig"+c, reader.getContig(c));
+      assertEquals(seq.length(), reader.getLength(c));
+
+      for(int i = 0; i < 300; i++)
+      {
+        final int start = 1 + rand.nextInt(seq.length());
+        final int end = start + rand.nextInt(Math.min(10000, seq.length() - start + 1));
+        final char dst[] = new char[end - start + 1];
+        reader.getChars(start, end, dst, 0);
+        assertEquals(seq.substring(start - 1, end), new String(dst));
+        assertEquals(seq.charAt(start - 1), reader.charAt(start));
+        assertEquals(seq.charAt(end - 1), reader.charAt(end));
+      }
+    }
+    reader.close();
+    fasta.delete();
+    fai.delete();
+  }
+
+  /**
+   * Once the mapped file is closed the bases are read through the index,
+   * a block at a time for charAt().
+   */
+  @Test
+  public void testUnmappedCharAt() throws Exception
+  {
+    final String seq = makeSequence(new Random(5), 2500);
+    final File fasta = File.createTempFile("test", ".fa");
+    final File fai = new File(fasta.getPath() + ".fai");
+    fasta.deleteOnExit();
+    fai.deleteOnExit();
+    writeFasta(fasta, fai, new String[] { seq }, new int[] { 60 });
+
+    final EmblDocumentEntry entry = new EmblDocumentEntry(
+        Options.getArtemisEntryInformation(), new FileDocument(fasta), null);
+    final IndexFastaStream stream = (IndexFastaStream) entry.getSequence();
+    stream.close();
+
+    final String lower = seq.toLowerCase();
+    for(int i = 1; i <= lower.length(); i++)
+      assertEquals("base "+i, lower.charAt(i - 1), stream.charAt(i));
+    assertEquals(lower.charAt(99), stream.charAt(100));
+    entry.dispose();
+    fasta.delete();
+    fai.delete();
+  }
+
+  private static void writeFasta(final File fasta, final File fai,
+      final String seqs[], final int lineLengths[]) throws IOException
+  {
+    final FileWriter fastaWriter = new FileWriter(fasta);
+    final FileWriter faiWriter = new FileWriter(fai);
+    long offset = 0;
+    for(int c = 0; c < seqs.length; c++)
+    {
+      final String header = ">contig"+c+" description\n";
+      fastaWriter.write(header);
+      offset += header.length();
+      faiWriter.write("contig"+c+"\t"+seqs[c].length()+"\t"+offset+"\t"+
+                      lineLengths[c]+"\t"+(lineLengths[c]+1)+"\n");
+
+      for(int i = 0; i < seqs[c].length(); i += lineLengths[c])
+      {
+        final String line =
+          seqs[c].substring(i, Math.min(seqs[c].length(), i + lineLengths[c])) + "\n";
+        fastaWriter.write(line);
+        offset += line.length();
+      }
+    }
+    fastaWriter.close();
+    faiWriter.close();
+  }
+
+  private static String makeSequence(final Random rand, final int length)
+  {
+    final String bases = "acgtnACGTN";
+    final StringBuilder buff = new StringBuilder();
+    for(int i = 0; i < length; i++)
+      buff.append(bases.charAt(rand.nextInt(bases.length())));
+    return buff.toString();
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.Options;
+
+public class FeatureReadTest
+{
+  /**
+   * The features of an EMBL file parsed in parallel should be the same,
+   * and in the same order, as those parsed in a single thread.
+   */
+  @Test
+  public void testParallelRead() throws IOException
+  {
+    final Entry single = readEntry("1");
+    final Entry parallel = readEntry("4");
+
+    assertTrue(single.getFeatureCount() > 0);
+    assertEquals(single.getFeatureCount(), parallel.getFeatureCount());
+    for(int i = 0; i < single.getFeatureCount(); i++)
+      assertEquals(toString(single.getFeatureAtIndex(i)),
+                   toString(parallel.getFeatureAtIndex(i)));
+    assertEquals(single.getSequence().length(), parallel.getSequence().length());
+  }
+
+  private static Entry readEntry(final String threads)
+  {
+    final Object saved = Options.getOptions().get("feature_read_threads");
+    Options.getOptions().put("feature_read_threads", threads);
+    try
+    {
+      return Utils.getEntry("/data/MAL1.embl.gz");
+    }
+    finally
+    {
+      if(saved == null)
+        Options.getOptions().remove("feature_read_threads");
+      else
+        Options.getOptions().put("feature_read_threads", saved);
+    }
+  }
+
+  private static String toString(final Feature f) throws IOException
+  {
+    final StringWriter writer = new StringWriter();
+    ((StreamFeature) f).writeToStream(writer);
+    return writer.toString();
+  }
+}
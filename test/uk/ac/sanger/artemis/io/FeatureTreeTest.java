@@ -0,0 +1,157 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+public class FeatureTreeTest
+{
+  /**
+   * Features returned for a range should be those that overlap it,
+   * after features are added, removed and have their location changed.
+   */
+  @Test
+  public void testFeaturesInRange() throws Exception
+  {
+    final Random rand = new Random(7);
+    final FeatureTree tree = new FeatureTree(new FeatureComparator());
+    final List<Feature> features = new Vector<Feature>();
+
+    // include a few long features that span most of the sequence
+    for(int i=0; i<2000; i++)
+    {
+      final int len = (i % 500 == 0 ? 900000 : 1+rand.nextInt(5000));
+      final Feature f = makeFeature(1+rand.nextInt(1000000), len);
+      features.add(f);
+      tree.add(f);
+    }
+    checkRanges(tree, features, rand);
+
+    for(int i=0; i<500; i++)
+    {
+      final Feature f = features.remove(rand.nextInt(features.size()));
+      assertTrue(tree.remove(f));
+    }
+    checkRanges(tree, features, rand);
+
+    // change the location in the same way as the entries do
+    for(int i=0; i<500; i++)
+    {
+      final Feature f = features.get(rand.nextInt(features.size()));
+      tree.remove(f);
+      final int start = 1+rand.nextInt(1000000);
+      f.setLocation(new Location(new Range(start, start+rand.nextInt(20000))));
+      tree.add(f);
+    }
+    checkRanges(tree, features, rand);
+    assertEquals(features.size(), tree.size());
+  }
+
+  /**
+   * The index of a feature should be its position in the order of the tree,
+   * after features are added, removed and have their location changed.
+   */
+  @Test
+  public void testIndex() throws Exception
+  {
+    final Random rand = new Random(11);
+    final FeatureTree tree = new FeatureTree(new FeatureComparator());
+    final List<Feature> features = new Vector<Feature>();
+
+    for(int i=0; i<3000; i++)
+    {
+      // many features with the same start
+      final Feature f = makeFeature(1+rand.nextInt(i < 1000 ? 50 : 100000),
+                                    1+rand.nextInt(500));
+      features.add(f);
+      tree.add(f);
+    }
+    checkIndex(tree);
+
+    for(int i=0; i<1000; i++)
+      tree.remove(features.remove(rand.nextInt(features.size())));
+    checkIndex(tree);
+
+    for(int i=0; i<1000; i++)
+    {
+      final Feature f = features.get(rand.nextInt(features.size()));
+      tree.remove(f);
+      final int start = 1+rand.nextInt(100000);
+      f.setLocation(new Location(new Range(start, start+rand.nextInt(500))));
+      tree.add(f);
+    }
+    checkIndex(tree);
+
+    assertEquals(-1, tree.indexOf(makeFeature(1, 10)));
+    assertNull(tree.getFeatureAtIndex(-1));
+    assertNull(tree.getFeatureAtIndex(tree.size()));
+  }
+
+  private void checkIndex(final FeatureTree tree)
+  {
+    int i = 0;
+    for(Object o: tree)
+    {
+      final Feature f = (Feature) o;
+      assertSame(f, tree.getFeatureAtIndex(i));
+      assertEquals(i, tree.indexOf(f));
+      i++;
+    }
+    assertEquals(tree.size(), i);
+  }
+
+  private void checkRanges(final FeatureTree tree, final List<Feature> features,
+                           final Random rand) throws Exception
+  {
+    for(int i=0; i<200; i++)
+    {
+      final int start = 1+rand.nextInt(1000000);
+      final Range range = new Range(start, start+rand.nextInt(i < 100 ? 100 : 50000));
+      final FeatureVector inRange = tree.getFeaturesInRange(range);
+
+      int expected = 0;
+      for(Feature f: features)
+      {
+        if(f.getLocation().getTotalRange().overlaps(range))
+        {
+          expected++;
+          assertTrue("Missing "+f.getLocation()+" in "+range, inRange.contains(f));
+        }
+      }
+      assertEquals("Features in "+range, expected, inRange.size());
+    }
+  }
+
+  private static Feature makeFeature(final int start, final int len) throws Exception
+  {
+    return new EmblStreamFeature(new Key("CDS"),
+        new Location(new Range(start, start+len-1)), new QualifierVector());
+  }
+}
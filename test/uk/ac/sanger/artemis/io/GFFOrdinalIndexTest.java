@@ -0,0 +1,100 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Test;
+
+public class GFFOrdinalIndexTest
+{
+  /**
+   * Lines read by their position in a sequence should match the lines
+   * written, skipping lines that are not features, both when the index is built and when it is read back from
+   * the index file.
+   */
+  @Test
+  public void testReadLines() throws IOException
+  {
+    final int counts[] = { 1000, 63, 129 };
+    final String lines[][] = new String[counts.length][];
+
+    final File gff = File.createTempFile("test", ".gff.gz");
+    final File indexFile = GFFOrdinalIndex.getIndexFile(gff);
+    gff.deleteOnExit();
+    indexFile.deleteOnExit();
+
+    final BlockCompressedOutputStream out = new BlockCompressedOutputStream(gff);
+    out.write("##gff-version 3\n".getBytes());
+    final Random rand = new Random(7);
+    for(int c = 0; c < counts.length; c++)
+    {
+      lines[c] = new String[counts[c]];
+      int start = 1;
+      for(int i = 0; i < counts[c]; i++)
+      {
+        start += rand.nextInt(3) * 100;
+        lines[c][i] = "chr"+c+"\ttest\texon\t"+start+"\t"+(start+rand.nextInt(500))+
+                      "\t.\t+\t.\tID=exon"+c+"."+i;
+        out.write((lines[c][i]+"\n").getBytes());
+        // lines without a tab are not counted
+        if(i % 50 == 7)
+          out.write("not a feature line\n".getBytes());
+      }
+    }
+    out.close();
+
+    for(int pass = 0; pass < 2; pass++)
+    {
+      final GFFOrdinalIndex index = GFFOrdinalIndex.open(gff);
+      assertTrue(indexFile.exists());
+      for(int c = 0; c < counts.length; c++)
+      {
+        assertEquals(counts[c], index.getFeatureCount("chr"+c));
+        for(int i = 0; i < counts[c]; i += 1 + rand.nextInt(20))
+        {
+          final String read[] = index.readLines("chr"+c, i, 5);
+          assertEquals(Math.min(5, counts[c] - i), read.length);
+          for(int j = 0; j < read.length; j++)
+            assertEquals(lines[c][i+j], read[j]);
+
+          // lines with the same start are all after this position
+          final int start = Integer.parseInt(lines[c][i].split("\t")[3]);
+          final int ordinal = index.getOrdinalBefore("chr"+c, start);
+          assertTrue(ordinal <= i);
+          for(int j = ordinal; j < i; j++)
+            assertTrue(Integer.parseInt(lines[c][j].split("\t")[3]) <= start);
+        }
+      }
+      assertEquals(0, index.getFeatureCount("chrX"));
+      index.close();
+    }
+    gff.delete();
+    indexFile.delete();
+  }
+}
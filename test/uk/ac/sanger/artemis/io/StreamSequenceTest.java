@@ -0,0 +1,123 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.sequence.Bases;
+
+public class StreamSequenceTest
+{
+  /**
+   * Bases that are not a, c, g or t (N runs and IUPAC codes) should be
+   * returned unchanged by all the accessors.
+   */
+  @Test
+  public void testExceptions()
+  {
+    final String seq = makeSequence(new Random(5), 5000);
+    final StreamSequence sequence = new EmblStreamSequence(seq);
+
+    assertEquals(seq.length(), sequence.length());
+    assertEquals(seq, new String(sequence.getCharSequence()));
+    assertEquals(count(seq, 'a'), sequence.getACount());
+    assertEquals(count(seq, 'c'), sequence.getCCount());
+    assertEquals(count(seq, 'g'), sequence.getGCount());
+    assertEquals(count(seq, 't'), sequence.getTCount());
+
+    final Random rand = new Random(11);
+    final char buffer[] = new char[seq.length() + 10];
+    for(int i = 0; i < 500; i++)
+    {
+      final int start = 1 + rand.nextInt(seq.length());
+      final int end = start + rand.nextInt(seq.length() - start + 1);
+      final String expected = seq.substring(start - 1, end);
+
+      assertEquals(expected, sequence.getSubSequence(start, end));
+      assertEquals(expected, sequence.getSubSequenceView(start, end).toString());
+
+      sequence.getChars(start, end, buffer, 10);
+      assertEquals(expected, new String(buffer, 10, end - start + 1));
+      assertEquals(seq.charAt(start - 1), sequence.charAt(start));
+    }
+  }
+
+  /**
+   * Bases.getSubSequenceC() should pad out of range bases with '@' and
+   * reverse complement the bases for the reverse strand.
+   */
+  @Test
+  public void testBasesSubSequence() throws Exception
+  {
+    final String seq = makeSequence(new Random(3), 2000);
+    final Bases bases = new Bases(new EmblStreamSequence(seq));
+    final String padded = "@@@@@@@@@@" + seq + "@@@@@@@@@@";
+
+    final Random rand = new Random(13);
+    for(int i = 0; i < 500; i++)
+    {
+      final int start = -9 + rand.nextInt(seq.length() + 10);
+      final int end = start + rand.nextInt(seq.length() + 11 - start);
+      final String expected = padded.substring(start + 9, end + 10);
+
+      assertEquals(expected, new String(
+          bases.getSubSequenceC(new Range(start, end), Bases.FORWARD)));
+
+      final Range reverse = new Range(seq.length() - end + 1,
+                                      seq.length() - start + 1);
+      assertEquals(Bases.reverseComplement(expected), new String(
+          bases.getSubSequenceC(reverse, Bases.REVERSE)));
+    }
+  }
+
+  private static String makeSequence(final Random rand, final int length)
+  {
+    final String iupac = "rykmswbdhv";
+    final StringBuilder buff = new StringBuilder();
+    while(buff.length() < length)
+    {
+      final int r = rand.nextInt(100);
+      if(r < 2)
+      {
+        for(int i = rand.nextInt(200); i >= 0; i--)
+          buff.append('n');
+      }
+      else if(r < 5)
+        buff.append(iupac.charAt(rand.nextInt(iupac.length())));
+      else
+        buff.append("acgt".charAt(rand.nextInt(4)));
+    }
+    return buff.substring(0, length);
+  }
+
+  private static int count(final String seq, final char c)
+  {
+    int n = 0;
+    for(int i = 0; i < seq.length(); i++)
+      if(seq.charAt(i) == c)
+        n++;
+    return n;
+  }
+}
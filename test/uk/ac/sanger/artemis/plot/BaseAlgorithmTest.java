@@ -0,0 +1,74 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.plot;
+
+import static org.junit.Assert.assertEquals;
+
+import uk.ac.sanger.artemis.EntryGroup;
+import uk.ac.sanger.artemis.io.Utils;
+import uk.ac.sanger.artemis.sequence.Bases;
+import uk.ac.sanger.artemis.sequence.Strand;
+
+import org.junit.Test;
+
+public class BaseAlgorithmTest
+{
+  /**
+   * The incremental sliding window values should be the same as those
+   * calculated for each window separately, on both strands.
+   */
+  @Test
+  public void testIncrementalValues()
+  {
+    final EntryGroup entryGrp = Utils.getEntryGroup("/data/MAL1.embl.gz");
+    final Bases bases = entryGrp.getBases();
+    final int params[][] = { {1, 120, 12}, {777, 500, 50}, {3, 241, 24} };
+
+    for(boolean rev_comp_display: new boolean[] { false, true })
+    {
+      final Strand strand = bases.getForwardStrand();
+      final BaseAlgorithm algorithms[] = {
+          new GCWindowAlgorithm(strand), new AGWindowAlgorithm(strand),
+          new GCDeviationAlgorithm(strand), new ATDeviationAlgorithm(strand),
+          new GCSDWindowAlgorithm(strand), new KarlinSigAlgorithm(strand) };
+
+      for(BaseAlgorithm alg: algorithms)
+      {
+        alg.setRevCompDisplay(rev_comp_display);
+        for(int p[]: params)
+        {
+          final int nwindows = 500;
+          final float values[][] = new float[alg.getValueCount()][nwindows];
+          alg.getValues(p[0], p[1], p[2], values);
+
+          final float window_values[] = new float[alg.getValueCount()];
+          for(int i = 0; i < nwindows; i++)
+          {
+            final int start = p[0] + i * p[2];
+            alg.getValues(start, start + p[1] - 1, window_values);
+            assertEquals(alg.getAlgorithmShortName() + " window " + start,
+                window_values[0], values[0][i], 0.f);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.EmblStreamSequence;
+
+public class BasePatternTest
+{
+  /**
+   * All the matches of IUC patterns, found in one pass, should be those
+   * found by checking every position of both strands, including for a
+   * pattern longer than 64 bases and a sequence searched in several chunks.
+   */
+  @Test
+  public void testFindMatches() throws Exception
+  {
+    final Random rand = new Random(7);
+    final String seq = randomBases(rand, 1500000);
+    final Bases bases = new Bases(new EmblStreamSequence(seq));
+
+    final String patterns[] = { "gaattc", "gcnnngc", "rgatcy", "tn",
+                                seq.substring(1234567, 1234647) };
+    for(int i = 0; i < patterns.length; i++)
+    {
+      final BasePattern pattern = new BasePattern(patterns[i]);
+      final Vector<String> expected = findAll(pattern, seq);
+      assertTrue(patterns[i], expected.size() > 0);
+
+      final MarkerRangeVector matches =
+        pattern.findMatches(bases, null, bases.getLength());
+      assertEquals(patterns[i], expected, toStrings(matches));
+    }
+  }
+
+  /**
+   * Searching for the next or previous match from each match in turn
+   * should step through the matches in order.
+   */
+  @Test
+  public void testFindMatch() throws Exception
+  {
+    final Random rand = new Random(9);
+    final String seq = randomBases(rand, 200000);
+    final Bases bases = new Bases(new EmblStreamSequence(seq));
+
+    final String patterns[] = { "ggatcc", "cnnnnnnnnnng" };
+    for(int i = 0; i < patterns.length; i++)
+    {
+      final BasePattern pattern = new BasePattern(patterns[i]);
+      final Vector<String> expected = findAll(pattern, seq);
+      assertTrue(patterns[i], expected.size() > 0);
+
+      final Vector<String> forward = new Vector<String>();
+      MarkerRange match = null;
+      while((match = pattern.findMatch(bases,
+          match == null ? null : match.getRawStart(),
+          bases.getLength(), false, true, true)) != null)
+        forward.add(toString(match));
+      assertEquals(patterns[i], expected, forward);
+
+      final Vector<String> backward = new Vector<String>();
+      match = null;
+      while((match = pattern.findMatch(bases,
+          match == null ? null : match.getRawStart(),
+          bases.getLength(), true, true, true)) != null)
+        backward.add(toString(match));
+      Collections.reverse(backward);
+      assertEquals(patterns[i], expected, backward);
+    }
+  }
+
+  /**
+   * Amino acid sequences should be found in every frame of both strands,
+   * with 'X' matching any codon.
+   */
+  @Test
+  public void testFindAminoAcids() throws Exception
+  {
+    final Random rand = new Random(5);
+    final String seq = randomBases(rand, 100000);
+    final Bases bases = new Bases(new EmblStreamSequence(seq));
+
+    final StringBuffer aa = new StringBuffer();
+    for(int i = 50000; i < 50012; i += 3)
+      aa.append(AminoAcidSequence.getCodonTranslation(seq.charAt(i),
+                                                      seq.charAt(i + 1),
+                                                      seq.charAt(i + 2)));
+    aa.setCharAt(1, 'X');
+    final AminoAcidSequence sequence = new AminoAcidSequence(aa.toString());
+
+    final Vector<String> expected = new Vector<String>();
+    for(int i = 0; i + aa.length() * 3 <= seq.length(); i++)
+    {
+      if(translationMatches(seq, i, aa.toString(), false))
+        expected.add(i + 1 + "+");
+      if(translationMatches(seq, i, aa.toString(), true))
+        expected.add(i + 1 + "-");
+    }
+    assertTrue(expected.size() > 0);
+
+    final Vector<String> forward = new Vector<String>();
+    MarkerRange match = null;
+    while((match = sequence.findMatch(bases,
+        match == null ? null : match.getRawStart(), false, true, true)) != null)
+      forward.add(toString(match));
+    assertEquals(expected, forward);
+
+    final Vector<String> backward = new Vector<String>();
+    match = null;
+    while((match = sequence.findMatch(bases,
+        match == null ? null : match.getRawStart(), true, true, true)) != null)
+      backward.add(toString(match));
+    Collections.reverse(backward);
+    assertEquals(expected, backward);
+  }
+
+  private static String randomBases(final Random rand, final int length)
+  {
+    final StringBuffer buff = new StringBuffer(length);
+    for(int i = 0; i < length; i++)
+      buff.append(i % 10000 < 9990 ? "acgt".charAt(rand.nextInt(4)) :
+                                     "nnnnnry".charAt(rand.nextInt(7)));
+    return buff.toString();
+  }
+
+  /**
+   * Find the matches by checking the pattern and its reverse complement at
+   * each position.
+   */
+  private static Vector<String> findAll(final BasePattern pattern,
+                                        final String seq) throws Exception
+  {
+    final int length = pattern.toString().length();
+    final BasePattern complement =
+      new BasePattern(Bases.reverseComplement(pattern.toString()));
+    final Vector<String> matches = new Vector<String>();
+    for(int i = 0; i + length <= seq.length(); i++)
+    {
+      final String bases = seq.substring(i, i + length);
+      if(pattern.matches(bases))
+        matches.add(i + 1 + "+");
+      if(complement.matches(bases))
+        matches.add(i + 1 + "-");
+    }
+    return matches;
+  }
+
+  private static boolean translationMatches(final String seq, final int index,
+                                            final String aa,
+                                            final boolean reverse)
+  {
+    for(int i = 0; i < aa.length(); i++)
+    {
+      final int base = index + i * 3;
+      final char aa_char;
+      final char translation;
+      if(reverse)
+      {
+        aa_char = aa.charAt(aa.length() - i - 1);
+        translation = AminoAcidSequence.getCodonTranslation(
+            Bases.complement(seq.charAt(base + 2)),
+            Bases.complement(seq.charAt(base + 1)),
+            Bases.complement(seq.charAt(base)));
+      }
+      else
+      {
+        aa_char = aa.charAt(i);
+        translation = AminoAcidSequence.getCodonTranslation(
+            seq.charAt(base), seq.charAt(base + 1), seq.charAt(base + 2));
+      }
+      if(aa_char != 'X' && aa_char != translation)
+        return false;
+    }
+    return true;
+  }
+
+  private static Vector<String> toStrings(final MarkerRangeVector matches)
+  {
+    final Vector<String> strings = new Vector<String>();
+    for(int i = 0; i < matches.size(); i++)
+      strings.add(toString(matches.elementAt(i)));
+    return strings;
+  }
+
+  /**
+   * Describe a match by its lowest base and strand.
+   */
+  private static String toString(final MarkerRange match)
+  {
+    return match.getRawStart().getRawPosition() +
+           (match.isForwardMarker() ? "+" : "-");
+  }
+}
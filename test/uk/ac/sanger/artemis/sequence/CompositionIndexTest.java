@@ -0,0 +1,94 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.sequence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.io.EmblStreamSequence;
+import uk.ac.sanger.artemis.io.Range;
+
+public class CompositionIndexTest
+{
+  /**
+   * Base counts from the index should match counting the bases, on
+   * both strands and after the sequence is edited.
+   */
+  @Test
+  public void testBaseCounts() throws Exception
+  {
+    final Random rand = new Random(11);
+    final StringBuffer buff = new StringBuffer();
+    for(int i=0; i<140000; i++)
+      buff.append("tcagtcagtcagn".charAt(rand.nextInt(i < 70000 ? 12 : 13)));
+
+    final Bases bases = new Bases(new EmblStreamSequence(buff.toString()));
+    checkCounts(bases, rand);
+
+    bases.addBases(1000, Bases.FORWARD, "ggggnccc");
+    checkCounts(bases, rand);
+
+    bases.deleteRange(new Range(65530, 65600));
+    checkCounts(bases, rand);
+
+    bases.reverseComplement();
+    checkCounts(bases, rand);
+  }
+
+  private void checkCounts(final Bases bases, final Random rand) throws Exception
+  {
+    final int length = bases.getLength();
+    final int ranges[][] = new int[200][];
+    for(int i=0; i<ranges.length; i++)
+    {
+      final int start = 1+rand.nextInt(length);
+      ranges[i] = new int[] { start, start+rand.nextInt(i < 100 ? 100 : 70000) };
+    }
+    ranges[0] = new int[] { 1, length };
+    ranges[1] = new int[] { -10, 64 };
+    ranges[2] = new int[] { 65536, 65536 };
+
+    final int counts[] = new int[4];
+    for(int direction: new int[] { Bases.FORWARD, Bases.REVERSE })
+    {
+      for(int i=0; i<ranges.length; i++)
+      {
+        final Range range = new Range(ranges[i][0], ranges[i][1]);
+        final String seq = bases.getSubSequence(range, direction);
+        final int expected[] = new int[4];
+        for(int j=0; j<seq.length(); j++)
+        {
+          final char c = seq.charAt(j);
+          if(c == 't' || c == 'c' || c == 'a' || c == 'g')
+            expected[Bases.getIndexOfBase(c)]++;
+        }
+
+        bases.getBaseCounts(range, direction, counts);
+        for(int j=0; j<4; j++)
+          assertEquals(Bases.letter_index[j]+" in "+range+" direction "+direction,
+              expected[j], counts[j]);
+      }
+    }
+  }
+}
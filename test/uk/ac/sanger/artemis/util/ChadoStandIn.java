@@ -0,0 +1,414 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+import javax.swing.JPasswordField;
+
+import org.gmod.schema.cv.Cv;
+import org.gmod.schema.cv.CvTerm;
+import org.gmod.schema.general.Db;
+import org.gmod.schema.general.DbXRef;
+import org.gmod.schema.pub.Pub;
+import org.gmod.schema.sequence.Feature;
+import org.gmod.schema.sequence.FeatureCvTerm;
+import org.gmod.schema.sequence.FeatureCvTermDbXRef;
+import org.gmod.schema.sequence.FeatureCvTermProp;
+import org.gmod.schema.sequence.FeatureCvTermPub;
+import org.gmod.schema.sequence.FeatureDbXRef;
+import org.gmod.schema.sequence.FeatureLoc;
+import org.gmod.schema.sequence.FeatureProp;
+import org.gmod.schema.sequence.FeaturePub;
+import org.gmod.schema.sequence.FeatureRelationship;
+import org.gmod.schema.sequence.FeatureSynonym;
+import org.gmod.schema.sequence.Synonym;
+
+import uk.ac.sanger.artemis.chado.JdbcDAO;
+
+/**
+ * A stand-in for a chado database: a JdbcDAO, connected through a JDBC
+ * driver that does nothing, that returns generated genes (gene, mRNA, two
+ * exons and a polypeptide each) located on one source feature, with
+ * dbxrefs, synonyms, publications, GO terms and products.
+ */
+class ChadoStandIn extends JdbcDAO
+{
+  private static final String LOCATION = "jdbc:postgresql://standin:5432/chado?user=test";
+
+  private final Hashtable<String, CvTerm> cvterms = new Hashtable<String, CvTerm>();
+  private final Feature srcFeature;
+  private final List<Feature> features = new Vector<Feature>();
+  private final List<FeatureDbXRef> dbxrefs = new Vector<FeatureDbXRef>();
+  private final List<FeatureSynonym> synonyms = new Vector<FeatureSynonym>();
+  private final List<FeaturePub> featurePubs = new Vector<FeaturePub>();
+  private final List<FeatureCvTerm> featureCvTerms = new Vector<FeatureCvTerm>();
+  private final List<FeatureCvTermDbXRef> featureCvTermDbXRefs =
+    new Vector<FeatureCvTermDbXRef>();
+  private final List<FeatureCvTermPub> featureCvTermPubs =
+    new Vector<FeatureCvTermPub>();
+
+  /** the queries for features by uniquename, one name or many at a time */
+  int singleNameQueries = 0;
+  int manyNameQueries = 0;
+  /** the objects passed to merge() */
+  final List<Object> merged = new Vector<Object>();
+
+  /**
+   * Return a document that reads the given number of genes from a
+   * stand-in database.
+   */
+  static DatabaseDocument getDocument(final int ngenes,
+                                      final boolean lazyFeatureLoad)
+  {
+    return getDocument(getDAO(ngenes), lazyFeatureLoad);
+  }
+
+  static DatabaseDocument getDocument(final JdbcDAO dao,
+                                      final boolean lazyFeatureLoad)
+  {
+    final DatabaseDocument doc = new DatabaseDocument(
+        "localhost:5432/chado?user=public", null, "1", "public", false,
+        new InputStreamProgressListener()
+        {
+          public void progressMade(InputStreamProgressEvent event) {}
+          public void progressMade(String progress) {}
+        });
+    doc.setDAO(dao);
+    doc.setLazyFeatureLoad(lazyFeatureLoad);
+    return doc;
+  }
+
+  static JdbcDAO getDAO(final int ngenes)
+  {
+    try
+    {
+      DriverManager.registerDriver(new StandInDriver());
+      return new ChadoStandIn(ngenes);
+    }
+    catch(SQLException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch(ConnectException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ChadoStandIn(final int ngenes)
+      throws SQLException, ConnectException
+  {
+    super(LOCATION, new JPasswordField("test"));
+
+    addCvTerm(1, "chromosome", "sequence");
+    addCvTerm(2, "gene", "sequence");
+    addCvTerm(3, "mRNA", "sequence");
+    addCvTerm(4, "exon", "sequence");
+    addCvTerm(5, "polypeptide", "sequence");
+    addCvTerm(6, "repeat_region", "sequence");
+    addCvTerm(7, "match_part", "sequence");
+    addCvTerm(10, "part_of", "relationship");
+    addCvTerm(11, "derives_from", "relationship");
+    addCvTerm(12, "orthologous_to", "sequence");
+    addCvTerm(20, "note", "feature_property");
+    addCvTerm(21, "colour", "genedb_misc");
+    addCvTerm(30, "synonym", "genedb_synonym_type");
+    addCvTerm(31, "previous_systematic_id", "genedb_synonym_type");
+    addCvTerm(40, "transport", "biological_process");
+    addCvTerm(41, "hypothetical protein", "genedb_products");
+    addCvTerm(50, "evidence", "genedb_misc");
+
+    final byte[] residues = new byte[1000 * (ngenes + 1)];
+    Arrays.fill(residues, (byte) 'a');
+    srcFeature = new Feature();
+    srcFeature.setFeatureId(1);
+    srcFeature.setUniqueName("chr1");
+    srcFeature.setCvTerm(cvterms.get("chromosome"));
+    srcFeature.setResidues(residues);
+
+    Feature previous_pep = null;
+    for(int g = 0; g < ngenes; g++)
+    {
+      final int base = 1000 * g;
+      final int id = 10 * (g + 1);
+      final short strand = (short) (g % 2 == 0 ? 1 : -1);
+
+      final Feature gene = addFeature(id, "gene", "GENE" + g, base, base + 900, strand, null);
+      if(g % 2 == 0)
+        gene.setName("gene_" + g);
+      gene.addFeatureProp(new FeatureProp(gene, cvterms.get("note"),
+          "note " + g + "; with=special, %characters", 0));
+      final Feature mRNA = addFeature(id + 1, "mRNA", "GENE" + g + ".1", base, base + 900, strand, null);
+      addRelationship(mRNA, gene, "part_of", 0);
+      final Feature exon1 = addFeature(id + 2, "exon", "GENE" + g + ".1:exon:1", base, base + 400, strand, 0);
+      addRelationship(exon1, mRNA, "part_of", 0);
+      final Feature exon2 = addFeature(id + 3, "exon", "GENE" + g + ".1:exon:2", base + 500, base + 900, strand, 1);
+      addRelationship(exon2, mRNA, "part_of", 1);
+      if(g % 7 == 0)
+        exon2.getFeatureLoc().setFmaxPartial(true);
+      final Feature pep = addFeature(id + 4, "polypeptide", "GENE" + g + ".1:pep", base, base + 900, strand, null);
+      addRelationship(pep, mRNA, "derives_from", 0);
+      if(g % 3 == 0 && previous_pep != null)
+        addRelationship(pep, previous_pep, "orthologous_to", 0);
+      previous_pep = pep;
+      if(g % 5 == 0)
+        pep.setDbXRef(new DbXRef(makeDb("UniProt"), "P" + g));
+      pep.addFeatureProp(new FeatureProp(pep, cvterms.get("colour"), null, 0));
+
+      if(g % 10 == 0)
+        addFeature(id + 5, "repeat_region", "REP" + g, base + 920, base + 990, (short) 0, null);
+
+      // side tables that are not loaded lazily
+      dbxrefs.add(new FeatureDbXRef(new DbXRef(makeDb("EMBL"), "CAB" + g), pep, true));
+      if(g % 2 == 1)
+        dbxrefs.add(new FeatureDbXRef(new DbXRef(makeDb("GFF_source"), "GeneDB"), gene, true));
+      synonyms.add(new FeatureSynonym(new Synonym(cvterms.get("synonym"), "syn" + g, null),
+          gene, null, true, false));
+      if(g % 4 == 0)
+        synonyms.add(new FeatureSynonym(new Synonym(cvterms.get("previous_systematic_id"),
+            "OLD" + g, null), gene, null, false, false));
+      featurePubs.add(new FeaturePub(pep, new Pub("PMID:" + g)));
+
+      final FeatureCvTerm go = addFeatureCvTerm(pep, "transport", "PMID:" + g, 0);
+      final FeatureCvTermProp evidence = new FeatureCvTermProp(
+          cvterms.get("evidence"), go, "IEA; inferred", 0);
+      go.setFeatureCvTermProps(new Vector<FeatureCvTermProp>(Arrays.asList(evidence)));
+      featureCvTermDbXRefs.add(new FeatureCvTermDbXRef(new DbXRef(makeDb("InterPro"), "IPR" + g), go));
+      featureCvTermPubs.add(new FeatureCvTermPub(new Pub("PMID:" + (g + 1)), go));
+      addFeatureCvTerm(pep, "hypothetical protein", "NULL", g % 2);
+    }
+  }
+
+  private static Db makeDb(final String name)
+  {
+    final Db db = new Db();
+    db.setName(name);
+    return db;
+  }
+
+  private void addCvTerm(final int id, final String name, final String cvName)
+  {
+    final Cv cv = new Cv();
+    cv.setName(cvName);
+    final CvTerm cvTerm = new CvTerm(cv,
+        new DbXRef(makeDb(cvName.toUpperCase()), Integer.toString(id)), name, null);
+    cvTerm.setCvTermId(id);
+    cvterms.put(name, cvTerm);
+  }
+
+  private Feature addFeature(final int id, final String type, final String uniqueName,
+                             final int fmin, final int fmax, final short strand,
+                             final Integer phase)
+  {
+    final Feature feature = new Feature();
+    feature.setFeatureId(id);
+    feature.setUniqueName(uniqueName);
+    feature.setCvTerm(cvterms.get(type));
+    feature.setTimeLastModified(new Timestamp(1400000000000L + id * 1000L));
+
+    final FeatureLoc loc = new FeatureLoc();
+    loc.setFeatureBySrcFeatureId(srcFeature);
+    loc.setFeatureByFeatureId(feature);
+    loc.setFmin(new Integer(fmin));
+    loc.setFmax(new Integer(fmax));
+    loc.setStrand(new Short(strand));
+    loc.setPhase(phase);
+    feature.setFeatureLoc(loc);
+    feature.addFeatureLocsForFeatureId(loc);
+    features.add(feature);
+    return feature;
+  }
+
+  private void addRelationship(final Feature subject, final Feature object,
+                               final String type, final int rank)
+  {
+    final FeatureRelationship relationship =
+      new FeatureRelationship(subject, object, cvterms.get(type), rank);
+    relationship.setFeatureRelationshipId(100 * subject.getFeatureId() + object.getFeatureId());
+    subject.getFeatureRelationshipsForSubjectId().add(relationship);
+  }
+
+  private FeatureCvTerm addFeatureCvTerm(final Feature feature, final String term,
+                                         final String pub, final int rank)
+  {
+    final FeatureCvTerm featureCvTerm =
+      new FeatureCvTerm(cvterms.get(term), feature, new Pub(pub), false, rank);
+    featureCvTerm.setFeatureCvTermId(featureCvTerms.size() + 1);
+    featureCvTerm.setFeatureCvTermProps(new Vector<FeatureCvTermProp>());
+    featureCvTerms.add(featureCvTerm);
+    return featureCvTerm;
+  }
+
+  public List getCvTerms()
+  {
+    return new Vector<CvTerm>(cvterms.values());
+  }
+
+  public CvTerm getCvTermByNameAndCvName(String cvTermName, String name)
+  {
+    return cvterms.get(cvTermName);
+  }
+
+  public Feature getFeatureById(int id)
+  {
+    return srcFeature;
+  }
+
+  public List getFeaturesByLocatedOnFeature(final Feature feature)
+  {
+    return new Vector<Feature>(features);
+  }
+
+  public List getFeatureDbXRefsBySrcFeature(Feature srcFeature)
+  {
+    return dbxrefs;
+  }
+
+  public List getFeatureSynonymsBySrcFeature(Feature srcFeature)
+  {
+    return synonyms;
+  }
+
+  public List getFeatureCvTermsBySrcFeature(Feature srcFeature)
+  {
+    return featureCvTerms;
+  }
+
+  public List getFeatureCvTermDbXRefBySrcFeature(Feature srcFeature)
+  {
+    return featureCvTermDbXRefs;
+  }
+
+  public List getFeatureCvTermPubBySrcFeature(Feature srcFeature)
+  {
+    return featureCvTermPubs;
+  }
+
+  public List getFeaturePubsBySrcFeature(Feature srcFeature)
+  {
+    return featurePubs;
+  }
+
+  public Feature getFeatureByUniqueName(String uniquename, String featureType)
+  {
+    singleNameQueries++;
+    for(int i = 0; i < features.size(); i++)
+    {
+      final Feature feature = features.get(i);
+      if(feature.getUniqueName().equals(uniquename) &&
+         (featureType == null || feature.getCvTerm().getName().equals(featureType)))
+        return feature;
+    }
+    return null;
+  }
+
+  public List<Feature> getFeaturesByUniqueNames(List<String> names)
+  {
+    manyNameQueries++;
+    final List<Feature> found = new Vector<Feature>();
+    for(int i = 0; i < features.size(); i++)
+      if(names.contains(features.get(i).getUniqueName()))
+        found.add(features.get(i));
+    return found;
+  }
+
+  public void merge(Object o)
+  {
+    merged.add(o);
+  }
+
+  public List getPubDbXRef()
+  {
+    return new Vector<Object>();
+  }
+
+  /**
+   * A JDBC driver for LOCATION that makes connections that do nothing.
+   */
+  private static class StandInDriver implements Driver
+  {
+    public Connection connect(String url, Properties info)
+    {
+      if(!acceptsURL(url))
+        return null;
+      return (Connection) Proxy.newProxyInstance(
+          Connection.class.getClassLoader(), new Class[] { Connection.class },
+          new InvocationHandler()
+          {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+              if(method.getReturnType() == Boolean.TYPE)
+                return Boolean.FALSE;
+              if(method.getReturnType() == Integer.TYPE)
+                return new Integer(0);
+              return null;
+            }
+          });
+    }
+
+    public boolean acceptsURL(String url)
+    {
+      return url.startsWith("jdbc:postgresql://standin:");
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+    {
+      return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion()
+    {
+      return 1;
+    }
+
+    public int getMinorVersion()
+    {
+      return 0;
+    }
+
+    public boolean jdbcCompliant()
+    {
+      return false;
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.gmod.schema.cv.CvTerm;
+import org.gmod.schema.sequence.FeatureProp;
+import org.junit.Test;
+
+import uk.ac.sanger.artemis.Options;
+import uk.ac.sanger.artemis.chado.ChadoTransaction;
+import uk.ac.sanger.artemis.io.DatabaseDocumentEntry;
+import uk.ac.sanger.artemis.io.Feature;
+import uk.ac.sanger.artemis.io.FeatureVector;
+import uk.ac.sanger.artemis.io.GFFStreamFeature;
+import uk.ac.sanger.artemis.io.Qualifier;
+import uk.ac.sanger.artemis.io.QualifierVector;
+
+public class DatabaseDocumentTest
+{
+  /**
+   * Features made directly from the chado objects should be the same as
+   * those read from the GFF made from them, with and without lazy loading.
+   */
+  @Test
+  public void testDirectLoad() throws Exception
+  {
+    for(int i = 0; i < 2; i++)
+    {
+      final boolean lazy = (i == 0);
+      final FeatureVector gff = readEntry(40, lazy, false).getAllFeatures();
+      final FeatureVector direct = readEntry(40, lazy, true).getAllFeatures();
+      assertTrue(gff.size() > 0);
+      assertEquals(gff.size(), direct.size());
+
+      final Hashtable<String, Feature> direct_ids = new Hashtable<String, Feature>();
+      for(int j = 0; j < direct.size(); j++)
+        direct_ids.put(getID(direct.featureAt(j)), direct.featureAt(j));
+
+      for(int j = 0; j < gff.size(); j++)
+      {
+        final Feature feature = gff.featureAt(j);
+        final Feature direct_feature = direct_ids.get(getID(feature));
+        assertNotNull(getID(feature), direct_feature);
+        assertFeaturesEqual(feature, direct_feature);
+      }
+    }
+  }
+
+  /**
+   * Committing should look up the features to check their timestamps with
+   * one query rather than one for each feature, and give the transactions
+   * the same features either way.
+   */
+  @Test
+  public void testCommitLookup() throws Exception
+  {
+    Options.getOptions();
+    final boolean saved = DatabaseDocument.CHADO_BATCH_COMMIT;
+    try
+    {
+      for(int i = 0; i < 2; i++)
+      {
+        DatabaseDocument.CHADO_BATCH_COMMIT = (i == 0);
+        final ChadoStandIn dao = (ChadoStandIn) ChadoStandIn.getDAO(20);
+        final DatabaseDocument doc = ChadoStandIn.getDocument(dao, true);
+        final FeatureVector features =
+          new DatabaseDocumentEntry(doc, null).getAllFeatures();
+
+        final Vector<ChadoTransaction> sql = new Vector<ChadoTransaction>();
+        final CvTerm note = dao.getCvTermByNameAndCvName("note", "feature_property");
+        for(int j = 0; j < features.size(); j++)
+        {
+          final GFFStreamFeature feature = (GFFStreamFeature) features.featureAt(j);
+          if(!feature.getKey().getKeyString().equals("gene"))
+            continue;
+          final FeatureProp featureProp = new FeatureProp();
+          featureProp.setCvTerm(note);
+          featureProp.setValue("changed");
+          sql.add(new ChadoTransaction(ChadoTransaction.UPDATE, featureProp,
+              feature.getLastModified(), feature, "gene", null));
+        }
+
+        assertEquals(20, sql.size());
+        assertEquals(sql.size(), doc.commit(sql, false));
+        if(DatabaseDocument.CHADO_BATCH_COMMIT)
+        {
+          assertEquals(1, dao.manyNameQueries);
+          assertEquals(0, dao.singleNameQueries);
+        }
+        else
+        {
+          assertEquals(0, dao.manyNameQueries);
+          assertEquals(sql.size(), dao.singleNameQueries);
+        }
+
+        for(int j = 0; j < sql.size(); j++)
+        {
+          final FeatureProp featureProp = (FeatureProp) sql.get(j).getFeatureObject();
+          assertEquals(sql.get(j).getUniquename(),
+                       featureProp.getFeature().getUniqueName());
+          assertSame(featureProp, dao.merged.get(j));
+        }
+        // followed by the timelastmodified updates
+        assertEquals(2 * sql.size(), dao.merged.size());
+      }
+    }
+    finally
+    {
+      DatabaseDocument.CHADO_BATCH_COMMIT = saved;
+    }
+  }
+
+  private static DatabaseDocumentEntry readEntry(final int ngenes,
+                                                 final boolean lazy,
+                                                 final boolean direct)
+      throws Exception
+  {
+    // the options set the flag when they are first read
+    Options.getOptions();
+    final boolean saved = DatabaseDocument.CHADO_DIRECT_LOAD;
+    DatabaseDocument.CHADO_DIRECT_LOAD = direct;
+    try
+    {
+      return new DatabaseDocumentEntry(
+          ChadoStandIn.getDocument(ngenes, lazy), null);
+    }
+    finally
+    {
+      DatabaseDocument.CHADO_DIRECT_LOAD = saved;
+    }
+  }
+
+  private static String getID(final Feature feature) throws Exception
+  {
+    return (String) feature.getQualifierByName("ID").getValues().get(0);
+  }
+
+  private static void assertFeaturesEqual(final Feature expected,
+                                          final Feature feature)
+      throws Exception
+  {
+    final String id = getID(expected);
+    assertEquals(id, expected.getKey(), feature.getKey());
+    assertEquals(id, expected.getLocation().toString(),
+                 feature.getLocation().toString());
+    assertEquals(id, ((GFFStreamFeature) expected).getGffSeqName(),
+                 ((GFFStreamFeature) feature).getGffSeqName());
+    assertEquals(id, ((GFFStreamFeature) expected).getGffSource(),
+                 ((GFFStreamFeature) feature).getGffSource());
+    assertEquals(id, ((GFFStreamFeature) expected).getLastModified(),
+                 ((GFFStreamFeature) feature).getLastModified());
+
+    final QualifierVector qualifiers = expected.getQualifiers();
+    assertEquals(id, qualifiers.size(), feature.getQualifiers().size());
+    for(int i = 0; i < qualifiers.size(); i++)
+    {
+      final Qualifier qualifier = qualifiers.elementAt(i);
+      final Qualifier direct_qualifier =
+        feature.getQualifierByName(qualifier.getName());
+      assertNotNull(id + " " + qualifier.getName(), direct_qualifier);
+      assertEquals(id + " " + qualifier.getName(), qualifier.getClass(),
+                   direct_qualifier.getClass());
+      assertEquals(id + " " + qualifier.getName(), qualifier.getValues(),
+                   direct_qualifier.getValues());
+    }
+  }
+}
@@ -37,11 +37,17 @@ import uk.ac.sanger.artemis.util.OutOfRangeException;
 
 public class AlignMatch 
 {
-  /** The range of the match in the subject sequence. */
-  private Range subject_sequence_range = null;
+  /**
+   *  The range of the match in the subject sequence.  The ranges are kept
+   *  as int rather than Range objects as comparisons can have millions of
+   *  matches.
+   **/
+  private int subject_range_start;
+  private int subject_range_end;
 
   /** The range of the match in the query sequence. */
-  private Range query_sequence_range = null;
+  private int query_range_start;
+  private int query_range_end;
 
   /** The score that was passed to the constructor. */
   private int score = -1;
@@ -71,11 +77,46 @@ public class AlignMatch
                     final int score,
                     final int percent_id) 
   {
-    this.subject_sequence_range = subject_sequence_range;
-    this.query_sequence_range   = query_sequence_range;
-    this.rev_match              = rev_match;
-    this.score                  = score;
-    this.percent_id             = percent_id;
+    this(subject_sequence_range.getStart(), subject_sequence_range.getEnd(),
+         query_sequence_range.getStart(), query_sequence_range.getEnd(),
+         rev_match, score, percent_id);
+  }
+
+  /**
+   *  Create a new AlignMatch object from the start and end of the ranges of
+   *  the match, which must be in order.
+   **/
+  AlignMatch(final int subject_range_start,
+             final int subject_range_end,
+             final int query_range_start,
+             final int query_range_end,
+             final boolean rev_match,
+             final int score,
+             final int percent_id) 
+  {
+    set(subject_range_start, subject_range_end,
+        query_range_start, query_range_end, rev_match, score, percent_id);
+  }
+
+  /**
+   *  Set all the values of this match.  This is used by AlignMatchStore to
+   *  reuse one object to look at many matches.
+   **/
+  void set(final int subject_range_start,
+           final int subject_range_end,
+           final int query_range_start,
+           final int query_range_end,
+           final boolean rev_match,
+           final int score,
+           final int percent_id) 
+  {
+    this.subject_range_start = subject_range_start;
+    this.subject_range_end   = subject_range_end;
+    this.query_range_start   = query_range_start;
+    this.query_range_end     = query_range_end;
+    this.rev_match           = rev_match;
+    this.score               = score;
+    this.percent_id          = percent_id;
 
     match_length = Math.abs(getSubjectSequenceStart() -
                             getSubjectSequenceEnd());
@@ -83,8 +124,10 @@ public class AlignMatch
 
   public static AlignMatch copy(AlignMatch m)
   {
-    return new AlignMatch(m.subject_sequence_range,
-                          m.query_sequence_range,
+    return new AlignMatch(m.subject_range_start,
+                          m.subject_range_end,
+                          m.query_range_start,
+                          m.query_range_end,
                           m.rev_match, 
                           m.score,
                           m.percent_id);
@@ -100,7 +143,7 @@ public class AlignMatch
    **/
   public int getSubjectSequenceStart() 
   {
-    return subject_sequence_range.getStart();
+    return subject_range_start;
   }
 
   /**
@@ -108,7 +151,7 @@ public class AlignMatch
    **/
   public int getSubjectSequenceEnd() 
   {
-    return subject_sequence_range.getEnd();
+    return subject_range_end;
   }
 
   /**
@@ -117,9 +160,9 @@ public class AlignMatch
   public int getQuerySequenceStart() 
   {
     if(rev_match)
-      return query_sequence_range.getEnd();
+      return query_range_end;
     
-    return query_sequence_range.getStart();
+    return query_range_start;
   }
 
   /**
@@ -128,9 +171,9 @@ public class AlignMatch
   public int getQuerySequenceEnd() 
   {
     if(rev_match) 
-      return query_sequence_range.getStart();
+      return query_range_start;
      
-    return query_sequence_range.getEnd();
+    return query_range_end;
   }
 
   /**
@@ -138,7 +181,7 @@ public class AlignMatch
    **/
   public Range getSubjectSequenceRange() 
   {
-    return subject_sequence_range;
+    return makeRange(subject_range_start, subject_range_end);
   }
 
   /**
@@ -146,7 +189,19 @@ public class AlignMatch
    **/
   public Range getQuerySequenceRange() 
   {
-    return query_sequence_range;
+    return makeRange(query_range_start, query_range_end);
+  }
+
+  private static Range makeRange(final int start, final int end)
+  {
+    try
+    {
+      return new Range(start, end);
+    }
+    catch(OutOfRangeException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
   }
 
   /**
@@ -159,30 +214,21 @@ public class AlignMatch
   public void setRange(final int start, final int end, 
                        boolean subject, boolean flip)
   {
-    try
+    if(subject)
     {
-      if(subject)
-      {
-	if(start < end)
-	  this.subject_sequence_range = new Range(start, end);
-	else
-          this.subject_sequence_range = new Range(end, start);
-      }
-      else
-      {
-        if(start < end)
-         this.query_sequence_range = new Range(start, end);
-        else
-          this.query_sequence_range = new Range(end, start);
-      }
+      subject_range_start = Math.min(start, end);
+      subject_range_end   = Math.max(start, end);
     }
-    catch(OutOfRangeException ex)
+    else
     {
-      ex.printStackTrace();
+      query_range_start = Math.min(start, end);
+      query_range_end   = Math.max(start, end);
     }
    
     if(flip)
       this.rev_match = !this.rev_match;
+
+    match_length = subject_range_end - subject_range_start;
   }
 
   /**
@@ -0,0 +1,484 @@
+/* AlignMatchStore.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ *  The matches of a comparison held in arrays of int, one array for each
+ *  value, rather than as AlignMatch objects.  SimpleComparisonData reads
+ *  the matches into one of these and AlignmentViewer draws them from here by
+ *  index.  An AlignMatch is only made for a match when one is asked for by
+ *  getMatch(int), e.g. for a match that is clicked on, and then the same
+ *  object is returned each time.
+ *  <p>
+ *  The store can be saved as a cache of a comparison file, alongside it (or
+ *  in the temporary directory if that is not writable) as:
+ *  <pre>
+ *  int magic, int version, long file length, long file last modified,
+ *  int no. of matches, then the subject starts, subject ends, query starts,
+ *  query ends and scores as int, the percent IDs as short and the flags as
+ *  byte, each for all the matches
+ *  </pre>
+ **/
+public class AlignMatchStore
+{
+  private static final int MAGIC = 0x41434d58; // ACMX
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 28;
+  /** The bytes in the cache for each match. */
+  private static final int MATCH_SIZE = 5 * 4 + 2 + 1;
+
+  /** Set in the flags of a match if the query hits the reverse strand. */
+  private static final byte REV_MATCH = 1;
+
+  private int count = 0;
+
+  /**
+   *  The ranges of the matches in the subject and query sequences, with
+   *  the start less than or equal to the end.
+   **/
+  private int[] subject_starts;
+  private int[] subject_ends;
+  private int[] query_starts;
+  private int[] query_ends;
+
+  private int[] scores;
+  private short[] percent_ids;
+  private byte[] flags;
+
+  /**
+   *  The AlignMatch objects made by getMatch(int), by index, so that there
+   *  is only ever one object for a match.  null until the first is made.
+   **/
+  private AlignMatch[] made_matches = null;
+
+  /**
+   *  Create a new, empty AlignMatchStore.
+   **/
+  public AlignMatchStore()
+  {
+    this(1024);
+  }
+
+  private AlignMatchStore(final int capacity)
+  {
+    subject_starts = new int[capacity];
+    subject_ends   = new int[capacity];
+    query_starts   = new int[capacity];
+    query_ends     = new int[capacity];
+    scores         = new int[capacity];
+    percent_ids    = new short[capacity];
+    flags          = new byte[capacity];
+  }
+
+  /**
+   *  Add a match.  The start of a range may be after the end, meaning that
+   *  the match is on the reverse strand of that sequence.
+   **/
+  void add(int subject_start, int subject_end,
+           int query_start, int query_end,
+           final int score, final int percent_id)
+  {
+    // true if and only if the query hits the reverse complement of the
+    // subject
+    boolean rev_match = false;
+
+    if(subject_end < subject_start)
+    {
+      final int tmp = subject_start;
+      subject_start = subject_end;
+      subject_end = tmp;
+      rev_match = !rev_match;
+    }
+
+    if(query_end < query_start)
+    {
+      final int tmp = query_start;
+      query_start = query_end;
+      query_end = tmp;
+      rev_match = !rev_match;
+    }
+
+    add(subject_start, subject_end, query_start, query_end, rev_match,
+        score, percent_id);
+  }
+
+  /**
+   *  Add a copy of an AlignMatch.
+   **/
+  public void add(final AlignMatch match)
+  {
+    add(match.getSubjectSequenceStart(), match.getSubjectSequenceEnd(),
+        Math.min(match.getQuerySequenceStart(), match.getQuerySequenceEnd()),
+        Math.max(match.getQuerySequenceStart(), match.getQuerySequenceEnd()),
+        match.isRevMatch(), match.getScore(), match.getPercentID());
+  }
+
+  private void add(final int subject_start, final int subject_end,
+                   final int query_start, final int query_end,
+                   final boolean rev_match,
+                   final int score, final int percent_id)
+  {
+    if(count == subject_starts.length)
+      setCapacity(Math.max(1024, count * 2));
+
+    subject_starts[count] = subject_start;
+    subject_ends[count]   = subject_end;
+    query_starts[count]   = query_start;
+    query_ends[count]     = query_end;
+    scores[count]         = score;
+    percent_ids[count]    = (short) percent_id;
+    flags[count]          = (rev_match ? REV_MATCH : 0);
+    ++count;
+  }
+
+  private void setCapacity(final int capacity)
+  {
+    subject_starts = Arrays.copyOf(subject_starts, capacity);
+    subject_ends   = Arrays.copyOf(subject_ends, capacity);
+    query_starts   = Arrays.copyOf(query_starts, capacity);
+    query_ends     = Arrays.copyOf(query_ends, capacity);
+    scores         = Arrays.copyOf(scores, capacity);
+    percent_ids    = Arrays.copyOf(percent_ids, capacity);
+    flags          = Arrays.copyOf(flags, capacity);
+    if(made_matches != null)
+      made_matches = Arrays.copyOf(made_matches, capacity);
+  }
+
+  /**
+   *  Free the space that was allocated for matches that haven't been added.
+   **/
+  void trimToSize()
+  {
+    if(count < subject_starts.length)
+      setCapacity(count);
+  }
+
+  /**
+   *  Return the number of matches.
+   **/
+  public int size()
+  {
+    return count;
+  }
+
+  /**
+   *  Return the start of the subject range of a match.  The start of each
+   *  range is less than or equal to its end.
+   **/
+  public int getSubjectStart(final int i)
+  {
+    return subject_starts[i];
+  }
+
+  public int getSubjectEnd(final int i)
+  {
+    return subject_ends[i];
+  }
+
+  public int getQueryStart(final int i)
+  {
+    return query_starts[i];
+  }
+
+  public int getQueryEnd(final int i)
+  {
+    return query_ends[i];
+  }
+
+  public int getScore(final int i)
+  {
+    return scores[i];
+  }
+
+  /**
+   *  Return the AlignMatch for the match with the given index, making it
+   *  the first time.
+   **/
+  public AlignMatch getMatch(final int i)
+  {
+    if(made_matches == null)
+      made_matches = new AlignMatch[subject_starts.length];
+
+    if(made_matches[i] == null)
+      made_matches[i] = makeMatch(i, makeFlyweight());
+
+    return made_matches[i];
+  }
+
+  /**
+   *  Return the AlignMatch for the match with the given index if it has been
+   *  made by getMatch(int), otherwise set flyweight to the values of the
+   *  match and return that.  This is used to look at many matches without
+   *  making an object for each.
+   *  @param flyweight An object from makeFlyweight() that the caller uses
+   *    for nothing else.
+   **/
+  public AlignMatch getMatch(final int i, final AlignMatch flyweight)
+  {
+    if(made_matches != null && made_matches[i] != null)
+      return made_matches[i];
+
+    return makeMatch(i, flyweight);
+  }
+
+  /**
+   *  Return a new AlignMatch to pass to getMatch(int, AlignMatch).
+   **/
+  public static AlignMatch makeFlyweight()
+  {
+    return new AlignMatch(0, 0, 0, 0, false, -1, -1);
+  }
+
+  private AlignMatch makeMatch(final int i, final AlignMatch match)
+  {
+    match.set(subject_starts[i], subject_ends[i],
+              query_starts[i], query_ends[i],
+              (flags[i] & REV_MATCH) != 0,
+              scores[i], percent_ids[i]);
+    return match;
+  }
+
+  /**
+   *  Return the AlignMatch for every match.
+   **/
+  AlignMatch[] getMatches()
+  {
+    final AlignMatch[] matches = new AlignMatch[count];
+    for(int i = 0; i < count; ++i)
+      matches[i] = getMatch(i);
+    return matches;
+  }
+
+  /**
+   *  Set the range of a match in the subject or query sequence, as
+   *  AlignMatch.setRange() does.  This is used when flipping contigs round.
+   **/
+  public void setRange(final int i, final int start, final int end,
+                       final boolean subject, final boolean flip)
+  {
+    if(subject)
+    {
+      subject_starts[i] = Math.min(start, end);
+      subject_ends[i]   = Math.max(start, end);
+    }
+    else
+    {
+      query_starts[i] = Math.min(start, end);
+      query_ends[i]   = Math.max(start, end);
+    }
+
+    if(flip)
+      flags[i] ^= REV_MATCH;
+
+    if(made_matches != null && made_matches[i] != null)
+      made_matches[i].setRange(start, end, subject, flip);
+  }
+
+  /**
+   *  Add a copy of a match.
+   *  @return The index of the copy, which is the last match.
+   **/
+  public int copyMatch(final int i)
+  {
+    add(subject_starts[i], subject_ends[i], query_starts[i], query_ends[i],
+        (flags[i] & REV_MATCH) != 0, scores[i], percent_ids[i]);
+    return count - 1;
+  }
+
+  /**
+   *  Remove matches.  The indices of the matches after a removed match go
+   *  down.
+   *  @param indices The indices of the matches to remove, in increasing
+   *    order.
+   **/
+  public void removeMatches(final int[] indices)
+  {
+    int new_count = 0;
+    int next = 0;
+
+    for(int i = 0; i < count; ++i)
+    {
+      if(next < indices.length && indices[next] == i)
+      {
+        ++next;
+        continue;
+      }
+
+      if(new_count != i)
+      {
+        subject_starts[new_count] = subject_starts[i];
+        subject_ends[new_count]   = subject_ends[i];
+        query_starts[new_count]   = query_starts[i];
+        query_ends[new_count]     = query_ends[i];
+        scores[new_count]         = scores[i];
+        percent_ids[new_count]    = percent_ids[i];
+        flags[new_count]          = flags[i];
+        if(made_matches != null)
+          made_matches[new_count] = made_matches[i];
+      }
+      ++new_count;
+    }
+
+    if(made_matches != null)
+      Arrays.fill(made_matches, new_count, count, null);
+    count = new_count;
+  }
+
+  /**
+   *  Return a copy of this store with the subject and query of each match
+   *  swapped.
+   **/
+  AlignMatchStore swapSubjectAndQuery()
+  {
+    final AlignMatchStore swapped = new AlignMatchStore(0);
+    swapped.count          = count;
+    swapped.subject_starts = Arrays.copyOf(query_starts, count);
+    swapped.subject_ends   = Arrays.copyOf(query_ends, count);
+    swapped.query_starts   = Arrays.copyOf(subject_starts, count);
+    swapped.query_ends     = Arrays.copyOf(subject_ends, count);
+    swapped.scores         = Arrays.copyOf(scores, count);
+    swapped.percent_ids    = Arrays.copyOf(percent_ids, count);
+    swapped.flags          = Arrays.copyOf(flags, count);
+    return swapped;
+  }
+
+  /**
+   *  Return the file to use for the cache of a comparison file.  This is
+   *  alongside the file if that directory is writable, otherwise it is in
+   *  the temporary directory.
+   **/
+  static File getCacheFile(File file)
+  {
+    file = file.getAbsoluteFile();
+    final File cache_file = new File(file.getPath() + ".acx");
+    final File parent = file.getParentFile();
+    if(cache_file.exists() ? cache_file.canWrite() :
+                             parent != null && parent.canWrite())
+      return cache_file;
+    return new File(System.getProperty("java.io.tmpdir"),
+        file.getName() + "." + Integer.toHexString(file.getPath().hashCode()) +
+        ".acx");
+  }
+
+  /**
+   *  Read the matches from the cache of a comparison file by mapping the
+   *  cache into memory.
+   *  @return null if there is no cache or it was not made from the current
+   *    version of the file.
+   **/
+  static AlignMatchStore readCache(final File file) throws IOException
+  {
+    final File cache_file = getCacheFile(file);
+    if(!cache_file.exists())
+      return null;
+
+    final FileInputStream in = new FileInputStream(cache_file);
+    try
+    {
+      final FileChannel channel = in.getChannel();
+      if(channel.size() < HEADER_SIZE)
+        return null;
+
+      final MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+         buffer.getLong() != file.length() ||
+         buffer.getLong() != file.lastModified())
+        return null;
+
+      final int count = buffer.getInt();
+      if(count < 0 || channel.size() != HEADER_SIZE + (long) count * MATCH_SIZE)
+        throw new IOException("wrong size for " + count + " matches");
+
+      final AlignMatchStore store = new AlignMatchStore(count);
+      store.count = count;
+      readInts(buffer, store.subject_starts);
+      readInts(buffer, store.subject_ends);
+      readInts(buffer, store.query_starts);
+      readInts(buffer, store.query_ends);
+      readInts(buffer, store.scores);
+      buffer.asShortBuffer().get(store.percent_ids);
+      buffer.position(buffer.position() + 2 * count);
+      buffer.get(store.flags);
+      return store;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  private static void readInts(final ByteBuffer buffer, final int[] values)
+  {
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * values.length);
+  }
+
+  /**
+   *  Save the matches as the cache of a comparison file.
+   **/
+  void writeCache(final File file) throws IOException
+  {
+    final DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(getCacheFile(file))));
+    try
+    {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeLong(file.length());
+      dos.writeLong(file.lastModified());
+      dos.writeInt(count);
+      writeInts(dos, subject_starts);
+      writeInts(dos, subject_ends);
+      writeInts(dos, query_starts);
+      writeInts(dos, query_ends);
+      writeInts(dos, scores);
+      for(int i = 0; i < count; ++i)
+        dos.writeShort(percent_ids[i]);
+      dos.write(flags, 0, count);
+    }
+    finally
+    {
+      dos.close();
+    }
+  }
+
+  private void writeInts(final DataOutputStream dos, final int[] values)
+      throws IOException
+  {
+    for(int i = 0; i < count; ++i)
+      dos.writeInt(values[i]);
+  }
+}
@@ -133,6 +133,43 @@ public class BlastM8ComparisonData extends SimpleComparisonData {
     return makeMatchFromStringStatic (line);
   }
 
+  /**
+   *  Add the match from a line of blast -m 8 output without making a
+   *  String.  Lines that are in error are left to makeMatchFromString ().
+   **/
+  protected boolean addMatchFromFields (final byte[] line,
+                                        final int line_length,
+                                        final int[] field_starts,
+                                        final int[] field_ends,
+                                        final AlignMatchStore new_store) {
+    if (line[0] == '#') {
+      return true;
+    }
+
+    // empty columns are allowed but StringTokenizer ignores tabs at the
+    // ends of the line
+    if (line[0] == '\t' || line[line_length - 1] == '\t' ||
+        splitFields (line, line_length, (byte) '\t', false,
+                     field_starts, field_ends) != 12) {
+      return false;
+    }
+
+    try {
+      final int percent_ident =
+        parseIntPart (line, field_starts[2], field_ends[2]);
+      final int score   = parseInt (line, field_starts[3], field_ends[3]);
+      final int q_start = parseInt (line, field_starts[6], field_ends[6]);
+      final int q_end   = parseInt (line, field_starts[7], field_ends[7]);
+      final int s_start = parseInt (line, field_starts[8], field_ends[8]);
+      final int s_end   = parseInt (line, field_starts[9], field_ends[9]);
+
+      new_store.add (s_start, s_end, q_start, q_end, score, percent_ident);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
   /**
    *  Returns true if and only if the given line is in the correct format for
    *  this type of ComparisonData.  This should be as strict as possible.
@@ -46,6 +46,12 @@ public interface ComparisonData
    **/
   public AlignMatch[] getMatches();
 
+  /**
+   *  Return the matches of this comparison without making AlignMatch
+   *  objects for them.
+   **/
+  public AlignMatchStore getMatchStore();
+
   /**
    *  Return all the AlignMatch objects in this comparison which overlap
    *  first_seq_range on the first sequence or second_seq_range on the second
@@ -26,7 +26,6 @@
 package uk.ac.sanger.artemis;
 
 import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.util.LinePushBackReader;
 
 import java.io.*;
 
@@ -39,47 +38,127 @@ import java.io.*;
  **/
 
 public class ComparisonDataFactory {
+  private static org.apache.log4j.Logger logger4j = 
+    org.apache.log4j.Logger.getLogger (ComparisonDataFactory.class);
+
+  /** The longest first line that can be read to find the file format. */
+  private static final int MAX_FIRST_LINE = 1 << 20;
+
   /**
    *  This method creates an appropriate ComparisonData object from a Document.
+   *  The matches of a comparison file are cached (see AlignMatchStore) and
+   *  read from the cache while the file is unchanged, unless the
+   *  comparison_cache option is false.
    **/
   static public ComparisonData readComparisonData (Document data_document)
       throws IOException {
     
-    final Reader in_file = data_document.getReader ();
-
-    final LinePushBackReader pushback_reader =
-      new LinePushBackReader (in_file);
+    final InputStream in_stream =
+      new BufferedInputStream (data_document.getInputStream ());
 
-    final String line = pushback_reader.readLine ();
+    try {
+      final String line = readFirstLine (in_stream);
 
-    if (line == null) {
-      throw new IOException ("End of file while reading from: " +
-                             data_document);
-    }
+      if (line == null) {
+        throw new IOException ("End of file while reading from: " +
+                               data_document);
+      }
 
-    pushback_reader.pushBack (line);
+      final SimpleComparisonData comparison_data;
 
-    if (MSPcrunchComparisonData.formatCorrect (line)) {
-      return new MSPcrunchComparisonData (pushback_reader);
-    } else {
-      if (SSAHAComparisonData.formatCorrect (line)) {
-        return new SSAHAComparisonData (pushback_reader);
+      if (MSPcrunchComparisonData.formatCorrect (line)) {
+        comparison_data = new MSPcrunchComparisonData ();
       } else {
-        if (BlastM8ComparisonData.formatCorrect (line)) {
-          return new BlastM8ComparisonData (pushback_reader);
+        if (SSAHAComparisonData.formatCorrect (line)) {
+          comparison_data = new SSAHAComparisonData ();
         } else {
-          if (MegaBlastComparisonData.formatCorrect (line)) {
-            return new MegaBlastComparisonData (pushback_reader);
+          if (BlastM8ComparisonData.formatCorrect (line)) {
+            comparison_data = new BlastM8ComparisonData ();
           } else {
-//      if (tokenizer.countTokens () < 8) {
-//        return new MUMmerComparisonData (pushback_reader);
-//      } else {
-            throw new IOException ("cannot understand the comparison file format");
-//      }
+            if (MegaBlastComparisonData.formatCorrect (line)) {
+              comparison_data = new MegaBlastComparisonData ();
+            } else {
+//        if (tokenizer.countTokens () < 8) {
+//          return new MUMmerComparisonData (pushback_reader);
+//        } else {
+              throw new IOException ("cannot understand the comparison file format");
+//        }
+            }
+          }
+        }
+      }
+
+      final File cache_file = getCachedFile (data_document);
+
+      if (cache_file != null) {
+        try {
+          final AlignMatchStore store = AlignMatchStore.readCache (cache_file);
+          if (store != null) {
+            comparison_data.setMatches (store);
+            return comparison_data;
           }
+        } catch (IOException e) {
+          logger4j.warn ("cannot read the cache of " + cache_file + ": " +
+                         e.getMessage ());
+        }
+      }
+
+      comparison_data.readMatches (in_stream);
+
+      if (cache_file != null) {
+        try {
+          comparison_data.getMatchStore ().writeCache (cache_file);
+        } catch (IOException e) {
+          logger4j.warn ("cannot write the cache of " + cache_file + ": " +
+                         e.getMessage ());
+          AlignMatchStore.getCacheFile (cache_file).delete ();
         }
       }
+
+      return comparison_data;
+    } finally {
+      in_stream.close ();
     }
   }
-}
 
+  /**
+   *  Return the file of a Document if its matches should be cached, or null.
+   **/
+  private static File getCachedFile (final Document data_document) {
+    if (!(data_document instanceof FileDocument)) {
+      return null;
+    }
+
+    if (Options.getOptions ().getProperty ("comparison_cache") != null &&
+        !Options.getOptions ().getPropertyTruthValue ("comparison_cache")) {
+      return null;
+    }
+
+    return ((FileDocument) data_document).getFile ();
+  }
+
+  /**
+   *  Read the first line of a stream and then reset the stream to the start.
+   *  @return null if the stream is empty.
+   **/
+  private static String readFirstLine (final InputStream in_stream)
+      throws IOException {
+    in_stream.mark (MAX_FIRST_LINE);
+
+    final ByteArrayOutputStream line = new ByteArrayOutputStream ();
+    int b = in_stream.read ();
+
+    if (b == -1) {
+      return null;
+    }
+
+    while (b != -1 && b != '\n' && b != '\r' &&
+           line.size () < MAX_FIRST_LINE - 1) {
+      line.write (b);
+      b = in_stream.read ();
+    }
+
+    in_stream.reset ();
+    return line.toString ();
+  }
+}
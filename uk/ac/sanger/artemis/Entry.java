@@ -31,6 +31,8 @@ import uk.ac.sanger.artemis.util.*;
 import uk.ac.sanger.artemis.io.DatabaseDocumentEntry;
 import uk.ac.sanger.artemis.io.EmblStreamFeature;
 import uk.ac.sanger.artemis.io.DocumentEntry;
+import uk.ac.sanger.artemis.io.DocumentEntryJournal;
+import uk.ac.sanger.artemis.io.SimpleDocumentEntry;
 import uk.ac.sanger.artemis.io.EmblDocumentEntry;
 import uk.ac.sanger.artemis.io.GFFDocumentEntry;
 import uk.ac.sanger.artemis.io.GFFStreamFeature;
@@ -88,6 +90,16 @@ public class Entry implements FeatureChangeListener, Selectable
    **/
   /*final*/ private Bases bases;
 
+  /**
+   *  The autosave journal of embl_entry or null if it is not journaled.
+   **/
+  private DocumentEntryJournal journal = null;
+
+  /**
+   *  The index returned by getQualifierIndex().
+   **/
+  private QualifierIndex qualifier_index = null;
+
   /**
    *  Create a new Entry object.
    *  @param bases The Bases object which contains the Strand objects that will
@@ -106,6 +118,7 @@ public class Entry implements FeatureChangeListener, Selectable
 
     checkLocations();
     createDianaFeatures();
+    startJournal();
   }
 
   /**
@@ -130,6 +143,23 @@ public class Entry implements FeatureChangeListener, Selectable
 
     checkLocations();
     createDianaFeatures();
+    startJournal();
+  }
+
+  /**
+   *  Send the changes to this Entry to the autosave journal of the
+   *  underlying entry, if it has one.
+   **/
+  private void startJournal()
+  {
+    if(embl_entry instanceof SimpleDocumentEntry)
+      journal = ((SimpleDocumentEntry) embl_entry).getJournal();
+    if(journal != null)
+    {
+      addEntryChangeListener(journal);
+      addFeatureChangeListener(journal);
+      bases.addSequenceChangeListener(journal, Bases.MIN_PRIORITY);
+    }
   }
   
   
@@ -610,6 +640,15 @@ public class Entry implements FeatureChangeListener, Selectable
    **/
   public void dispose() 
   {
+    if(journal != null)
+    {
+      // the features are not deleted from the journal
+      removeEntryChangeListener(journal);
+      removeFeatureChangeListener(journal);
+      bases.removeSequenceChangeListener(journal);
+      journal.stop();
+    }
+
     final FeatureEnumeration feature_enum = features();
 
     while(feature_enum.hasMoreFeatures()) 
@@ -806,6 +845,24 @@ public class Entry implements FeatureChangeListener, Selectable
     return getEMBLEntry().getFeatureCount();
   }
 
+  /**
+   *  Return the index of the qualifier values of the features in this
+   *  entry, creating it the first time this is called.  Returns null for
+   *  indexed GFF entries, as their features are read as they are needed.
+   **/
+  public synchronized QualifierIndex getQualifierIndex()
+  {
+    if(qualifier_index == null &&
+       !(getEMBLEntry() instanceof IndexedGFFDocumentEntry))
+    {
+      qualifier_index = new QualifierIndex(this);
+      // the index is updated before the other listeners see a change
+      entry_listener_list.insertElementAt(qualifier_index, 0);
+      feature_listener_list.insertElementAt(qualifier_index, 0);
+    }
+    return qualifier_index;
+  }
+
   /**
    *  Return the Bases object that was passed to the constructor.
    **/
@@ -116,12 +116,11 @@ public class Feature
   private int base_count = -1;
 
   /**
-   *  This array contains counts of the occurrences of each three bases.  The
-   *  first index is the first base, the second index is the second base, etc.
-   *  The indices are the same as those for Bases.letter_index.
-   *  (set by resetCache()).
+   *  The counts of the codons and bases of this feature, laid out as
+   *  described in FeatureComposition.  This is kept when the feature moves
+   *  and reset by resetCache() when the bases of the feature may change.
    **/
-  private int [][][] codon_counts = null;
+  private int [] composition = null;
 
   /**
    *  This array contains counts of the occurrences of each amino acids in the
@@ -130,22 +129,6 @@ public class Feature
    **/
   private int [] residue_counts = null;
 
-  /**
-   *  This array contains counts of number of each base that appear in each
-   *  codon position.  The first index is the codon position and the second is
-   *  the base (indexed in the same way as Bases.letter_index).
-   *  (set by resetCache()).
-   **/
-  private int [][] positional_base_counts = null;
-
-  /**
-   *  This array contains the counts of the total number of each base in the
-   *  feature.
-   *  The indices are the same as those for Bases.letter_index.
-   *  (set by resetCache()).
-   **/
-  private int [] base_counts = null;
-
   /**
    *  The current Location reference is saved each time setLocation() is
    *  called so that if the reference changes resetCache() can
@@ -195,12 +178,48 @@ public class Feature
     {
       final Location old_location = getLocation();
       updateEMBLFeatureLocation();
-      locationChanged(old_location);
+
+      // moving every segment by the same amount keeps the counts - if the
+      // sequence inside the feature changes sequenceChanged() resets the
+      // composition, but resizing a segment changes the bases
+      final int [] old_composition = composition;
+      resetCache();
+      if(isShifted(old_location, getLocation()))
+        composition = old_composition;
+      fireLocationChanged(old_location, null,
+                          FeatureChangeEvent.LOCATION_CHANGED);
     }
     catch(ReadOnlyException e) {}
   }
 
 
+  /**
+   *  Return true if and only if the ranges of new_location are those of
+   *  old_location all moved by the same number of bases.
+   **/
+  private static boolean isShifted(final Location old_location,
+                                   final Location new_location)
+  {
+    final RangeVector old_ranges = old_location.getRanges();
+    final RangeVector new_ranges = new_location.getRanges();
+    if(old_ranges.size() != new_ranges.size() ||
+       old_location.isComplement() != new_location.isComplement())
+      return false;
+
+    int delta = 0;
+    for(int i = 0; i < old_ranges.size(); ++i)
+    {
+      final Range old_range = old_ranges.elementAt(i);
+      final Range new_range = new_ranges.elementAt(i);
+      if(i == 0)
+        delta = new_range.getStart() - old_range.getStart();
+      if(new_range.getStart() - old_range.getStart() != delta ||
+         new_range.getEnd() - old_range.getEnd() != delta)
+        return false;
+    }
+    return true;
+  }
+
   /**
    *  This method fixes up the location of this Feature when a sequence
    *  changes.
@@ -216,6 +235,13 @@ public class Feature
       // before this method is called because the markers are added as
       // SequenceChangeListener with a higher priority than this Feature
 
+      if(event.getType() != SequenceChangeEvent.INSERTION &&
+         event.getType() != SequenceChangeEvent.DELETION)
+      {
+        // the bases of features that overlap a rearranged region change
+        composition = null;
+      }
+
       if(event.getType() == SequenceChangeEvent.REVERSE_COMPLEMENT) 
         reverseComplement(getEntry().getBases().getLength());
       else if(event.getType() == SequenceChangeEvent.CONTIG_REVERSE_COMPLEMENT)
@@ -969,7 +995,17 @@ public class Feature
                                int type) 
   {
     resetCache();
+    fireLocationChanged(old_location, qualifiers, type);
+  }
 
+  /**
+   *  Send a FeatureChangeEvent of the given type to all the
+   *  FeatureChangeEvent listeners after the location has changed.
+   **/
+  private void fireLocationChanged(final Location old_location,
+                                   final QualifierVector qualifiers,
+                                   int type) 
+  {
     // now inform the listeners that a change has occured
     final FeatureChangeEvent feature_change_event =
       new FeatureChangeEvent(this,
@@ -1057,7 +1093,10 @@ public class Feature
     {
       // discard cache
       amino_acids = null;
+      residue_counts = null;
     }
+    else if(qualifier.getName().equals("codon_start"))
+      resetCache();
 
     fireAction(feature_listener_list, event);
   }
@@ -1093,7 +1132,10 @@ public class Feature
     {
       // discard cache
       amino_acids = null;
+      residue_counts = null;
     }
+    else if(name.equals("codon_start"))
+      resetCache();
 
     fireAction(feature_listener_list, event);
   }
@@ -2022,10 +2064,8 @@ public class Feature
                            final int second,
                            final int third) 
   {
-    if(codon_counts == null) 
-      setArrays();
-    
-    return codon_counts[first][second][third];
+    return getComposition()[FeatureComposition.CODONS +
+                            16 * first + 4 * second + third];
   }
 
   /**
@@ -2036,7 +2076,7 @@ public class Feature
   public int getResidueCount(final int amino_acid_index) 
   {
     if(residue_counts == null) 
-      setArrays();
+      setResidueCounts();
     
     return residue_counts[amino_acid_index];
   }
@@ -2049,10 +2089,8 @@ public class Feature
   public int getPositionalBaseCount(final int codon_base_position,
                                     final int base_index) 
   {
-    if(positional_base_counts == null)
-      setArrays();
-   
-    return positional_base_counts[codon_base_position][base_index];
+    return getComposition()[FeatureComposition.POSITIONAL_BASES +
+                            4 * codon_base_position + base_index];
   }
 
   /**
@@ -2061,10 +2099,54 @@ public class Feature
    **/
   public int getBaseCount(final int base_index) 
   {
-    if(base_counts == null)
-      setArrays();
-    
-    return base_counts[base_index];
+    final int [] composition = getComposition();
+    int count = 0;
+    for(int i = 0; i < 3; ++i)
+      count += composition[FeatureComposition.POSITIONAL_BASES +
+                           4 * i + base_index];
+    return count;
+  }
+
+  /**
+   *  Return the number of codons in the translated bases of this feature that
+   *  contain a base other than t, c, a or g.
+   **/
+  public int getAmbiguousCodonCount()
+  {
+    return getComposition()[FeatureComposition.AMBIGUOUS_CODONS];
+  }
+
+  /**
+   *  Return the counts of the bases and codons of this feature, counting
+   *  them if they have changed.
+   **/
+  private int [] getComposition()
+  {
+    int [] composition = this.composition;
+    if(composition == null) 
+    {
+      composition = FeatureComposition.count(this);
+      this.composition = composition;
+    }
+    return composition;
+  }
+
+  /**
+   *  Return true if the bases of this feature have been counted since it
+   *  last changed.  Used by FeatureComposition.countAll().
+   **/
+  boolean hasComposition()
+  {
+    return composition != null;
+  }
+
+  /**
+   *  Set the counts of the bases of this feature.  Used by
+   *  FeatureComposition.countAll().
+   **/
+  void setComposition(final int [] composition)
+  {
+    this.composition = composition;
   }
 
   /**
@@ -2096,7 +2178,8 @@ public class Feature
     final int g3_count =
       getPositionalBaseCount(2, Bases.getIndexOfBase('g'));
 
-    final int base_total = getTranslationBases().length();
+    final int base_total =
+      getComposition()[FeatureComposition.TRANSLATION_LENGTH];
 
     final double cor1_2_score =
       3.0 * t1_count/base_total *
@@ -2125,25 +2208,11 @@ public class Feature
    **/
   public double getPercentGC() 
   {
-    final String bases = getBases();
-
-    if(bases.length() > 0)
-    {
-      int gc_count = 0;
-
-      final char[] sequence_chars = new char[bases.length()];
-
-      bases.getChars(0, bases.length(), sequence_chars, 0);
-
-      for(int i = 0 ; i < bases.length() ; ++i) 
-      {
-        final char this_char = sequence_chars[i];
-        if(this_char == 'g' || this_char == 'c') 
-          ++gc_count;
-      }
+    final int [] composition = getComposition();
+    final int length = composition[FeatureComposition.LENGTH];
 
-      return 100.0 * gc_count / bases.length();
-    } 
+    if(length > 0)
+      return 100.0 * composition[FeatureComposition.GC_COUNT] / length;
     else
       return 0.0;
   }
@@ -2981,92 +3050,35 @@ CHANGED_END:
   }
 
   /**
-   *  Reset these arrays: segments, amino_acids, bases, codon_counts,
-   *  residue_counts, positional_base_counts and base_counts.
+   *  Reset these arrays: amino_acids, bases, composition and residue_counts.
    **/
   private void resetCache()
   {
     amino_acids = null;
     bases = null;
-    codon_counts = null;
+    composition = null;
     residue_counts = null;
-    positional_base_counts = null;
-    base_counts = null;
     aa_count = -1;
     base_count = -1;
   }
 
   /**
-   *  Update the values stored in residue_counts, codon_counts, base_counts
-   *  and positional_base_counts.
+   *  Update the values stored in residue_counts.
    **/
-  private void setArrays() 
+  private void setResidueCounts() 
   {
-    final String translation_bases = getTranslationBases();
-    final AminoAcidSequence translation = getTranslation();
-
-    final String translation_string = translation.toString();
-
-    codon_counts = new int[4][4][4];
-    residue_counts = new int[AminoAcidSequence.symbol_count];
-    base_counts = new int[4];
-    positional_base_counts = new int[3][4];
-
-    // zero the residue_counts array
-    for(int i = 0; i < residue_counts.length; ++i) 
-      residue_counts[i] = 0;
+    final String translation_string = getTranslation().toString();
+    final int [] new_residue_counts = new int[AminoAcidSequence.symbol_count];
 
     int trans_len = translation_string.length();
     for(int i = 0; i < trans_len; ++i) 
     {
       final int symbol_index =
         AminoAcidSequence.getSymbolIndex(translation_string.charAt(i));
-      ++residue_counts[symbol_index];
-    }
-
-    // zero the codon_counts array
-    for(int first = 0 ; first < 4 ; ++first) 
-    {
-      for(int second = 0 ; second < 4 ; ++second) 
-      {
-        for(int third = 0 ; third < 4 ; ++third)
-          codon_counts[first][second][third] = 0;
-      }
+      ++new_residue_counts[symbol_index];
     }
 
-    int base_len = translation_bases.length();
-    for(int base_index = 0; base_index < base_len;
-        ++base_index)
-    {
-      // this is 0, 1, 2 or 3
-      final int index_of_base =
-        Bases.getIndexOfBase(translation_bases.charAt(base_index));
-
-      if(index_of_base < 4) 
-        ++base_counts[index_of_base];
-    }
-
-    for(int i = 0; i < translation_bases.length() / 3; ++i) 
-    {
-      final int first_base_index =
-        Bases.getIndexOfBase(translation_bases.charAt(i * 3));
-      final int second_base_index =
-        Bases.getIndexOfBase(translation_bases.charAt(i * 3 + 1));
-      final int third_base_index =
-        Bases.getIndexOfBase(translation_bases.charAt(i * 3 + 2));
-
-      if(first_base_index < 4) 
-        ++positional_base_counts[0][first_base_index];
-      
-      if(second_base_index < 4) 
-        ++positional_base_counts[1][second_base_index];
-      
-      if(third_base_index < 4)
-        ++positional_base_counts[2][third_base_index];
-      
-      if(first_base_index < 4 && second_base_index < 4 && third_base_index < 4) 
-        ++codon_counts[first_base_index][second_base_index][third_base_index];
-    }
+    residue_counts = new_residue_counts;
   }
 
   /**
@@ -0,0 +1,292 @@
+/* FeatureComposition.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uk.ac.sanger.artemis.io.Range;
+import uk.ac.sanger.artemis.sequence.AminoAcidSequence;
+import uk.ac.sanger.artemis.sequence.Bases;
+import uk.ac.sanger.artemis.util.OutOfRangeException;
+
+/**
+ *  Counts of the bases and codons of a feature, held by the Feature in one
+ *  int array so that they are kept without translating the feature.  The
+ *  codons are read from the first base given by /codon_start and do not
+ *  include a final stop codon, as Feature.getTranslationBases().
+ *  countAll() counts the bases of many features with several threads.
+ **/
+public class FeatureComposition
+{
+  /** Count of each codon, indexed by 16 * first + 4 * second + third. */
+  static final int CODONS = 0;
+
+  /** Count of each base at each codon position, indexed by 4 * pos + base. */
+  static final int POSITIONAL_BASES = 64;
+
+  /** The number of translated bases, excluding a final stop codon. */
+  static final int TRANSLATION_LENGTH = 76;
+
+  /** The number of bases of the feature. */
+  static final int LENGTH = 77;
+
+  /** The number of g and c bases of the feature. */
+  static final int GC_COUNT = 78;
+
+  /** The number of translated codons that contain a base other than tcag. */
+  static final int AMBIGUOUS_CODONS = 79;
+
+  static final int SIZE = 80;
+
+  /** The number of features counted by each thread at a time. */
+  private static final int BATCH_SIZE = 256;
+
+  private FeatureComposition()
+  {
+  }
+
+  /**
+   *  Count the bases of each of the given features that hasn't been counted
+   *  since it last changed.  The features are read on the calling thread,
+   *  which should be the one that changes them, and their bases are counted
+   *  by the number of threads given by the composition_threads option.
+   **/
+  public static void countAll(final FeatureVector features)
+  {
+    final Vector<Segments> to_count = new Vector<Segments>();
+    for(int i = 0; i < features.size(); i++)
+    {
+      final Feature feature = features.elementAt(i);
+      if(!feature.hasComposition() && feature.getEntry() != null)
+        to_count.add(new Segments(feature));
+    }
+
+    final int thread_count = getThreadCount();
+    if(thread_count < 2 || to_count.size() <= BATCH_SIZE)
+    {
+      final char[][] buffer = new char[1][];
+      for(Segments segments: to_count)
+        segments.feature.setComposition(segments.count(buffer));
+      return;
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(thread_count);
+    try
+    {
+      final Vector<Future<int[][]>> batches = new Vector<Future<int[][]>>();
+      for(int i = 0; i < to_count.size(); i += BATCH_SIZE)
+      {
+        final int end = Math.min(i + BATCH_SIZE, to_count.size());
+        batches.add(pool.submit(new CountTask(to_count.subList(i, end))));
+      }
+
+      int index = 0;
+      for(Future<int[][]> batch: batches)
+      {
+        final int[][] counts = batch.get();
+        for(int i = 0; i < counts.length; i++)
+          to_count.elementAt(index++).feature.setComposition(counts[i]);
+      }
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch(ExecutionException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   *  Count the bases of one feature.
+   **/
+  static int[] count(final Feature feature)
+  {
+    return new Segments(feature).count(new char[1][]);
+  }
+
+  /**
+   *  Return the number of threads to use in countAll().
+   **/
+  private static int getThreadCount()
+  {
+    final Integer threads =
+      Options.getOptions().getIntegerProperty("composition_threads");
+    if(threads != null)
+      return threads.intValue();
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   *  The ranges of the segments of a feature, read on the calling thread so
+   *  that the bases can be counted on another.
+   **/
+  private static class Segments
+  {
+    private final Feature feature;
+    private final Bases bases;
+    private final int direction;
+    private final int codon_start;
+    private final Range[] ranges;
+
+    private Segments(final Feature feature)
+    {
+      this.feature = feature;
+      this.bases = feature.getEntry().getBases();
+      this.direction = feature.getStrand().getDirection();
+      this.codon_start = feature.getCodonStart();
+
+      final FeatureSegmentVector segments = feature.getSegments();
+      ranges = new Range[segments.size()];
+      for(int i = 0; i < ranges.length; i++)
+      {
+        final FeatureSegment segment = segments.elementAt(i);
+        try
+        {
+          ranges[i] = new Range(segment.getStart().getPosition(),
+                                segment.getEnd().getPosition());
+        }
+        catch(OutOfRangeException e)
+        {
+          throw new Error("internal error - unexpected exception: " + e);
+        }
+      }
+    }
+
+    /**
+     *  Count the bases of the segments, in the order of the segments.
+     *  @param buffer buffer[0] is used to read the bases, and is replaced if
+     *    it is too small.
+     **/
+    private int[] count(final char[][] buffer)
+    {
+      final int[] counts = new int[SIZE];
+      final int start_index = codon_start - 1;
+      final int[] codon = new int[3];
+      int position = 0;
+      int last_codon = -1;
+
+      for(int i = 0; i < ranges.length; i++)
+      {
+        final int length = ranges[i].getCount();
+        if(buffer[0] == null || buffer[0].length < length)
+          buffer[0] = new char[Math.max(length, 4096)];
+        final char[] chars = buffer[0];
+        bases.getSubSequenceC(ranges[i], direction, chars);
+
+        for(int j = 0; j < length; j++, position++)
+        {
+          final int base = Bases.getIndexOfBase(chars[j]);
+          if(base == 1 || base == 3)
+            ++counts[GC_COUNT];
+
+          if(position < start_index)
+            continue;
+
+          final int codon_position = (position - start_index) % 3;
+          codon[codon_position] = base;
+          if(codon_position == 2)
+          {
+            last_codon = addCodon(counts, codon, 1);
+            counts[TRANSLATION_LENGTH] += 3;
+          }
+        }
+      }
+      counts[LENGTH] = position;
+
+      // remove the stop codon (if present)
+      if(last_codon >= 0 &&
+         AminoAcidSequence.isStopCodon(AminoAcidSequence.getCodonTranslation(
+             Bases.letter_index[last_codon >> 4],
+             Bases.letter_index[(last_codon >> 2) & 3],
+             Bases.letter_index[last_codon & 3])))
+      {
+        codon[0] = last_codon >> 4;
+        codon[1] = (last_codon >> 2) & 3;
+        codon[2] = last_codon & 3;
+        addCodon(counts, codon, -1);
+        counts[TRANSLATION_LENGTH] -= 3;
+      }
+      return counts;
+    }
+
+    /**
+     *  Add a codon to the counts.
+     *  @return The index of the codon, or -1 if it has a base other than
+     *    t, c, a or g.
+     **/
+    private static int addCodon(final int[] counts, final int[] codon,
+                                final int n)
+    {
+      boolean ambiguous = false;
+      for(int i = 0; i < 3; i++)
+      {
+        if(codon[i] < 4)
+          counts[POSITIONAL_BASES + 4 * i + codon[i]] += n;
+        else
+          ambiguous = true;
+      }
+      if(ambiguous)
+      {
+        counts[AMBIGUOUS_CODONS] += n;
+        return -1;
+      }
+
+      final int index = 16 * codon[0] + 4 * codon[1] + codon[2];
+      counts[CODONS + index] += n;
+      return index;
+    }
+  }
+
+  /**
+   *  Count the bases of a batch of features.
+   **/
+  private static class CountTask implements Callable<int[][]>
+  {
+    private final List<Segments> batch;
+
+    private CountTask(final List<Segments> batch)
+    {
+      this.batch = batch;
+    }
+
+    public int[][] call()
+    {
+      final int[][] counts = new int[batch.size()][];
+      final char[][] buffer = new char[1][];
+      for(int i = 0; i < counts.length; i++)
+        counts[i] = batch.get(i).count(buffer);
+      return counts;
+    }
+  }
+}
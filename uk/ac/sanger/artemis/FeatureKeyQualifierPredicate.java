@@ -191,12 +191,45 @@ public class FeatureKeyQualifierPredicate
         qualifier_names_to_search = new StringVector (qualifier_name);
       }
 
+      if (!isCandidate (feature)) {
+        return false;
+      }
+
       return feature.findOrReplaceText (qualifier_value, ignore_case,
                                    sub_string_match, deleteQualifier,
                                    qualifier_names_to_search, null);
     }
   }
 
+  /**
+   *  Return false if the QualifierIndex of the Entry of the given Feature
+   *  shows that the Feature can't contain qualifier_value, so that the
+   *  qualifiers of most features aren't searched.
+   **/
+  private boolean isCandidate (final Feature feature) {
+    final Entry entry = feature.getEntry ();
+    if (entry == null) {
+      return true;
+    }
+
+    final QualifierIndex index = entry.getQualifierIndex ();
+    if (index == null) {
+      return true;
+    }
+
+    if (candidates == null || candidates.getIndex () != index ||
+        !candidates.isCurrent ()) {
+      candidates = index.getCandidates (qualifier_value, sub_string_match);
+    }
+    return candidates.contains (feature);
+  }
+
+  /**
+   *  The features of one Entry that may pass this predicate, found by
+   *  isCandidate().
+   **/
+  private QualifierIndex.Candidates candidates = null;
+
   /**
    *  The Key that was passed to the constructor.
    **/
@@ -0,0 +1,218 @@
+/* FeatureSet.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis;
+
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+
+import uk.ac.sanger.artemis.io.IndexedGFFDocumentEntry;
+
+/**
+ *  A set of Feature objects that keeps the order the features were added
+ *  in.  Features are looked up by identity, except that features of indexed
+ *  GFF entries also match other Feature objects made for the same GFF
+ *  feature, as in FeatureVector.contains().
+ **/
+public class FeatureSet
+{
+  /** The features in the order they were added. */
+  private FeatureVector features = new FeatureVector();
+
+  private final IdentityHashMap<Feature, Feature> index =
+    new IdentityHashMap<Feature, Feature>();
+
+  /** The features from indexed GFF entries, by key. */
+  private final Hashtable<String, FeatureVector> indexed_gff_features =
+    new Hashtable<String, FeatureVector>();
+
+  public FeatureSet()
+  {
+  }
+
+  /**
+   *  Create a FeatureSet containing the features of a FeatureVector.
+   **/
+  public FeatureSet(final FeatureVector features)
+  {
+    addAll(features);
+  }
+
+  /**
+   *  Add a feature to the end of the set if it isn't already in it.
+   *  @return true if the feature was added.
+   **/
+  public boolean add(final Feature feature)
+  {
+    if(contains(feature))
+      return false;
+
+    features.addUnchecked(feature);
+    index.put(feature, feature);
+    if(isIndexedGFF(feature))
+    {
+      final String key = feature.getKey().getKeyString();
+      FeatureVector key_features = indexed_gff_features.get(key);
+      if(key_features == null)
+      {
+        key_features = new FeatureVector();
+        indexed_gff_features.put(key, key_features);
+      }
+      key_features.addUnchecked(feature);
+    }
+    return true;
+  }
+
+  /**
+   *  Add each of the given features that isn't already in the set.
+   *  @return true if any features were added.
+   **/
+  public boolean addAll(final FeatureVector new_features)
+  {
+    boolean changed = false;
+    for(int i = 0; i < new_features.size(); ++i)
+      if(add(new_features.elementAt(i)))
+        changed = true;
+    return changed;
+  }
+
+  /**
+   *  Remove a feature from the set.
+   *  @return true if the feature was in the set.
+   **/
+  public boolean remove(final Feature feature)
+  {
+    final FeatureVector to_remove = new FeatureVector();
+    to_remove.add(feature);
+    return removeAll(to_remove);
+  }
+
+  /**
+   *  Remove the given features from the set in one pass over the set.
+   *  @return true if any features were removed.
+   **/
+  public boolean removeAll(final FeatureVector old_features)
+  {
+    final IdentityHashMap<Feature, Feature> to_remove =
+      new IdentityHashMap<Feature, Feature>();
+    for(int i = 0; i < old_features.size(); ++i)
+    {
+      final Feature feature = get(old_features.elementAt(i));
+      if(feature != null)
+        to_remove.put(feature, feature);
+    }
+    if(to_remove.size() == 0)
+      return false;
+
+    final FeatureVector new_features = new FeatureVector();
+    for(int i = 0; i < features.size(); ++i)
+    {
+      final Feature feature = features.elementAt(i);
+      if(!to_remove.containsKey(feature))
+        new_features.addUnchecked(feature);
+    }
+    features = new_features;
+
+    for(Feature feature: to_remove.keySet())
+    {
+      index.remove(feature);
+      if(isIndexedGFF(feature))
+      {
+        final FeatureVector key_features =
+          indexed_gff_features.get(feature.getKey().getKeyString());
+        if(key_features != null)
+          key_features.remove(feature);
+      }
+    }
+    return true;
+  }
+
+  /**
+   *  Remove all the features from the set.
+   **/
+  public void clear()
+  {
+    features = new FeatureVector();
+    index.clear();
+    indexed_gff_features.clear();
+  }
+
+  /**
+   *  Return true if the set contains the given feature.
+   **/
+  public boolean contains(final Feature feature)
+  {
+    return get(feature) != null;
+  }
+
+  /**
+   *  Return the number of features in the set.
+   **/
+  public int size()
+  {
+    return features.size();
+  }
+
+  /**
+   *  Return the feature at the given position in the order of the set.
+   **/
+  public Feature elementAt(final int index)
+  {
+    return features.elementAt(index);
+  }
+
+  /**
+   *  Return the features of the set in order.  The vector must not be
+   *  changed.
+   **/
+  public FeatureVector getFeatures()
+  {
+    return features;
+  }
+
+  /**
+   *  Return the feature of this set that matches the given feature, or null
+   *  if there isn't one.
+   **/
+  private Feature get(final Feature feature)
+  {
+    if(index.containsKey(feature))
+      return feature;
+    if(!isIndexedGFF(feature))
+      return null;
+
+    // the feature may have been read from the index again
+    final FeatureVector key_features =
+      indexed_gff_features.get(feature.getKey().getKeyString());
+    if(key_features == null)
+      return null;
+    final int i = IndexedGFFDocumentEntry.indexOf(feature, key_features);
+    return (i < 0 ? null : key_features.elementAt(i));
+  }
+
+  private static boolean isIndexedGFF(final Feature feature)
+  {
+    final Entry entry = feature.getEntry();
+    return entry != null &&
+           entry.getEMBLEntry() instanceof IndexedGFFDocumentEntry;
+  }
+}
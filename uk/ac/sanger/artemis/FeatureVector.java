@@ -60,6 +60,14 @@ public class FeatureVector {
     vector.add (feature);
   }
 
+  /**
+   *  Add a feature that is known not to be in the Vector to the end of the
+   *  Vector, without checking.
+   **/
+  void addUnchecked (Feature feature) {
+    vector.addUnchecked (feature);
+  }
+
   /**
    *  Performs the same function as Vector.elementAt ()
    */
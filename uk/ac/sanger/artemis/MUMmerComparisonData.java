@@ -120,6 +120,64 @@ public class MUMmerComparisonData extends SimpleComparisonData
   }
 
 
+  /**
+   *  Add the match from a line of MUMmer output without making a String.
+   *  Lines that are in error are left to makeMatchFromString().
+   **/
+  protected boolean addMatchFromFields(final byte[] line,
+                                       final int line_length,
+                                       final int[] field_starts,
+                                       final int[] field_ends,
+                                       final AlignMatchStore new_store)
+  {
+    if(line[0] == '>')
+      return true;
+
+    final int field_count = splitFields(line, line_length, (byte) ' ', true,
+                                        field_starts, field_ends);
+    if(field_count < 3)
+      return false;
+
+    try
+    {
+      final int first_number =
+        parseInt(line, field_starts[0], field_ends[0]);
+      final int second_number =
+        parseInt(line, field_starts[1], field_ends[1]);
+      final int match_length =
+        parseInt(line, field_starts[2], field_ends[2]);
+
+      boolean reverse = false;
+      int score = -1;
+
+      if(field_count > 3)
+      {
+        reverse = fieldEquals(line, field_starts[3], field_ends[3], '-');
+
+        if((reverse || fieldEquals(line, field_starts[3], field_ends[3], '+'))
+            && field_count > 4)
+        {
+          score = parseInt(line, field_starts[4], field_ends[4]);
+
+          if(score < -1)
+            score = -1;
+        }
+      }
+
+      if(reverse)
+        new_store.add(first_number, first_number + match_length - 1,
+            second_number + match_length - 1, second_number, score, -1);
+      else
+        new_store.add(first_number, first_number + match_length - 1,
+            second_number, second_number + match_length - 1, score, -1);
+      return true;
+    }
+    catch(NumberFormatException e)
+    {
+      return false;
+    }
+  }
+
   protected SimpleComparisonData getNewSimpleComparisonData()
   {
     return new MUMmerComparisonData();
@@ -384,6 +384,12 @@ public class Options extends Properties
     }
     
     DatabaseDocument.CHADO_INFER_CDS = getPropertyTruthValue("chado_infer_CDS_UTR");
+    DatabaseDocument.CHADO_DIRECT_LOAD =
+      getProperty("chado_direct_load") == null ||
+      getPropertyTruthValue("chado_direct_load");
+    DatabaseDocument.CHADO_BATCH_COMMIT =
+      getProperty("chado_batch_commit") == null ||
+      getPropertyTruthValue("chado_batch_commit");
     if(DatabaseDocument.CHADO_INFER_CDS)
       DatabaseDocument.EXONMODEL = "exon";
   }
@@ -0,0 +1,364 @@
+/* QualifierIndex.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import uk.ac.sanger.artemis.io.QualifierVector;
+import uk.ac.sanger.artemis.util.StringVector;
+
+/**
+ *  An inverted index of the words in the qualifier values of the features
+ *  of an Entry.  Values are split into words of letters and digits, which
+ *  are indexed in lower case.  getCandidates() returns the features that
+ *  may contain a search text - a superset of the features that match it
+ *  exactly, with or without case, as a whole value or a substring.  The
+ *  index is built when it is first used and then kept up to date from the
+ *  change events of the Entry.
+ **/
+public class QualifierIndex implements EntryChangeListener, FeatureChangeListener
+{
+  /**
+   *  Shortest word that is looked for inside other words.  Searches for
+   *  shorter text than this test every feature.
+   **/
+  private static final int MIN_SUBSTRING_LENGTH = 3;
+
+  /** Postings of each word - the numbers of the features with the word. */
+  private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+
+  /** Number of each indexed feature. */
+  private final IdentityHashMap<Feature, Integer> numbers =
+    new IdentityHashMap<Feature, Integer>();
+
+  /** The features by number, null for numbers no longer in use. */
+  private Feature[] features = new Feature[1024];
+
+  private int next_number = 0;
+
+  /** Incremented when the index changes. */
+  private int version = 0;
+
+  private final Entry entry;
+
+  /**
+   *  Create an index of the qualifiers of the features in an Entry.  The
+   *  Entry should send its change events to the index before its other
+   *  listeners, so that they search an up to date index.
+   **/
+  QualifierIndex(final Entry entry)
+  {
+    this.entry = entry;
+    build();
+  }
+
+  /**
+   *  Return the features that may have a qualifier value that matches
+   *  some text.
+   *  @param text The text to search for.
+   *  @param match_substring If true the text can be part of a value.
+   **/
+  public synchronized Candidates getCandidates(final String text,
+                                               final boolean match_substring)
+  {
+    final String lower_text = text.toLowerCase();
+    for(int i = 0; i < lower_text.length(); i++)
+      if(lower_text.charAt(i) > 127)
+        return new Candidates(null);
+
+    BitSet bits = null;
+    String scan_word = null;
+    boolean scan_suffix = false;
+
+    int start = 0;
+    while(start < lower_text.length())
+    {
+      if(!isWordChar(lower_text.charAt(start)))
+      {
+        ++start;
+        continue;
+      }
+      int end = start + 1;
+      while(end < lower_text.length() && isWordChar(lower_text.charAt(end)))
+        ++end;
+
+      final String word = lower_text.substring(start, end);
+      // is the word in the text bounded by the start or end of a value word
+      final boolean starts = !match_substring || start > 0;
+      final boolean ends = !match_substring || end < lower_text.length();
+
+      if(starts)
+      {
+        final BitSet word_bits = new BitSet();
+        if(ends)
+          addPostings(words.get(word), word_bits);
+        else
+          for(Map.Entry<String, Postings> e: words.tailMap(word).entrySet())
+          {
+            if(!e.getKey().startsWith(word))
+              break;
+            addPostings(e.getValue(), word_bits);
+          }
+        if(bits == null)
+          bits = word_bits;
+        else
+          bits.and(word_bits);
+      }
+      else if(scan_word == null || word.length() > scan_word.length())
+      {
+        scan_word = word;
+        scan_suffix = ends;
+      }
+      start = end;
+    }
+
+    // the words that end or contain the text need a scan of every word
+    if(bits == null)
+    {
+      if(scan_word == null ||
+         !scan_suffix && scan_word.length() < MIN_SUBSTRING_LENGTH)
+        return new Candidates(null);
+
+      bits = new BitSet();
+      for(Map.Entry<String, Postings> e: words.entrySet())
+      {
+        final String word = e.getKey();
+        if(scan_suffix ? word.endsWith(scan_word) : word.indexOf(scan_word) >= 0)
+          addPostings(e.getValue(), bits);
+      }
+    }
+    return new Candidates(bits);
+  }
+
+  /**
+   *  Implementation of the EntryChangeListener interface.
+   **/
+  public synchronized void entryChanged(final EntryChangeEvent event)
+  {
+    switch(event.getType())
+    {
+      case EntryChangeEvent.FEATURE_ADDED:
+        add(event.getFeature());
+        break;
+      case EntryChangeEvent.FEATURE_DELETED:
+        remove(event.getFeature());
+        break;
+    }
+  }
+
+  /**
+   *  Implementation of the FeatureChangeListener interface.
+   **/
+  public synchronized void featureChanged(final FeatureChangeEvent event)
+  {
+    switch(event.getType())
+    {
+      case FeatureChangeEvent.LOCATION_CHANGED:
+      case FeatureChangeEvent.KEY_CHANGED:
+        return;
+    }
+    if(remove(event.getFeature()))
+      add(event.getFeature());
+  }
+
+  private void build()
+  {
+    words.clear();
+    numbers.clear();
+    features = new Feature[Math.max(1024, entry.getFeatureCount() * 2)];
+    next_number = 0;
+    ++version;
+    final FeatureEnumeration feature_enum = entry.features();
+    while(feature_enum.hasMoreFeatures())
+      add(feature_enum.nextFeature());
+  }
+
+  private void add(final Feature feature)
+  {
+    if(numbers.containsKey(feature))
+      return;
+    if(next_number == features.length)
+    {
+      // renumber if more than half the numbers are no longer used
+      if(numbers.size() < next_number / 2)
+      {
+        build();
+        if(numbers.containsKey(feature))
+          return;
+      }
+      if(next_number == features.length)
+      {
+        final Feature[] new_features = new Feature[features.length * 2];
+        System.arraycopy(features, 0, new_features, 0, features.length);
+        features = new_features;
+      }
+    }
+
+    final int number = next_number++;
+    features[number] = feature;
+    numbers.put(feature, number);
+    ++version;
+
+    final QualifierVector qualifiers = feature.getQualifiers();
+    for(int i = 0; i < qualifiers.size(); ++i)
+    {
+      final StringVector values = qualifiers.elementAt(i).getValues();
+      if(values == null)
+        continue;
+      for(int j = 0; j < values.size(); ++j)
+      {
+        final String value = values.elementAt(j);
+        if(value != null)
+          addWords(value.toLowerCase(), number);
+      }
+    }
+  }
+
+  private boolean remove(final Feature feature)
+  {
+    final Integer number = numbers.remove(feature);
+    if(number == null)
+      return false;
+    features[number.intValue()] = null;
+    ++version;
+    return true;
+  }
+
+  private void addWords(final String value, final int number)
+  {
+    int start = 0;
+    while(start < value.length())
+    {
+      if(!isWordChar(value.charAt(start)))
+      {
+        ++start;
+        continue;
+      }
+      int end = start + 1;
+      while(end < value.length() && isWordChar(value.charAt(end)))
+        ++end;
+
+      final String word = value.substring(start, end);
+      Postings postings = words.get(word);
+      if(postings == null)
+      {
+        postings = new Postings();
+        words.put(word, postings);
+      }
+      postings.add(number);
+      start = end;
+    }
+  }
+
+  private void addPostings(final Postings postings, final BitSet bits)
+  {
+    if(postings == null)
+      return;
+    for(int i = 0; i < postings.size; ++i)
+      if(features[postings.numbers[i]] != null)
+        bits.set(postings.numbers[i]);
+  }
+
+  private static boolean isWordChar(final char c)
+  {
+    return Character.isLetterOrDigit(c);
+  }
+
+  /**
+   *  The features that may match a search, valid until the index changes.
+   **/
+  public class Candidates
+  {
+    /** null if every feature is a candidate */
+    private final BitSet bits;
+    private final int candidates_version;
+
+    private Candidates(final BitSet bits)
+    {
+      this.bits = bits;
+      this.candidates_version = version;
+    }
+
+    /**
+     *  Return true if the feature may match the search.
+     **/
+    public boolean contains(final Feature feature)
+    {
+      if(bits == null)
+        return true;
+      synchronized(QualifierIndex.this)
+      {
+        final Integer number = numbers.get(feature);
+        return number == null || bits.get(number.intValue());
+      }
+    }
+
+    /**
+     *  Return true if no features have changed since these candidates
+     *  were found.
+     **/
+    public boolean isCurrent()
+    {
+      return candidates_version == version;
+    }
+
+    /**
+     *  Return the number of candidates, or -1 if every feature is one.
+     **/
+    public int size()
+    {
+      return (bits == null ? -1 : bits.cardinality());
+    }
+
+    public QualifierIndex getIndex()
+    {
+      return QualifierIndex.this;
+    }
+  }
+
+  /**
+   *  Numbers of the features that contain a word, in the order they were
+   *  added.
+   **/
+  private static class Postings
+  {
+    private int[] numbers = new int[2];
+    private int size = 0;
+
+    private void add(final int number)
+    {
+      if(size > 0 && numbers[size - 1] == number)
+        return;
+      if(size == numbers.length)
+      {
+        final int[] new_numbers = new int[size * 2];
+        System.arraycopy(numbers, 0, new_numbers, 0, size);
+        numbers = new_numbers;
+      }
+      numbers[size++] = number;
+    }
+  }
+}
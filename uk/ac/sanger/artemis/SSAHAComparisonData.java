@@ -122,6 +122,40 @@ public class SSAHAComparisonData extends SimpleComparisonData {
     return makeMatchFromStringStatic (line);
   }
 
+  /**
+   *  Add the match from a line of ssaha output without making a String.
+   *  Lines that are in error are left to makeMatchFromString ().
+   **/
+  protected boolean addMatchFromFields (final byte[] line,
+                                        final int line_length,
+                                        final int[] field_starts,
+                                        final int[] field_ends,
+                                        final AlignMatchStore new_store) {
+    if (splitFields (line, line_length, (byte) '\t', true,
+                     field_starts, field_ends) != 9) {
+      return false;
+    }
+
+    try {
+      final int q_start = parseInt (line, field_starts[2], field_ends[2]);
+      final int q_end   = parseInt (line, field_starts[3], field_ends[3]);
+      final int s_start = parseInt (line, field_starts[5], field_ends[5]);
+      final int s_end   = parseInt (line, field_starts[6], field_ends[6]);
+      final int score   = parseInt (line, field_starts[7], field_ends[7]);
+      final int percent_ident =
+        parseIntPart (line, field_starts[8], field_ends[8]);
+
+      if (fieldEquals (line, field_starts[0], field_ends[0], 'F')) {
+        new_store.add (s_start, s_end, q_start, q_end, score, percent_ident);
+      } else {
+        new_store.add (s_start, s_end, q_end, q_start, score, percent_ident);
+      }
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
   /**
    *  Returns true if and only if the given line is in the correct format for
    *  this type of ComparisonData.  This should be as strict as possible.
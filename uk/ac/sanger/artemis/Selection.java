@@ -32,6 +32,7 @@ import uk.ac.sanger.artemis.io.Range;
 import uk.ac.sanger.artemis.io.RangeVector;
 
 import java.io.*;
+import java.util.IdentityHashMap;
 import java.util.Vector;
 import java.awt.datatransfer.*;
 
@@ -137,8 +138,7 @@ public class Selection
    *  @param event The change event.
    **/
   public void featureChanged (FeatureChangeEvent event) {
-    if (segments == null && features.contains (event.getFeature ()) ||
-        getAllFeatures ().contains (event.getFeature ())) {
+    if (contains (event.getFeature ())) {
       if (event.getType () == FeatureChangeEvent.QUALIFIER_CHANGED ||
           event.getType () == FeatureChangeEvent.KEY_CHANGED) {
         // no need to reset the cache in this case
@@ -226,9 +226,7 @@ public class Selection
    *  appropriate event to the SelectionChangeEvent listeners.
    **/
   public void add (final FeatureVector features) {
-    for (int i = 0 ; i < features.size () ; ++i) {
-      addWithoutEvent (features.elementAt (i));
-    }
+    this.features.addAll (features);
     changeSelection (SelectionChangeEvent.SELECTION_CHANGED);
   }
 
@@ -239,13 +237,7 @@ public class Selection
    *    selection.
    **/
   private boolean addWithoutEvent (final Feature feature) {
-    if (features.contains (feature)) {
-      return false;
-      // do nothing
-    } else {
-      features.add (feature);
-      return true;
-    }
+    return features.add (feature);
   }
 
   /**
@@ -303,9 +295,7 @@ public class Selection
    **/
   public void set (final FeatureVector features) {
     clearWithoutEvent ();
-    for (int i = 0 ; i < features.size () ; ++i) {
-      addWithoutEvent (features.elementAt (i));
-    }
+    this.features.addAll (features);
     changeSelection (SelectionChangeEvent.SELECTION_CHANGED);
   }
 
@@ -356,7 +346,7 @@ public class Selection
    *  the SelectionChangeEvent listeners.
    **/
   private void clearWithoutEvent () {
-    features.removeAllElements ();
+    features.clear ();
     segments.removeAllElements ();
     marker_range = null;
   }
@@ -370,6 +360,16 @@ public class Selection
     }
   }
 
+  /**
+   *  Remove the given Feature objects from the selection, and then send an
+   *  event to the SelectionChangeEvent listeners if any were removed.
+   **/
+  public void remove (final FeatureVector features) {
+    if (this.features.removeAll (features)) {
+      changeSelection (SelectionChangeEvent.SELECTION_CHANGED);
+    }
+  }
+
   /**
    *  Remove the FeatureSegments of the given Feature from the selection.
    **/
@@ -398,20 +398,7 @@ public class Selection
    *  Return true if this selection contains the given Feature.
    **/
   public boolean contains (final Feature feature) {
-    if (getSelectedFeatures ().contains (feature)) {
-      return true;
-    }
-
-    for (int i = 0 ; i < segments.size () ; ++i) {
-      final FeatureSegment this_segment = segments.elementAt (i);
-      final Feature this_feature = this_segment.getFeature ();
-
-      if (feature == this_feature) {
-        return true;
-      }
-    }
-
-    return false;
+    return getAllFeatureSet ().contains (feature);
   }
 
   /**
@@ -736,7 +723,7 @@ public class Selection
    *  Return a vector of the Feature objects of this selection.
    **/
   public FeatureVector getSelectedFeatures () {
-    return features;
+    return features.getFeatures ();
   }
 
   /**
@@ -753,6 +740,8 @@ public class Selection
    **/
   public FeatureSegmentVector getAllSegments () {
     final FeatureSegmentVector return_segments = new FeatureSegmentVector ();
+    final IdentityHashMap<FeatureSegment, FeatureSegment> seen_segments =
+      new IdentityHashMap<FeatureSegment, FeatureSegment> ();
 
     for (int i = 0 ; i < features.size () ; ++i) {
       final Feature selection_feature = features.elementAt (i);
@@ -763,7 +752,7 @@ public class Selection
            ++segment_index) {
         final FeatureSegment this_segment = segments.elementAt (segment_index);
 
-        if (!return_segments.contains (this_segment)) {
+        if (seen_segments.put (this_segment, this_segment) == null) {
           return_segments.addElement (this_segment);
         }
       }
@@ -772,7 +761,7 @@ public class Selection
     for (int i = 0 ; i < segments.size () ; ++i) {
       final FeatureSegment this_segment = segments.elementAt (i);
 
-      if (!return_segments.contains (this_segment)) {
+      if (seen_segments.put (this_segment, this_segment) == null) {
         return_segments.addElement (this_segment);
       }
     }
@@ -786,16 +775,18 @@ public class Selection
    *  selection.
    **/
   public FeatureVector getAllFeatures () {
+    return getAllFeatureSet ().getFeatures ();
+  }
+
+  /**
+   *  Return a set of the Feature objects returned by getAllFeatures ().
+   **/
+  private FeatureSet getAllFeatureSet () {
     if (all_features == null) {
-      all_features = (FeatureVector) features.clone ();
-      
+      all_features = new FeatureSet (features.getFeatures ());
+
       for (int i = 0 ; i < segments.size () ; ++i) {
-        final FeatureSegment this_segment = segments.elementAt (i);
-        final Feature this_feature = this_segment.getFeature ();
-        
-        if (!all_features.contains (this_feature)) {
-          all_features.add (this_feature);
-        }
+        all_features.add (segments.elementAt (i).getFeature ());
       }
     }
 
@@ -841,10 +832,10 @@ public class Selection
   }
 
   /**
-   *  A Vector containing the Feature objects that this selection currently
-   *  holds.
+   *  A set containing the Feature objects that this selection currently
+   *  holds, in the order they were selected.
    **/
-  private FeatureVector features = new FeatureVector ();
+  private final FeatureSet features = new FeatureSet ();
 
   /**
    *  A Vector containing the FeatureSegment objects that this selection
@@ -856,7 +847,7 @@ public class Selection
    *  This is a cache used by getAllFeatures ().  This will be set to null
    *  anytime the selection changes.
    **/
-  private FeatureVector all_features = null;
+  private FeatureSet all_features = null;
 
   /**
    *  Each Selection object can hold one MarkerRange.
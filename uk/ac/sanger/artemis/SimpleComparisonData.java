@@ -32,13 +32,12 @@ import uk.ac.sanger.artemis.util.OutOfRangeException;
 import uk.ac.sanger.artemis.util.LinePushBackReader;
 
 import java.io.*;
-import java.util.StringTokenizer;
-import java.util.Vector;
-import java.util.Hashtable;
 
 /**
  *  This class contains methods that are common to all ComparisonData
  *  objects.  In particular it has methods for managing AlignMatch objects.
+ *  The matches are held in an AlignMatchStore, which only makes AlignMatch
+ *  objects for the matches that are asked for.
  *
  *  @author Kim Rutherford <kmr@sanger.ac.uk>
  *  @version $Id: SimpleComparisonData.java,v 1.3 2005-11-17 16:50:50 tjc Exp $
@@ -46,11 +45,8 @@ import java.util.Hashtable;
 
 abstract class SimpleComparisonData implements ComparisonData 
 {
-  /** array of matches created by the constructor */
-  private AlignMatch [] matches;
-
-  /** array is used as a buffer */
-  private AlignMatch [] match_buffer;
+  /** The matches read by the constructor or set by setMatches() */
+  private AlignMatchStore store;
 
   /** Set by the constructor and returned by getMaximumScore() */
   private int max_score = -1;
@@ -58,11 +54,8 @@ abstract class SimpleComparisonData implements ComparisonData
   /** Set by the constructor and returned by getMinimumScore() */
   private int min_score = 999999999;
 
-  /** Set by setMatches() to be the highest base we see in the subject */
-  private int subject_sequence_max_base = -1;
-
-  /** Set by setMatches() to be the highest base we see in the query   */
-  private int query_sequence_max_base = -1;
+  /** The most fields that are split from a line by splitFields() */
+  private static final int MAX_FIELDS = 16;
 
   /**
    *  Create a new SimpleComparisonData by reading from the given
@@ -71,7 +64,7 @@ abstract class SimpleComparisonData implements ComparisonData
   public SimpleComparisonData(final LinePushBackReader stream)
       throws IOException 
   {
-    final Vector align_match_vector = new Vector();
+    final AlignMatchStore new_store = new AlignMatchStore();
 
     String line;
 
@@ -84,15 +77,11 @@ abstract class SimpleComparisonData implements ComparisonData
 
       // not a blank line or a comment
       if(new_match != null) 
-        align_match_vector.addElement(new_match);
+        new_store.add(new_match);
     }
 
-    final AlignMatch[] matches = new AlignMatch[align_match_vector.size()];
-
-    for(int i = 0; i < matches.length; ++i) 
-      matches[i] = (AlignMatch)align_match_vector.elementAt(i);
-
-    setMatches(matches);
+    new_store.trimToSize();
+    setMatches(new_store);
   }
 
   /**
@@ -102,13 +91,228 @@ abstract class SimpleComparisonData implements ComparisonData
   {
   }
 
+  /**
+   *  Read the matches from a stream of the comparison file.  Lines are split
+   *  into fields and passed to addMatchFromFields() without making a String
+   *  for each line.  Lines that it can't handle are passed to
+   *  makeMatchFromString().
+   **/
+  void readMatches(final InputStream stream)
+      throws IOException 
+  {
+    final AlignMatchStore new_store = new AlignMatchStore();
+
+    final byte[] buffer = new byte[65536];
+    byte[] line = new byte[1024];
+    int line_length = 0;
+    final int[] field_starts = new int[MAX_FIELDS];
+    final int[] field_ends   = new int[MAX_FIELDS];
+    boolean skip_newline = false;
+    int buffer_length;
+
+    while((buffer_length = stream.read(buffer)) >= 0)
+    {
+      for(int i = 0; i < buffer_length; ++i)
+      {
+        final byte b = buffer[i];
+
+        if(b == '\n' || b == '\r')
+        {
+          // \r\n ends one line
+          if(b == '\n' && skip_newline)
+          {
+            skip_newline = false;
+            continue;
+          }
+          skip_newline = (b == '\r');
+
+          addMatchFromLine(line, line_length, field_starts, field_ends,
+                           new_store);
+          line_length = 0;
+        }
+        else
+        {
+          skip_newline = false;
+          if(line_length == line.length)
+          {
+            final byte[] new_line = new byte[line.length * 2];
+            System.arraycopy(line, 0, new_line, 0, line_length);
+            line = new_line;
+          }
+          line[line_length++] = b;
+        }
+      }
+    }
+
+    addMatchFromLine(line, line_length, field_starts, field_ends, new_store);
+
+    new_store.trimToSize();
+    setMatches(new_store);
+  }
+
+  /**
+   *  Add the match from a line of the comparison file, if it has one.
+   **/
+  private void addMatchFromLine(final byte[] line, final int line_length,
+                                final int[] field_starts,
+                                final int[] field_ends,
+                                final AlignMatchStore new_store)
+      throws IOException 
+  {
+    boolean blank = true;
+    for(int i = 0; i < line_length && blank; ++i)
+      if((line[i] & 0xff) > ' ')
+        blank = false;
+
+    if(blank)
+      return;
+
+    if(addMatchFromFields(line, line_length, field_starts, field_ends,
+                          new_store))
+      return;
+
+    final AlignMatch new_match =
+      makeMatchFromString(new String(line, 0, line_length));
+
+    // not a comment
+    if(new_match != null)
+      new_store.add(new_match);
+  }
+
+  /**
+   *  Parse a line of the comparison file without making a String and add
+   *  its match (if any) to the store.  The default implementation handles
+   *  no lines.
+   *  @param line The line is in the first line_length bytes of this array.
+   *  @param field_starts Space that can be passed to splitFields().
+   *  @param field_ends Space that can be passed to splitFields().
+   *  @return false if the line wasn't handled, in which case it is passed to
+   *    makeMatchFromString().  This should happen for any line that is in
+   *    error so that the error is reported in the same way.
+   **/
+  protected boolean addMatchFromFields(final byte[] line, final int line_length,
+                                       final int[] field_starts,
+                                       final int[] field_ends,
+                                       final AlignMatchStore new_store)
+  {
+    return false;
+  }
+
+  /**
+   *  Split a line into fields.
+   *  @param separator The byte between fields.
+   *  @param collapse If true separators at the start and end of the line
+   *    are ignored and several separators in a row count as one, like
+   *    StringTokenizer.  If false there is a field between each pair of
+   *    separators, even if it is empty.
+   *  @return The number of fields, which are returned in field_starts and
+   *    field_ends.  If the line has more fields than these arrays can hold
+   *    the length of the arrays plus one is returned.
+   **/
+  protected static int splitFields(final byte[] line, final int line_length,
+                                   final byte separator,
+                                   final boolean collapse,
+                                   final int[] field_starts,
+                                   final int[] field_ends)
+  {
+    int field_count = 0;
+    int start = 0;
+
+    for(int i = 0; i <= line_length; ++i)
+    {
+      if(i < line_length && line[i] != separator)
+        continue;
+
+      if(!collapse || i > start)
+      {
+        if(field_count == field_starts.length)
+          return field_count + 1;
+        field_starts[field_count] = start;
+        field_ends[field_count] = i;
+        ++field_count;
+      }
+      start = i + 1;
+    }
+
+    return field_count;
+  }
+
+  /**
+   *  Return true if and only if a field of a line is the given character.
+   **/
+  protected static boolean fieldEquals(final byte[] line, final int start,
+                                       final int end, final char c)
+  {
+    return end == start + 1 && line[start] == c;
+  }
+
+  /**
+   *  Parse an integer from a field of a line, the same as Integer.valueOf().
+   *  @exception NumberFormatException Thrown if the field isn't an integer
+   *    or has more than 9 digits.
+   **/
+  protected static int parseInt(final byte[] line, final int start,
+                                final int end)
+  {
+    return parseInt(line, start, end, false);
+  }
+
+  /**
+   *  Parse a decimal from a field of a line and return its integer part, the
+   *  same as (int) Float.valueOf(...).floatValue().
+   *  @exception NumberFormatException Thrown if the field isn't a plain
+   *    decimal, or if it has so many digits that converting it to a float
+   *    might change its integer part.
+   **/
+  protected static int parseIntPart(final byte[] line, final int start,
+                                    final int end)
+  {
+    return parseInt(line, start, end, true);
+  }
+
+  private static int parseInt(final byte[] line, final int start,
+                              final int end, final boolean allow_fraction)
+  {
+    int i = start;
+    boolean negative = false;
+
+    if(i < end && (line[i] == '-' || line[i] == '+'))
+    {
+      negative = (line[i] == '-');
+      ++i;
+    }
+
+    int value = 0;
+    int digits = 0;
+    for(; i < end && line[i] >= '0' && line[i] <= '9'; ++i)
+    {
+      value = value * 10 + (line[i] - '0');
+      ++digits;
+    }
+
+    int fraction_digits = 0;
+    if(allow_fraction && i < end && line[i] == '.')
+    {
+      for(++i; i < end && line[i] >= '0' && line[i] <= '9'; ++i)
+        ++fraction_digits;
+    }
+
+    // a float has 24 bits, which is enough for 7 digits
+    if(i != end || digits == 0 || digits > 9 ||
+       (fraction_digits > 0 && digits + fraction_digits > 7))
+      throw new NumberFormatException(new String(line, start, end - start));
+
+    return negative ? -value : value;
+  }
+
   /**
    *  Return an array containing all the AlignMatch objects for this
-   *  comparison.
+   *  comparison.  This makes an object for every match; use getMatchStore()
+   *  to look at the matches without doing that.
    **/
   public AlignMatch[] getMatches() 
   {
-    return matches;
+    return store.getMatches();
   }
 
   
@@ -142,24 +346,7 @@ abstract class SimpleComparisonData implements ComparisonData
         final SimpleComparisonData new_comparison_data =
                                    getNewSimpleComparisonData();
 
-        int length = matches.length;
-        final AlignMatch[] new_matches = new AlignMatch[length];
-
-        for(int i = 0; i < length; ++i)
-        {
-          final AlignMatch this_match = matches[i];
-
-          final AlignMatch new_match =
-            new AlignMatch(this_match.getQuerySequenceRange(),
-                           this_match.getSubjectSequenceRange(),
-                           this_match.isRevMatch(),
-                           this_match.getScore(),
-                           this_match.getPercentID());
-
-          new_matches[i] = new_match;
-        }
-
-        new_comparison_data.setMatches(new_matches);
+        new_comparison_data.setMatches(getMatchStore().swapSubjectAndQuery());
 
         return new_comparison_data;
       } 
@@ -219,52 +406,36 @@ abstract class SimpleComparisonData implements ComparisonData
   private AlignMatch checkMatches(final Bases subject_sequence,
                                   final Bases query_sequence) 
   {
-    int length = matches.length;
+    final AlignMatchStore store = getMatchStore();
+    final int subject_length = subject_sequence.getLength();
+    final int query_length = query_sequence.getLength();
+
+    final int length = store.size();
     for(int i = 0; i < length; ++i) 
     {
-      final AlignMatch match = matches[i];
-
-      if(match.getSubjectSequenceStart() > subject_sequence.getLength() ||
-         match.getSubjectSequenceEnd() > subject_sequence.getLength()) 
-        return match;
-
-      if(match.getQuerySequenceStart() > query_sequence.getLength() ||
-         match.getQuerySequenceEnd() > query_sequence.getLength())
-        return match;
+      if(store.getSubjectEnd(i) > subject_length ||
+         store.getQueryEnd(i) > query_length) 
+        return store.getMatch(i, AlignMatchStore.makeFlyweight());
     }
 
     return null;
   }
 
-
   /**
-   *  Set the array of AlignMatch objects.
+   *  Set the matches of this comparison.
    **/
-  protected void setMatches(final AlignMatch[] matches) 
+  protected void setMatches(final AlignMatchStore store) 
   {
-    this.matches = matches;
-
-    int length = matches.length;
-    match_buffer = new AlignMatch[length];
-
-    for(int i = 0 ; i < length ; ++i) 
-    {
-      final AlignMatch this_match = matches[i];
-
-      final int score = this_match.getScore();
-
-      final int this_match_subject_sequence_end =
-        this_match.getSubjectSequenceEnd();
-
-      final int this_match_query_sequence_end =
-        this_match.getQuerySequenceEnd();
-
-      if(this_match_subject_sequence_end > subject_sequence_max_base) 
-        subject_sequence_max_base = this_match_subject_sequence_end;
+    this.store = store;
+  }
 
-      if(this_match_query_sequence_end > query_sequence_max_base) 
-        query_sequence_max_base = this_match_query_sequence_end;
-    }
+  /**
+   *  Return the matches of this comparison without making AlignMatch
+   *  objects for them.
+   **/
+  public AlignMatchStore getMatchStore()
+  {
+    return store;
   }
 
   /**
@@ -316,12 +487,10 @@ abstract class SimpleComparisonData implements ComparisonData
    **/
   private void setMinMaxScore()
   {
-    int length = matches.length;
+    final int length = store.size();
     for(int i = 0; i < length; ++i) 
     {
-      final AlignMatch this_match = matches[i];
-
-      final int score = this_match.getScore();
+      final int score = store.getScore(i);
 
       if(score > -1) 
       {
@@ -66,6 +66,13 @@ public class SimpleEntryGroup extends EntryVector
   /** vector of entries that are currently active (visible). */
   final private EntryVector active_entries = new EntryVector();
 
+  /**
+   *  The number of features in the active entries before each active entry,
+   *  with the total at the end.  Set to null when an active entry or the
+   *  features of an entry change.
+   **/
+  private int[] feature_count_prefix = null;
+
   /**
    *  The default Entry for this SimpleEntryGroup.  The "default" is the Entry
    *  where new features are created.
@@ -165,22 +172,19 @@ public class SimpleEntryGroup extends EntryVector
    **/
   public int indexOf(Feature feature) 
   {
-    int feature_count_of_previous_entries = 0;
-    final int active_entries_size = active_entries.size();
+    final Entry feature_entry = feature.getEntry();
+    if(feature_entry == null)
+      return -1;
 
-    for(int entry_index = 0; entry_index < active_entries_size;
-        ++entry_index) 
-    {
-      final Entry this_entry  = active_entries.elementAt(entry_index);
-      final int feature_index = this_entry.indexOf(feature);
-
-      if(feature_index != -1) 
-        return feature_index + feature_count_of_previous_entries;
+    final int entry_index = active_entries.indexOf(feature_entry);
+    if(entry_index == -1)
+      return -1;
 
-      feature_count_of_previous_entries += this_entry.getFeatureCount();
-    }
+    final int feature_index = feature_entry.indexOf(feature);
+    if(feature_index == -1)
+      return -1;
 
-    return -1;
+    return feature_index + getFeatureCountPrefix()[entry_index];
   }
 
   /**
@@ -247,6 +251,7 @@ public class SimpleEntryGroup extends EntryVector
         }
 
         active_entries.removeAllElements();
+        feature_count_prefix = null;
 
         final int new_active_entries_size = new_active_entries.size();
 
@@ -282,6 +287,7 @@ public class SimpleEntryGroup extends EntryVector
       else
       {
         active_entries.removeElement(entry);
+        feature_count_prefix = null;
 
         if(entry == getDefaultEntry()) 
         {
@@ -460,23 +466,52 @@ public class SimpleEntryGroup extends EntryVector
    **/
   public Feature featureAt(int index) 
   {
-    if(index < 0) 
+    final int[] prefix = getFeatureCountPrefix();
+    if(index < 0 || index >= prefix[prefix.length - 1]) 
       throw new Error("internal error - index out of range: " + index);
 
-    final int active_entries_size = active_entries.size();
-
-    for(int entry_index = 0; entry_index < active_entries_size; 
-        ++entry_index)
+    // find the last active entry that starts at or before index
+    int low = 0;
+    int high = prefix.length - 2;
+    while(low < high)
     {
-      final Entry this_entry = active_entries.elementAt(entry_index);
+      final int mid = (low + high + 1) / 2;
+      if(prefix[mid] <= index)
+        low = mid;
+      else
+        high = mid - 1;
+    }
 
-      if(index < this_entry.getFeatureCount()) 
-        return this_entry.getFeature(index);
+    return active_entries.elementAt(low).getFeature(index - prefix[low]);
+  }
 
-      index -= this_entry.getFeatureCount();
-    }
+  /**
+   *  Return the prefix counts of the features of the active entries (see
+   *  feature_count_prefix), counting them if they have changed.  The counts
+   *  are not kept while an indexed GFF entry is active.
+   **/
+  private int[] getFeatureCountPrefix()
+  {
+    int[] prefix = feature_count_prefix;
+    if(prefix == null)
+    {
+      final int active_entries_size = active_entries.size();
+      prefix = new int[active_entries_size + 1];
+      boolean cache = true;
+      for(int i = 0; i < active_entries_size; ++i)
+      {
+        final Entry entry = active_entries.elementAt(i);
+        prefix[i + 1] = prefix[i] + entry.getFeatureCount();
 
-    throw new Error("internal error - index out of range: " + index);
+        // the features of an indexed GFF entry change without an event when
+        // the reference sequence changes (see updateReference())
+        if(entry.getEMBLEntry() instanceof IndexedGFFDocumentEntry)
+          cache = false;
+      }
+      if(cache)
+        feature_count_prefix = prefix;
+    }
+    return prefix;
   }
 
   /**
@@ -578,18 +613,8 @@ public class SimpleEntryGroup extends EntryVector
    **/
   public int getAllFeaturesCount() 
   {
-    int return_count = 0;
-    final int my_size = size();
-
-    for(int i = 0; i < my_size; ++i) 
-    {
-      final Entry this_entry = elementAt(i);
-
-      if(isActive(this_entry)) 
-        return_count += this_entry.getFeatureCount();
-    }
-
-    return return_count;
+    final int[] prefix = getFeatureCountPrefix();
+    return prefix[prefix.length - 1];
   }
 
   /**
@@ -605,6 +630,7 @@ public class SimpleEntryGroup extends EntryVector
       default_entry = entry;
 
     active_entries.add(entry);
+    feature_count_prefix = null;
 
     // now inform the listeners that an addition has occured
     final EntryGroupChangeEvent event =
@@ -683,6 +709,7 @@ public class SimpleEntryGroup extends EntryVector
     entry.removeFeatureChangeListener(this);
 
     active_entries.removeElement(entry);
+    feature_count_prefix = null;
 
     // now inform the listeners that a deletion has occured
     final EntryGroupChangeEvent event =
@@ -867,6 +894,14 @@ public class SimpleEntryGroup extends EntryVector
    **/
   public void entryChanged(EntryChangeEvent event) 
   {
+    switch(event.getType())
+    {
+      case EntryChangeEvent.FEATURE_ADDED:
+      case EntryChangeEvent.FEATURE_DELETED:
+        feature_count_prefix = null;
+        break;
+    }
+
     // pass the action straight through
     fireEvent(entry_listener_list, event);
   }
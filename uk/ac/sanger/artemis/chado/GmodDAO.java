@@ -191,7 +191,7 @@ public abstract class GmodDAO
     return null;
   }
   
-  public List getFeaturesByUniqueNames(List name)
+  public List<Feature> getFeaturesByUniqueNames(List<String> name)
   {
     return null;  
   }
@@ -27,7 +27,6 @@ package uk.ac.sanger.artemis.chado;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Hashtable;
 import java.util.Vector;
 import java.sql.*;
 
@@ -287,6 +286,18 @@ public class IBatisDAO extends GmodDAO
   }
    
   
+  /**
+   * Return the features with any of the given uniquenames, with their
+   * type name and timelastmodified but not their properties.
+   * @param names the uniquenames
+   * @return the <code>List</code> of <code>Feature</code>
+   */
+  @SuppressWarnings("unchecked")
+  public List<Feature> getFeaturesByUniqueNames(List<String> names)
+  {
+    return sqlMap.queryForList("getFeaturesByUniqueNames", names);
+  }
+
   /**
    * Return a list of features with any current (ie non-obsolete) name or synonym  
    * @param name the lookup name
@@ -1368,34 +1379,22 @@ public class IBatisDAO extends GmodDAO
     sqlMap.commitTransaction();
   }
 
+  /**
+   * Collect the following inserts, updates and deletes into JDBC batches
+   * until executeBatch() is called. They must not depend on any query
+   * made before then. This must be within a transaction.
+   */
+  public void startBatch()
+  {
+    sqlMap.startBatch();
+  }
 
   /**
-   * Takes a list and creates a <code>Hashtable</code> with the keys
-   * being the feature_id and the value a <code>Vector</code> of the dbxrefs.
-   * @param list  a <code>List</code> of <code>DbXRef</code> objects.
-   * @return a <code>Hashtable</code> of dbxrefs.
+   * Send the inserts, updates and deletes collected since startBatch().
+   * @return the number of rows changed
    */
-  public static Hashtable<Integer, List<String>> mergeDbXRef(final List<FeatureDbXRef> list)
+  public int executeBatch()
   {
-    Hashtable<Integer, List<String>> dbxrefHash = new Hashtable<Integer, List<String>>();
-    for(FeatureDbXRef dbxref : list)
-    {
-      Integer feature_id = new Integer(dbxref.getFeature().getFeatureId());
-      String value = dbxref.getDbXRef().getDb().getName() + ":" + 
-                     dbxref.getDbXRef().getAccession();
-      if(dbxrefHash.containsKey(feature_id))
-      {
-        List<String> v = dbxrefHash.get(feature_id);
-        v.add(value);
-        dbxrefHash.put(feature_id, v);
-      }  
-      else
-      {
-        List<String> v = new Vector<String>();
-        v.add(value);
-        dbxrefHash.put(feature_id, v);
-      }
-    }
-    return dbxrefHash;
+    return sqlMap.executeBatch();
   }
 }
@@ -2320,10 +2320,56 @@ public class JdbcDAO extends GmodDAO
     return null;
   }
 
-  public List getFeaturesByUniqueNames(List arg0)
+  /**
+   * Return the features with any of the given uniquenames, with their
+   * type name and timelastmodified but not their properties.
+   * @param names the uniquenames
+   * @return the <code>List</code> of <code>Feature</code>
+   */
+  public List<Feature> getFeaturesByUniqueNames(List<String> names)
   {
-    // TODO Auto-generated method stub
-    return null;
+    final List<Feature> list = new Vector<Feature>();
+    if(names.size() == 0)
+      return list;
+
+    final StringBuffer sqlBuff = new StringBuffer(
+        "SELECT timelastmodified, f.feature_id, uniquename, f.name,"+
+        " f.is_obsolete, f.type_id, cvterm.name AS type_name FROM feature f"+
+        " LEFT JOIN cvterm ON f.type_id=cvterm.cvterm_id WHERE uniquename IN (");
+    for(int i=0; i<names.size(); i++)
+      sqlBuff.append(i == 0 ? "?" : ",?");
+    sqlBuff.append(")");
+
+    final String sql = new String(sqlBuff);
+    appendToLogFile(sql, sqlLog);
+    try
+    {
+      PreparedStatement pstmt = conn.prepareStatement(sql);
+      for(int i=0; i<names.size(); i++)
+        pstmt.setString(i+1, names.get(i));
+
+      ResultSet rs = pstmt.executeQuery();
+      while(rs.next())
+      {
+        Feature feature = new Feature();
+        feature.setFeatureId(rs.getInt("feature_id"));
+        feature.setUniqueName(rs.getString("uniquename"));
+        feature.setName(rs.getString("name"));
+        feature.setObsolete(rs.getBoolean("is_obsolete"));
+        feature.setTimeLastModified(rs.getTimestamp("timelastmodified"));
+
+        CvTerm cvTerm = new CvTerm();
+        cvTerm.setCvTermId(rs.getInt("type_id"));
+        cvTerm.setName(rs.getString("type_name"));
+        feature.setCvTerm(cvTerm);
+        list.add(feature);
+      }
+    }
+    catch(SQLException sqle)
+    {
+      throw new RuntimeException(sqle);
+    }
+    return list;
   }
 
   public List getTableColumns(String tableName)
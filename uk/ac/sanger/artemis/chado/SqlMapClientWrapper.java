@@ -147,6 +147,33 @@ public class SqlMapClientWrapper
     sqlMap.commitTransaction();
   }
 
+  protected void startBatch()
+  {
+    try
+    {
+      sqlMap.startBatch();
+    }
+    catch(SQLException e)
+    {
+      logger4j.error("startBatch() "+e.getMessage());
+      throw new RuntimeException(e);
+    }
+  }
+  
+  protected int executeBatch()
+  {
+    try
+    {
+      return sqlMap.executeBatch();
+    }
+    catch(SQLException e)
+    {
+      logger4j.error("executeBatch() "+
+          System.getProperty("chado")+"\n"+e.getMessage());
+      throw new RuntimeException(e);
+    }
+  }
+  
   protected SqlMapClient getSqlMap()
   {
     return sqlMap;
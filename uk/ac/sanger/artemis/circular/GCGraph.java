@@ -20,8 +20,6 @@
 
 package uk.ac.sanger.artemis.circular;
 
-import uk.ac.sanger.artemis.io.Sequence;
-
 public class GCGraph extends Graph
 {
   private static final long serialVersionUID = 1L;
@@ -37,28 +35,10 @@ public class GCGraph extends Graph
    **/
   protected float calculateValue(int start, int end)
   {
-    char[] sequence;
-    if(end<=getBases().getLength())
-      sequence = 
-        getBases().getSequence().getCharSubSequence(start, end);
-    else 
-    {
-      final Sequence s = getBases().getSequence();
-      char[] seq1 = s.getCharSubSequence(start, getBases().getLength());
-      char[] seq2 = s.getCharSubSequence(1, getWindowSize()-(getBases().getLength()-start));
-      sequence = new char[seq1.length+seq2.length];
-      System.arraycopy(seq1, 0, sequence, 0, seq1.length);
-      System.arraycopy(seq2, 0, sequence, seq1.length-1, seq2.length);
-    }
-    
-    float gc_count = 0;
-
-    for (int i = 0 ; i < sequence.length ; ++i) 
-    {
-      final char this_char = sequence[i];
-      if (this_char == 'g' || this_char == 'c')
-        ++gc_count;
-    }
-    return gc_count/sequence.length * 100;
+    final int counts[] = new int[4];
+    final float length = getBaseCounts(start, end, counts);
+    final float gc_count = counts[1] + counts[3];
+    return gc_count/length * 100;
   }
+
 }
\ No newline at end of file
@@ -20,8 +20,6 @@
 
 package uk.ac.sanger.artemis.circular;
 
-import uk.ac.sanger.artemis.io.Sequence;
-
 public class GCSkewGraph extends Graph
 {
   private static final long serialVersionUID = 1L;
@@ -37,35 +35,13 @@ public class GCSkewGraph extends Graph
   */
   protected float calculateValue(int start, int end)
   {
-    char[] sequence;
-    if(end<=getBases().getLength())
-      sequence = 
-        getBases().getSequence().getCharSubSequence(start, end);
-    else 
-    {
-      final Sequence s = getBases().getSequence();
-      char[] seq1 = s.getCharSubSequence(start, getBases().getLength());
-      char[] seq2 = s.getCharSubSequence(1, getWindowSize()-(getBases().getLength()-start));
-      sequence = new char[seq1.length+seq2.length];
-      System.arraycopy(seq1, 0, sequence, 0, seq1.length);
-      System.arraycopy(seq2, 0, sequence, seq1.length-1, seq2.length);
-    }
-
-    
-    float g_count = 0;
-    float c_count = 0;
-
-    for (int i = 0 ; i < sequence.length ; ++i) 
-    {
-      final char this_char = sequence[i];
+    final int counts[] = new int[4];
+    getBaseCounts(start, end, counts);
 
-      if (this_char == 'g') 
-        ++g_count;
-
-      if (this_char == 'c')
-        ++c_count;
-    }
+    final float g_count = counts[3];
+    final float c_count = counts[1];
 
     return (g_count - c_count) / (g_count + c_count);
   }
+
 }
\ No newline at end of file
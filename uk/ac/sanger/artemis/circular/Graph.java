@@ -35,7 +35,9 @@ import java.awt.geom.AffineTransform;
 
 import javax.swing.*;
 
+import uk.ac.sanger.artemis.io.Range;
 import uk.ac.sanger.artemis.sequence.Bases;
+import uk.ac.sanger.artemis.util.OutOfRangeException;
 
 public abstract class Graph extends JPanel
 {
@@ -240,6 +242,37 @@ public abstract class Graph extends JPanel
   	return currentDna.getBases();
   }
 
+  /**
+   * Count the bases from start to end, continuing from the start of the
+   * sequence for any part of the window past its end.
+   * @param counts returns the counts indexed as Bases.getIndexOfBase()
+   * @return the number of bases in the window
+   */
+  protected int getBaseCounts(int start, int end, int counts[])
+  {
+    final Bases bases = getBases();
+    try
+    {
+      if(end <= bases.getLength())
+      {
+        bases.getBaseCounts(new Range(start, end), Bases.FORWARD, counts);
+        return end-start+1;
+      }
+
+      final int wrap = getWindowSize()-(bases.getLength()-start);
+      final int wrapCounts[] = new int[4];
+      bases.getBaseCounts(new Range(start, bases.getLength()), Bases.FORWARD, counts);
+      bases.getBaseCounts(new Range(1, wrap), Bases.FORWARD, wrapCounts);
+      for(int i=0; i<4; i++)
+        counts[i] += wrapCounts[i];
+      return bases.getLength()-start+1+wrap;
+    }
+    catch(OutOfRangeException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+  }
+
   public int getStrokeSize() 
   {
 	return strokeSize;
@@ -0,0 +1,230 @@
+/* AlignMatchIndex.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components;
+
+import java.util.Arrays;
+
+import uk.ac.sanger.artemis.AlignMatchStore;
+
+/**
+ *  An index of the subject and query ranges of the matches in an
+ *  AlignMatchStore, used by AlignmentViewer to find the matches in the visible
+ *  parts of the sequences without looking at every match.  Matches are
+ *  returned as indices into the store, in increasing order.  Positions are
+ *  in the original orientation of the sequences.  The index must be made
+ *  again if the ranges of the matches change.
+ **/
+class AlignMatchIndex
+{
+  final private IntervalIndex subject_index;
+
+  final private IntervalIndex query_index;
+
+  /**
+   *  Create a new index of the given matches.
+   **/
+  AlignMatchIndex(final AlignMatchStore matches)
+  {
+    final int count = matches.size();
+    final int[] subject_starts = new int[count];
+    final int[] subject_ends   = new int[count];
+    final int[] query_starts   = new int[count];
+    final int[] query_ends     = new int[count];
+
+    for(int i = 0; i < count; ++i)
+    {
+      subject_starts[i] = matches.getSubjectStart(i);
+      subject_ends[i]   = matches.getSubjectEnd(i);
+      query_starts[i]   = matches.getQueryStart(i);
+      query_ends[i]     = matches.getQueryEnd(i);
+    }
+
+    subject_index = new IntervalIndex(subject_starts, subject_ends);
+    query_index   = new IntervalIndex(query_starts, query_ends);
+  }
+
+  /**
+   *  Return the indices of the matches that overlap any of the given ranges
+   *  of the subject sequence.
+   **/
+  int[] getSubjectMatches(final int[] starts, final int[] ends)
+  {
+    final IntBuffer buffer = new IntBuffer();
+    for(int i = 0; i < starts.length; ++i)
+      subject_index.find(starts[i], ends[i], buffer);
+    return buffer.toSortedArray();
+  }
+
+  /**
+   *  Return the indices of the matches that overlap any of the given ranges
+   *  of the query sequence.
+   **/
+  int[] getQueryMatches(final int[] starts, final int[] ends)
+  {
+    final IntBuffer buffer = new IntBuffer();
+    for(int i = 0; i < starts.length; ++i)
+      query_index.find(starts[i], ends[i], buffer);
+    return buffer.toSortedArray();
+  }
+
+  /**
+   *  Return the indices of the matches that overlap the given range of the
+   *  subject sequence or the given range of the query sequence (or both).
+   **/
+  int[] getMatches(final int subject_start, final int subject_end,
+                   final int query_start, final int query_end)
+  {
+    final IntBuffer buffer = new IntBuffer();
+    subject_index.find(subject_start, subject_end, buffer);
+    query_index.find(query_start, query_end, buffer);
+    return buffer.toSortedArray();
+  }
+
+  /**
+   *  A static interval index: the intervals sorted by start with a
+   *  segment tree of the maximum end, so that the intervals overlapping a
+   *  range are found in O(log n) time per interval.
+   **/
+  private static class IntervalIndex
+  {
+    /** The indices of the intervals in order of start. */
+    final private int[] order;
+
+    /** The starts of the intervals in order of start. */
+    final private int[] starts;
+
+    /**
+     *  The maximum end of the intervals below each node, with the leaves
+     *  (in order of start) from tree_size.
+     **/
+    final private int[] max_ends;
+
+    final private int tree_size;
+
+    IntervalIndex(final int[] interval_starts, final int[] interval_ends)
+    {
+      final int count = interval_starts.length;
+
+      // sorting start << 32 | index sorts by start and keeps the index
+      final long[] keys = new long[count];
+      for(int i = 0; i < count; ++i)
+        keys[i] = (long) interval_starts[i] << 32 | i;
+      Arrays.sort(keys);
+
+      order  = new int[count];
+      starts = new int[count];
+      for(int i = 0; i < count; ++i)
+      {
+        order[i]  = (int) keys[i];
+        starts[i] = interval_starts[order[i]];
+      }
+
+      int size = 1;
+      while(size < count)
+        size <<= 1;
+      tree_size = size;
+
+      max_ends = new int[2 * size];
+      Arrays.fill(max_ends, Integer.MIN_VALUE);
+      for(int i = 0; i < count; ++i)
+        max_ends[size + i] = interval_ends[order[i]];
+      for(int i = size - 1; i > 0; --i)
+        max_ends[i] = Math.max(max_ends[2 * i], max_ends[2 * i + 1]);
+    }
+
+    /**
+     *  Add the indices of the intervals that overlap start..end to the
+     *  buffer.
+     **/
+    void find(final int start, final int end, final IntBuffer buffer)
+    {
+      if(starts.length == 0)
+        return;
+
+      // the intervals before this position are the ones that start at or
+      // before the end of the range
+      int low = 0;
+      int high = starts.length;
+      while(low < high)
+      {
+        final int mid = (low + high) >>> 1;
+        if(starts[mid] <= end)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+
+      find(1, 0, tree_size, low, start, buffer);
+    }
+
+    /**
+     *  Add the intervals under the given node that are before position
+     *  limit and that end at or after start.
+     **/
+    private void find(final int node, final int node_start, final int node_end,
+                      final int limit, final int start, final IntBuffer buffer)
+    {
+      if(node_start >= limit || max_ends[node] < start)
+        return;
+
+      if(node >= tree_size)
+      {
+        buffer.add(order[node_start]);
+        return;
+      }
+
+      final int mid = (node_start + node_end) >>> 1;
+      find(2 * node, node_start, mid, limit, start, buffer);
+      find(2 * node + 1, mid, node_end, limit, start, buffer);
+    }
+  }
+
+  /**
+   *  A growable array of int.
+   **/
+  private static class IntBuffer
+  {
+    private int[] values = new int[64];
+    private int size = 0;
+
+    void add(final int value)
+    {
+      if(size == values.length)
+        values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    /**
+     *  Return the values in increasing order without duplicates.
+     **/
+    int[] toSortedArray()
+    {
+      Arrays.sort(values, 0, size);
+      int unique = 0;
+      for(int i = 0; i < size; ++i)
+        if(unique == 0 || values[i] != values[unique - 1])
+          values[unique++] = values[i];
+      return Arrays.copyOf(values, unique);
+    }
+  }
+}
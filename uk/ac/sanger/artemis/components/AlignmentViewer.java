@@ -39,6 +39,8 @@ import java.awt.event.*;
 import java.util.Vector;
 import java.util.Comparator;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import javax.swing.*;
 
 import org.apache.batik.svggen.SVGGraphics2D;
@@ -65,10 +67,17 @@ public class AlignmentViewer extends CanvasPanel
   final private ComparisonData comparison_data;
 
   /** 
-   *  All the AlignMatch objects from comparison_data (possibly in a
-   *  different order.
+   *  All the matches from comparison_data.  They are drawn from the store
+   *  by index and an AlignMatch is only made for a match that is clicked on,
+   *  selected or saved.
    **/
-  private AlignMatch[] all_matches = null;
+  private AlignMatchStore all_matches = null;
+
+  /**
+   *  Index of the positions of all_matches.  Made when needed and set to
+   *  null when the matches change.
+   **/
+  private AlignMatchIndex match_index = null;
 
   /**
    *  This is the last DisplayAdjustmentEvent reference that was passed to
@@ -199,7 +208,7 @@ public class AlignmentViewer extends CanvasPanel
     this.subject_feature_display = subject_feature_display;
     this.query_feature_display   = query_feature_display;
     this.comparison_data         = comparison_data;
-    this.all_matches             = getComparisonData().getMatches();
+    this.all_matches             = getComparisonData().getMatchStore();
 
     subject_entry_group          = getSubjectDisplay().getEntryGroup();
     query_entry_group            = getQueryDisplay().getEntryGroup();
@@ -319,126 +328,80 @@ public class AlignmentViewer extends CanvasPanel
    **/
   public void selectFromSubjectRanges(final RangeVector select_ranges) 
   {
-    if(disable_selection_from_ranges) 
-      return;
-
-    selected_matches = null;
-    final int all_matches_length = all_matches.length;
-    final int select_ranges_size = select_ranges.size();
-
-    final Strand current_subject_fwd_strand =
-                              getSubjectForwardStrand();
-
-    final int subject_length = current_subject_fwd_strand.getSequenceLength();
-
-    for(int match_index = 0; match_index < all_matches_length; ++match_index)
-    {
-      final AlignMatch this_match = all_matches[match_index];
-
-      if(!isVisible(this_match))
-        continue;
-
-      int subject_sequence_start = getRealSubjectSequenceStart(this_match,
-          subject_length,
-          (getOrigSubjectForwardStrand() != current_subject_fwd_strand));
-      int subject_sequence_end = getRealSubjectSequenceEnd(this_match,
-          subject_length,
-          (getOrigSubjectForwardStrand() != current_subject_fwd_strand));
-
-      if(subject_sequence_end < subject_sequence_start)
-      {
-        final int tmp = subject_sequence_start;
-        subject_sequence_start = subject_sequence_end;
-        subject_sequence_end = tmp;
-      }
-
-      for(int range_index = 0; range_index < select_ranges_size; ++range_index)
-      {
-        final Range select_range = (Range) select_ranges.elementAt(range_index);
-        final int select_range_start = select_range.getStart();
-        final int select_range_end = select_range.getEnd();
-
-        if(select_range_start < subject_sequence_start
-            && select_range_end < subject_sequence_start)
-          continue;
-
-        if(select_range_start > subject_sequence_end &&
-           select_range_end   > subject_sequence_end) 
-          continue;
-
-        if(selected_matches == null) 
-          selected_matches = new AlignMatchVector();
-
-        //if(!selected_matches.contains(this_match)) 
-        selected_matches.add(this_match);
-        break;
-      }
-    }
-
-    if(selected_matches != null)
-      selectionChanged();
-    else
-      repaint();
+    selectFromRanges(select_ranges, true);
   }
 
   /**
    *  Select those matches that overlap the given range on the query sequence.
    **/
   public void selectFromQueryRanges(final RangeVector select_ranges) 
+  {
+    selectFromRanges(select_ranges, false);
+  }
+
+  /**
+   *  Select those matches that overlap the given ranges on the subject or
+   *  query sequence.
+   **/
+  private void selectFromRanges(final RangeVector select_ranges,
+                                final boolean subject) 
   {
     if(disable_selection_from_ranges) 
       return;
 
     selected_matches = null;
     final int select_ranges_size = select_ranges.size();
-    final int all_matches_length = all_matches.length;
-    final Strand current_query_forward_strand = getQueryForwardStrand();
-    final int query_length =
-          current_query_forward_strand.getSequenceLength();
 
-    for(int match_index = 0; match_index < all_matches_length; ++match_index)
+    final int sequence_length;
+    final boolean flipped;
+    if(subject)
     {
-      final AlignMatch this_match = all_matches[match_index];
-
-      if(!isVisible(this_match))
-        continue;
-
-      int query_sequence_start = getRealQuerySequenceStart(this_match,
-          query_length,
-          (getOrigQueryForwardStrand() != current_query_forward_strand));
-      int query_sequence_end = getRealQuerySequenceEnd(this_match,
-          query_length,
-          (getOrigQueryForwardStrand() != current_query_forward_strand));
+      sequence_length = getSubjectForwardStrand().getSequenceLength();
+      flipped = subjectIsRevComp();
+    }
+    else
+    {
+      sequence_length = getQueryForwardStrand().getSequenceLength();
+      flipped = queryIsRevComp();
+    }
 
-      if(query_sequence_end < query_sequence_start)
+    // the matches are indexed by their positions on the original strands
+    final int[] starts = new int[select_ranges_size];
+    final int[] ends   = new int[select_ranges_size];
+    for(int range_index = 0; range_index < select_ranges_size; ++range_index)
+    {
+      final Range select_range = select_ranges.elementAt(range_index);
+      if(flipped)
       {
-        final int tmp = query_sequence_start;
-        query_sequence_start = query_sequence_end;
-        query_sequence_end = tmp;
+        starts[range_index] = sequence_length - select_range.getEnd() + 1;
+        ends[range_index]   = sequence_length - select_range.getStart() + 1;
       }
-
-      for(int range_index = 0; range_index < select_ranges_size; ++range_index)
+      else
       {
-        final Range select_range = (Range) select_ranges.elementAt(range_index);
-        final int select_range_start = select_range.getStart();
-        final int select_range_end = select_range.getEnd();
-        if(select_range_start < query_sequence_start
-            && select_range_end < query_sequence_start) 
-          continue;
+        starts[range_index] = select_range.getStart();
+        ends[range_index]   = select_range.getEnd();
+      }
+    }
 
-        if(select_range_start > query_sequence_end &&
-           select_range_end > query_sequence_end) 
-          continue;
+    final AlignMatchIndex index = getMatchIndex();
+    final int[] match_indices;
+    if(subject)
+      match_indices = index.getSubjectMatches(starts, ends);
+    else
+      match_indices = index.getQueryMatches(starts, ends);
 
-        if(selected_matches == null) 
-          selected_matches = new AlignMatchVector();
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
+    for(int i = 0; i < match_indices.length; ++i)
+    {
+      if(!isVisible(all_matches.getMatch(match_indices[i], flyweight)))
+        continue;
 
-        //if(!selected_matches.contains(this_match)) 
-        selected_matches.add(this_match);
-        break;
-      }
+      if(selected_matches == null) 
+        selected_matches = new AlignMatchVector();
+
+      selected_matches.add(all_matches.getMatch(match_indices[i]));
     }
-    
+
     if(selected_matches != null)
       selectionChanged();
     else
@@ -546,8 +509,10 @@ public class AlignmentViewer extends CanvasPanel
           final String query = getQueryEntryGroup().getDefaultEntry().getName();
           final String subject = getSubjectEntryGroup().getDefaultEntry().getName();
 
-          for(int i = 0; i < all_matches.length; ++i)
-            MSPcrunchComparisonData.writeMatchFromAlignMatch(all_matches[i],
+          final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
+          for(int i = 0; i < all_matches.size(); ++i)
+            MSPcrunchComparisonData.writeMatchFromAlignMatch(
+                                               all_matches.getMatch(i, flyweight),
                                                query, subject,
                                                out_writer);
           out_writer.close();
@@ -932,7 +897,6 @@ public class AlignmentViewer extends CanvasPanel
     final boolean subject_flipped = subjectIsRevComp();
     final boolean query_flipped   = queryIsRevComp();
 
-    final int all_matches_length = all_matches.length;
     final float base_width       = last_subject_event.getBaseWidth();
     final float query_base_width = last_query_event.getBaseWidth();
     
@@ -940,20 +904,28 @@ public class AlignmentViewer extends CanvasPanel
     final int query_start   = last_query_event.getStart();
     final boolean subject_is_rev_comp = subjectIsRevComp();
     final boolean query_is_rev_comp   = queryIsRevComp();
-    boolean is_rev_match;
-    int[] match_x_positions;
+    final int[] match_x_positions = new int[4];
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
 
-    for(int i = all_matches_length - 1; i >= 0 ; --i) 
-    {
-      final AlignMatch this_match = all_matches [i];
+    // the selected matches are drawn after the others
+    final int[] visible_matches = getMatchesInView(canvas_width);
+    final int visible_count = visible_matches.length;
+    final int selected_count =
+      (selected_matches == null ? 0 : selected_matches.size());
 
-      is_rev_match = this_match.isRevMatch();
-      match_x_positions =
-        getMatchCoords(canvas_width, this_match, subject_length, query_length,
-                       subject_flipped, query_flipped, base_width, query_base_width, subject_start, 
-                       query_start, subject_is_rev_comp, query_is_rev_comp, is_rev_match);
+    for(int i = visible_count + selected_count - 1; i >= 0 ; --i) 
+    {
+      final AlignMatch this_match;
+      if(i >= visible_count)
+        this_match = selected_matches.elementAt(i - visible_count);
+      else
+        this_match = all_matches.getMatch(visible_matches[i], flyweight);
 
-      if(match_x_positions == null) 
+      if(!getMatchCoords(canvas_width, this_match, subject_length, query_length,
+                         subject_flipped, query_flipped, base_width, query_base_width,
+                         subject_start, query_start, subject_is_rev_comp,
+                         query_is_rev_comp, this_match.isRevMatch(),
+                         match_x_positions)) 
         continue;
 
       if(!isVisible(this_match)) 
@@ -982,18 +954,72 @@ public class AlignmentViewer extends CanvasPanel
          click_point.x <= match_right_x + 1 ||
          click_point.x <= match_left_x + 1 &&
          click_point.x >= match_right_x - 1) 
-        return this_match;
+      {
+        if(i >= visible_count)
+          return this_match;
+        else
+          return all_matches.getMatch(visible_matches[i]);
+      }
     }
 
     return null;
   }
 
+  /**
+   *  Return the index of the positions of all_matches, making it if the
+   *  matches have changed.
+   **/
+  private AlignMatchIndex getMatchIndex()
+  {
+    if(match_index == null)
+      match_index = new AlignMatchIndex(all_matches);
+    return match_index;
+  }
+
+  /**
+   *  Return the indices in all_matches of the matches that overlap the
+   *  visible part of the subject sequence or of the query sequence, in
+   *  order.
+   **/
+  private int[] getMatchesInView(final int canvas_width)
+  {
+    final int[] subject_range =
+      getRangeInView(last_subject_event, canvas_width,
+                     getSubjectForwardStrand().getSequenceLength(),
+                     subjectIsRevComp());
+    final int[] query_range =
+      getRangeInView(last_query_event, canvas_width,
+                     getQueryForwardStrand().getSequenceLength(),
+                     queryIsRevComp());
+
+    return getMatchIndex().getMatches(subject_range[0], subject_range[1],
+                                      query_range[0], query_range[1]);
+  }
+
+  /**
+   *  Return the range of bases on the original strand that are visible
+   *  in a display, with an extra base at each end.
+   **/
+  private static int[] getRangeInView(final DisplayAdjustmentEvent event,
+                                      final int canvas_width,
+                                      final int sequence_length,
+                                      final boolean flipped)
+  {
+    final int start = event.getStart() - 1;
+    final int end =
+      event.getStart() + (int) (canvas_width / event.getBaseWidth()) + 1;
+
+    if(flipped)
+      return new int[] { sequence_length - end + 1, sequence_length - start + 1 };
+    else
+      return new int[] { start, end };
+  }
+
   /**
    *  This method is called by setSelection() and others whenever the list of
    *  selected/highlighted hits changes. Calls alignmentSelectionChanged()
-   *  on all interested AlignmentSelectionChangeListener objects, moves the
-   *  selected matches to the top of the display and then calls
-   *  repaint
+   *  on all interested AlignmentSelectionChangeListener objects and then
+   *  calls repaint.  The selected matches are drawn on top of the others.
    **/
   private void selectionChanged()
   {
@@ -1012,37 +1038,6 @@ public class AlignmentViewer extends CanvasPanel
     if(selected_matches == null)
       return;
 
-    final int selected_matches_size = selected_matches.size();
-    if(selected_matches != null && selected_matches_size > 0) 
-    {
-      // a count of the number of selected matches seen so far
-      int seen_and_selected_count = 0;
-      final int all_matches_length = all_matches.length;
-
-      for(int i = 0 ; i < all_matches_length ; ++i) 
-      {
-        final AlignMatch this_match = all_matches[i];
-
-        if(selected_matches.contains(this_match)) 
-          ++seen_and_selected_count;
-        else
-        { 
-          if(seen_and_selected_count > 0) 
-          {
-            // move the matches down to fill the gap
-            all_matches[i-seen_and_selected_count] = all_matches[i];
-          }
-        }
-      }
-
-      // put the selected_matches at the end of all_matches
-      for(int i = 0; i < selected_matches_size; ++i) 
-      {
-        all_matches[all_matches_length - selected_matches_size + i] =
-          selected_matches.elementAt(i);
-      }
-    }
-
     repaint();
   }
 
@@ -1385,21 +1380,46 @@ public class AlignmentViewer extends CanvasPanel
     final boolean subject_is_rev_comp = subjectIsRevComp();
     final boolean query_is_rev_comp   = queryIsRevComp();
     boolean is_rev_match;
-    int[] match_x_positions;
     AlignMatch this_match;
-    final int all_matches_length = all_matches.length;    
-
-    for(int i = 0 ; i < all_matches_length ; ++i) 
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
+
+    final int[] match_x_positions = new int[4];
+    final int[] x_coords = new int[4];
+    final int[] y_coords = new int[4];
+
+    // the lines already drawn for matches that are narrower than a pixel in
+    // both sequences, by position and colour
+    final HashSet<Long> narrow_lines = new HashSet<Long>();
+
+    // only the matches in view are drawn, with the selected matches after
+    // the others so that they are on top
+    final int[] visible_matches = getMatchesInView(canvas_width);
+    final int visible_count = visible_matches.length;
+    final int selected_count =
+      (selected_matches == null ? 0 : selected_matches.size());
+    final IdentityHashMap<AlignMatch, AlignMatch> selected =
+      new IdentityHashMap<AlignMatch, AlignMatch>();
+    for(int i = 0; i < selected_count; ++i)
+      selected.put(selected_matches.elementAt(i), selected_matches.elementAt(i));
+
+    for(int i = 0 ; i < visible_count + selected_count ; ++i) 
     {
-      this_match = all_matches[i];
+      final boolean highlight_this_match = (i >= visible_count);
 
-      is_rev_match = this_match.isRevMatch();
-      match_x_positions =
-        getMatchCoords(canvas_width, this_match, subject_length, query_length,
-                       subject_flipped, query_flipped, base_width, query_base_width, subject_start, 
-                       query_start, subject_is_rev_comp, query_is_rev_comp, is_rev_match);
+      if(highlight_this_match)
+        this_match = selected_matches.elementAt(i - visible_count);
+      else
+      {
+        this_match = all_matches.getMatch(visible_matches[i], flyweight);
+        if(selected.containsKey(this_match))
+          continue;
+      }
 
-      if(match_x_positions == null) 
+      is_rev_match = this_match.isRevMatch();
+      if(!getMatchCoords(canvas_width, this_match, subject_length, query_length,
+                         subject_flipped, query_flipped, base_width, query_base_width,
+                         subject_start, query_start, subject_is_rev_comp,
+                         query_is_rev_comp, is_rev_match, match_x_positions)) 
         continue;
 
       if(!isVisible(this_match)) 
@@ -1410,38 +1430,19 @@ public class AlignmentViewer extends CanvasPanel
       final int query_start_x   = match_x_positions[2];
       final int query_end_x     = match_x_positions[3];
 
-      final int[] x_coords = new int[4];
-      final int[] y_coords = new int[4];
-
-      x_coords[0] = subject_start_x;
-      y_coords[0] = 0;
-      x_coords[1] = query_start_x;
-      y_coords[1] = canvas_height;
-      x_coords[2] = query_end_x;
-      y_coords[2] = canvas_height;
-      x_coords[3] = subject_end_x;
-      y_coords[3] = 0;
-
-      final boolean highlight_this_match;
-
-      if(selected_matches != null &&
-         selected_matches.contains(this_match)) 
-        highlight_this_match = true;
-      else 
-        highlight_this_match = false;
-
       final int percent_id = this_match.getPercentID();
+      final Color colour;
 
       if(highlight_this_match)
-        g.setColor (Color.yellow);
+        colour = Color.yellow;
       else 
       {
         if(percent_id == -1) 
         {
           if(is_rev_match)
-            g.setColor(revMatchColour);
+            colour = revMatchColour;
           else 
-            g.setColor(matchColour);
+            colour = matchColour;
         } 
         else 
         {
@@ -1456,12 +1457,44 @@ public class AlignmentViewer extends CanvasPanel
           }
 
           if(is_rev_match && !reverseMatchColour) 
-            g.setColor(blue_percent_id_colours[colour_index]);
+            colour = blue_percent_id_colours[colour_index];
           else
-            g.setColor(red_percent_id_colours[colour_index]);
+            colour = red_percent_id_colours[colour_index];
         }
       }
 
+      g.setColor(colour);
+
+      if(!highlight_this_match &&
+         subject_end_x - subject_start_x <= 1 &&
+         subject_end_x - subject_start_x >= -1 &&
+         query_end_x - query_start_x <= 1 &&
+         query_end_x - query_start_x >= -1)
+      {
+        // a match this narrow is drawn as a line, which only needs drawing
+        // once for all the matches with the same ends and colour
+        final long line_key =
+          (long) (subject_start_x + 32768) << 48 |
+          (long) (query_start_x + 32768) << 32 |
+          (colour.getRGB() & 0xffffffffL);
+
+        if(narrow_lines.add(Long.valueOf(line_key)))
+        {
+          g.drawLine(subject_start_x, 0, query_start_x, canvas_height);
+          g.drawLine(subject_end_x, 0, query_end_x, canvas_height);
+        }
+        continue;
+      }
+
+      x_coords[0] = subject_start_x;
+      y_coords[0] = 0;
+      x_coords[1] = query_start_x;
+      y_coords[1] = canvas_height;
+      x_coords[2] = query_end_x;
+      y_coords[2] = canvas_height;
+      x_coords[3] = subject_end_x;
+      y_coords[3] = 0;
+
       g.fillPolygon(x_coords, y_coords, x_coords.length);
 
       if(subject_end_x - subject_start_x < 5 &&
@@ -1582,32 +1615,17 @@ public class AlignmentViewer extends CanvasPanel
   }
 
   /**
-   * Remove AlignMatch from the all_matches array
-   * @param collection of indexes to be removed from the array
+   * Remove matches from all_matches
+   * @param collection of indexes to be removed, in increasing order
    */
   private void removeMatches(Vector<Integer> index)
   {
-    AlignMatch tmp_matches[] = new AlignMatch[all_matches.length - index.size()];
-    int start_old  = 0;
-    int curr_index = 0;
-
-    for(int i=0; i<index.size(); i++)
-    {
-      curr_index = ( index.get(i) ).intValue();
+    final int[] indices = new int[index.size()];
+    for(int i=0; i<indices.length; i++)
+      indices[i] = index.get(i).intValue();
 
-      if(curr_index !=0)
-        System.arraycopy(all_matches, start_old, tmp_matches,
-                         start_old-i, curr_index-start_old);
-      start_old = curr_index+1;
-    }
-
-    if(start_old < all_matches.length)
-      System.arraycopy(all_matches, start_old, tmp_matches,
-                       start_old-index.size(), 
-                       all_matches.length-start_old);
-
-    this.all_matches = new AlignMatch[tmp_matches.length];
-    this.all_matches = tmp_matches;
+    all_matches.removeMatches(indices);
+    match_index = null;
   }
   
   /**
@@ -1634,18 +1652,21 @@ public class AlignmentViewer extends CanvasPanel
 
     Vector<Integer> matches_to_split = new Vector<Integer>();
     Vector<Integer> removals = new Vector<Integer>();
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
+    AlignMatch this_match;
 
-    for(int i=0; i<all_matches.length; i++)
+    for(int i=0; i<all_matches.size(); i++)
     {
+      this_match = all_matches.getMatch(i, flyweight);
       if(subject)
       {
-        match_start = all_matches[i].getSubjectSequenceStart();
-        match_end   = all_matches[i].getSubjectSequenceEnd();
+        match_start = this_match.getSubjectSequenceStart();
+        match_end   = this_match.getSubjectSequenceEnd();
       }
       else
       {
-        match_start = all_matches[i].getQuerySequenceStart();
-        match_end   = all_matches[i].getQuerySequenceEnd();
+        match_start = this_match.getQuerySequenceStart();
+        match_end   = this_match.getQuerySequenceEnd();
       }
 
       // catch matches that span 2 contigs that need moving
@@ -1655,16 +1676,16 @@ public class AlignmentViewer extends CanvasPanel
       {
         // check query and subject ranges same length
         //
-        if( (all_matches[i].getQuerySequenceEnd()-
-             all_matches[i].getQuerySequenceStart()) !=
-            (all_matches[i].getSubjectSequenceStart()-
-             all_matches[i].getSubjectSequenceEnd()) )
+        if( (this_match.getQuerySequenceEnd()-
+             this_match.getQuerySequenceStart()) !=
+            (this_match.getSubjectSequenceStart()-
+             this_match.getSubjectSequenceEnd()) )
         {
           // this match extends past end of contig
           if(delete_overlaps == -1) 
           {
-            Range q_range = all_matches[i].getQuerySequenceRange();
-            Range s_range = all_matches[i].getSubjectSequenceRange();
+            Range q_range = this_match.getQuerySequenceRange();
+            Range s_range = this_match.getSubjectSequenceRange();
             delete_overlaps = JOptionPane.showConfirmDialog(null,
                   "Found a match that extends past the boundary of a contig\n"+
                   "with query and subject ranges of different lengths:\n"+
@@ -1685,27 +1706,25 @@ public class AlignmentViewer extends CanvasPanel
       }
     }
 
-    // now split the matches
-    AlignMatch tmp_matches[] = new AlignMatch[all_matches.length+
-                                              matches_to_split.size()];
-    System.arraycopy(all_matches, 0, tmp_matches,
-                     0, all_matches.length);
+    // now split the matches, adding the second part of each to the end
     int tmp_match_start;
+    int new_index;
 
     for(int i=0; i<matches_to_split.size(); i++)
     {
       curr_index = matches_to_split.get(i).intValue();
 
       //
+      this_match = all_matches.getMatch(curr_index, flyweight);
       if(subject)
       {
-        match_start = tmp_matches[curr_index].getSubjectSequenceStart();
-        match_end   = tmp_matches[curr_index].getSubjectSequenceEnd();
+        match_start = this_match.getSubjectSequenceStart();
+        match_end   = this_match.getSubjectSequenceEnd();
       }
       else
       {
-        match_start = tmp_matches[curr_index].getQuerySequenceStart();
-        match_end   = tmp_matches[curr_index].getQuerySequenceEnd();
+        match_start = this_match.getQuerySequenceStart();
+        match_end   = this_match.getQuerySequenceEnd();
       }
 
       if(match_start <= start && match_end >= start)
@@ -1715,36 +1734,36 @@ public class AlignmentViewer extends CanvasPanel
       else
         split_at = drop_position-1;
 
-      tmp_matches[curr_index].setRange(match_start, split_at, subject, false);
-      tmp_matches[all_matches.length+i] = AlignMatch.copy(tmp_matches[curr_index]);
-      tmp_matches[all_matches.length+i].setRange(split_at+1, match_end, subject, false);
+      all_matches.setRange(curr_index, match_start, split_at, subject, false);
+      new_index = all_matches.copyMatch(curr_index);
+      all_matches.setRange(new_index, split_at+1, match_end, subject, false);
 
       tmp_match_start = match_start;
       //
+      this_match = all_matches.getMatch(curr_index, flyweight);
       if(!subject)
       {
-        match_start = tmp_matches[curr_index].getSubjectSequenceStart();
-        match_end   = tmp_matches[curr_index].getSubjectSequenceEnd();
+        match_start = this_match.getSubjectSequenceStart();
+        match_end   = this_match.getSubjectSequenceEnd();
       }
       else
       {
-        match_start = tmp_matches[curr_index].getQuerySequenceStart();
-        match_end   = tmp_matches[curr_index].getQuerySequenceEnd();
+        match_start = this_match.getQuerySequenceStart();
+        match_end   = this_match.getQuerySequenceEnd();
       }
 
       split_at = match_start+(tmp_match_start-split_at);
-      tmp_matches[curr_index].setRange(match_start, split_at, !subject, false);
+      all_matches.setRange(curr_index, match_start, split_at, !subject, false);
 
-      if(tmp_matches[curr_index].isRevMatch())
+      if(this_match.isRevMatch())
         split_at--;
       else
         split_at++;
 
-      tmp_matches[all_matches.length+i].setRange(split_at, match_end, !subject, false);
+      all_matches.setRange(new_index, split_at, match_end, !subject, false);
     }
 
-    this.all_matches = new AlignMatch[tmp_matches.length];
-    this.all_matches = tmp_matches;
+    match_index = null;
 
     if(removals.size() > 0)
       removeMatches(removals);
@@ -1768,18 +1787,20 @@ public class AlignmentViewer extends CanvasPanel
     //int delete_overlaps = -1;
 
     //Vector removals = new Vector();
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
 
-    for(int i = 0; i < all_matches.length; ++i)
+    for(int i = 0; i < all_matches.size(); ++i)
     {
+      final AlignMatch this_match = all_matches.getMatch(i, flyweight);
       if(subject)
       {
-        match_start = all_matches[i].getSubjectSequenceStart();
-        match_end   = all_matches[i].getSubjectSequenceEnd();
+        match_start = this_match.getSubjectSequenceStart();
+        match_end   = this_match.getSubjectSequenceEnd();
       }
       else
       {
-        match_start = all_matches[i].getQuerySequenceStart();
-        match_end   = all_matches[i].getQuerySequenceEnd();
+        match_start = this_match.getQuerySequenceStart();
+        match_end   = this_match.getQuerySequenceEnd();
       }
 
       if(match_start >= start || match_start>=drop_position)
@@ -1791,14 +1812,14 @@ public class AlignmentViewer extends CanvasPanel
           {
             match_start = match_start + (end-start+1);
             match_end   = match_end   + (end-start+1);
-            all_matches[i].setRange(match_start, match_end, subject, false);
+            all_matches.setRange(i, match_start, match_end, subject, false);
           } 
           else if(match_start >= start && match_start <= end &&  // within contig
                   match_end   >= start && match_end <= end)
           {
             match_start = match_start - (start - drop_position);
             match_end   = match_end   - (start - drop_position);
-            all_matches[i].setRange(match_start, match_end, subject, false);
+            all_matches.setRange(i, match_start, match_end, subject, false);
           }
         }
         else
@@ -1808,19 +1829,20 @@ public class AlignmentViewer extends CanvasPanel
           {
             match_start = match_start + (drop_position-end-1);
             match_end   = match_end   + (drop_position-end-1);
-            all_matches[i].setRange(match_start, match_end, subject, false); 
+            all_matches.setRange(i, match_start, match_end, subject, false); 
           }
           else if(match_start > end && match_start < drop_position &&
                   match_end  > end && match_end < drop_position)
           {
             match_start = match_start - (end-start+1);
             match_end   = match_end   - (end-start+1);
-            all_matches[i].setRange(match_start, match_end, subject, false);
+            all_matches.setRange(i, match_start, match_end, subject, false);
           }
         }
       }
     }
 
+    match_index = null;
   }
 
   /**
@@ -1836,20 +1858,22 @@ public class AlignmentViewer extends CanvasPanel
     int match_end;
     int delete_overlaps = -1;
     Vector<Integer> removals = new Vector<Integer>();
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
 
-    for(int i = 0; i < all_matches.length; ++i)
+    for(int i = 0; i < all_matches.size(); ++i)
     {
+      final AlignMatch this_match = all_matches.getMatch(i, flyweight);
       if(subject)
       {
-        match_start = all_matches[i].getSubjectSequenceStart();
-        match_end   = all_matches[i].getSubjectSequenceEnd();
+        match_start = this_match.getSubjectSequenceStart();
+        match_end   = this_match.getSubjectSequenceEnd();
 			
        if(match_start >= start &&
           match_end <= end)
        {
          match_start = end - (match_start - start);
          match_end   = end - (match_end -start);
-         all_matches[i].setRange(match_start, match_end, subject, true);
+         all_matches.setRange(i, match_start, match_end, subject, true);
        }
        else if( (match_start >= start && match_start <= end) ||
                 (match_end <= end && match_end >= start) )
@@ -1870,15 +1894,15 @@ public class AlignmentViewer extends CanvasPanel
       }
       else
       {
-        match_start = all_matches[i].getQuerySequenceStart();
-        match_end   = all_matches[i].getQuerySequenceEnd();
+        match_start = this_match.getQuerySequenceStart();
+        match_end   = this_match.getQuerySequenceEnd();
 
         if(match_start >= start &&
            match_end <= end)
         {
           match_start = end - (match_start - start);
           match_end   = end - (match_end -start);
-          all_matches[i].setRange(match_start, match_end, subject, true);
+          all_matches.setRange(i, match_start, match_end, subject, true);
         }
         else if( (match_start >= start && match_start <= end) ||
                  (match_end <= end && match_end >= start) )
@@ -1899,6 +1923,8 @@ public class AlignmentViewer extends CanvasPanel
       }
     }
 
+    match_index = null;
+
     if(removals.size() > 0)
       removeMatches(removals);
   }
@@ -1929,11 +1955,13 @@ public class AlignmentViewer extends CanvasPanel
     AlignMatchComparator comparator = new AlignMatchComparator(subject, length,
                                                                flipped);
     int imatch = 0;
-    final AlignMatch[] sorted_all_matches = new AlignMatch[all_matches.length];   
+    final AlignMatch[] sorted_all_matches = new AlignMatch[all_matches.size()];   
+    final AlignMatch flyweight = AlignMatchStore.makeFlyweight();
     for(int i = 0; i < sorted_all_matches.length; ++i)
     {
-      if(isVisible(all_matches[i]))
-        sorted_all_matches[imatch++] = AlignMatch.copy(all_matches[i]);
+      final AlignMatch this_match = all_matches.getMatch(i, flyweight);
+      if(isVisible(this_match))
+        sorted_all_matches[imatch++] = AlignMatch.copy(this_match);
     }
 
     // sort alignment matches based on where they start
@@ -2043,18 +2071,19 @@ public class AlignmentViewer extends CanvasPanel
   }
 
   /**
-   *  Return the screen x positions of the corners of the given match.  The
+   *  Find the screen x positions of the corners of the given match.  The
    *  order is Top Left, Top Right, Bottom Left, Bottom Right, unless the
-   *  match is an inversion, in which case it will be TL,TR,BR,BL.  Returns
-   *  null if and only if the match is not currently visible.
-   **/
-  private int[] getMatchCoords(final int canvas_width, final AlignMatch this_match,
-                               final int subject_length, final int query_length,
-                               final boolean subject_flipped, final boolean query_flipped,
-                               final float base_width, final float query_base_width,
-                               final int subject_start, final int query_start,
-                               final boolean subject_is_rev_comp, final boolean query_is_rev_comp,
-                               final boolean is_rev_match)
+   *  match is an inversion, in which case it will be TL,TR,BR,BL.
+   *  @param return_values The positions are returned in this array.
+   *  @return false if and only if the match is not currently visible.
+   **/
+  private boolean getMatchCoords(final int canvas_width, final AlignMatch this_match,
+                                 final int subject_length, final int query_length,
+                                 final boolean subject_flipped, final boolean query_flipped,
+                                 final float base_width, final float query_base_width,
+                                 final int subject_start, final int query_start,
+                                 final boolean subject_is_rev_comp, final boolean query_is_rev_comp,
+                                 final boolean is_rev_match, final int[] return_values)
   {
     int subject_sequence_start =
       getRealSubjectSequenceStart(this_match,
@@ -2113,17 +2142,15 @@ public class AlignmentViewer extends CanvasPanel
        (query_off_left ? 1 : 0) +
        (subject_off_right ? 1 : 0) +
        (query_off_right ? 1 : 0) == 2) 
-      return null;
+      return false;
     else 
     {
-      final int[] return_values = new int[4];
-
       return_values[0] = subject_start_x;
       return_values[1] = subject_end_x;
       return_values[2] = query_start_x;
       return_values[3] = query_end_x;
 
-      return return_values;
+      return true;
     }
   }
 
@@ -677,22 +677,16 @@ public class BasePlot extends Plot
       // reuse the previous arrays
     }
 
-    float [] temp_values = new float [get_values_return_count];
+    getBaseAlgorithm().getValues(real_start, window_size, step_size,
+                                 value_array_array);
 
     for(int i = 0 ; i < number_of_values ; ++i) 
     {
-      getBaseAlgorithm().getValues(real_start + i * step_size,
-                                   real_start + i * step_size +
-                                   window_size - 1,
-                                   temp_values);
-
       for(int value_index = 0 ;
           value_index < get_values_return_count ;
           ++value_index) 
       {
-        final float current_value = temp_values[value_index];
-
-        value_array_array[value_index][i] = current_value;
+        final float current_value = value_array_array[value_index][i];
 
         // use the Algorithm specified maximum if there is one - otherwise
         // calculate it
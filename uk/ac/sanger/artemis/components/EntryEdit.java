@@ -800,6 +800,9 @@ public class EntryEdit extends JFrame
     getEntryGroup().removeEntryGroupChangeListener(this);
     getEntryGroup().removeEntryChangeListener(this);
 
+    if(bamView != null)
+      bamView.dispose();
+
     getEntryGroup().unref();
     
     dispose();
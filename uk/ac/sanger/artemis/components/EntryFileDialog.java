@@ -30,6 +30,7 @@ import uk.ac.sanger.artemis.util.*;
 import uk.ac.sanger.artemis.io.DatabaseDocumentEntry;
 import uk.ac.sanger.artemis.io.Entry;
 import uk.ac.sanger.artemis.io.DocumentEntryFactory;
+import uk.ac.sanger.artemis.io.DocumentEntryJournal;
 import uk.ac.sanger.artemis.io.GFFDocumentEntry;
 import uk.ac.sanger.artemis.io.ReadFormatException;
 import uk.ac.sanger.artemis.io.EntryInformation;
@@ -225,10 +226,25 @@ public class EntryFileDialog extends StickyFileChooser
    *    EntryInformation will be changed to cope.
    **/
   private static Entry getEntryFromFileHelper(final JFrame frame,
-                            final Document file_document,
+                            Document file_document,
                             final EntryInformation entry_information)
       throws ReadFormatException, IOException 
   {
+    if(file_document instanceof FileDocument)
+    {
+      // replay any autosave journal left by a crash
+      final File recovered = DocumentEntryJournal.recover(entry_information,
+                                         (FileDocument) file_document);
+      if(recovered != null)
+      {
+        final YesNoDialog yes_no_dialog = new YesNoDialog(frame,
+            "Unsaved changes to " + file_document.getName() +
+            " have been recovered to " + recovered.getPath() +
+            " - open the recovered entry?");
+        if(yes_no_dialog.getResult())
+          file_document = new FileDocument(recovered);
+      }
+    }
 
     final LogReadListener read_event_logger =
       new LogReadListener(file_document.getName());
@@ -246,6 +262,8 @@ public class EntryFileDialog extends StickyFileChooser
       throw new Error("internal error - unexpected exception: " + e);
     }
 
+    DocumentEntryJournal.makeJournal(new_entry);
+
     if(read_event_logger.seenMessage() && !Options.isBlackBeltMode())
     {
       final YesNoDialog yes_no_dialog = new YesNoDialog(frame,
@@ -0,0 +1,505 @@
+/* FeatureDensity.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import uk.ac.sanger.artemis.Entry;
+import uk.ac.sanger.artemis.EntryChangeEvent;
+import uk.ac.sanger.artemis.EntryChangeListener;
+import uk.ac.sanger.artemis.EntryGroup;
+import uk.ac.sanger.artemis.EntryGroupChangeEvent;
+import uk.ac.sanger.artemis.EntryGroupChangeListener;
+import uk.ac.sanger.artemis.Feature;
+import uk.ac.sanger.artemis.FeatureChangeEvent;
+import uk.ac.sanger.artemis.FeatureChangeListener;
+import uk.ac.sanger.artemis.FeatureEnumeration;
+import uk.ac.sanger.artemis.FeatureSegment;
+import uk.ac.sanger.artemis.FeatureSegmentVector;
+import uk.ac.sanger.artemis.io.IndexedGFFDocumentEntry;
+import uk.ac.sanger.artemis.io.Range;
+import uk.ac.sanger.artemis.sequence.SequenceChangeEvent;
+import uk.ac.sanger.artemis.sequence.SequenceChangeListener;
+
+/**
+ *  The number of bases covered by the features of an EntryGroup in bins
+ *  along the sequence, for each entry, feature key and frame.  FeatureDisplay
+ *  draws these when it is zoomed out too far to draw each feature.  The bins
+ *  are counted by a background thread and then kept up to date from the
+ *  change events of the EntryGroup.  Features of indexed GFF entries are not
+ *  counted.
+ **/
+class FeatureDensity
+    implements EntryGroupChangeListener, EntryChangeListener,
+               FeatureChangeListener, SequenceChangeListener
+{
+  private static org.apache.log4j.Logger logger4j =
+      Logger.getLogger(FeatureDensity.class);
+
+  /** The most bins used for a sequence. */
+  private static final int MAX_BINS = 16384;
+
+  /** The smallest number of bases in a bin. */
+  static final int MIN_BIN_SIZE = 32;
+
+  /** The number of frame IDs (see FeatureSegment). */
+  private static final int FRAME_COUNT = FeatureSegment.REVERSE_FRAME_1 + 1;
+
+  private final EntryGroup entry_group;
+
+  /** Run on the event dispatch thread when the bins have been counted. */
+  private final Runnable ready_action;
+
+  /** The bins, null until they have been counted. */
+  private Bins bins = null;
+
+  /**
+   *  Features that have changed while the bins are counted in the
+   *  background, which are counted again when the counting is done.
+   **/
+  private IdentityHashMap<Feature, Feature> pending = null;
+
+  /** Set if the bins need counting again when the current count finishes. */
+  private boolean recount = false;
+
+  /**
+   *  Create a FeatureDensity and start counting its bins.
+   *  @param ready_action This is run on the event dispatch thread each time
+   *    the bins have been counted.
+   **/
+  FeatureDensity(final EntryGroup entry_group, final Runnable ready_action)
+  {
+    this.entry_group = entry_group;
+    this.ready_action = ready_action;
+
+    entry_group.addEntryGroupChangeListener(this);
+    entry_group.addEntryChangeListener(this);
+    entry_group.addFeatureChangeListener(this);
+    entry_group.getBases().addSequenceChangeListener(this,
+        uk.ac.sanger.artemis.sequence.Bases.MIN_PRIORITY);
+
+    count();
+  }
+
+  /**
+   *  Return true if the bins have been counted.
+   **/
+  synchronized boolean isReady()
+  {
+    return bins != null;
+  }
+
+  /**
+   *  Return the number of bases in each bin, or 0 if the bins haven't been
+   *  counted.
+   **/
+  synchronized int getBinSize()
+  {
+    return (bins == null ? 0 : bins.bin_size);
+  }
+
+  /**
+   *  Return true if an entry has features that are not counted, because
+   *  they are read as they are needed.
+   **/
+  boolean hasUncountedEntries()
+  {
+    for(int i = 0; i < entry_group.size(); ++i)
+    {
+      final Entry entry = entry_group.elementAt(i);
+      if(entry_group.isActive(entry) &&
+         entry.getEMBLEntry() instanceof IndexedGFFDocumentEntry)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   *  Return the number of features of the active entries that start in the
+   *  bins that contain the given range of raw (forward strand) bases.
+   **/
+  synchronized int getFeatureCount(final int start, final int end)
+  {
+    if(bins == null)
+      return 0;
+
+    int count = 0;
+    final int last_bin = bins.getBin(end);
+    for(int i = bins.getBin(start); i <= last_bin; ++i)
+      count += bins.feature_starts[i];
+    return count;
+  }
+
+  /**
+   *  Return the lanes of the bins of an entry - one for each key and frame
+   *  that has features.
+   **/
+  synchronized Lane[] getLanes(final Entry entry)
+  {
+    if(bins == null)
+      return new Lane[0];
+
+    final Hashtable<String, int[][]> keys = bins.entries.get(entry);
+    if(keys == null)
+      return new Lane[0];
+
+    final Vector<Lane> lanes = new Vector<Lane>();
+    final Enumeration<String> key_enum = keys.keys();
+    while(key_enum.hasMoreElements())
+    {
+      final String key = key_enum.nextElement();
+      final int[][] frames = keys.get(key);
+      for(int frame_id = 0; frame_id < FRAME_COUNT; ++frame_id)
+        if(frames[frame_id] != null)
+          lanes.add(new Lane(key, frame_id, frames[frame_id]));
+    }
+    return lanes.toArray(new Lane[lanes.size()]);
+  }
+
+  /**
+   *  Stop listening to the EntryGroup.  The bins are not updated after this.
+   **/
+  void dispose()
+  {
+    entry_group.removeEntryGroupChangeListener(this);
+    entry_group.removeEntryChangeListener(this);
+    entry_group.removeFeatureChangeListener(this);
+    entry_group.getBases().removeSequenceChangeListener(this);
+  }
+
+  /**
+   *  Implementation of the EntryGroupChangeListener interface.
+   **/
+  public void entryGroupChanged(final EntryGroupChangeEvent event)
+  {
+    switch(event.getType())
+    {
+      case EntryGroupChangeEvent.ENTRY_ADDED:
+      case EntryGroupChangeEvent.ENTRY_DELETED:
+        count();
+        break;
+      case EntryGroupChangeEvent.DONE_GONE:
+        dispose();
+        break;
+    }
+  }
+
+  /**
+   *  Implementation of the EntryChangeListener interface.
+   **/
+  public void entryChanged(final EntryChangeEvent event)
+  {
+    switch(event.getType())
+    {
+      case EntryChangeEvent.FEATURE_ADDED:
+      case EntryChangeEvent.FEATURE_DELETED:
+        update(event.getFeature());
+        break;
+    }
+  }
+
+  /**
+   *  Implementation of the FeatureChangeListener interface.
+   **/
+  public void featureChanged(final FeatureChangeEvent event)
+  {
+    // the location, key or /codon_start (and so the frames) may have changed
+    update(event.getFeature());
+  }
+
+  /**
+   *  Implementation of the SequenceChangeListener interface.  The bins are
+   *  counted again as the length of the sequence may have changed.
+   **/
+  public void sequenceChanged(final SequenceChangeEvent event)
+  {
+    count();
+  }
+
+  /**
+   *  Count the bins of the features of the group in a background thread.
+   *  The features are found on the calling thread.
+   **/
+  private synchronized void count()
+  {
+    if(pending != null)
+    {
+      // already counting
+      recount = true;
+      return;
+    }
+    pending = new IdentityHashMap<Feature, Feature>();
+
+    final int seq_length = entry_group.getSequenceLength();
+    final Vector<Feature> features = new Vector<Feature>();
+    for(int i = 0; i < entry_group.size(); ++i)
+    {
+      final Entry entry = entry_group.elementAt(i);
+      if(entry.getEMBLEntry() instanceof IndexedGFFDocumentEntry)
+        continue;
+      final FeatureEnumeration feature_enum = entry.features();
+      while(feature_enum.hasMoreFeatures())
+      {
+        final Feature feature = feature_enum.nextFeature();
+        // make any missing segments here rather than on the counting thread
+        feature.getSegments();
+        features.add(feature);
+      }
+    }
+
+    final Thread thread = new Thread("feature density")
+    {
+      public void run()
+      {
+        final Bins new_bins = new Bins(seq_length);
+        try
+        {
+          for(Feature feature: features)
+            new_bins.add(feature);
+        }
+        catch(RuntimeException e)
+        {
+          // a feature changed while being read - count again
+          logger4j.debug("feature density: " + e.getMessage());
+          synchronized(FeatureDensity.this)
+          {
+            recount = true;
+          }
+        }
+
+        SwingUtilities.invokeLater(new Runnable()
+        {
+          public void run()
+          {
+            finishCount(new_bins);
+          }
+        });
+      }
+    };
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   *  Use the bins counted by count(), recounting the features that changed
+   *  while they were counted.
+   **/
+  private void finishCount(final Bins new_bins)
+  {
+    final boolean count_again;
+    synchronized(this)
+    {
+      final int seq_length = entry_group.getSequenceLength();
+      if(new_bins.seq_length == seq_length)
+      {
+        for(Feature feature: pending.keySet())
+        {
+          new_bins.remove(feature);
+          if(isCounted(feature))
+            new_bins.add(feature);
+        }
+        bins = new_bins;
+      }
+      else
+        recount = true;
+
+      pending = null;
+      count_again = recount;
+      recount = false;
+    }
+
+    if(count_again)
+      count();
+    else
+      ready_action.run();
+  }
+
+  /**
+   *  Update the bins of a feature that has changed, been added or removed.
+   **/
+  private synchronized void update(final Feature feature)
+  {
+    if(pending != null)
+    {
+      pending.put(feature, feature);
+      return;
+    }
+    if(bins == null)
+      return;
+
+    bins.remove(feature);
+    if(isCounted(feature))
+      bins.add(feature);
+  }
+
+  /**
+   *  Return true if the feature should be in the bins.
+   **/
+  private boolean isCounted(final Feature feature)
+  {
+    final Entry entry = feature.getEntry();
+    return entry != null && entry_group.indexOf(entry) >= 0 &&
+           !(entry.getEMBLEntry() instanceof IndexedGFFDocumentEntry) &&
+           entry.contains(feature);
+  }
+
+  /**
+   *  The bases of one key and frame of an entry covered in each bin.
+   **/
+  static class Lane
+  {
+    final String key;
+    final int frame_id;
+    final int[] coverage;
+
+    private Lane(final String key, final int frame_id, final int[] coverage)
+    {
+      this.key = key;
+      this.frame_id = frame_id;
+      this.coverage = coverage;
+    }
+  }
+
+  /**
+   *  The bins of every counted feature.
+   **/
+  private static class Bins
+  {
+    private final int seq_length;
+    private final int bin_size;
+    private final int bin_count;
+
+    /** The bins of each entry by key - one array per frame ID. */
+    private final Hashtable<Entry, Hashtable<String, int[][]>> entries =
+      new Hashtable<Entry, Hashtable<String, int[][]>>();
+
+    /** The number of features that start in each bin. */
+    private final int[] feature_starts;
+
+    /** What each feature added to the bins. */
+    private final IdentityHashMap<Feature, Contribution> contributions =
+      new IdentityHashMap<Feature, Contribution>();
+
+    private Bins(final int seq_length)
+    {
+      this.seq_length = seq_length;
+      bin_size = Math.max(MIN_BIN_SIZE, (seq_length + MAX_BINS - 1) / MAX_BINS);
+      bin_count = Math.max(1, (seq_length + bin_size - 1) / bin_size);
+      feature_starts = new int[bin_count];
+    }
+
+    /**
+     *  Return the bin of a raw base.
+     **/
+    private int getBin(final int base)
+    {
+      return Math.max(0, Math.min(bin_count - 1, (base - 1) / bin_size));
+    }
+
+    private void add(final Feature feature)
+    {
+      final FeatureSegmentVector segments = feature.getSegments();
+      final Contribution contribution = new Contribution();
+      contribution.entry = feature.getEntry();
+      contribution.key = feature.getKey().getKeyString();
+      contribution.frame_ids = new int[segments.size()];
+      contribution.ranges = new Range[segments.size()];
+      for(int i = 0; i < segments.size(); ++i)
+      {
+        contribution.frame_ids[i] = segments.elementAt(i).getFrameID();
+        contribution.ranges[i] = segments.elementAt(i).getRawRange();
+      }
+      contribution.first_bin = getBin(feature.getRawFirstBase());
+
+      contributions.put(feature, contribution);
+      addContribution(contribution, 1);
+    }
+
+    private void remove(final Feature feature)
+    {
+      final Contribution contribution = contributions.remove(feature);
+      if(contribution != null)
+        addContribution(contribution, -1);
+    }
+
+    private void addContribution(final Contribution contribution,
+                                 final int sign)
+    {
+      feature_starts[contribution.first_bin] += sign;
+
+      Hashtable<String, int[][]> keys = entries.get(contribution.entry);
+      if(keys == null)
+      {
+        keys = new Hashtable<String, int[][]>();
+        entries.put(contribution.entry, keys);
+      }
+      int[][] frames = keys.get(contribution.key);
+      if(frames == null)
+      {
+        frames = new int[FRAME_COUNT][];
+        keys.put(contribution.key, frames);
+      }
+
+      for(int i = 0; i < contribution.frame_ids.length; ++i)
+      {
+        final int frame_id = contribution.frame_ids[i];
+        if(frames[frame_id] == null)
+          frames[frame_id] = new int[bin_count];
+        final int[] coverage = frames[frame_id];
+
+        final Range range = contribution.ranges[i];
+        final int start = Math.max(1, range.getStart());
+        final int end = Math.min(seq_length, range.getEnd());
+        for(int bin = getBin(start); bin <= getBin(end); ++bin)
+        {
+          final int bin_start = bin * bin_size + 1;
+          final int bin_end = bin_start + bin_size - 1;
+          final int overlap =
+            Math.min(end, bin_end) - Math.max(start, bin_start) + 1;
+          if(overlap > 0)
+            coverage[bin] += sign * overlap;
+        }
+      }
+    }
+  }
+
+  /**
+   *  What a feature added to the bins.
+   **/
+  private static class Contribution
+  {
+    private Entry entry;
+    private String key;
+    private int[] frame_ids;
+    private Range[] ranges;
+    private int first_bin;
+  }
+}
@@ -41,6 +41,7 @@ import uk.ac.sanger.artemis.io.EntryInformation;
 import uk.ac.sanger.artemis.io.SimpleEntryInformation;
 import uk.ac.sanger.artemis.io.Key;
 import uk.ac.sanger.artemis.io.GFFStreamFeature;
+import uk.ac.sanger.artemis.io.IndexedGFFDocumentEntry;
 import uk.ac.sanger.artemis.io.RawStreamSequence;
 import uk.ac.sanger.artemis.io.FastaStreamSequence;
 import uk.ac.sanger.artemis.io.Sequence;
@@ -150,6 +151,14 @@ public class FeatureDisplay extends EntryGroupPanel
    **/
   private boolean update_visible_features = true;
 
+  /**
+   *  The coverage of the features along the sequence, which is drawn instead
+   *  of the features when there are more than feature_density_threshold
+   *  features per pixel.  Created when the display is first zoomed out that
+   *  far.
+   **/
+  private FeatureDensity feature_density = null;
+
   /** Contains those objects listening for adjustment events. */
   final private Vector<DisplayAdjustmentListener> adjustment_listener_list = 
       new Vector<DisplayAdjustmentListener>();
@@ -417,6 +426,7 @@ public class FeatureDisplay extends EntryGroupPanel
     getEntryGroup().addEntryGroupChangeListener(this);
     getEntryGroup().addEntryChangeListener(this);
     getEntryGroup().addFeatureChangeListener(this);
+    addFeatureLoadListeners();
 
     getBases().addSequenceChangeListener(this, Bases.MIN_PRIORITY);
 
@@ -1024,6 +1034,8 @@ public class FeatureDisplay extends EntryGroupPanel
       if(getOneLinePerEntryFlag()) 
         fixCanvasSize();
       
+      if(event.getType() == EntryGroupChangeEvent.ENTRY_ADDED)
+        addFeatureLoadListeners();
       needVisibleFeatureVectorUpdate();
       break;
     }
@@ -1031,6 +1043,35 @@ public class FeatureDisplay extends EntryGroupPanel
     repaint();
   }
 
+  /**
+   *  Listen for features of indexed GFF entries that have been read in the
+   *  background, so that they can be displayed.
+   **/
+  private void addFeatureLoadListeners()
+  {
+    for(int i = 0; i < getEntryGroup().size(); i++)
+    {
+      final uk.ac.sanger.artemis.io.Entry embl_entry =
+        getEntryGroup().elementAt(i).getEMBLEntry();
+      if(embl_entry instanceof IndexedGFFDocumentEntry)
+        ((IndexedGFFDocumentEntry)embl_entry).addFeatureLoadListener(
+            feature_load_listener);
+    }
+  }
+
+  /**
+   *  Redisplay when features have been read by an indexed GFF entry.
+   **/
+  private final javax.swing.event.ChangeListener feature_load_listener =
+    new javax.swing.event.ChangeListener()
+  {
+    public void stateChanged(javax.swing.event.ChangeEvent event)
+    {
+      needVisibleFeatureVectorUpdate();
+      repaint();
+    }
+  };
+
   /**
    *  Implementation of the EntryChangeListener interface.  We listen to
    *  EntryChange events so that we can update the display if features are
@@ -1371,12 +1412,28 @@ public class FeatureDisplay extends EntryGroupPanel
 
     if(raise_selection_flag)
     {
+      // move the selected features to the end, as raiseFeature() would
       final FeatureVector all_features = getSelection().getAllFeatures();
+      final java.util.IdentityHashMap<Feature, Feature> selected =
+        new java.util.IdentityHashMap<Feature, Feature>();
+      for(int i = 0 ; i < all_features.size(); ++i)
+        selected.put(all_features.elementAt(i), all_features.elementAt(i));
+
+      final java.util.IdentityHashMap<Feature, Feature> visible =
+        new java.util.IdentityHashMap<Feature, Feature>();
+      final FeatureSet raised_features = new FeatureSet();
+      for(int i = 0 ; i < visible_features.size(); ++i)
+      {
+        final Feature feature = visible_features.elementAt(i);
+        visible.put(feature, feature);
+        if(!selected.containsKey(feature))
+          raised_features.add(feature);
+      }
+      for(int i = 0 ; i < all_features.size(); ++i)
+        if(visible.containsKey(all_features.elementAt(i)))
+          raised_features.add(all_features.elementAt(i));
 
-      final int all_features_size = all_features.size();
-      for(int i = 0 ; i < all_features_size; ++i) 
-        raiseFeature(all_features.elementAt(i));
-
+      visible_features = raised_features.getFeatures();
       raise_selection_flag = false;
     }
 
@@ -1398,7 +1455,12 @@ public class FeatureDisplay extends EntryGroupPanel
     final FeatureVector real_visible_features =
       getSortedFeaturesInRange(visible_range);
 
-    final FeatureVector new_visible_features = new FeatureVector();
+    final FeatureSet new_visible_features = new FeatureSet();
+
+    // look up the features in sets so that this is linear in the number of
+    // features rather than quadratic
+    final FeatureSet real_visible_set = new FeatureSet(real_visible_features);
+    final FeatureSet old_visible_set = new FeatureSet(visible_features);
 
     // add features that are in visible_features and
     // real_visible_features - ie features that are still visible
@@ -1406,42 +1468,33 @@ public class FeatureDisplay extends EntryGroupPanel
     for(int i = 0 ; i < visible_features_size; ++i) 
     {
       final Feature new_feature = visible_features.elementAt(i);
-      if(real_visible_features.contains(new_feature)) 
-        new_visible_features.addElementAtEnd(new_feature);
+      if(real_visible_set.contains(new_feature)) 
+        new_visible_features.add(new_feature);
     }
 
     // add features that are in real_visible_features and not currently
     // in visible_features and are not selected(selected features will be
     // added last so that they stay on top).
     final int real_visible_features_size = real_visible_features.size();
+    final FeatureSet selected_visible_features = new FeatureSet();
     for(int i = 0 ; i < real_visible_features_size; ++i) 
     {
       final Feature new_feature = real_visible_features.elementAt(i);
 
-      if(!visible_features.contains(new_feature) &&
-         !getSelection().contains(new_feature)) 
-        new_visible_features.addElementAtEnd(new_feature);
+      if(old_visible_set.contains(new_feature))
+        continue;
+      if(getSelection().contains(new_feature)) 
+        selected_visible_features.add(new_feature);
+      else
+        new_visible_features.add(new_feature);
     }
 
-    final FeatureVector selection_features = getSelection().getAllFeatures();
-
     // now add features that are in real_visible_features, are not in
     // visible_features and are selected (selected features are added last so
     // that they stay on top).
-    for(int i = 0 ; i < real_visible_features_size; ++i) 
-    {
-      final Feature new_feature = real_visible_features.elementAt(i);
-      if(!visible_features.contains(new_feature) &&
-         selection_features.contains(new_feature))
-      {
-        try
-        {
-          new_visible_features.addElementAtEnd(new_feature);
-        }catch(Error e){}
-      }
-    }
+    new_visible_features.addAll(selected_visible_features.getFeatures());
 
-    visible_features = new_visible_features;
+    visible_features = new_visible_features.getFeatures();
     update_visible_features = false;
   }
 
@@ -1593,7 +1646,16 @@ public class FeatureDisplay extends EntryGroupPanel
       ((Graphics2D)g).translate(0,scrollbar_hgt);
     }
 
-    if(update_visible_features) 
+    final boolean draw_density = useFeatureDensity();
+    if(draw_density)
+    {
+      // only the selected features are drawn, on top of the density
+      visible_features = getSelectedFeaturesInView();
+      visibleFeaturesSortBySize = null;
+      visibleFeaturesSortByPosition = null;
+      update_visible_features = true;
+    }
+    else if(update_visible_features) 
     {
       updateVisibleFeatureVector();
       visibleFeaturesSortBySize = null;
@@ -1601,6 +1663,8 @@ public class FeatureDisplay extends EntryGroupPanel
     }
 
     fillBackground(g);
+    if(draw_density)
+      drawFeatureDensity(g);
 
     g.setFont(getFont());
 //  System.out.println("2 "+ System.currentTimeMillis());
@@ -1674,6 +1738,178 @@ public class FeatureDisplay extends EntryGroupPanel
     }
   }
 
+  /**
+   *  Return true if the features in view should be drawn as their density
+   *  rather than one at a time, because there are more than
+   *  feature_density_threshold features per pixel.
+   **/
+  private boolean useFeatureDensity()
+  {
+    final Integer threshold =
+      Options.getOptions().getIntegerProperty("feature_density_threshold");
+
+    if(threshold == null || threshold.intValue() <= 0 ||
+       getFeatureStackViewFlag() ||
+       getMinimumScore() > 0 || getMaximumScore() < 100)
+      return false;
+
+    final float bases_per_pixel = 1 / getScaleValue();
+    if(feature_density == null)
+    {
+      if(bases_per_pixel < FeatureDensity.MIN_BIN_SIZE)
+        return false;
+      feature_density = new FeatureDensity(getEntryGroup(), new Runnable()
+      {
+        public void run()
+        {
+          repaint();
+        }
+      });
+    }
+
+    // features of indexed entries are read as they are needed
+    if(!feature_density.isReady() ||
+       feature_density.getBinSize() > bases_per_pixel ||
+       feature_density.hasUncountedEntries())
+      return false;
+
+    final int first_base = getFirstVisibleForwardBase();
+    final int last_base = getLastVisibleForwardBase();
+    final int feature_count;
+    if(isRevCompDisplay())
+      feature_count = feature_density.getFeatureCount(
+          getSequenceLength() - last_base + 1,
+          getSequenceLength() - first_base + 1);
+    else
+      feature_count = feature_density.getFeatureCount(first_base, last_base);
+
+    return feature_count > threshold.intValue() * getDisplayWidth();
+  }
+
+  /**
+   *  Return the selected features that are in view.
+   **/
+  private FeatureVector getSelectedFeaturesInView()
+  {
+    final FeatureVector selected_features = getSelection().getAllFeatures();
+    final FeatureVector features = new FeatureVector();
+    for(int i = 0; i < selected_features.size(); ++i)
+    {
+      final Feature feature = selected_features.elementAt(i);
+      if(getEntryGroup().contains(feature) && featureVisible(feature))
+        features.add(feature);
+    }
+    return features;
+  }
+
+  /**
+   *  Draw the coverage of the features of each key of the active entries as
+   *  bars on the lines their features would be drawn on.  The height of a
+   *  bar is the fraction of the bases of the pixel that are covered.
+   **/
+  private void drawFeatureDensity(final Graphics g)
+  {
+    final int bin_size = feature_density.getBinSize();
+    final int seq_length = getSequenceLength();
+    final int display_width = getDisplayWidth();
+    final int feature_height = getFeatureHeight();
+
+    // the bin drawn in each pixel column, from the middle base of the bin
+    final int bin_count = (seq_length + bin_size - 1) / bin_size;
+    final int[] bin_columns = new int[bin_count];
+    final int[] column_bases = new int[display_width + 1];
+    for(int bin = 0; bin < bin_count; ++bin)
+    {
+      int base = bin * bin_size + bin_size / 2 + 1;
+      if(isRevCompDisplay())
+        base = seq_length - base + 1;
+
+      final int x = getLowXPositionOfBase(base);
+      if(x < 0 || x > display_width)
+        bin_columns[bin] = -1;
+      else
+      {
+        bin_columns[bin] = x;
+        column_bases[x] += bin_size;
+      }
+    }
+
+    final float[] column_coverage = new float[display_width + 1];
+    final EntryGroup entry_group = getEntryGroup();
+    for(int i = 0; i < entry_group.size(); ++i)
+    {
+      final Entry entry = entry_group.elementAt(i);
+      if(!entry_group.isActive(entry))
+        continue;
+
+      final FeatureDensity.Lane[] lanes = feature_density.getLanes(entry);
+      for(FeatureDensity.Lane lane: lanes)
+      {
+        if(lane.key.equals("source") && !getShowSourceFeatures())
+          continue;
+
+        java.util.Arrays.fill(column_coverage, 0);
+        for(int bin = 0; bin < bin_count && bin < lane.coverage.length; ++bin)
+          if(bin_columns[bin] >= 0)
+            column_coverage[bin_columns[bin]] += lane.coverage[bin];
+
+        final Color colour =
+          Options.getOptions().getDefaultFeatureColour(new Key(lane.key));
+        if(colour == null)
+          g.setColor(Color.gray);
+        else
+          g.setColor(colour);
+
+        final int vertical_offset = getLineOffset(
+            getDensityDisplayLine(i, lane.key, lane.frame_id)) + 1;
+
+        for(int x = 0; x <= display_width; ++x)
+        {
+          if(column_coverage[x] <= 0)
+            continue;
+          final float fraction =
+            Math.min(1f, column_coverage[x] / column_bases[x]);
+          final int height = Math.max(1, Math.round(fraction * feature_height));
+          g.fillRect(x, vertical_offset + feature_height - height, 1, height);
+        }
+      }
+    }
+  }
+
+  /**
+   *  Return the line on the canvas where the density of the features of an
+   *  entry with the given key and frame should be drawn.  This follows
+   *  getSegmentDisplayLine() for displays that don't stack features.
+   *  @param frame_id The frame ID of the segments (see FeatureSegment).
+   **/
+  private int getDensityDisplayLine(final int entry_index, final String key,
+                                    final int frame_id)
+  {
+    final boolean forward_line =
+      (frame_id <= FORWARD_FRAME_3) ^ isRevCompDisplay();
+    final boolean frame_line =
+      (isProteinKey(key) || frame_features_flag) &&
+      (show_forward_lines && forward_line ||
+       show_reverse_lines && !forward_line);
+
+    if(getOneLinePerEntryFlag())
+    {
+      if(frame_line)
+        return getDisplayLineOfEntryIndex(entry_index, forward_line);
+      else if(forward_line)
+        return getFrameDisplayLine(FORWARD_STRAND);
+      else
+        return getFrameDisplayLine(REVERSE_STRAND);
+    }
+
+    if(frame_line)
+      return getFrameDisplayLine(maybeFlipFrameDirection(frame_id));
+    else if(forward_line)
+      return getFrameDisplayLine(FORWARD_STRAND);
+    else
+      return getFrameDisplayLine(REVERSE_STRAND);
+  }
+
   /**
    *  Draw the background colour of the frames.
    **/
@@ -2644,7 +2880,12 @@ public class FeatureDisplay extends EntryGroupPanel
     
     if(isExonOfNonCodingTranscript(feature, key))
       return false;
-     
+
+    return isProteinKey(key);
+  }
+
+  private boolean isProteinKey(final String key)
+  {
     for(int i=0; i<protein_keys.length; i++)
     {
       if(key.equals((String)protein_keys[i]))
@@ -387,6 +387,9 @@ public class FeatureList extends EntryGroupPanel
   protected StringVector getListStrings() 
   {
     final StringVector return_vector = new StringVector();
+    if(show_correlation_scores)
+      countCompositions(getEntryGroup().getAllFeatures());
+
     final FeatureEnumeration test_enumerator = getEntryGroup().features();
 
     while(test_enumerator.hasMoreFeatures()) 
@@ -596,6 +599,9 @@ public class FeatureList extends EntryGroupPanel
         getEntryGroup().getFeaturesInIndexRange(first_index_in_view,
                                                 last_index_in_view);
 
+      if(show_correlation_scores)
+        countCompositions(features_in_view);
+
       g.setFont(getFont());
 
       final int features_in_view_size = features_in_view.size();
@@ -854,8 +860,7 @@ public class FeatureList extends EntryGroupPanel
 
     if(show_correlation_scores)
     {
-      if(feature.isCDS() || 
-         feature.getKey().getKeyString().equals(DatabaseDocument.EXONMODEL)) 
+      if(hasScores(feature)) 
       {
         new_list_line.append(getScoresString(feature));
         new_list_line.append("  ");
@@ -963,6 +968,31 @@ public class FeatureList extends EntryGroupPanel
     return buffer.toString();
   }
 
+  /**
+   *  Return true if the correlation scores are shown for the given Feature.
+   **/
+  private boolean hasScores(final Feature feature)
+  {
+    return feature.isCDS() ||
+      feature.getKey().getKeyString().equals(DatabaseDocument.EXONMODEL);
+  }
+
+  /**
+   *  Count the bases of the features that have correlation scores, together
+   *  rather than as each line is made.
+   **/
+  private void countCompositions(final FeatureVector features)
+  {
+    final FeatureVector scored_features = new FeatureVector();
+    final int features_size = features.size();
+    for(int i = 0; i < features_size; ++i)
+    {
+      if(hasScores(features.elementAt(i)))
+        scored_features.add(features.elementAt(i));
+    }
+    FeatureComposition.countAll(scored_features);
+  }
+
   /**
    *  Return a String containing the correlation scores.
    **/
@@ -539,13 +539,11 @@ public class SelectMenu extends SelectionMenu
     } else {
       getSelection ().setMarkerRange (null);
 
-      final FeatureEnumeration test_enumerator = getEntryGroup ().features ();
+      final FeatureVector features = getEntryGroup ().getAllFeatures ();
+      getSelection ().remove (features);
 
-      while (test_enumerator.hasMoreFeatures ()) {
-        final Feature this_feature = test_enumerator.nextFeature ();
-
-        getSelection ().remove (this_feature);
-        getSelection ().removeSegmentsOf (this_feature);
+      for (int i = 0 ; i < features.size () ; ++i) {
+        getSelection ().removeSegmentsOf (features.elementAt (i));
       }
     }
   }
@@ -165,6 +165,8 @@ public class SelectionViewer
     buffer.append ("\n");
 
     if (selection_features.size () > 1) {
+      FeatureComposition.countAll (selection_features);
+
       double correlation_score_total = 0;
 
       double max_gc_content = -999;
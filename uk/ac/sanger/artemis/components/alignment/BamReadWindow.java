@@ -0,0 +1,265 @@
+/* BamReadWindow
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2013  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components.alignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.sanger.artemis.Options;
+
+/**
+ * Holds the reads for the visible range of a <code>BamView</code> plus
+ * a margin either side. When the view is scrolled only the newly exposed
+ * region is read and reads that fall outside the window are dropped. When
+ * the view gets close to the edge of the window the adjacent region is
+ * read in the background.
+ */
+class BamReadWindow
+{
+  /** default margin either side of the view as a percentage of the view */
+  private static int DEFAULT_MARGIN = 100;
+
+  private final BamView bamView;
+  /** reads for each BAM in the window */
+  private List<List<BamViewRecord>> reads;
+  private String key;
+  private int start = -1;
+  private int end = -1;
+  /** incremented when the window is cleared to discard background reads */
+  private int generation = 0;
+
+  private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+  private Future<?> prefetch;
+
+  BamReadWindow(final BamView bamView)
+  {
+    this.bamView = bamView;
+  }
+
+  /**
+   * Get the reads that overlap a range, reading in any part of the
+   * range that is not already in the window.
+   * @param key         identifies the reference sequence(s) being viewed
+   * @param viewStart   start of the range
+   * @param viewEnd     end of the range
+   * @param pixPerBase
+   * @return
+   */
+  protected List<BamViewRecord> getReads(final String key,
+                                         final int viewStart,
+                                         final int viewEnd,
+                                         final float pixPerBase)
+  {
+    waitForPrefetch();
+
+    synchronized(this)
+    {
+      if(!key.equals(this.key))
+      {
+        clear();
+        this.key = key;
+      }
+
+      final int margin = getMargin(viewEnd-viewStart+1);
+      int targetStart = viewStart-margin;
+      if(targetStart < 1)
+        targetStart = 1;
+      final int targetEnd = viewEnd+margin;
+
+      if(reads == null || targetEnd < start || targetStart > end)
+      {
+        // nothing to reuse
+        reads = bamView.readRange(targetStart, targetEnd,
+            Integer.MIN_VALUE, Integer.MAX_VALUE, pixPerBase, false);
+        start = targetStart;
+        end   = targetEnd;
+      }
+      else if(viewStart < start || viewEnd > end)
+      {
+        // read the newly exposed region
+        if(targetStart < start)
+          prepend(bamView.readRange(targetStart, start-1,
+              Integer.MIN_VALUE, start-1, pixPerBase, false), targetStart);
+        if(targetEnd > end)
+          append(bamView.readRange(end+1, targetEnd,
+              end+1, Integer.MAX_VALUE, pixPerBase, false), targetEnd);
+        trim(targetStart, targetEnd);
+      }
+      else if( (viewStart-start < margin/2 && start > 1) ||
+                end-viewEnd < margin/2 )
+        startPrefetch(targetStart, targetEnd, pixPerBase);
+
+      return getReadsInRange(viewStart, viewEnd);
+    }
+  }
+
+  /**
+   * Remove all the reads, e.g. when the filtering of the reads has changed.
+   */
+  protected synchronized void clear()
+  {
+    generation++;
+    reads = null;
+    start = -1;
+    end   = -1;
+  }
+
+  private List<BamViewRecord> getReadsInRange(final int viewStart, final int viewEnd)
+  {
+    final List<BamViewRecord> inRange = new ArrayList<BamViewRecord>();
+    for(List<BamViewRecord> bamReads: reads)
+    {
+      if(bamReads == null)
+        continue;
+      for(BamViewRecord read: bamReads)
+      {
+        final int offset = bamView.getSequenceOffset(read.sam.getReferenceName());
+        if(read.sam.getAlignmentStart()+offset <= viewEnd &&
+           read.sam.getAlignmentEnd()+offset >= viewStart)
+          inRange.add(read);
+      }
+    }
+    return inRange;
+  }
+
+  /**
+   * Read the region(s) between the window and the target range in
+   * the background.
+   */
+  private void startPrefetch(final int targetStart, final int targetEnd, final float pixPerBase)
+  {
+    final int thisGeneration = generation;
+    final int windowStart = start;
+    final int windowEnd   = end;
+
+    prefetch = prefetchExecutor.submit(new Runnable()
+    {
+      public void run()
+      {
+        List<List<BamViewRecord>> before = null;
+        List<List<BamViewRecord>> after  = null;
+        if(targetStart < windowStart)
+          before = bamView.readRange(targetStart, windowStart-1,
+              Integer.MIN_VALUE, windowStart-1, pixPerBase, true);
+        if(targetEnd > windowEnd)
+          after = bamView.readRange(windowEnd+1, targetEnd,
+              windowEnd+1, Integer.MAX_VALUE, pixPerBase, true);
+
+        synchronized(BamReadWindow.this)
+        {
+          if(thisGeneration != generation ||
+             start != windowStart || end != windowEnd)
+            return;
+          if(before != null)
+            prepend(before, targetStart);
+          if(after != null)
+            append(after, targetEnd);
+          trim(targetStart, targetEnd);
+        }
+      }
+    });
+  }
+
+  private void waitForPrefetch()
+  {
+    final Future<?> f;
+    synchronized(this)
+    {
+      f = prefetch;
+      prefetch = null;
+    }
+    if(f == null)
+      return;
+
+    try
+    {
+      f.get();
+    }
+    catch(InterruptedException e) {}
+    catch(ExecutionException e)
+    {
+      BamView.logger4j.warn(e.getMessage());
+    }
+  }
+
+  private void prepend(final List<List<BamViewRecord>> newReads, final int newStart)
+  {
+    for(int i=0; i<reads.size() && i<newReads.size(); i++)
+    {
+      if(reads.get(i) == null || newReads.get(i) == null)
+        continue;
+      newReads.get(i).addAll(reads.get(i));
+      reads.set(i, newReads.get(i));
+    }
+    start = newStart;
+  }
+
+  private void append(final List<List<BamViewRecord>> newReads, final int newEnd)
+  {
+    for(int i=0; i<reads.size() && i<newReads.size(); i++)
+    {
+      if(reads.get(i) == null || newReads.get(i) == null)
+        continue;
+      reads.get(i).addAll(newReads.get(i));
+    }
+    end = newEnd;
+  }
+
+  /**
+   * Drop reads that are outside of a range.
+   */
+  private void trim(final int newStart, final int newEnd)
+  {
+    for(int i=0; i<reads.size(); i++)
+    {
+      final List<BamViewRecord> bamReads = reads.get(i);
+      if(bamReads == null)
+        continue;
+      final List<BamViewRecord> keep = new ArrayList<BamViewRecord>(bamReads.size());
+      for(BamViewRecord read: bamReads)
+      {
+        final int offset = bamView.getSequenceOffset(read.sam.getReferenceName());
+        if(read.sam.getAlignmentEnd()+offset >= newStart &&
+           read.sam.getAlignmentStart()+offset <= newEnd)
+          keep.add(read);
+      }
+      reads.set(i, keep);
+    }
+    if(start < newStart)
+      start = newStart;
+    if(end > newEnd)
+      end = newEnd;
+  }
+
+  private static int getMargin(final int viewWidth)
+  {
+    Integer margin = Options.getOptions().getIntegerProperty("bam_read_window_margin");
+    if(margin == null || margin < 0)
+      margin = DEFAULT_MARGIN;
+    return (int) ((long)viewWidth*margin/100);
+  }
+}
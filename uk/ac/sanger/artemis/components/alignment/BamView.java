@@ -68,8 +68,10 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -158,6 +160,11 @@ public class BamView extends JPanel
   private List<BamViewRecord> readsInView;
   private Hashtable<String, SAMFileReader> samFileReaderHash = new Hashtable<String, SAMFileReader>();
   private List<SAMReadGroupRecord> readGroups = new Vector<SAMReadGroupRecord>();
+  /** coverage summaries of the BAM files */
+  private Hashtable<String, CoverageIndex> coverageIndexHash = new Hashtable<String, CoverageIndex>();
+  private Set<String> coverageIndexBuilds = new HashSet<String>();
+  /** views opened from this one by openBamView() */
+  private List<BamView> bamViews = new Vector<BamView>();
 
   private HashMap<String, Integer> seqLengths = new HashMap<String, Integer>();
   private HashMap<String, Integer> offsetLengths;
@@ -197,6 +204,7 @@ public class BamView extends JPanel
   private int endBase   = -1;
   private int laststart;
   private int lastend;
+  private BamReadWindow readWindow = new BamReadWindow(this);
 
   private boolean asynchronous = true;
   private boolean showBaseAlignment = false;
@@ -587,6 +595,193 @@ public class BamView extends JPanel
     return samFileReader;
   }
 
+  /**
+   * Return the coverage index of a BAM file if it can be used with the
+   * current read filters. If the index does not exist or is out of date
+   * it is built in the background and null is returned until it is ready.
+   * @param bam
+   * @return
+   */
+  protected CoverageIndex getCoverageIndex(final String bam)
+  {
+    if(!isDefaultReadFilter() ||
+       bam.startsWith("http") || bam.startsWith("ftp") || bam.endsWith("cram"))
+      return null;
+    if(Options.getOptions().getProperty("bam_coverage_index") != null &&
+       !Options.getOptions().getPropertyTruthValue("bam_coverage_index"))
+      return null;
+
+    final File indexFile;
+    synchronized(coverageIndexHash)
+    {
+      if(coverageIndexHash.containsKey(bam))
+        return coverageIndexHash.get(bam);
+      if(coverageIndexBuilds.contains(bam))
+        return null;
+
+      indexFile = CoverageIndex.getIndexFile(bam);
+      final CoverageIndex index = CoverageIndex.open(bam, indexFile);
+      if(index != null)
+      {
+        coverageIndexHash.put(bam, index);
+        return index;
+      }
+      coverageIndexBuilds.add(bam);
+    }
+
+    final Thread build = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          logger4j.debug("Building coverage index "+indexFile);
+          CoverageIndex.build(bam, getBamIndexFile(bam), indexFile);
+          final CoverageIndex index = CoverageIndex.open(bam, indexFile);
+          if(index == null)
+            return;
+          synchronized(coverageIndexHash)
+          {
+            // the view was closed while the index was built
+            if(!coverageIndexBuilds.remove(bam))
+            {
+              index.close();
+              return;
+            }
+            coverageIndexHash.put(bam, index);
+          }
+          SwingUtilities.invokeLater(new Runnable()
+          {
+            public void run()
+            {
+              laststart = -1;
+              repaint();
+            }
+          });
+        }
+        catch(Exception e)
+        {
+          logger4j.warn("Cannot build coverage index for "+bam+" : "+e.getMessage());
+        }
+      }
+    };
+    build.setDaemon(true);
+    build.setPriority(Thread.MIN_PRIORITY);
+    build.start();
+    return null;
+  }
+
+  /**
+   * Close the coverage index files of this view. They are opened again
+   * if the view is painted.
+   */
+  private void closeCoverageIndexes()
+  {
+    synchronized(coverageIndexHash)
+    {
+      for(CoverageIndex index: coverageIndexHash.values())
+      {
+        try
+        {
+          index.close();
+        }
+        catch(IOException e)
+        {
+          logger4j.warn(e.getMessage());
+        }
+      }
+      coverageIndexHash.clear();
+      coverageIndexBuilds.clear();
+    }
+  }
+
+  /**
+   * Release the files held by this view and the views opened from it,
+   * when the window they are in is closed.
+   */
+  public void dispose()
+  {
+    closeCoverageIndexes();
+    for(BamView bamView: bamViews)
+      bamView.dispose();
+  }
+  
+  /**
+   * The coverage index counts all mapped reads, so can only be used
+   * when the reads are filtered by the default filter.
+   */
+  private boolean isDefaultReadFilter()
+  {
+    if(samRecordMapQPredicate != null)
+      return false;
+    if(!(samRecordFlagPredicate instanceof SAMRecordFlagPredicate) ||
+       !((SAMRecordFlagPredicate)samRecordFlagPredicate).isFlag(
+           SAMRecordFlagPredicate.READ_UNMAPPED_FLAG))
+      return false;
+    if(readGrpFrame != null)
+    {
+      for(SAMReadGroupRecord rg: readGroups)
+        if(!readGrpFrame.isReadGroupVisible(rg))
+          return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Add the coverage of a range to the coverage plots from the coverage
+   * index rather than reading the records.
+   * @return false if the coverage index cannot be used for this range
+   */
+  private boolean addCoverageFromIndex(final String refName, final int start, final int end,
+                                       final int offset, final String bam,
+                                       final int binSize, final int max)
+  {
+    final CoverageIndex index = getCoverageIndex(bam);
+    if(index == null)
+      return false;
+
+    // strand specific plots using the XS tag need the records
+    if(colourByStrandTag.isSelected() &&
+       (coverageView.isPlotByStrand() || (isCoverage && coveragePanel.isPlotByStrand())))
+      return false;
+    
+    // bins at the ends of the plot bins are approximated without base coverage
+    if(!index.hasBaseLevel(refName))
+    {
+      final int minWinSize = index.getFinestResolution(refName)*10;
+      if(coverageView.windowSize < minWinSize ||
+         (isCoverage && coveragePanel.windowSize < minWinSize))
+        return false;
+    }
+
+    try
+    {
+      if(max < Integer.MAX_VALUE)
+      {
+        // reads in regions over the coverage threshold are not shown
+        final long cnt[] = new long[2];
+        for(int i=start; i<=end; i+=binSize)
+        {
+          cnt[0] = 0;
+          cnt[1] = 0;
+          index.addCoverage(refName, i, i+binSize-1, cnt);
+          if(cnt[0]+cnt[1] > max)
+            return false;
+        }
+      }
+
+      coverageView.addCoverage(index, refName, start, end, offset, bam);
+      if(isCoverage)
+        coveragePanel.addCoverage(index, refName, start, end, offset, bam);
+      return true;
+    }
+    catch(IOException e)
+    {
+      logger4j.warn(e.getMessage());
+      return false;
+    }
+  }
+
   private void readHeaderPicard() throws IOException
   {
     final SAMFileReader inputSam = getSAMFileReader(bamList.get(0));
@@ -607,20 +802,29 @@ public class BamView extends JPanel
     private short bamIndex; 
     private float pixPerBase;
     private CountDownLatch latch;
-    BamReadTask(int start, int end, short bamIndex, float pixPerBase, CountDownLatch latch)  
+    private List<BamViewRecord> reads;
+    private int keepFrom;
+    private int keepTo;
+    private boolean background;
+    BamReadTask(int start, int end, short bamIndex, float pixPerBase, CountDownLatch latch,
+                List<BamViewRecord> reads, int keepFrom, int keepTo, boolean background)  
     {
       this.start = start;
       this.end = end;
       this.bamIndex = bamIndex;
       this.pixPerBase = pixPerBase;
       this.latch = latch;
+      this.reads = reads;
+      this.keepFrom = keepFrom;
+      this.keepTo = keepTo;
+      this.background = background;
     }
 
     public void run() 
     {
       try
       {
-        readFromBamPicard(start, end, bamIndex, pixPerBase) ;
+        readFromBamPicard(start, end, bamIndex, pixPerBase, reads, keepFrom, keepTo, background);
       }
       catch (OutOfMemoryError ome)
       {
@@ -637,11 +841,65 @@ public class BamView extends JPanel
     }
   }
 
+  /**
+   * Read a range from each of the visible BAM files, using a task for 
+   * each file. Only reads that start at or after <code>keepFrom</code> 
+   * and end at or before <code>keepTo</code> are kept. In the coverage
+   * view the reads are added to the coverage plot and are not kept.
+   * @param start
+   * @param end
+   * @param keepFrom
+   * @param keepTo
+   * @param pixPerBase
+   * @param background  true if this is not reading the visible range
+   * @return the reads for each BAM file (null for hidden BAMs)
+   */
+  protected List<List<BamViewRecord>> readRange(final int start, final int end, 
+                                               final int keepFrom, final int keepTo,
+                                               final float pixPerBase,
+                                               final boolean background)
+  {
+    final List<List<BamViewRecord>> reads = new Vector<List<BamViewRecord>>(bamList.size());
+    final CountDownLatch latch = new CountDownLatch(bamList.size()-hideBamList.size());
+    for(short i=0; i<bamList.size(); i++)
+    {
+      if(hideBamList.contains(i))
+      {
+        reads.add(null);
+        continue;
+      }
+      final List<BamViewRecord> bamReads = new Vector<BamViewRecord>();
+      reads.add(bamReads);
+      bamReadTaskExecutor.execute(
+          new BamReadTask(start, end, i, pixPerBase, latch, bamReads, keepFrom, keepTo, background));
+    }
+
+    try 
+    {
+      latch.await();
+    }
+    catch (InterruptedException e) {} // TODO
+    return reads;
+  }
+  
+  /**
+   * Key used to identify the reference sequence(s) being viewed.
+   */
+  private String getReadWindowKey()
+  {
+    if(isConcatSequences())
+      return "concatenated sequences";
+    return "sequence:"+combo.getSelectedItem();
+  }
+
   /**
    * Read a SAM or BAM file.
    * @throws IOException 
    */
-  private void readFromBamPicard(int start, int end, short bamIndex, float pixPerBase) 
+  private void readFromBamPicard(int start, int end, short bamIndex, float pixPerBase,
+                                 final List<BamViewRecord> reads,
+                                 final int keepFrom, final int keepTo,
+                                 final boolean background) 
           throws IOException
   {
     // Open the input file.  Automatically detects whether input is SAM or BAM
@@ -669,7 +927,8 @@ public class BamView extends JPanel
           if(thisEnd > sLen)
             thisEnd = sLen;
 
-          iterateOverBam(inputSam, seq, thisStart, thisEnd, bamIndex, pixPerBase, bam);
+          iterateOverBam(inputSam, seq, thisStart, thisEnd, bamIndex, pixPerBase, bam,
+              reads, keepFrom, keepTo, background);
           //System.out.println("READ "+seq+"  "+thisStart+".."+thisEnd+" "+start+" --- "+offset);
         }
       }
@@ -677,7 +936,8 @@ public class BamView extends JPanel
     else
     {
       String refName = (String) combo.getSelectedItem();
-      iterateOverBam(inputSam, refName, start, end, bamIndex, pixPerBase, bam);
+      iterateOverBam(inputSam, refName, start, end, bamIndex, pixPerBase, bam,
+          reads, keepFrom, keepTo, background);
     }
     //inputSam.close();
   }
@@ -689,11 +949,17 @@ public class BamView extends JPanel
    * @param refName
    * @param start
    * @param end
+   * @param reads     list to add the reads to
+   * @param keepFrom  keep reads starting at or after this base
+   * @param keepTo    keep reads ending at or before this base
    */
   private void iterateOverBam(final SAMFileReader inputSam, 
                              final String refName, final int start, final int end,
                              final short bamIndex, final float pixPerBase,
-                             final String bam)
+                             final String bam,
+                             final List<BamViewRecord> reads,
+                             final int keepFrom, final int keepTo,
+                             final boolean background)
   {
     final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
     final int checkMemAfter = 8000;
@@ -717,6 +983,13 @@ public class BamView extends JPanel
     for(int i=0; i<nbins; i++)
       cov[i] = 0;
 
+    if(isCoverageView && !isSNPplot &&
+       addCoverageFromIndex(refName, start, end, offset, bam, binSize, max))
+      return;
+
+    // the reader may also be used by the background reads
+    synchronized(inputSam)
+    {
     final CloseableIterator<SAMRecord> it = inputSam.queryOverlapping(refName, start, end);
     try
     {
@@ -759,13 +1032,15 @@ public class BamView extends JPanel
                 continue;
 
               if(isCoverageView)
+              {
                 coverageView.addRecord(samRecord, offset, bam, colourByStrandTag.isSelected());
-              if(isCoverage)
-                coveragePanel.addRecord(samRecord, offset, bam, colourByStrandTag.isSelected());
-              if(isSNPplot)
-                snpPanel.addRecord(samRecord, seqOffset);
-              if(!isCoverageView)
-                readsInView.add(new BamViewRecord(samRecord, bamIndex));
+                if(isCoverage)
+                  coveragePanel.addRecord(samRecord, offset, bam, colourByStrandTag.isSelected());
+                if(isSNPplot)
+                  snpPanel.addRecord(samRecord, seqOffset);
+              }
+              else if(abeg+seqOffset >= keepFrom && aend+seqOffset <= keepTo)
+                reads.add(new BamViewRecord(samRecord, bamIndex));
             }
           }
         
@@ -777,7 +1052,7 @@ public class BamView extends JPanel
                       (float)memory.getHeapMemoryUsage().getMax());
             logger4j.debug("Heap memory usage (used/max): "+heapFraction);
           
-            if(readsInView.size() > checkMemAfter*2 && !waitingFrame.isVisible())
+            if(!background && reads.size() > checkMemAfter*2 && !waitingFrame.isVisible())
               waitingFrame.showWaiting("loading...", mainPanel);
 
             if(heapFraction > 0.90) 
@@ -803,6 +1078,7 @@ public class BamView extends JPanel
     {
       it.close();
     }
+    }
   }
 
   private int getSequenceLength()
@@ -952,23 +1228,18 @@ public class BamView extends JPanel
           else
             readsInView.clear();
 
-          final CountDownLatch latch = new CountDownLatch(bamList.size()-hideBamList.size());
-          //long ms = System.currentTimeMillis();
-          for(short i=0; i<bamList.size(); i++)
+          if(isCoverageView(pixPerBase))
           {
-            if(!hideBamList.contains(i))
-              bamReadTaskExecutor.execute(
-                  new BamReadTask(start, end, i, pixPerBase, latch));
+            // reads are not kept in the coverage view
+            readWindow.clear();
+            readRange(start, end, Integer.MIN_VALUE, Integer.MAX_VALUE, pixPerBase, false);
           }
-
-          try 
+          else
           {
-            latch.await();
+            readsInView.addAll(
+                readWindow.getReads(getReadWindowKey(), start, end, pixPerBase));
+            addReadsToPlots();
           }
-          catch (InterruptedException e) {} // TODO 
-
-          //System.out.println("===== NO. THREADS="+
-          //     ((java.util.concurrent.ThreadPoolExecutor)bamReadTaskExecutor).getPoolSize()+" TIME="+(System.currentTimeMillis()-ms));
 
           float heapFractionUsedAfter = (float) ((float) memory.getHeapMemoryUsage().getUsed() / 
                                                  (float) memory.getHeapMemoryUsage().getMax());
@@ -1054,9 +1325,30 @@ public class BamView extends JPanel
   protected void repaintBamView()
   {
     laststart = -1;
+    readWindow.clear();
     repaint();
   }
   
+  /**
+   * Add the reads in view to the coverage and SNP plots.
+   */
+  private void addReadsToPlots()
+  {
+    if(!isCoverage && !isSNPplot)
+      return;
+
+    final int baseAtStartOfView = getBaseAtStartOfView();
+    for(BamViewRecord read: readsInView)
+    {
+      final int seqOffset = getSequenceOffset(read.sam.getReferenceName());
+      if(isCoverage)
+        coveragePanel.addRecord(read.sam, seqOffset-baseAtStartOfView, 
+            bamList.get(read.bamIndex), colourByStrandTag.isSelected());
+      if(isSNPplot)
+        snpPanel.addRecord(read.sam, seqOffset);
+    }
+  }
+  
   private float getPixPerBaseByWidth()
   {
     return (float)mainPanel.getWidth() / (float)nbasesInView;
@@ -2475,6 +2767,7 @@ public class BamView extends JPanel
         else
           hideBamList.add(new Short(thisBamIndex));
         laststart = -1;
+        readWindow.clear();
         repaint();
       } 
     });
@@ -2542,7 +2835,8 @@ public class BamView extends JPanel
         
         for(short i=0; i<bamFiles.size(); i++)
           addToViewMenu((short) (i+count));
-        laststart = -1; 
+        laststart = -1;
+        readWindow.clear();
         repaint();
       } 
     });
@@ -3027,6 +3321,7 @@ public class BamView extends JPanel
           if(MAX_COVERAGE < 1)
             MAX_COVERAGE = Integer.MAX_VALUE;
           laststart = -1;
+          readWindow.clear();
           repaint();
         }
       } 
@@ -3115,6 +3410,7 @@ public class BamView extends JPanel
         public void actionPerformed(ActionEvent e)
         {
           BamView.this.setVisible(false);
+          dispose();
           Component comp = BamView.this;
           
           while( !(comp instanceof JFrame) )
@@ -3302,6 +3598,7 @@ public class BamView extends JPanel
           feature_display.removeDisplayAdjustmentListener(BamView.this);
           feature_display.getSelection().removeSelectionChangeListener(BamView.this);
           containerPanel.remove(mainPanel);
+          closeCoverageIndexes();
           
           if(containerPanel.getComponentCount() > 0)
             containerPanel.revalidate();
@@ -3724,6 +4021,7 @@ public class BamView extends JPanel
     BamView bamView = new BamView(bamsList, 
         null, nbasesInView, entry_edit,
         feature_display, bases, (JPanel) mainPanel.getParent(), null);
+    bamViews.add(bamView);
     bamView.getJspView().getVerticalScrollBar().setValue(
         bamView.getJspView().getVerticalScrollBar().getMaximum());
     getJspView().getVerticalScrollBar().setValue(
@@ -4151,7 +4449,10 @@ public class BamView extends JPanel
         fileIndex = thisSAMRecord.bamIndex;
       String bam = bamList.get(fileIndex);  
       final SAMFileReader inputSam = getSAMFileReader(bam);
-      mate = inputSam.queryMate(thisSAMRecord.sam);
+      synchronized(inputSam)
+      {
+        mate = inputSam.queryMate(thisSAMRecord.sam);
+      }
     }
     catch (Exception e)
     {
@@ -4171,6 +4472,7 @@ public class BamView extends JPanel
   {
     laststart = -1;
     lastend = -1;
+    readWindow.clear();
     this.samRecordFlagPredicate = samRecordFlagPredicate;
   }
   
@@ -4184,6 +4486,7 @@ public class BamView extends JPanel
   {
     laststart = -1;
     lastend = -1;
+    readWindow.clear();
     this.samRecordMapQPredicate = samRecordMapQPredicate;
   }
   
@@ -0,0 +1,563 @@
+/* CoverageIndex
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2013  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components.alignment;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Read coverage summary of a BAM file at several resolutions. This is
+ * written once to a binary file alongside the BAM and memory-mapped for
+ * reading. For each reference and resolution the file holds the sum of the
+ * per-base forward and reverse strand coverage in each bin. Unmapped reads
+ * are not counted, matching the default read filter in BamView.
+ * <br>
+ * File layout (big-endian):
+ * <pre>
+ * int magic, int version, long BAM length, long BAM last modified,
+ * int flags filtered, int no. of resolutions, int resolutions[],
+ * int no. of references, then for each reference:
+ *   UTF name, int length, and for each resolution: long offset, int no. of bins
+ * followed by the bins, each stored as two ints (forward, reverse)
+ * </pre>
+ * A resolution is only stored for a reference if it needs fewer than
+ * <code>MAX_BINS</code> bins, so the single base resolution is only
+ * available for the smaller references.
+ */
+class CoverageIndex
+{
+  private static final int MAGIC = 0x41434f56; // ACOV
+  private static final int VERSION = 1;
+  /** bases per bin for each level */
+  protected static final int RESOLUTIONS[] = { 1, 10, 100, 1000, 10000 };
+  /** maximum number of bins stored for a reference at each level */
+  protected static int MAX_BINS = 10000000;
+  /** bases processed at a time when building, a multiple of the resolutions */
+  private static final int BLOCK_SIZE = 100000;
+  private static final int FLAG_FILTER = SAMRecordFlagPredicate.READ_UNMAPPED_FLAG;
+
+  private final RandomAccessFile file;
+  private final Hashtable<String, Reference> references = new Hashtable<String, Reference>();
+
+  private CoverageIndex(final File indexFile) throws IOException
+  {
+    final DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(indexFile)));
+    try
+    {
+      readHeader(in);
+      for(Reference r: readReferences(in))
+        references.put(r.name, r);
+    }
+    finally
+    {
+      in.close();
+    }
+    file = new RandomAccessFile(indexFile, "r");
+  }
+
+  /**
+   * Open the coverage index for a BAM file.
+   * @param bam         BAM file name
+   * @param indexFile   coverage index file
+   * @return the index or null if it does not exist or is out of date
+   */
+  protected static CoverageIndex open(final String bam, final File indexFile)
+  {
+    if(!isUpToDate(bam, indexFile))
+      return null;
+    try
+    {
+      return new CoverageIndex(indexFile);
+    }
+    catch(IOException e)
+    {
+      BamView.logger4j.warn("Cannot read coverage index "+indexFile+" : "+e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Return the file to use for the coverage index of a BAM. This is
+   * alongside the BAM if that directory is writable, otherwise it is
+   * in the temporary directory.
+   * @param bam
+   * @return
+   */
+  protected static File getIndexFile(final String bam)
+  {
+    final File bamFile = new File(bam).getAbsoluteFile();
+    final File indexFile = new File(bamFile.getPath()+".cov");
+    if(indexFile.exists() ? indexFile.canWrite() : bamFile.getParentFile().canWrite())
+      return indexFile;
+    return new File(System.getProperty("java.io.tmpdir"),
+        bamFile.getName()+"."+Integer.toHexString(bamFile.getPath().hashCode())+".cov");
+  }
+
+  /**
+   * @return true if the index was built from the current version of the BAM
+   */
+  protected static boolean isUpToDate(final String bam, final File indexFile)
+  {
+    if(!indexFile.exists())
+      return false;
+    try
+    {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(indexFile)));
+      try
+      {
+        final File bamFile = new File(bam);
+        final long header[] = readHeader(in);
+        return header[0] == bamFile.length() && header[1] == bamFile.lastModified();
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch(IOException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * @return true if the coverage of single bases is stored for a reference
+   */
+  protected boolean hasBaseLevel(final String refName)
+  {
+    final Reference r = references.get(refName);
+    return r != null && r.nbins[0] > 0;
+  }
+
+  /**
+   * @return the smallest number of bases per bin stored for a reference
+   */
+  protected int getFinestResolution(final String refName)
+  {
+    final Reference r = references.get(refName);
+    if(r == null)
+      return Integer.MAX_VALUE;
+    for(int i=0; i<RESOLUTIONS.length; i++)
+      if(r.nbins[i] > 0)
+        return RESOLUTIONS[i];
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Add the sum of the coverage over each base in a range to
+   * <code>cnt[0]</code> (forward) and <code>cnt[1]</code> (reverse).
+   * This is exact when the single base resolution is stored, otherwise
+   * bins partly in the range contribute in proportion to the overlap.
+   * @param refName
+   * @param start
+   * @param end
+   * @param cnt
+   * @throws IOException
+   */
+  protected void addCoverage(final String refName, int start, int end, final long cnt[])
+         throws IOException
+  {
+    final Reference r = references.get(refName);
+    if(r == null)
+      return;
+    if(start < 1)
+      start = 1;
+    if(end > r.length)
+      end = r.length;
+    if(start > end)
+      return;
+    addCoverage(r, RESOLUTIONS.length-1, start, end, cnt);
+  }
+
+  /**
+   * Add the coverage of each base in a range to <code>cnt</code>. The
+   * coverage of base <code>start+i</code> is added to
+   * <code>cnt[i+shift]</code>.
+   * @param refName
+   * @param start
+   * @param end
+   * @param shift
+   * @param cnt
+   * @throws IOException
+   */
+  protected void addBaseCoverage(final String refName, int start, int end,
+                                 final int shift, final int cnt[][])
+         throws IOException
+  {
+    final Reference r = references.get(refName);
+    if(start < 1)
+      start = 1;
+    if(end > r.length)
+      end = r.length;
+    final ByteBuffer buff = getBuffer(r, 0);
+    for(int pos=start; pos<=end; pos++)
+    {
+      final int bin = pos-start+shift;
+      if(bin < 0 || bin > cnt.length-1)
+        continue;
+      cnt[bin][0] += buff.getInt((pos-1)*8);
+      cnt[bin][1] += buff.getInt((pos-1)*8+4);
+    }
+  }
+
+  protected void close() throws IOException
+  {
+    file.close();
+  }
+
+  /**
+   * Sum the bins that are wholly in the range at this level and use
+   * the finer levels for the ends of the range.
+   */
+  private void addCoverage(final Reference r, final int level,
+                           final int start, final int end, final long cnt[]) throws IOException
+  {
+    if(r.nbins[level] == 0)  // not stored at this resolution
+    {
+      addCoverage(r, level-1, start, end, cnt);
+      return;
+    }
+
+    final int res = RESOLUTIONS[level];
+    final ByteBuffer buff = getBuffer(r, level);
+    final int first = (start-1+res-1)/res;
+    final int last  = (end == r.length ? r.nbins[level]-1 : end/res-1);
+    final boolean isFinest = (level == 0 || r.nbins[level-1] == 0);
+
+    if(first > last)
+    {
+      if(isFinest)
+        addPartialBins(r, buff, res, start, end, cnt);
+      else
+        addCoverage(r, level-1, start, end, cnt);
+      return;
+    }
+
+    for(int i=first; i<=last; i++)
+    {
+      cnt[0] += buff.getInt(i*8);
+      cnt[1] += buff.getInt(i*8+4);
+    }
+
+    final int fullStart = first*res+1;
+    final int fullEnd = Math.min((last+1)*res, r.length);
+    if(start < fullStart)
+    {
+      if(isFinest)
+        addPartialBins(r, buff, res, start, fullStart-1, cnt);
+      else
+        addCoverage(r, level-1, start, fullStart-1, cnt);
+    }
+    if(end > fullEnd)
+    {
+      if(isFinest)
+        addPartialBins(r, buff, res, fullEnd+1, end, cnt);
+      else
+        addCoverage(r, level-1, fullEnd+1, end, cnt);
+    }
+  }
+
+  /**
+   * Add bins that partly overlap the range in proportion to the overlap.
+   */
+  private void addPartialBins(final Reference r, final ByteBuffer buff, final int res,
+                              final int start, final int end, final long cnt[])
+  {
+    for(int i=(start-1)/res; i<=(end-1)/res; i++)
+    {
+      final int binStart = i*res+1;
+      final int binEnd = Math.min((i+1)*res, r.length);
+      final int overlap = Math.min(end, binEnd) - Math.max(start, binStart) + 1;
+      final float fraction = (float)overlap / (float)(binEnd-binStart+1);
+      cnt[0] += Math.round(buff.getInt(i*8)*fraction);
+      cnt[1] += Math.round(buff.getInt(i*8+4)*fraction);
+    }
+  }
+
+  private synchronized ByteBuffer getBuffer(final Reference r, final int level)
+          throws IOException
+  {
+    if(r.buffers[level] == null)
+      r.buffers[level] = file.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, r.offsets[level], (long)r.nbins[level]*8);
+    // duplicate so that concurrent readers are independent
+    return r.buffers[level].duplicate();
+  }
+
+  /**
+   * Read the header.
+   * @return the BAM file length and last modified time
+   */
+  private static long[] readHeader(final DataInputStream in) throws IOException
+  {
+    if(in.readInt() != MAGIC)
+      throw new IOException("Not a coverage index");
+    if(in.readInt() != VERSION)
+      throw new IOException("Coverage index version not supported");
+    final long header[] = new long[] { in.readLong(), in.readLong() };
+    if(in.readInt() != FLAG_FILTER)
+      throw new IOException("Coverage index filter does not match");
+    final int nres = in.readInt();
+    if(nres != RESOLUTIONS.length)
+      throw new IOException("Coverage index resolutions do not match");
+    for(int i=0; i<nres; i++)
+      if(in.readInt() != RESOLUTIONS[i])
+        throw new IOException("Coverage index resolutions do not match");
+    return header;
+  }
+
+  private static List<Reference> readReferences(final DataInputStream in) throws IOException
+  {
+    final int nrefs = in.readInt();
+    final List<Reference> refs = new Vector<Reference>(nrefs);
+    for(int i=0; i<nrefs; i++)
+    {
+      final Reference r = new Reference(in.readUTF(), in.readInt());
+      for(int j=0; j<RESOLUTIONS.length; j++)
+      {
+        r.offsets[j] = in.readLong();
+        r.nbins[j] = in.readInt();
+      }
+      refs.add(r);
+    }
+    return refs;
+  }
+
+  private static byte[] writeHeader(final File bamFile, final List<Reference> refs)
+          throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(bamFile.length());
+    out.writeLong(bamFile.lastModified());
+    out.writeInt(FLAG_FILTER);
+    out.writeInt(RESOLUTIONS.length);
+    for(int i=0; i<RESOLUTIONS.length; i++)
+      out.writeInt(RESOLUTIONS[i]);
+    out.writeInt(refs.size());
+    for(Reference r: refs)
+    {
+      out.writeUTF(r.name);
+      out.writeInt(r.length);
+      for(int j=0; j<RESOLUTIONS.length; j++)
+      {
+        out.writeLong(r.offsets[j]);
+        out.writeInt(r.nbins[j]);
+      }
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Build the coverage index for a sorted and indexed BAM file.
+   * @param bam           BAM file name
+   * @param bamIndexFile  BAM index
+   * @param indexFile     coverage index file to write
+   * @throws IOException
+   */
+  protected static void build(final String bam, final File bamIndexFile, final File indexFile)
+         throws IOException
+  {
+    final File bamFile = new File(bam);
+    final SAMFileReader inputSam = new SAMFileReader(bamFile, bamIndexFile);
+    inputSam.setValidationStringency(ValidationStringency.SILENT);
+
+    final List<Reference> refs = new Vector<Reference>();
+    for(SAMSequenceRecord seq: inputSam.getFileHeader().getSequenceDictionary().getSequences())
+    {
+      final Reference r = new Reference(seq.getSequenceName(), seq.getSequenceLength());
+      for(int j=0; j<RESOLUTIONS.length; j++)
+      {
+        final int nbins = (r.length+RESOLUTIONS[j]-1)/RESOLUTIONS[j];
+        r.nbins[j] = (nbins <= MAX_BINS ? nbins : 0);
+      }
+      refs.add(r);
+    }
+
+    // the header size does not depend on the offsets
+    long offset = writeHeader(bamFile, refs).length;
+    for(Reference r: refs)
+    {
+      for(int j=0; j<RESOLUTIONS.length; j++)
+      {
+        r.offsets[j] = offset;
+        offset += (long)r.nbins[j]*8;
+      }
+    }
+
+    final File tmpFile = new File(indexFile.getPath()+".tmp");
+    final RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+    try
+    {
+      out.setLength(offset);
+      out.write(writeHeader(bamFile, refs));
+      for(Reference r: refs)
+        buildReference(inputSam, r, out.getChannel());
+    }
+    finally
+    {
+      out.close();
+      inputSam.close();
+    }
+
+    indexFile.delete();
+    if(!tmpFile.renameTo(indexFile))
+      throw new IOException("Cannot write "+indexFile);
+  }
+
+  /**
+   * Count the coverage of a reference, a block of bases at a time. As the
+   * reads are sorted by start, a block is complete once a read starts
+   * after it.
+   */
+  private static void buildReference(final SAMFileReader inputSam,
+                                     final Reference r,
+                                     final FileChannel channel) throws IOException
+  {
+    if(r.length < 1)
+      return;
+    final TreeMap<Integer, int[]> blocks = new TreeMap<Integer, int[]>();
+    final CloseableIterator<SAMRecord> it = inputSam.queryOverlapping(r.name, 1, r.length);
+    try
+    {
+      while(it.hasNext())
+      {
+        final SAMRecord samRecord = it.next();
+        if((samRecord.getFlags() & FLAG_FILTER) != 0)
+          continue;
+
+        final int firstBlock = (samRecord.getAlignmentStart()-1)/BLOCK_SIZE;
+        while(!blocks.isEmpty() && blocks.firstKey() < firstBlock)
+        {
+          final Map.Entry<Integer, int[]> e = blocks.pollFirstEntry();
+          writeBlock(r, e.getKey(), e.getValue(), channel);
+        }
+
+        final int strand = (samRecord.getReadNegativeStrandFlag() ? 1 : 0);
+        final List<AlignmentBlock> alignBlocks = samRecord.getAlignmentBlocks();
+        for(int i=0; i<alignBlocks.size(); i++)
+        {
+          final AlignmentBlock block = alignBlocks.get(i);
+          final int refStart = block.getReferenceStart();
+          for(int pos=refStart; pos<refStart+block.getLength(); pos++)
+          {
+            if(pos < 1 || pos > r.length)
+              continue;
+            final int blockIndex = (pos-1)/BLOCK_SIZE;
+            int cov[] = blocks.get(blockIndex);
+            if(cov == null)
+            {
+              cov = new int[BLOCK_SIZE*2];
+              blocks.put(blockIndex, cov);
+            }
+            cov[((pos-1)%BLOCK_SIZE)*2+strand]++;
+          }
+        }
+      }
+    }
+    finally
+    {
+      it.close();
+    }
+
+    for(Map.Entry<Integer, int[]> e: blocks.entrySet())
+      writeBlock(r, e.getKey(), e.getValue(), channel);
+  }
+
+  /**
+   * Write the bins for a block of bases at each resolution. Bins that
+   * are not written (no reads) are left as zero.
+   */
+  private static void writeBlock(final Reference r, final int blockIndex,
+                                 final int cov[], final FileChannel channel) throws IOException
+  {
+    final int blockStart = blockIndex*BLOCK_SIZE;  // zero based
+    final int len = Math.min(BLOCK_SIZE, r.length-blockStart);
+    for(int j=0; j<RESOLUTIONS.length; j++)
+    {
+      if(r.nbins[j] == 0)
+        continue;
+      final int res = RESOLUTIONS[j];
+      final int nbins = (len+res-1)/res;
+      final ByteBuffer buff = ByteBuffer.allocate(nbins*8);
+      for(int i=0; i<nbins; i++)
+      {
+        long fwd = 0;
+        long rev = 0;
+        final int binEnd = Math.min((i+1)*res, len);
+        for(int k=i*res; k<binEnd; k++)
+        {
+          fwd += cov[k*2];
+          rev += cov[k*2+1];
+        }
+        buff.putInt((int) Math.min(fwd, Integer.MAX_VALUE));
+        buff.putInt((int) Math.min(rev, Integer.MAX_VALUE));
+      }
+      buff.flip();
+      long pos = r.offsets[j] + (long)(blockStart/res)*8;
+      while(buff.hasRemaining())
+        pos += channel.write(buff, pos);
+    }
+  }
+
+  static class Reference
+  {
+    private final String name;
+    private final int length;
+    private final long offsets[] = new long[RESOLUTIONS.length];
+    private final int nbins[] = new int[RESOLUTIONS.length];
+    private final MappedByteBuffer buffers[] = new MappedByteBuffer[RESOLUTIONS.length];
+
+    Reference(final String name, final int length)
+    {
+      this.name = name;
+      this.length = length;
+    }
+  }
+}
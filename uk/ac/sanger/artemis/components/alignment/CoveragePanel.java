@@ -36,6 +36,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.GeneralPath;
 import java.io.File;
+import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
@@ -225,7 +226,7 @@ import net.sf.samtools.SAMRecord;
       return false;
     }
     
-    protected void addRecord(SAMRecord thisRead, int offset, String fileName, boolean useRNASeqStrand)
+    private int[][] getCoverage(String fileName)
     {
       int coverage[][] = plots.get(fileName);
       if(coverage == null)
@@ -236,7 +237,12 @@ import net.sf.samtools.SAMRecord;
             coverage[k][l] = 0; 
         plots.put(fileName, coverage);
       }
-
+      return coverage;
+    }
+    
+    protected void addRecord(SAMRecord thisRead, int offset, String fileName, boolean useRNASeqStrand)
+    {
+      final int coverage[][] = getCoverage(fileName);
       final int col;
       if(plotByStrand && !isPlotHeatMap() && isNegativeStrand(thisRead, useRNASeqStrand))
         col = 1;
@@ -268,6 +274,64 @@ import net.sf.samtools.SAMRecord;
       }
     }
     
+    /**
+     * Add the coverage of a range of a reference sequence from the 
+     * coverage index of a BAM file.
+     * @param index     coverage index
+     * @param refName   reference sequence name
+     * @param refStart  start of the range in the reference sequence
+     * @param refEnd    end of the range in the reference sequence
+     * @param offset    offset of the reference sequence from the start of the view
+     * @param fileName  BAM file
+     * @throws IOException
+     */
+    protected void addCoverage(final CoverageIndex index, final String refName, 
+                               final int refStart, final int refEnd, 
+                               final int offset, final String fileName) throws IOException
+    {
+      final int coverage[][] = getCoverage(fileName);
+      final boolean byStrand = plotByStrand && !isPlotHeatMap();
+      final long cnt[] = new long[2];
+
+      int firstBin = (refStart+offset)/windowSize;
+      if(firstBin < 0)
+        firstBin = 0;
+      int lastBin = (refEnd+offset)/windowSize;
+      if(lastBin > nBins-1)
+        lastBin = nBins-1;
+
+      for(int bin=firstBin; bin<=lastBin; bin++)
+      {
+        cnt[0] = 0;
+        cnt[1] = 0;
+        index.addCoverage(refName, 
+            Math.max(refStart, bin*windowSize-offset), 
+            Math.min(refEnd, (bin+1)*windowSize-1-offset), cnt);
+        if(byStrand)
+        {
+          addToBin(coverage, bin, 0, cnt[0]);
+          addToBin(coverage, bin, 1, cnt[1]);
+        }
+        else
+          addToBin(coverage, bin, 0, cnt[0]+cnt[1]);
+      }
+    }
+    
+    private void addToBin(final int coverage[][], final int bin, final int col, final long cnt)
+    {
+      coverage[bin][col] = (int) Math.min(coverage[bin][col]+cnt, Integer.MAX_VALUE);
+      if(coverage[bin][col] > max)
+        max = coverage[bin][col];
+
+      if(includeCombined)
+      {
+        combinedCoverage[bin][col] = 
+            (int) Math.min(combinedCoverage[bin][col]+cnt, Integer.MAX_VALUE);
+        if(combinedCoverage[bin][col] > max)
+          max = combinedCoverage[bin][col];
+      }
+    }
+    
     protected void draw(Graphics2D g2, int wid, int hgt, List<Short> hideBamList)
     {
       int size = bamView.bamList.size();
@@ -526,6 +590,14 @@ import net.sf.samtools.SAMRecord;
     {
       return plotHeatMap;
     }
+
+    /**
+     * @return the plotByStrand
+     */
+    protected boolean isPlotByStrand()
+    {
+      return plotByStrand;
+    }
     
     /**
      * Return tooltip text for a given position
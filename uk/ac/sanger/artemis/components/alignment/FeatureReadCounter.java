@@ -0,0 +1,433 @@
+/* FeatureReadCounter
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2013  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components.alignment;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.JProgressBar;
+
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloseableIterator;
+
+import uk.ac.sanger.artemis.Feature;
+import uk.ac.sanger.artemis.FeatureSegmentVector;
+import uk.ac.sanger.artemis.FeatureVector;
+import uk.ac.sanger.artemis.io.Range;
+
+/**
+ * Count the reads for a list of features by reading each BAM file once
+ * in coordinate order. The features and their introns are held as
+ * intervals sorted by start and the reads are swept over them, so the
+ * read count of every feature, the reads to exclude in introns and the
+ * total number of mapped reads are found in the same pass. Each BAM
+ * file is read by its own thread.
+ */
+class FeatureReadCounter
+{
+  private final BamView bamView;
+  private final FeatureVector features;
+  private final boolean contained;
+  private final boolean useIntrons;
+  private final boolean useStrandTag;
+
+  /** intervals sorted by start */
+  private int ivStart[];
+  private int ivEnd[];
+  /** index of the feature for each interval */
+  private int ivFeature[];
+  /** true if the interval is an intron */
+  private boolean ivIntron[];
+
+  private int mappedReads[];
+  private JProgressBar progressBar;
+  private long progress[];
+
+  /**
+   * @param bamView
+   * @param features      features to count the reads for
+   * @param contained     only count reads contained by a feature
+   * @param useIntrons    include reads contained by introns
+   * @param useStrandTag  use the XS tag for the strand
+   */
+  FeatureReadCounter(final BamView bamView,
+                     final FeatureVector features,
+                     final boolean contained,
+                     final boolean useIntrons,
+                     final boolean useStrandTag)
+  {
+    this.bamView = bamView;
+    this.features = features;
+    this.contained = contained;
+    this.useIntrons = useIntrons;
+    this.useStrandTag = useStrandTag;
+    createIntervals();
+  }
+
+  /**
+   * Set a progress bar to update. Its maximum is set to the number of
+   * bases to be read.
+   */
+  protected void setProgressBar(final JProgressBar progressBar)
+  {
+    this.progressBar = progressBar;
+  }
+
+  /**
+   * Count the reads for each feature in each BAM.
+   * @param totals  the number of mapped reads in each BAM used to
+   *                calculate RPKM values, or null to return read counts
+   * @return the read counts for each BAM keyed by the feature name
+   */
+  protected Hashtable<String, List<ReadCount>> count(final int totals[])
+  {
+    return count(getReferences(false), totals != null, totals);
+  }
+
+  /**
+   * Calculate the RPKM values for each feature in each BAM. The number of
+   * mapped reads is counted in the same pass as the features.
+   * @param allRefSeqs  count the mapped reads in all reference sequences
+   * @return the RPKM values for each BAM keyed by the feature name
+   */
+  protected Hashtable<String, List<ReadCount>> countRPKM(final boolean allRefSeqs)
+  {
+    return count(getReferences(allRefSeqs), true, null);
+  }
+
+  private Hashtable<String, List<ReadCount>> count(final List<String> refs, 
+                                                   final boolean rpkm,
+                                                   final int totals[])
+  {
+    final int nbams = bamView.bamList.size();
+    final float cnts[][][] = new float[nbams][][];
+    mappedReads = new int[nbams];
+    progress = new long[nbams];
+
+    if(progressBar != null)
+    {
+      long len = 0;
+      for(String ref: refs)
+        len += bamView.getSeqLengths().get(ref);
+      progressBar.setValue(0);
+      progressBar.setMaximum((int) Math.min(len*nbams/1000, Integer.MAX_VALUE));
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(nbams, Runtime.getRuntime().availableProcessors())));
+    final List<Future<?>> tasks = new Vector<Future<?>>();
+    for(int i=0; i<nbams; i++)
+    {
+      final int bamIndex = i;
+      tasks.add(executor.submit(new Runnable()
+      {
+        public void run()
+        {
+          cnts[bamIndex] = countBam(bamIndex, refs);
+        }
+      }));
+    }
+
+    try
+    {
+      for(Future<?> task: tasks)
+        task.get();
+    }
+    catch(InterruptedException e)
+    {
+      BamView.logger4j.warn(e.getMessage());
+    }
+    catch(ExecutionException e)
+    {
+      BamView.logger4j.warn(e.getMessage());
+      e.printStackTrace();
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+
+    final Hashtable<String, List<ReadCount>> featureReadCount =
+        new Hashtable<String, List<ReadCount>>();
+    for(int i=0; i<features.size(); i++)
+    {
+      final Feature f = features.elementAt(i);
+      final float fLen = BamUtils.getFeatureLength(f);
+      final List<ReadCount> sampleCounts = new Vector<ReadCount>();
+      for(int j=0; j<nbams; j++)
+      {
+        final float cnt[] = new float[2];
+        if(cnts[j] != null)
+        {
+          cnt[0] = cnts[j][i][0];
+          cnt[1] = cnts[j][i][1];
+        }
+        if(rpkm)
+        {
+          final float nreads = (totals != null ? totals[j] : mappedReads[j]);
+          cnt[0] = (cnt[0] / ((nreads / 1000000.f) * (fLen / 1000.f)));
+          cnt[1] = (cnt[1] / ((nreads / 1000000.f) * (fLen / 1000.f)));
+        }
+        sampleCounts.add( new ReadCount(cnt, f.isForwardFeature()) );
+      }
+      featureReadCount.put(ReadCountDialog.getFeatureName(f), sampleCounts);
+    }
+    return featureReadCount;
+  }
+
+  /**
+   * @return the number of mapped reads in each BAM found by the
+   * last count
+   */
+  protected int[] getMappedReads()
+  {
+    return mappedReads;
+  }
+
+  /**
+   * Reference sequences to read, in the order of their position in
+   * the displayed sequence.
+   */
+  private List<String> getReferences(final boolean allRefSeqs)
+  {
+    final List<String> refs = new Vector<String>();
+    final String selected = (String) bamView.getCombo().getSelectedItem();
+    if(bamView.isConcatSequences())
+    {
+      refs.addAll(bamView.getSeqNames());
+      final String sorted[] = refs.toArray(new String[refs.size()]);
+      Arrays.sort(sorted, new Comparator<String>()
+      {
+        public int compare(String s1, String s2)
+        {
+          return bamView.getSequenceOffset(s1) - bamView.getSequenceOffset(s2);
+        }
+      });
+      return Arrays.asList(sorted);
+    }
+
+    refs.add(selected);
+    if(allRefSeqs)
+    {
+      for(String name: bamView.getSeqNames())
+        if(!name.equals(selected))
+          refs.add(name);
+    }
+    return refs;
+  }
+
+  /**
+   * Create the intervals for the features and introns sorted by start.
+   */
+  private void createIntervals()
+  {
+    final List<int[]> intervals = new Vector<int[]>();
+    for(int i=0; i<features.size(); i++)
+    {
+      final Feature f = features.elementAt(i);
+      intervals.add(new int[]{ f.getRawFirstBase(), f.getRawLastBase(), i, 0 });
+
+      final FeatureSegmentVector segs = f.getSegments();
+      if(useIntrons || segs.size() < 2)
+        continue;
+      final Range ranges[] = new Range[segs.size()];
+      for(int j=0; j<ranges.length; j++)
+        ranges[j] = segs.elementAt(j).getRawRange();
+      Arrays.sort(ranges, new Comparator<Range>()
+      {
+        public int compare(Range r1, Range r2)
+        {
+          return r1.getStart() - r2.getStart();
+        }
+      });
+      // reads contained by an intron are removed from the count
+      for(int j=0; j<ranges.length-1; j++)
+        intervals.add(new int[]{ ranges[j].getEnd(), ranges[j+1].getStart(), i, 1 });
+    }
+
+    final int sorted[][] = intervals.toArray(new int[intervals.size()][]);
+    Arrays.sort(sorted, new Comparator<int[]>()
+    {
+      public int compare(int[] iv1, int[] iv2)
+      {
+        return iv1[0] - iv2[0];
+      }
+    });
+
+    ivStart   = new int[sorted.length];
+    ivEnd     = new int[sorted.length];
+    ivFeature = new int[sorted.length];
+    ivIntron  = new boolean[sorted.length];
+    for(int i=0; i<sorted.length; i++)
+    {
+      ivStart[i]   = sorted[i][0];
+      ivEnd[i]     = sorted[i][1];
+      ivFeature[i] = sorted[i][2];
+      ivIntron[i]  = (sorted[i][3] == 1);
+    }
+  }
+
+  /**
+   * Read a BAM file once, sweeping the reads over the intervals.
+   * @return the forward and reverse read counts for each feature
+   */
+  private float[][] countBam(final int bamIndex, final List<String> refs)
+  {
+    final String bam = bamView.bamList.get(bamIndex);
+    final SAMRecordPredicate samRecordFlagPredicate = bamView.getSamRecordFlagPredicate();
+    final SAMRecordPredicate samRecordMapQPredicate = bamView.getSamRecordMapQPredicate();
+    final float cnt[][] = new float[features.size()][2];
+
+    // intervals that may overlap the current read
+    final int active[] = new int[ivStart.length];
+    int nactive = 0;
+    int next = 0;
+    int nmapped = 0;
+    long basesRead = 0;
+
+    final SAMFileReader inputSam = openReader(bam);
+    final boolean shared = (inputSam == bamView.getSamFileReaderHash().get(bam));
+    // a reader shared with the BamView is also used to display the reads
+    final Object lock = (shared ? inputSam : new Object());
+    try
+    {
+      for(String ref: refs)
+      {
+        final int offset = bamView.getSequenceOffset(ref);
+        final int length = bamView.getSeqLengths().get(ref);
+        // only the mapped reads are counted for other references
+        final boolean hasFeatures =
+            bamView.isConcatSequences() || ref.equals(bamView.getCombo().getSelectedItem());
+
+        synchronized(lock)
+        {
+          final CloseableIterator<SAMRecord> it = inputSam.queryOverlapping(ref, 1, length);
+          try
+          {
+            while(it.hasNext())
+            {
+              final SAMRecord samRecord = it.next();
+              if( (samRecordFlagPredicate != null &&
+                   samRecordFlagPredicate.testPredicate(samRecord)) ||
+                  (samRecordMapQPredicate != null &&
+                  !samRecordMapQPredicate.testPredicate(samRecord)) )
+                continue;
+              nmapped++;
+              if(!hasFeatures)
+                continue;
+
+              final int readStart = samRecord.getAlignmentStart()+offset;
+              int readEnd = samRecord.getAlignmentEnd()+offset;
+              if(samRecord.getReadUnmappedFlag() || readEnd < readStart)
+                readEnd = readStart;
+
+              // add intervals that start before the end of this read
+              while(next < ivStart.length && ivStart[next] <= readEnd)
+                active[nactive++] = next++;
+
+              final int strand = (BamView.isNegativeStrand(samRecord, useStrandTag) ? 1 : 0);
+              int keep = 0;
+              for(int i=0; i<nactive; i++)
+              {
+                final int iv = active[i];
+                // reads are sorted by start so this interval is finished
+                if(ivEnd[iv] < readStart)
+                  continue;
+                active[keep++] = iv;
+
+                if(ivIntron[iv])
+                {
+                  if(readStart >= ivStart[iv] && readEnd <= ivEnd[iv])
+                    cnt[ivFeature[iv]][strand]--;
+                }
+                else if(contained)
+                {
+                  if(readStart >= ivStart[iv] && readEnd <= ivEnd[iv])
+                    cnt[ivFeature[iv]][strand]++;
+                }
+                else if(readEnd >= ivStart[iv])
+                  cnt[ivFeature[iv]][strand]++;
+              }
+              nactive = keep;
+
+              if((nmapped & 0xffff) == 0)
+                setProgress(bamIndex, basesRead + samRecord.getAlignmentStart());
+            }
+          }
+          finally
+          {
+            it.close();
+          }
+        }
+        basesRead += length;
+        setProgress(bamIndex, basesRead);
+      }
+    }
+    finally
+    {
+      if(!shared)
+        inputSam.close();
+    }
+
+    mappedReads[bamIndex] = nmapped;
+    return cnt;
+  }
+
+  /**
+   * Open a new reader for a local BAM so that it is not shared with
+   * the display of the reads, otherwise use the reader of the BamView.
+   */
+  private SAMFileReader openReader(final String bam)
+  {
+    final File bamFile = new File(bam);
+    final File indexFile = new File(bam+".bai");
+    if(bam.endsWith(".bam") && bamFile.exists() && indexFile.exists())
+    {
+      final SAMFileReader inputSam = new SAMFileReader(bamFile, indexFile);
+      inputSam.setValidationStringency(ValidationStringency.SILENT);
+      return inputSam;
+    }
+    return bamView.getSamFileReaderHash().get(bam);
+  }
+
+  private synchronized void setProgress(final int bamIndex, final long bases)
+  {
+    if(progressBar == null)
+      return;
+    progress[bamIndex] = bases;
+    long total = 0;
+    for(int i=0; i<progress.length; i++)
+      total += progress[i];
+    progressBar.setValue((int) Math.min(total/1000, Integer.MAX_VALUE));
+  }
+}
@@ -50,7 +50,7 @@ public class MappedReads
   private JDialog dialog = new JDialog((JFrame)null, "Calculating", true);
     
   /**
-   * Calculate the total number of mapped reads.
+   * Calculate the RPKM values of features.
    * @param bamView
    * @param features
    * @param sequenceLength
@@ -74,8 +74,8 @@ public class MappedReads
     this.useIntrons = useIntrons;
     this.useStrandTag = useStrandTag;
 
-    showProgress(sequenceLength, "Total number of mapped reads");
-    CalculateTotalMappedReads cmr = new CalculateTotalMappedReads(allRefSeqs, sequenceLength);
+    showProgress(sequenceLength, "RPKM values for "+features.size()+" features");
+    CalculateMappedReads cmr = new CalculateMappedReads(true, allRefSeqs);
     cmr.start();
     dialog.setVisible(true);
   }
@@ -103,7 +103,7 @@ public class MappedReads
     this.useStrandTag = useStrandTag;
 
     showProgress(features.size(), "Number of mapped reads for "+features.size()+" features");
-    CalculateMappedReads cmr = new CalculateMappedReads(null);
+    CalculateMappedReads cmr = new CalculateMappedReads(false, false);
     cmr.start();
     dialog.setVisible(true);
   }
@@ -175,16 +175,32 @@ public class MappedReads
   {
     private Hashtable<String, List<ReadCount>> featureReadCount;
     private int mappedReads[];
+    private boolean rpkm;
+    private boolean useAllRefSeqs;
     
-    public CalculateMappedReads(final int mappedReads[])
+    /**
+     * @param rpkm           calculate RPKM values rather than read counts
+     * @param useAllRefSeqs  count the mapped reads in all reference sequences
+     */
+    public CalculateMappedReads(final boolean rpkm, final boolean useAllRefSeqs)
     {
-      this.mappedReads = mappedReads;
+      this.rpkm = rpkm;
+      this.useAllRefSeqs = useAllRefSeqs;
     }
     
     public Object construct()
     {
-      featureReadCount = BamUtils.calculateMappedReads(bamView, features, 
-          contained, useIntrons, useStrandTag, mappedReads, progressBar);
+      // the feature counts and number of mapped reads are found in one pass
+      final FeatureReadCounter counter = new FeatureReadCounter(
+          bamView, features, contained, useIntrons, useStrandTag);
+      counter.setProgressBar(progressBar);
+      if(rpkm)
+      {
+        featureReadCount = counter.countRPKM(useAllRefSeqs);
+        mappedReads = counter.getMappedReads();
+      }
+      else
+        featureReadCount = counter.count(null);
       return null;
     }
        
@@ -340,48 +356,6 @@ public class MappedReads
     buff.append(df.format(f));
   }
   
-  class CalculateTotalMappedReads extends SwingWorker
-  {
-    private boolean useAllRefSeqs;
-    private int sequenceLength;
-    
-    CalculateTotalMappedReads(boolean useAllRefSeqs, final int sequenceLength)
-    {
-      this.useAllRefSeqs = useAllRefSeqs;
-      this.sequenceLength = sequenceLength;
-    }
-    
-    public Object construct()
-    {
-      int mappedReads[] = null;
-      if(bamView.isConcatSequences() || !useAllRefSeqs)
-      {
-        String refName = (String) bamView.getCombo().getSelectedItem();
-        mappedReads = BamUtils.calc(bamView, refName, sequenceLength, 
-            useStrandTag, progressBar);
-      }
-      else
-      {
-        for (String name : bamView.getSeqNames())
-        {
-          progressTxt.setText(name);
-          int thisLength = bamView.getSeqLengths().get(name);
-          progressBar.setValue(0);
-          progressBar.setMaximum(thisLength);
-          mappedReads = BamUtils.calc(bamView, name, thisLength, 
-              useStrandTag, progressBar);
-        }
-      }
-      
-      progressBar.setValue(0);
-      progressBar.setMaximum(features.size());
-      progressTxt.setText("RPKM values for "+features.size()+" features");
-      CalculateMappedReads cmr = new CalculateMappedReads(mappedReads);
-      cmr.start();
-      return null;
-    }
-  }
-  
   /**
    * Find new features from read count peaks.
    */
@@ -98,6 +98,14 @@ public class SAMRecordFlagPredicate implements SAMRecordPredicate
     return isFlagSet(samRecord.getFlags());
   }
   
+  /**
+   * @return true if this predicate only tests for the given flag being set
+   */
+  protected boolean isFlag(final int flag)
+  {
+    return isSet && this.flag == flag;
+  }
+  
   private boolean isFlagSet(int thisFlag)
   {
     for(int i=0; i<FLAGS.length; i++)
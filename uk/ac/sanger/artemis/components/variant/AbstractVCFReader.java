@@ -52,6 +52,9 @@ public abstract class AbstractVCFReader
   private BCFReaderIterator bcfIterator = null;
   private TabixReader.Iterator tabixIterator = null;
   private String header;
+  private VCFRecordCache recordCache;
+  /** default memory budget of the record cache for each reader */
+  protected static long RECORD_CACHE_SIZE = Runtime.getRuntime().maxMemory()/10;
 
   /**
    * Read and return the next record.
@@ -104,6 +107,46 @@ public abstract class AbstractVCFReader
   }
   
   
+  /**
+   * Return the records that overlap a range in a sequence. These are
+   * read from the record cache of this reader.
+   * @param chr     sequence name
+   * @param sbeg    start base
+   * @param send    end base
+   * @return
+   * @throws IOException
+   */
+  protected List<VCFRecord> getRecords(String chr, int sbeg, int send) throws IOException
+  {
+    return getRecordCache().getRecords(chr, sbeg, send);
+  }
+  
+  /**
+   * Remove the decoded records held in the record cache, e.g. when
+   * the filtering changes.
+   */
+  protected void clearRecordCache()
+  {
+    if(recordCache != null)
+      recordCache.clear();
+  }
+  
+  /**
+   * Set the memory budget (in bytes) for the record cache.
+   * @param size
+   */
+  protected void setRecordCacheSize(long size)
+  {
+    getRecordCache().setMemoryBudget(size);
+  }
+  
+  private synchronized VCFRecordCache getRecordCache()
+  {
+    if(recordCache == null)
+      recordCache = new VCFRecordCache(this, RECORD_CACHE_SIZE);
+    return recordCache;
+  }
+  
   protected static int readInt(final InputStream is) throws IOException {
     byte[] buf = new byte[4];
     is.read(buf);
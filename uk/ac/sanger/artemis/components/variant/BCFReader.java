@@ -256,7 +256,7 @@ class BCFReader extends AbstractVCFReader
       final int nfmt = VCFRecord.countOccurrences(bcfRecord.getFormat(), ':')+1;
       final String fmts[] = VCFRecord.split(bcfRecord.getFormat() , ":", nfmt);
       
-      bcfRecord.setGenoTypeData( new String[nsamples][fmts.length] );
+      final String columns[][] = new String[fmts.length][];
 
       for(int i=0; i<fmts.length; i++)
       {
@@ -264,27 +264,25 @@ class BCFReader extends AbstractVCFReader
         str = new byte[nb];
         is.read(str);
 
+        columns[i] = new String[nsamples];
         if(fmts[i].equals("GT"))
         {
           for(int j=0; j<nsamples; j++)
-            bcfRecord.getGenoTypeData()[j][i] = getGTString(str[j]);
+            columns[i][j] = getGTString(str[j]);
         }
         else if(fmts[i].equals("PL"))
-        {
-          String pls[] = getPLString(str, nsamples);
-          for(int j=0; j<nsamples; j++)
-            bcfRecord.getGenoTypeData()[j][i] = pls[j];
-        }
+          columns[i] = getPLString(str, nsamples);
         else if(fmts[i].equals("DP")||fmts[i].equals("SP")||fmts[i].equals("GQ"))
         {
           for(int j=0; j<nsamples; j++)
-            bcfRecord.getGenoTypeData()[j][i] = Integer.toString(byteToInt(str[j]));
+            columns[i][j] = Integer.toString(byteToInt(str[j]));
         }
         else
         {
-          bcfRecord.getGenoTypeData()[0][i] = new String(str);
+          columns[i][0] = new String(str);
         }
      }
+     bcfRecord.setGenoTypeData( new GenotypeData(bcfRecord.getFormat(), columns) );
    }
 
     
@@ -0,0 +1,543 @@
+/* GenotypeData
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2013  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components.variant;
+
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * Sample (genotype) columns of a VCF record stored by FORMAT key. For
+ * VCF the raw bytes of the sample columns are kept along with an index
+ * of the offset of each sample, and the values for a key (e.g. DP) are
+ * only decoded to Strings when they are first asked for. GT values are
+ * stored packed with a byte per sample.
+ */
+class GenotypeData
+{
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  /** packed GT code for an allele that is not called, i.e. '.' */
+  private static final int GT_MISSING = 6;
+  /** packed GT code for the second allele of a haploid call */
+  private static final int GT_HAPLOID = 7;
+  /** packed GT for values that do not fit into a byte, e.g. 0/1/2 */
+  private static final byte GT_NOT_PACKED = (byte)0x80;
+  /** packed GT values of 0 and 0/0 */
+  private static final byte GT_HOM_REF_HAPLOID = (byte)(GT_HAPLOID << 3);
+  private static final byte GT_HOM_REF = 0;
+  /** GT values that are homozygous for the reference, used for the ones that are not packed */
+  private static final Pattern HOMOZYGOUS_PATTERN = Pattern.compile("^0(/0)*+|(\\|0)*+$");
+  /** String representations of the packed GT values */
+  private static final String GT_STRINGS[] = new String[128];
+
+  static
+  {
+    for(int i=0; i<GT_STRINGS.length; i++)
+    {
+      final int a1 = i & 7;
+      final int a2 = (i >> 3) & 7;
+      final boolean phased = ((i >> 6) & 1) == 1;
+      if(a1 == GT_HAPLOID)
+        continue;
+      if(a2 == GT_HAPLOID)
+      {
+        if(!phased)
+          GT_STRINGS[i] = getAlleleString(a1);
+      }
+      else
+        GT_STRINGS[i] = getAlleleString(a1) + (phased ? "|" : "/") + getAlleleString(a2);
+    }
+  }
+
+  private final String format;
+  private String keys[];
+  /** maximum number of values read for each sample */
+  private final int nfmt;
+
+  /** tab separated sample columns (VCF) */
+  private final byte raw[];
+  /** start offset of each sample column in raw, built on first use */
+  private int sampleOffsets[];
+  /** samples without a value for each of the FORMAT keys */
+  private BitSet incomplete;
+  private int nsamples = -1;
+
+  /** decoded values by key index, then sample */
+  private String values[][];
+  /** packed GT values */
+  private byte gt[];
+  /** GT values that cannot be packed */
+  private String gtOther[];
+  private boolean gtDecoded = false;
+
+  /**
+   * Sample columns from a VCF line.
+   * @param format  the FORMAT column
+   * @param raw     the tab separated sample columns
+   */
+  protected GenotypeData(final String format, final byte raw[])
+  {
+    this.format = format;
+    this.raw = raw;
+    this.nfmt = VCFRecord.countOccurrences(format, ':')+1;
+  }
+
+  /**
+   * Sample data that has already been decoded, e.g. from BCF.
+   * @param format   the FORMAT column
+   * @param columns  values for each FORMAT key and sample, [key][sample]
+   */
+  protected GenotypeData(final String format, final String columns[][])
+  {
+    this.format = format;
+    this.raw = null;
+    this.nfmt = columns.length;
+    this.keys = VCFRecord.COLON_PATTERN.split(format);
+    this.nsamples = (columns.length > 0 ? columns[0].length : 0);
+    this.values = new String[Math.max(keys.length, columns.length)][];
+    for(int i=0; i<columns.length; i++)
+    {
+      if(i < keys.length && keys[i].equals("GT"))
+        packGT(columns[i]);
+      else
+        values[i] = columns[i];
+    }
+  }
+
+  /**
+   * @return the number of samples
+   */
+  protected synchronized int getNumberOfSamples()
+  {
+    if(nsamples < 0)
+      index();
+    return nsamples;
+  }
+
+  /**
+   * Get the values of a FORMAT key for all the samples. A sample value
+   * is null if the sample does not have a value for each of the keys.
+   * The returned array should not be modified.
+   * @param key
+   * @return the values or null if the key is not in the FORMAT
+   */
+  protected synchronized String[] getValues(final String key)
+  {
+    final int keyIndex = getKeyIndex(key);
+    if(keyIndex < 0)
+      return null;
+
+    if(key.equals("GT"))
+    {
+      if(!gtDecoded)
+        decodeGT(keyIndex);
+      final String gtValues[] = new String[gt.length];
+      for(int i=0; i<gt.length; i++)
+        gtValues[i] = getGT(i);
+      return gtValues;
+    }
+
+    if(values[keyIndex] == null)
+      values[keyIndex] = decode(keyIndex);
+    return values[keyIndex];
+  }
+
+  /**
+   * Test if the GT of a sample is homozygous for the reference allele,
+   * e.g. 0/0. The packed value is compared, so the GT Strings of the
+   * other samples are not made.
+   * @param sampleIndex
+   * @return false if the sample has no GT value
+   */
+  protected synchronized boolean isHomozygousRef(final int sampleIndex)
+  {
+    final byte b = getPackedGT(sampleIndex);
+    if(b == GT_NOT_PACKED)
+    {
+      final String value = getGT(sampleIndex);
+      return value != null && HOMOZYGOUS_PATTERN.matcher(value).matches();
+    }
+    return b == GT_HOM_REF || b == GT_HOM_REF_HAPLOID;
+  }
+
+  /**
+   * Get the packed GT value of a sample. The first allele is held in
+   * bits 0-2 and the second in bits 3-5, with 6 for an allele that is
+   * not called and 7 in the second allele for a haploid call. Bit 6
+   * is set for phased genotypes.
+   * @param sampleIndex
+   * @return the packed value or a negative number if there is not a GT
+   * value that can be packed
+   */
+  private byte getPackedGT(final int sampleIndex)
+  {
+    final int keyIndex = getKeyIndex("GT");
+    if(keyIndex < 0)
+      return GT_NOT_PACKED;
+    if(!gtDecoded)
+      decodeGT(keyIndex);
+    return gt[sampleIndex];
+  }
+
+  /**
+   * Get all the values for a sample joined with a ':'.
+   * @param sampleIndex
+   * @return
+   */
+  protected synchronized String getSampleString(final int sampleIndex)
+  {
+    final StringBuilder buff = new StringBuilder();
+    appendSample(buff, sampleIndex);
+    return buff.toString();
+  }
+
+  /**
+   * Append the values of all the samples separated by a tab.
+   * @param buff
+   */
+  protected synchronized void appendTo(final StringBuilder buff)
+  {
+    final int n = getNumberOfSamples();
+    for(int i=0; i<n; i++)
+    {
+      appendSample(buff, i);
+      if(i<n-1)
+        buff.append("\t");
+    }
+  }
+
+  /**
+   * Rough estimate of the number of bytes used.
+   * @return
+   */
+  protected synchronized long getSizeEstimate()
+  {
+    long size = 64;
+    if(raw != null)
+      size += 16 + raw.length;
+    if(sampleOffsets != null)
+      size += 16 + sampleOffsets.length*4;
+    if(gt != null)
+      size += 16 + gt.length;
+    if(values != null)
+    {
+      for(int i=0; i<values.length; i++)
+      {
+        if(values[i] == null)
+          continue;
+        size += 16 + values[i].length*4;
+        for(int j=0; j<values[i].length; j++)
+          if(values[i][j] != null)
+            size += 40 + 2*values[i][j].length();
+      }
+    }
+    return size;
+  }
+
+  private void appendSample(final StringBuilder buff, final int sampleIndex)
+  {
+    if(raw == null)
+    {
+      for(int i=0; i<nfmt; i++)
+      {
+        if(i < keys.length && keys[i].equals("GT"))
+          buff.append(getGT(sampleIndex));
+        else
+          buff.append(values[i][sampleIndex]);
+        if(i<nfmt-1)
+          buff.append(":");
+      }
+      return;
+    }
+
+    if(sampleOffsets == null)
+      index();
+    final int end = getSampleEnd(sampleIndex);
+    int start = sampleOffsets[sampleIndex];
+    int count = 0;
+    while(start < end && count < nfmt)
+    {
+      final int fieldEnd = getFieldEnd(start, end);
+      if(fieldEnd > start)   // ignore empty values
+      {
+        if(count > 0)
+          buff.append(":");
+        for(int i=start; i<fieldEnd; i++)
+          buff.append((char)(raw[i] & 0xFF));
+        count++;
+      }
+      start = fieldEnd+1;
+    }
+  }
+
+  private int getKeyIndex(final String key)
+  {
+    if(keys == null)
+    {
+      keys = VCFRecord.COLON_PATTERN.split(format);
+      values = new String[keys.length][];
+    }
+    for(int i=0; i<keys.length; i++)
+      if(keys[i].equals(key))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Find the start of each sample column and those samples that have
+   * fewer values than there are FORMAT keys.
+   */
+  private void index()
+  {
+    if(raw == null)
+      return;
+
+    int offsets[] = new int[16];
+    int n = 0;
+    int i = 0;
+    while(i < raw.length)
+    {
+      if(raw[i] == '\t')    // ignore empty columns
+      {
+        i++;
+        continue;
+      }
+      if(n == offsets.length)
+      {
+        final int tmp[] = new int[n*2];
+        System.arraycopy(offsets, 0, tmp, 0, n);
+        offsets = tmp;
+      }
+      offsets[n] = i;
+
+      int count = 0;
+      int fieldStart = i;
+      for(; i<raw.length && raw[i] != '\t'; i++)
+      {
+        if(raw[i] == ':')
+        {
+          if(i > fieldStart)
+            count++;
+          fieldStart = i+1;
+        }
+      }
+      if(i > fieldStart)
+        count++;
+      if(count < getKeyCount())
+      {
+        if(incomplete == null)
+          incomplete = new BitSet();
+        incomplete.set(n);
+      }
+      n++;
+    }
+
+    nsamples = n;
+    sampleOffsets = new int[n];
+    System.arraycopy(offsets, 0, sampleOffsets, 0, n);
+  }
+
+  private int getKeyCount()
+  {
+    if(keys == null)
+      getKeyIndex("");
+    return keys.length;
+  }
+
+  private int getSampleEnd(final int sampleIndex)
+  {
+    int end = sampleOffsets[sampleIndex];
+    while(end < raw.length && raw[end] != '\t')
+      end++;
+    return end;
+  }
+
+  private int getFieldEnd(int start, final int end)
+  {
+    while(start < end && raw[start] != ':')
+      start++;
+    return start;
+  }
+
+  /**
+   * Find the start of the value of a FORMAT key in a sample column.
+   * @return the offset or -1 if not found
+   */
+  private int getFieldStart(final int sampleIndex, final int keyIndex)
+  {
+    if(incomplete != null && incomplete.get(sampleIndex))
+      return -1;
+
+    final int end = getSampleEnd(sampleIndex);
+    int start = sampleOffsets[sampleIndex];
+    int count = 0;
+    while(start < end)
+    {
+      final int fieldEnd = getFieldEnd(start, end);
+      if(fieldEnd > start)
+      {
+        if(count == keyIndex)
+          return start;
+        count++;
+      }
+      start = fieldEnd+1;
+    }
+    return -1;
+  }
+
+  /**
+   * Decode the values of a FORMAT key for all the samples.
+   */
+  private String[] decode(final int keyIndex)
+  {
+    if(sampleOffsets == null)
+      index();
+
+    final String keyData[] = new String[getNumberOfSamples()];
+    if(raw == null || keyIndex >= nfmt)
+      return keyData;
+    for(int i=0; i<nsamples; i++)
+    {
+      final int start = getFieldStart(i, keyIndex);
+      if(start < 0)
+        continue;
+      final int end = getFieldEnd(start, getSampleEnd(i));
+      keyData[i] = new String(raw, start, end-start, CHARSET);
+    }
+    return keyData;
+  }
+
+  /**
+   * Pack the GT values directly from the raw bytes.
+   */
+  private void decodeGT(final int keyIndex)
+  {
+    if(sampleOffsets == null)
+      index();
+
+    gtDecoded = true;
+    gt = new byte[nsamples];
+    for(int i=0; i<nsamples; i++)
+    {
+      final int start = (keyIndex < nfmt ? getFieldStart(i, keyIndex) : -1);
+      if(start < 0)
+      {
+        gt[i] = GT_NOT_PACKED;
+        continue;
+      }
+      final int end = getFieldEnd(start, getSampleEnd(i));
+      gt[i] = pack(start, end);
+      if(gt[i] == GT_NOT_PACKED)
+      {
+        if(gtOther == null)
+          gtOther = new String[nsamples];
+        gtOther[i] = new String(raw, start, end-start, CHARSET);
+      }
+    }
+  }
+
+  /**
+   * Pack the GT values of decoded data.
+   */
+  private void packGT(final String gtValues[])
+  {
+    gtDecoded = true;
+    gt = new byte[gtValues.length];
+    for(int i=0; i<gtValues.length; i++)
+    {
+      final String value = gtValues[i];
+      if(value == null)
+      {
+        gt[i] = GT_NOT_PACKED;
+        continue;
+      }
+      final byte b[] = value.getBytes(CHARSET);
+      gt[i] = pack(b, 0, b.length);
+      if(gt[i] == GT_NOT_PACKED)
+      {
+        if(gtOther == null)
+          gtOther = new String[gtValues.length];
+        gtOther[i] = value;
+      }
+    }
+  }
+
+  private byte pack(final int start, final int end)
+  {
+    return pack(raw, start, end);
+  }
+
+  /**
+   * Pack a GT value, e.g. 0/1, 1|1, ./. or 1
+   * @return the packed value or GT_NOT_PACKED
+   */
+  private static byte pack(final byte b[], final int start, final int end)
+  {
+    final int len = end-start;
+    if(len != 1 && len != 3)
+      return GT_NOT_PACKED;
+    final int a1 = getAlleleCode(b[start]);
+    if(a1 < 0)
+      return GT_NOT_PACKED;
+    if(len == 1)
+      return (byte) (a1 | GT_HAPLOID << 3);
+
+    final int phased;
+    if(b[start+1] == '/')
+      phased = 0;
+    else if(b[start+1] == '|')
+      phased = 1;
+    else
+      return GT_NOT_PACKED;
+
+    final int a2 = getAlleleCode(b[start+2]);
+    if(a2 < 0)
+      return GT_NOT_PACKED;
+    return (byte) (a1 | a2 << 3 | phased << 6);
+  }
+
+  private static int getAlleleCode(final byte b)
+  {
+    if(b == '.')
+      return GT_MISSING;
+    if(b >= '0' && b < '0'+GT_MISSING)
+      return b-'0';
+    return -1;
+  }
+
+  private static String getAlleleString(final int code)
+  {
+    if(code == GT_MISSING)
+      return ".";
+    return Integer.toString(code);
+  }
+
+  private String getGT(final int sampleIndex)
+  {
+    final byte b = gt[sampleIndex];
+    if(b == GT_NOT_PACKED)
+      return (gtOther == null ? null : gtOther[sampleIndex]);
+    return GT_STRINGS[b];
+  }
+}
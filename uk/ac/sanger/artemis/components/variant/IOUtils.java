@@ -1095,16 +1095,14 @@ class IOUtils
                   thisStart = 1;
                 int thisEnd   = send - offset;
               
-                VCFRecord record;
-                while ((record = reader.getNextRecord(vcfView.getChr(), thisStart, thisEnd)) != null)
+                for(VCFRecord record: reader.getRecords(vcfView.getChr(), thisStart, thisEnd))
                   count(record, count, features, reader, vcfIndex, vcfView);
               }
             }
           }
           else
           {
-            VCFRecord record;
-            while ((record = reader.getNextRecord(vcfView.getChr(), sbeg, send)) != null)
+            for(VCFRecord record: reader.getRecords(vcfView.getChr(), sbeg, send))
               count(record, count, features, reader, vcfIndex, vcfView);
           }
         }
@@ -67,7 +67,6 @@ public class VCFFilter extends JFrame
   private static Pattern COMMA_PATTERN = Pattern.compile(",");*/
   private static Pattern SEMICOLON_PATTERN = Pattern.compile(";");
   
-  private static Pattern HOMOZYGOUS_PATTERN = Pattern.compile("^0(/0)*+|(\\|0)*+$");
   private FilteredPanel filterPanel;
   protected static boolean manualFilter = false; // show manual filtering
 
@@ -112,7 +111,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_SYN, "SYN", showSyn.getText(), showSyn.isSelected());
         vcfView.showSynonymous = showSyn.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
 
@@ -123,7 +122,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_NONSYN, "NONSYN", showNonSyn.getText(), showNonSyn.isSelected());
         vcfView.showNonSynonymous = showNonSyn.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
 
@@ -134,7 +133,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_DEL, "DEL", showDeletionsMenu.getText(), showDeletionsMenu.isSelected());
         vcfView.showDeletions = showDeletionsMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
 
@@ -145,7 +144,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_INS, "INS", showInsertionsMenu.getText(), showInsertionsMenu.isSelected());
         vcfView.showInsertions = showInsertionsMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
 
@@ -156,7 +155,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_MULTALL_FLAG, "MULTI_ALLELLES", "Multiple alleles", showMultiAllelesMenu.isSelected());
         vcfView.showMultiAlleles = showMultiAllelesMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
     
@@ -167,7 +166,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_OVERLAP_FLAG, "NO-OVERLAP", showNonOverlappingsMenu.getText(), showNonOverlappingsMenu.isSelected());
         vcfView.showNonOverlappings = showNonOverlappingsMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
     
@@ -178,7 +177,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_NV_FLAG, "NV", showNonVariantMenu.getText(), showNonVariantMenu.isSelected());
         vcfView.showNonVariants = showNonVariantMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
     setFlagFilter(HeaderLine.FILTER_NV_FLAG, "NV", showNonVariantMenu.getText(), showNonVariantMenu.isSelected());
@@ -191,7 +190,7 @@ public class VCFFilter extends JFrame
       {
         manualFilter = manualMenu.isSelected();
         setFlagFilter(HeaderLine.FILTER_MANUAL, "MANUAL", manualMenu.getText(), manualMenu.isSelected());
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
     setFlagFilter(HeaderLine.FILTER_MANUAL, "MANUAL", manualMenu.getText(), manualMenu.isSelected());
@@ -333,7 +332,7 @@ public class VCFFilter extends JFrame
             MIN_AF1 = Float.parseFloat(minAF1.getText());
             MAX_CI95 = Float.parseFloat(maxCI95.getText());
           }*/
-          vcfView.repaint();
+          vcfView.filterChanged();
         }
         catch(NumberFormatException ex)
         {
@@ -495,7 +494,7 @@ public class VCFFilter extends JFrame
       {
         setFlagFilter(HeaderLine.FILTER_HOMOZYG, "FILTER_HOMOZYG", "Homozygous", showHomozygousMenu.isSelected());
         vcfView.showHomozygous = showHomozygousMenu.isSelected();
-        vcfView.repaint();
+        vcfView.filterChanged();
       }
     });
     c.gridwidth = 1;
@@ -671,11 +670,8 @@ public class VCFFilter extends JFrame
               return false;
             break;
           case HeaderLine.FILTER_HOMOZYG:
-            final String smpls[] = record.getFormatValues("GT");
             // look at a specific sample
-            if(smpls != null && 
-               sampleIndex > -1 && smpls[sampleIndex] != null && 
-               HOMOZYGOUS_PATTERN.matcher(smpls[sampleIndex]).matches())
+            if(sampleIndex > -1 && record.isHomozygousRef(sampleIndex))
               return false;
             break;
           case HeaderLine.FILTER_NONSYN:
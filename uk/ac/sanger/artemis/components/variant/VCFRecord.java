@@ -46,7 +46,7 @@ public class VCFRecord
   private String info;
   private String infos[];
   private String format;
-  private String genotypeData[][];
+  private GenotypeData genotypeData;
   private short synFlag = -1;
   private boolean markAsNewStop = false;
 
@@ -75,8 +75,25 @@ public class VCFRecord
   protected static VCFRecord parse(final String line, int nsamples)
   {
     final VCFRecord rec = new VCFRecord();
-    final String parts[] = split(line, "\t", 9+nsamples);
-    //final String parts[] = TAB_PATTERN.split(line);
+    
+    // split the first 9 columns, the sample columns are decoded on demand
+    final String parts[] = new String[9];
+    final int lineLen = line.length();
+    int ind1 = 0;
+    int count = 0;
+    while(ind1 < lineLen && count < 9)
+    {
+      int ind2 = line.indexOf('\t', ind1);
+      if(ind2 == ind1)
+      {
+        ind1++;
+        continue;
+      }
+      if(ind2 < 0)
+        ind2 = lineLen;
+      parts[count++] = line.substring(ind1, ind2);
+      ind1 = ind2+1;
+    }
     
     rec.chrom = parts[0];
     rec.pos   = Integer.parseInt(parts[1]);
@@ -96,22 +113,25 @@ public class VCFRecord
     rec.filter  = parts[6];
     rec.info    = parts[7];
     
-    if(parts.length > 9)
+    if(count == 9 && hasSampleColumn(line, ind1))
     {
       rec.format  = (parts[8]).trim();
-      final int nfmt = countOccurrences(rec.format, ':')+1; //rec.format.split(":").length;
-      nsamples = parts.length-9;
-          
-      rec.genotypeData = new String[nsamples][nfmt];
-      for(int i=0; i<nsamples; i++)
-      {
-        //rec.genotypeData[i] = COLON_PATTERN.split(parts[9+i]);
-        rec.genotypeData[i] = split(parts[9+i], ":", nfmt);
-      }
+      final byte raw[] = new byte[lineLen-ind1];
+      for(int i=0; i<raw.length; i++)
+        raw[i] = (byte) line.charAt(ind1+i);
+      rec.genotypeData = new GenotypeData(rec.format, raw);
     }
     return rec;
   }
   
+  private static boolean hasSampleColumn(final String line, final int start)
+  {
+    for(int i=start; i<line.length(); i++)
+      if(line.charAt(i) != '\t')
+        return true;
+    return false;
+  }
+  
   protected static int countOccurrences(final String str, final char search)
   {
     int count = 0;
@@ -209,14 +229,7 @@ public class VCFRecord
   {
     if(getFormat() == null)
       return null;
-    final StringBuffer buff = new StringBuffer();
-    for(int i=0; i<genotypeData[sampleIndex].length; i++)  // loop over values
-    {
-      buff.append(genotypeData[sampleIndex][i]);
-      if(i<genotypeData[sampleIndex].length-1)
-        buff.append(":");
-    }
-    return buff.toString();
+    return genotypeData.getSampleString(sampleIndex);
   }
   
   /**
@@ -234,30 +247,28 @@ public class VCFRecord
   }
 
   /**
-   * Get genotype values for a given key
+   * Test if a sample is homozygous for the reference allele.
+   * @param sampleIndex
+   * @return false if there is no GT value for the sample
+   */
+  protected boolean isHomozygousRef(final int sampleIndex)
+  {
+    if(getFormat() == null || genotypeData == null)
+      return false;
+    return genotypeData.isHomozygousRef(sampleIndex);
+  }
+
+  /**
+   * Get genotype values for a given key. The values are decoded
+   * the first time a key is requested.
    * @param key
    * @return
    */
   protected String[] getFormatValues(final String key)
   {
-    if(getFormat() == null)
+    if(getFormat() == null || genotypeData == null)
       return null;
-    final String fmts[] = COLON_PATTERN.split(getFormat());
-
-    for(int i=0; i<fmts.length; i++)
-    {
-      if(fmts[i].equals(key))
-      {
-        final String keyData[] = new String[genotypeData.length];
-        for(int j=0; j<genotypeData.length; j++)
-        {
-          if(genotypeData[j].length == fmts.length)
-            keyData[j] = genotypeData[j][i];
-        }
-        return keyData;
-      }
-    }
-    return null;
+    return genotypeData.getValues(key);
   }
   
   /**
@@ -268,21 +279,35 @@ public class VCFRecord
   {
     if(genotypeData == null)
       return "";
-    StringBuffer buff = new StringBuffer();
-    for(int i=0; i<genotypeData.length; i++)       // loop over samples
-    {
-      for(int j=0; j<genotypeData[i].length; j++)  // loop over values
-      {
-        buff.append(genotypeData[i][j]);
-        if(j<genotypeData[i].length-1)
-          buff.append(":");
-      }
-      if(i<genotypeData.length-1)
-        buff.append("\t");
-    }
+    final StringBuilder buff = new StringBuilder();
+    genotypeData.appendTo(buff);
     return buff.toString();
   }
 
+  /**
+   * Rough estimate of the number of bytes used by this record. This
+   * is used to limit the size of the record cache.
+   * @return
+   */
+  protected long getSizeEstimate()
+  {
+    long size = 96 + 
+        stringSize(chrom) + stringSize(ID) + stringSize(ref) + 
+        stringSize(filter) + stringSize(info) + stringSize(format);
+    if(var != null)
+      size += 24 + stringSize(var.toString());
+    if(genotypeData != null)
+      size += genotypeData.getSizeEstimate();
+    return size;
+  }
+  
+  private static long stringSize(final String str)
+  {
+    if(str == null)
+      return 0;
+    return 40 + 2*str.length();
+  }
+
   /**
    * @return the chrom
    */
@@ -443,7 +468,7 @@ public class VCFRecord
   /**
    * @return the data
    */
-  protected String[][] getGenoTypeData()
+  protected GenotypeData getGenoTypeData()
   {
     return genotypeData;
   }
@@ -451,7 +476,7 @@ public class VCFRecord
   /**
    * @param data the data to set
    */
-  protected void setGenoTypeData(String[][] data)
+  protected void setGenoTypeData(GenotypeData data)
   {
     this.genotypeData = data;
   }
@@ -594,6 +619,17 @@ public class VCFRecord
     return -1;
   }
   
+  /**
+   * Forget the synonymous and new stop flags worked out for the features
+   * that were used, e.g. before a cached record is drawn again, as the
+   * features may have been edited since.
+   */
+  protected void resetSynFlag()
+  {
+    synFlag = -1;
+    markAsNewStop = false;
+  }
+
   protected boolean isMarkAsNewStop() 
   {
       return markAsNewStop;
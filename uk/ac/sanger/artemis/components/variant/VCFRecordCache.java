@@ -0,0 +1,236 @@
+/* VCFRecordCache
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2013  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.components.variant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of decoded VCF records for a single reader. The records are
+ * held in tiles that cover a fixed window of bases on a sequence. The
+ * least recently used tiles are dropped when the estimated size of the
+ * cached records exceeds the memory budget. The synonymous flags of
+ * the records are reset each time they are returned.
+ */
+class VCFRecordCache
+{
+  /** number of bases in each tile */
+  protected static int TILE_SIZE = 10000;
+  /** ranges spanning more tiles than this are read directly */
+  protected static int MAX_TILES_PER_QUERY = 250;
+  /** fixed overhead of a tile (key, map entry and list) */
+  private static int TILE_OVERHEAD = 128;
+
+  private final AbstractVCFReader reader;
+  private long memoryBudget;
+  private long memoryUsed = 0;
+  private final LinkedHashMap<TileKey, Tile> tiles =
+      new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+
+  /**
+   * @param reader        VCF/BCF reader to cache records from
+   * @param memoryBudget  estimate of the maximum number of bytes to use
+   */
+  protected VCFRecordCache(final AbstractVCFReader reader, final long memoryBudget)
+  {
+    this.reader = reader;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Return the records that overlap a range in a sequence. The records
+   * are in the order they are found in the file.
+   * @param chr     sequence name
+   * @param sbeg    start base
+   * @param send    end base
+   * @return
+   * @throws IOException
+   */
+  protected synchronized List<VCFRecord> getRecords(final String chr, int sbeg, final int send)
+         throws IOException
+  {
+    if(sbeg < 1)
+      sbeg = 1;
+    final List<VCFRecord> records = new ArrayList<VCFRecord>();
+    if(send < sbeg)
+      return records;
+
+    final int firstTile = getTileIndex(sbeg);
+    final int lastTile  = getTileIndex(send);
+
+    if(lastTile - firstTile >= MAX_TILES_PER_QUERY)
+    {
+      // too large to be worth caching, e.g. whole chromosome view
+      VCFRecord record;
+      while((record = reader.getNextRecord(chr, sbeg, send)) != null)
+        records.add(record);
+      return records;
+    }
+
+    for(int i = firstTile; i <= lastTile; i++)
+    {
+      final Tile tile = getTile(chr, i);
+      for(VCFRecord record: tile.records)
+      {
+        final int pos = record.getPos();
+        if(pos > send)
+          break;
+        // records starting before the tile are returned with the previous tile
+        if(pos < tile.start && i > firstTile)
+          continue;
+        if(getEnd(record) < sbeg)
+          continue;
+        // the CDS features may have changed since the flags were set
+        record.resetSynFlag();
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Remove all the cached records.
+   */
+  protected synchronized void clear()
+  {
+    tiles.clear();
+    memoryUsed = 0;
+  }
+
+  /**
+   * Set the maximum number of bytes to use and evict tiles if necessary.
+   * @param memoryBudget
+   */
+  protected synchronized void setMemoryBudget(final long memoryBudget)
+  {
+    this.memoryBudget = memoryBudget;
+    evict(null);
+  }
+
+  protected synchronized long getMemoryUsed()
+  {
+    return memoryUsed;
+  }
+
+  protected synchronized int getNumberOfTiles()
+  {
+    return tiles.size();
+  }
+
+  private Tile getTile(final String chr, final int index) throws IOException
+  {
+    final TileKey key = new TileKey(chr, index);
+    Tile tile = tiles.get(key);
+    if(tile != null)
+      return tile;
+
+    tile = new Tile(index*TILE_SIZE + 1);
+    final int tileEnd = (index+1)*TILE_SIZE;
+    VCFRecord record;
+    while((record = reader.getNextRecord(chr, tile.start, tileEnd)) != null)
+    {
+      tile.records.add(record);
+      tile.size += record.getSizeEstimate();
+    }
+
+    tiles.put(key, tile);
+    memoryUsed += tile.size;
+    evict(key);
+    return tile;
+  }
+
+  /**
+   * Drop least recently used tiles until within the memory budget.
+   * @param keep  tile that should not be evicted
+   */
+  private void evict(final TileKey keep)
+  {
+    final Iterator<Map.Entry<TileKey, Tile>> it = tiles.entrySet().iterator();
+    while(memoryUsed > memoryBudget && it.hasNext())
+    {
+      final Map.Entry<TileKey, Tile> entry = it.next();
+      if(entry.getKey().equals(keep))
+        continue;
+      memoryUsed -= entry.getValue().size;
+      it.remove();
+    }
+  }
+
+  private static int getTileIndex(final int base)
+  {
+    return (base-1)/TILE_SIZE;
+  }
+
+  /**
+   * Last reference base covered by the record.
+   */
+  private static int getEnd(final VCFRecord record)
+  {
+    final String ref = record.getRef();
+    if(ref == null || ref.length() < 2)
+      return record.getPos();
+    return record.getPos() + ref.length() - 1;
+  }
+
+  static class Tile
+  {
+    private final int start;
+    private final List<VCFRecord> records = new ArrayList<VCFRecord>();
+    private long size = TILE_OVERHEAD;
+
+    Tile(final int start)
+    {
+      this.start = start;
+    }
+  }
+
+  static class TileKey
+  {
+    private final String chr;
+    private final int index;
+
+    TileKey(final String chr, final int index)
+    {
+      this.chr = chr;
+      this.index = index;
+    }
+
+    public int hashCode()
+    {
+      return 31*(chr == null ? 0 : chr.hashCode()) + index;
+    }
+
+    public boolean equals(Object obj)
+    {
+      if(!(obj instanceof TileKey))
+        return false;
+      final TileKey key = (TileKey) obj;
+      return index == key.index &&
+             (chr == null ? key.chr == null : chr.equals(key.chr));
+    }
+  }
+}
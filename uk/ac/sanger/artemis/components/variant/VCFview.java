@@ -248,6 +248,7 @@ public class VCFview extends JPanel
       {
         readHeader(vcfFiles.get(i), i);
       }
+      setRecordCacheSize();
     }
     catch(java.lang.UnsupportedClassVersionError err)
     {
@@ -326,6 +327,7 @@ public class VCFview extends JPanel
         
         for (int i = 0; i < vcfFileList.size(); i++)
           readHeader(vcfFileList.get(i), i+oldSize);
+        setRecordCacheSize();
         
         for(int i=0; i<vcfFileList.size(); i++)
           addToViewMenu(i+oldSize);
@@ -371,7 +373,7 @@ public class VCFview extends JPanel
     {
       public void actionPerformed(ActionEvent e)
       {
-        repaint();
+        filterChanged();
       }
     });
     popup.add(markNewStops);
@@ -1022,6 +1024,30 @@ public class VCFview extends JPanel
     return;
   }
   
+  /**
+   * Share the record cache memory budget between the VCF readers
+   * and clear the cached records.
+   */
+  private void setRecordCacheSize()
+  {
+    for(int i=0; i<vcfReaders.length; i++)
+    {
+      vcfReaders[i].setRecordCacheSize(AbstractVCFReader.RECORD_CACHE_SIZE/vcfReaders.length);
+      vcfReaders[i].clearRecordCache();
+    }
+  }
+  
+  /**
+   * Called when the filtering of the variants has changed. This clears
+   * the cached records and repaints.
+   */
+  protected void filterChanged()
+  {
+    for(int i=0; i<vcfReaders.length; i++)
+      vcfReaders[i].clearRecordCache();
+    repaint();
+  }
+  
   /**
    * Set the number of bases being displayed
    * @param nbasesInView
@@ -1286,13 +1312,11 @@ public class VCFview extends JPanel
     cacheVariantLines = new Vector<Integer>(5);
     try
     {
-      VCFRecord record;
-
       // viewport position and height
       int viewIndex = getHeight()/(LINE_HEIGHT+5) - jspView.getViewport().getViewPosition().y/(LINE_HEIGHT+5);
       int viewHgt = jspView.getViewport().getExtentSize().height/(LINE_HEIGHT+5);
 
-      while((record = vcfReaders[vcfFileIndex].getNextRecord(chr, sbeg, send)) != null)
+      for(VCFRecord record: vcfReaders[vcfFileIndex].getRecords(chr, sbeg, send))
       {
         int basePosition = record.getPos() + getSequenceOffset(record.getChrom());
         if(!splitSamples)
@@ -1682,8 +1706,7 @@ public class VCFview extends JPanel
   {
     try
     {
-      VCFRecord bcfRecord;
-      while((bcfRecord = vcfReaders[fileIndex].getNextRecord(chr, sbeg, send)) != null)
+      for(VCFRecord bcfRecord: vcfReaders[fileIndex].getRecords(chr, sbeg, send))
       {
         
         if(splitSamples)
@@ -75,15 +75,8 @@ public class DocumentEntryAutosaveThread extends Thread {
         continue;
       }
 
-      final File save_file;
-
-      if(document_entry.getDocument() instanceof RemoteFileDocument ||
-          isMac())
-        save_file = new File(System.getProperty("user.dir")+
-                             System.getProperty("file.separator")+
-                             "#" + entry_name + "#");
-      else
-        save_file = new File ("#" + entry_name + "#");
+      final File save_file =
+        getSaveFile (document_entry.getDocument (), "#" + entry_name + "#");
 
       final java.util.Date last_change_time =
         document_entry.getLastChangeTime ();
@@ -117,15 +110,8 @@ public class DocumentEntryAutosaveThread extends Thread {
       } else {
         if (have_saved) {
           // auto save file isn't needed now so turn it into a backup file
-          final File new_name;
-
-          if(document_entry.getDocument() instanceof RemoteFileDocument ||
-             isMac())
-            new_name = new File (System.getProperty("user.dir")+
-                                 System.getProperty("file.separator")+
-                                 entry_name + "~");
-          else
-            new_name = new File (entry_name + "~");
+          final File new_name =
+            getSaveFile (document_entry.getDocument (), entry_name + "~");
 
           save_file.renameTo (new_name);
         } else {
@@ -142,7 +128,22 @@ public class DocumentEntryAutosaveThread extends Thread {
     }
   }
 
-  private boolean isMac() 
+  /**
+   *  Return the file to use for an autosave file of a document - this is in
+   *  the user.dir directory for remote documents or on a Mac, otherwise it
+   *  is relative to the current directory.
+   *  @param document The Document being autosaved.
+   *  @param file_name The name of the autosave file.
+   **/
+  static File getSaveFile (final Document document, final String file_name) {
+    if (document instanceof RemoteFileDocument || isMac ())
+      return new File (System.getProperty ("user.dir") +
+                       System.getProperty ("file.separator") + file_name);
+    else
+      return new File (file_name);
+  }
+
+  private static boolean isMac() 
   {
     return System.getProperty("mrj.version") != null ||
            System.getProperty("os.name").toLowerCase().indexOf("mac") >= 0;
@@ -0,0 +1,668 @@
+/* DocumentEntryJournal
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+
+import javax.swing.SwingUtilities;
+
+import uk.ac.sanger.artemis.EntryChangeEvent;
+import uk.ac.sanger.artemis.EntryChangeListener;
+import uk.ac.sanger.artemis.FeatureChangeEvent;
+import uk.ac.sanger.artemis.FeatureChangeListener;
+import uk.ac.sanger.artemis.Options;
+import uk.ac.sanger.artemis.sequence.SequenceChangeEvent;
+import uk.ac.sanger.artemis.sequence.SequenceChangeListener;
+import uk.ac.sanger.artemis.util.FileDocument;
+import uk.ac.sanger.artemis.util.LinePushBackReader;
+
+/**
+ * Autosave an EMBL or GenBank entry as a journal of its changes rather
+ * than by rewriting the whole entry. Features that are added, removed or
+ * changed are appended to #name#.journal as the changes happen. The
+ * journal starts from a base file - the entry file itself, or once the
+ * journal has grown long enough a checkpoint copy of the entry that is
+ * written in the background to #name#.0 or #name#.1. After a crash
+ * recover() replays the journal onto its base.
+ * <p>
+ * The journal is written as:
+ * <pre>
+ * document &lt;entry file&gt;
+ * base &lt;file&gt; &lt;length&gt; &lt;last modified&gt; &lt;no. of features&gt;
+ * A &lt;id&gt; &lt;no. of lines&gt;   a feature was added, followed by its text
+ * C &lt;id&gt; &lt;no. of lines&gt;   a feature changed, followed by its new text
+ * R &lt;id&gt;                     a feature was removed
+ * H &lt;no. of lines&gt;          the header changed, followed by the header
+ * X                          a change that is not journaled (the sequence)
+ * </pre>
+ * The features of the base are identified by their position in it and
+ * features that are added by the next unused number.
+ */
+public class DocumentEntryJournal
+       implements EntryChangeListener, FeatureChangeListener, SequenceChangeListener
+{
+  private static org.apache.log4j.Logger logger4j =
+      org.apache.log4j.Logger.getLogger(DocumentEntryJournal.class);
+
+  /** how often to check if a checkpoint is needed */
+  private static final long SLEEP_TIME = 2 * 60 * 1000;
+
+  private final PublicDBDocumentEntry entry;
+  private final File journalFile;
+  /** records written since the last checkpoint */
+  private Generation current;
+  /** records since the checkpoint that is being written */
+  private Generation pending;
+  private Writer out = null;
+  private Thread checkpointThread = null;
+  private boolean checkpointRequested = false;
+  private boolean stopped = false;
+
+  private DocumentEntryJournal(final PublicDBDocumentEntry entry)
+  {
+    this.entry = entry;
+    this.journalFile = getFile(entry.getDocument(), ".journal");
+    this.current = new Generation(entry, getFile(entry), -1);
+  }
+
+  /**
+   * Start journaling the changes to an entry. The change events are sent
+   * to the journal by the uk.ac.sanger.artemis.Entry that is made from it.
+   * @param entry
+   * @return the journal or null if the entry cannot be journaled.
+   */
+  public static DocumentEntryJournal makeJournal(final Entry entry)
+  {
+    if(!(entry instanceof PublicDBDocumentEntry) ||
+       !(((PublicDBDocumentEntry) entry).getDocument() instanceof FileDocument) ||
+       ((PublicDBDocumentEntry) entry).getJournal() != null ||
+       !Options.getOptions().getPropertyTruthValue("autosave_journal"))
+      return null;
+
+    final PublicDBDocumentEntry document_entry = (PublicDBDocumentEntry) entry;
+    final DocumentEntryJournal journal = new DocumentEntryJournal(document_entry);
+    document_entry.setJournal(journal);
+    return journal;
+  }
+
+  public void entryChanged(final EntryChangeEvent event)
+  {
+    switch(event.getType())
+    {
+      case EntryChangeEvent.FEATURE_ADDED:
+        record('A', event.getFeature().getEmblFeature());
+        break;
+      case EntryChangeEvent.FEATURE_DELETED:
+        record('R', event.getFeature().getEmblFeature());
+        break;
+      case EntryChangeEvent.HEADER_CHANGED:
+        record('H', null);
+        break;
+    }
+  }
+
+  public void featureChanged(final FeatureChangeEvent event)
+  {
+    // features are sent location changes when options change
+    if(event.getType() == FeatureChangeEvent.LOCATION_CHANGED &&
+       !event.featureHasChanged())
+      return;
+    record('C', event.getFeature().getEmblFeature());
+  }
+
+  public void sequenceChanged(final SequenceChangeEvent event)
+  {
+    // the features after this cannot be replayed on the old sequence,
+    // so checkpoint as soon as possible
+    record('X', null);
+    synchronized(this)
+    {
+      checkpointRequested = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Called after the entry is saved to its document, which becomes the
+   * base of an empty journal.
+   */
+  protected synchronized void saved()
+  {
+    close();
+    deleteFiles(entry.getDocument());
+    current = new Generation(entry, getFile(entry), -1);
+    pending = null;
+    checkpointRequested = false;
+  }
+
+  /**
+   * Stop journaling, leaving the journal to be recovered. Called when the
+   * entry is closed.
+   */
+  public synchronized void stop()
+  {
+    close();
+    stopped = true;
+    if(checkpointThread != null)
+      checkpointThread.interrupt();
+  }
+
+  /**
+   * Append a record to the journal and to the records of a checkpoint that
+   * is being written.
+   */
+  private synchronized void record(final char type, final Feature feature)
+  {
+    if(stopped)
+      return;
+    String text = null;
+    try
+    {
+      if(type == 'A' || type == 'C')
+      {
+        if(!(feature instanceof StreamFeature))
+          return;
+        final StringWriter writer = new StringWriter();
+        ((StreamFeature) feature).writeToStream(writer);
+        text = writer.toString();
+      }
+      else if(type == 'H')
+        text = (entry.getHeaderText() == null ? "" : entry.getHeaderText());
+      if(text != null && text.length() > 0 && !text.endsWith("\n"))
+        text = text + "\n";
+
+      if(pending != null)
+        pending.record(type, feature, text);
+
+      final String record = current.record(type, feature, text);
+      if(record == null)
+        return;
+      if(out == null)
+      {
+        out = new BufferedWriter(new FileWriter(journalFile));
+        out.write(current.getHeader(entry));
+      }
+      out.write(record);
+      out.flush();
+    }
+    catch(IOException e)
+    {
+      logger4j.warn("Cannot write to the autosave journal "+journalFile+" : "+e.getMessage());
+    }
+
+    if(checkpointThread == null)
+    {
+      checkpointThread = new Thread("Autosave "+entry.getName())
+      {
+        public void run()
+        {
+          checkpointLoop();
+        }
+      };
+      checkpointThread.setDaemon(true);
+      checkpointThread.setPriority(Thread.MIN_PRIORITY);
+      checkpointThread.start();
+    }
+  }
+
+  private void checkpointLoop()
+  {
+    final int checkpoint_records =
+        Options.getOptions().getIntegerProperty("autosave_journal_records") == null ? 5000 :
+        Options.getOptions().getIntegerProperty("autosave_journal_records").intValue();
+    while(true)
+    {
+      synchronized(this)
+      {
+        try
+        {
+          if(!checkpointRequested)
+            wait(SLEEP_TIME);
+        }
+        catch(InterruptedException e)
+        {
+          return;
+        }
+        if(stopped)
+          return;
+        if(!checkpointRequested && current.nrecords < checkpoint_records)
+          continue;
+      }
+      try
+      {
+        checkpoint();
+      }
+      catch(IOException e)
+      {
+        logger4j.warn("Cannot write autosave checkpoint : "+e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Copy the entry in the Swing thread and write the copy in this thread.
+   * The journal then restarts from the copy.
+   */
+  protected void checkpoint() throws IOException
+  {
+    final PublicDBDocumentEntry snapshot[] = new PublicDBDocumentEntry[1];
+    final Runnable copy = new Runnable()
+    {
+      public void run()
+      {
+        snapshot[0] = takeSnapshot();
+      }
+    };
+    try
+    {
+      if(SwingUtilities.isEventDispatchThread())
+        copy.run();
+      else
+        SwingUtilities.invokeAndWait(copy);
+    }
+    catch(InterruptedException e)
+    {
+      return;
+    }
+    catch(InvocationTargetException e)
+    {
+      throw new IOException(e.getCause().getMessage());
+    }
+    if(snapshot[0] == null)
+      return;
+
+    final File base;
+    synchronized(this)
+    {
+      if(pending == null)
+        return;
+      base = pending.base;
+    }
+
+    final Writer writer = new BufferedWriter(new FileWriter(base));
+    try
+    {
+      snapshot[0].writeToStream(writer);
+    }
+    finally
+    {
+      writer.close();
+    }
+
+    synchronized(this)
+    {
+      if(pending == null || pending.base != base)
+      {
+        // saved while the checkpoint was written
+        base.delete();
+        return;
+      }
+
+      // replace the journal with one that starts from the checkpoint
+      final File tmpFile = getFile(entry.getDocument(), ".journal.tmp");
+      final Writer tmp = new BufferedWriter(new FileWriter(tmpFile));
+      try
+      {
+        tmp.write(pending.getHeader(entry));
+        tmp.write(pending.records.toString());
+      }
+      finally
+      {
+        tmp.close();
+      }
+      close();
+      journalFile.delete();
+      if(!tmpFile.renameTo(journalFile))
+        throw new IOException("cannot rename "+tmpFile+" to "+journalFile);
+      if(current.slot >= 0)
+        getFile(entry.getDocument(), "."+current.slot).delete();
+
+      pending.records = null;
+      current = pending;
+      pending = null;
+      out = new BufferedWriter(new FileWriter(journalFile, true));
+    }
+  }
+
+  /**
+   * @return a copy of the entry, or null if nothing has been journaled
+   * since the last checkpoint
+   */
+  private synchronized PublicDBDocumentEntry takeSnapshot()
+  {
+    checkpointRequested = false;
+    if(current.nrecords == 0 || pending != null || stopped)
+      return null;
+    try
+    {
+      final PublicDBDocumentEntry snapshot;
+      if(entry instanceof EmblDocumentEntry)
+        snapshot = new EmblDocumentEntry(entry.getEntryInformation(), entry, true);
+      else
+        snapshot = new GenbankDocumentEntry(entry.getEntryInformation(), entry, true);
+      final int slot = (current.slot == 0 ? 1 : 0);
+      pending = new Generation(entry, getFile(entry.getDocument(), "."+slot), slot);
+      pending.records = new StringBuilder();
+      return snapshot;
+    }
+    catch(EntryInformationException e)
+    {
+      logger4j.warn("Cannot copy "+entry.getName()+" for autosave : "+e.getMessage());
+      return null;
+    }
+  }
+
+  private void close()
+  {
+    if(out == null)
+      return;
+    try
+    {
+      out.close();
+    }
+    catch(IOException e) {}
+    out = null;
+  }
+
+  /**
+   * Look for an autosave journal of an entry file and if there is one,
+   * replay it and write the recovered entry to #name#.
+   * @param entry_information
+   * @param document  the entry file
+   * @return the recovered file or null if there is nothing to recover
+   */
+  public static File recover(final EntryInformation entry_information,
+                             final FileDocument document)
+  {
+    File journalFile = getFile(document, ".journal");
+    if(!journalFile.exists())
+      journalFile = getFile(document, ".journal.tmp");
+    if(!journalFile.exists())
+      return null;
+
+    File recovered = null;
+    try
+    {
+      final BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+      try
+      {
+        // the journal may be of a file of the same name in another directory
+        if(!("document "+document.getFile().getAbsolutePath()).equals(reader.readLine()))
+          return null;
+
+        final PublicDBDocumentEntry entry = replay(entry_information, document, reader);
+        if(entry != null)
+        {
+          recovered = DocumentEntryAutosaveThread.getSaveFile(document,
+              "#" + document.getName() + "#");
+          final Writer writer = new BufferedWriter(new FileWriter(recovered));
+          try
+          {
+            entry.writeToStream(writer);
+          }
+          finally
+          {
+            writer.close();
+          }
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch(IOException e)
+    {
+      logger4j.warn("Cannot recover from "+journalFile+" : "+e.getMessage());
+      return null;
+    }
+    catch(EntryInformationException e)
+    {
+      logger4j.warn("Cannot recover from "+journalFile+" : "+e.getMessage());
+      return null;
+    }
+
+    deleteFiles(document);
+    return recovered;
+  }
+
+  /**
+   * Read the base of a journal and apply the records to it.
+   * @return the entry or null if the journal is not for this document,
+   *         its base has changed or it has no records
+   */
+  private static PublicDBDocumentEntry replay(final EntryInformation entry_information,
+                              final FileDocument document,
+                              final BufferedReader reader)
+          throws IOException, EntryInformationException
+  {
+    String ln = reader.readLine();
+    if(ln == null || !ln.startsWith("base "))
+      return null;
+
+    // base <file> <length> <last modified> <no. of features>
+    final String fields[] = ln.split(" ");
+    final int nfeatures = Integer.parseInt(fields[fields.length-1]);
+    final long lastModified = Long.parseLong(fields[fields.length-2]);
+    final long length = Long.parseLong(fields[fields.length-3]);
+    int end = ln.length();
+    for(int i=0; i<3; i++)
+      end = ln.lastIndexOf(' ', end-1);
+    final File base = new File(ln.substring(5, end));
+    if(base.length() != length || base.lastModified() != lastModified)
+    {
+      logger4j.warn("Cannot recover "+document.getName()+" as "+base+" has changed");
+      return null;
+    }
+
+    final Entry base_entry = DocumentEntryFactory.makeDocumentEntry(
+        entry_information, new FileDocument(base), null);
+    if(!(base_entry instanceof PublicDBDocumentEntry) ||
+       base_entry.getFeatureCount() != nfeatures)
+    {
+      logger4j.warn("Cannot recover "+document.getName()+" from "+base);
+      return null;
+    }
+    final PublicDBDocumentEntry entry = (PublicDBDocumentEntry) base_entry;
+
+    final Hashtable<Integer, Feature> features = new Hashtable<Integer, Feature>();
+    final FeatureEnumeration feature_enum = entry.features();
+    while(feature_enum.hasMoreFeatures())
+      features.put(features.size(), feature_enum.nextFeature());
+
+    int nrecords = 0;
+    while((ln = reader.readLine()) != null && !ln.equals("X"))
+    {
+      final String record[] = ln.split(" ");
+      final int nlines = Integer.parseInt(record[record.length-1]);
+      String text = null;
+      if(!record[0].equals("R"))
+      {
+        final StringBuilder buff = new StringBuilder();
+        for(int i=0; i<nlines; i++)
+        {
+          final String line = reader.readLine();
+          if(line == null)
+            return (nrecords > 0 ? entry : null);  // record not completely written
+          buff.append(line).append('\n');
+        }
+        text = buff.toString();
+      }
+
+      try
+      {
+        final Integer id = Integer.valueOf(record[1]);
+        switch(record[0].charAt(0))
+        {
+          case 'A':
+            features.put(id, entry.forcedAdd(readFeature(entry, text)));
+            break;
+          case 'C':
+            final Feature new_feature = readFeature(entry, text);
+            features.get(id).set(new_feature.getKey(), new_feature.getLocation(),
+                                 new_feature.getQualifiers());
+            break;
+          case 'R':
+            entry.remove(features.remove(id));
+            break;
+          case 'H':
+            entry.setHeaderText(text.length() == 0 ? null : text);
+            break;
+        }
+      }
+      catch(uk.ac.sanger.artemis.util.OutOfRangeException e)
+      {
+        logger4j.warn("Cannot recover change to "+document.getName()+" : "+e.getMessage());
+      }
+      catch(EntryInformationException e)
+      {
+        logger4j.warn("Cannot recover change to "+document.getName()+" : "+e.getMessage());
+      }
+      catch(NullPointerException e)
+      {
+        logger4j.warn("Cannot recover change to "+document.getName()+" : "+ln);
+      }
+      nrecords++;
+    }
+    return (nrecords > 0 ? entry : null);
+  }
+
+  private static Feature readFeature(final Entry entry, final String text)
+          throws IOException
+  {
+    final LinePushBackReader reader = new LinePushBackReader(new StringReader(text));
+    if(entry instanceof EmblDocumentEntry)
+      return EmblStreamFeature.readFromStream(reader);
+    else
+      return GenbankStreamFeature.readFromStream(reader);
+  }
+
+  private static File getFile(final PublicDBDocumentEntry entry)
+  {
+    return ((FileDocument) entry.getDocument()).getFile();
+  }
+
+  /**
+   * Return an autosave file of a document, #name#&lt;suffix&gt;
+   */
+  private static File getFile(final uk.ac.sanger.artemis.util.Document document,
+                              final String suffix)
+  {
+    return DocumentEntryAutosaveThread.getSaveFile(document,
+        "#" + document.getName() + "#" + suffix);
+  }
+
+  private static void deleteFiles(final uk.ac.sanger.artemis.util.Document document)
+  {
+    final String suffixes[] = { ".journal", ".journal.tmp", ".0", ".1" };
+    for(int i=0; i<suffixes.length; i++)
+      getFile(document, suffixes[i]).delete();
+  }
+
+  /**
+   * The ids of the features since a base, and the records since the base
+   * if they are not written to the journal file.
+   */
+  private static class Generation
+  {
+    private final File base;
+    /** the checkpoint slot of the base, or -1 for the entry file */
+    private final int slot;
+    private final int nfeatures;
+    private final IdentityHashMap<Feature, Integer> ids = new IdentityHashMap<Feature, Integer>();
+    private int next_id;
+    private int nrecords = 0;
+    private StringBuilder records = null;
+
+    /**
+     * Number the features of an entry by their position.
+     */
+    Generation(final Entry entry, final File base, final int slot)
+    {
+      this.base = base;
+      this.slot = slot;
+      final FeatureEnumeration feature_enum = entry.features();
+      while(feature_enum.hasMoreFeatures())
+        ids.put(feature_enum.nextFeature(), ids.size());
+      nfeatures = next_id = ids.size();
+    }
+
+    private String getHeader(final PublicDBDocumentEntry entry)
+    {
+      return "document "+getFile(entry).getAbsolutePath()+"\n"+
+             "base "+base.getAbsolutePath()+" "+base.length()+" "+
+             base.lastModified()+" "+nfeatures+"\n";
+    }
+
+    /**
+     * @return the record, or null if it is for a feature that is not known
+     */
+    private String record(final char type, final Feature feature, final String text)
+    {
+      final StringBuilder buff = new StringBuilder();
+      buff.append(type);
+      if(feature != null)
+      {
+        Integer id = ids.get(feature);
+        if(type == 'A' && id == null)
+        {
+          id = next_id++;
+          ids.put(feature, id);
+        }
+        else if(type == 'R')
+          id = ids.remove(feature);
+        if(id == null)
+          return null;
+        buff.append(' ').append(id);
+      }
+      if(text != null)
+      {
+        int nlines = 0;
+        for(int i=0; i<text.length(); i++)
+          if(text.charAt(i) == '\n')
+            nlines++;
+        buff.append(' ').append(nlines).append('\n').append(text);
+      }
+      else
+        buff.append('\n');
+
+      nrecords++;
+      if(records != null)
+      {
+        records.append(buff);
+        return null;
+      }
+      return buff.toString();
+    }
+  }
+}
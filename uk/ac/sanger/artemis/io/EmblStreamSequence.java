@@ -237,6 +237,7 @@ public class EmblStreamSequence extends StreamSequence
 
     int line_length_so_far = 0;
     final int BLOCK_LENGTH = 10;
+    final char block[] = new char[BLOCK_LENGTH];
  
     for(int i = 0 ; i < length() ; i += SEQUENCE_LINE_BASE_COUNT) 
     {
@@ -257,14 +258,12 @@ public class EmblStreamSequence extends StreamSequence
         writer.write(' ');
 
         if(this_line_length - j < BLOCK_LENGTH) 
-        {
           this_block_length = this_line_length - j;
-          forceReset();
-        }
         else 
           this_block_length = BLOCK_LENGTH;
 
-        writer.write(getCharSubSequence(i + j + 1, i + j + this_block_length));
+        getChars(i + j + 1, i + j + this_block_length, block, 0);
+        writer.write(block, 0, this_block_length);
         line_length_so_far += this_block_length + 1;
       }
 
@@ -0,0 +1,333 @@
+/* FastaBlockReader
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Read the bases of a FASTA file that has a samtools faidx (.fai) index
+ * from a memory mapped copy of the file. Ranges of bases are decoded
+ * straight from the mapped file. Single bases are read from fixed size
+ * blocks of decoded bases kept in a small least recently used cache.
+ * Bases are returned in lower case.
+ */
+class FastaBlockReader
+{
+  /** Bases per cached block (1 << BLOCK_SHIFT). */
+  private static final int BLOCK_SHIFT = 12;
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+  /** Number of blocks in the cache. */
+  private static final int CACHE_SIZE = 64;
+
+  /** Bytes in each mapped segment of a contig (1 << SEGMENT_SHIFT). */
+  private static final int SEGMENT_SHIFT = 30;
+
+  /** Lower case character for each byte. */
+  private static final char LOWER[] = new char[256];
+  static
+  {
+    for(int i = 0; i < LOWER.length; i++)
+      LOWER[i] = Character.toLowerCase((char) i);
+  }
+
+  private final FileChannel channel;
+
+  /** The contig names, lengths, file offsets and line layout from the .fai. */
+  private final String names[];
+  private final int lengths[];
+  private final long offsets[];
+  private final int lineBases[];
+  private final int lineWidths[];
+  private final Hashtable<String, Integer> contigIndex =
+      new Hashtable<String, Integer>();
+
+  /** The contig that is mapped, its layout and the mapped segments. */
+  private int contig = -1;
+  private int contigLineBases;
+  private int contigLineWidth;
+  private MappedByteBuffer segments[];
+
+  /** Cached blocks, the block number held in each (-1 if unused) and when they were last used. */
+  private final char blocks[][] = new char[CACHE_SIZE][];
+  private final int blockNumbers[] = new int[CACHE_SIZE];
+  private final long blockUsed[] = new long[CACHE_SIZE];
+  private long useCount = 0;
+  private int lastSlot = 0;
+
+  /**
+   * Open a FASTA file and read its index.
+   * @param fasta the FASTA file
+   * @param fastaIndexFile the samtools faidx index of the file
+   * @throws IOException
+   */
+  FastaBlockReader(final File fasta, final File fastaIndexFile) throws IOException
+  {
+    final Vector<String[]> entries = new Vector<String[]>();
+    final BufferedReader reader = new BufferedReader(new FileReader(fastaIndexFile));
+    try
+    {
+      String line;
+      while((line = reader.readLine()) != null)
+      {
+        final String fields[] = line.split("\t");
+        if(fields.length < 5)
+          continue;
+        entries.add(fields);
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+
+    final int n = entries.size();
+    names = new String[n];
+    lengths = new int[n];
+    offsets = new long[n];
+    lineBases = new int[n];
+    lineWidths = new int[n];
+    for(int i = 0; i < n; i++)
+    {
+      final String fields[] = entries.get(i);
+      try
+      {
+        names[i] = fields[0];
+        lengths[i] = Integer.parseInt(fields[1].trim());
+        offsets[i] = Long.parseLong(fields[2].trim());
+        lineBases[i] = Integer.parseInt(fields[3].trim());
+        lineWidths[i] = Integer.parseInt(fields[4].trim());
+      }
+      catch(NumberFormatException e)
+      {
+        throw new IOException("Invalid line in "+fastaIndexFile.getName()+
+                              ": "+fields[0]);
+      }
+      contigIndex.put(names[i], i);
+    }
+
+    channel = new RandomAccessFile(fasta, "r").getChannel();
+    clearCache();
+  }
+
+  /**
+   * Return the number of sequences in the index.
+   */
+  int getContigCount()
+  {
+    return names.length;
+  }
+
+  /**
+   * Return the name of a sequence, in the order of the index.
+   */
+  String getContig(final int index)
+  {
+    return names[index];
+  }
+
+  /**
+   * Return the length of a sequence, in the order of the index.
+   */
+  int getLength(final int index)
+  {
+    return lengths[index];
+  }
+
+  /**
+   * Return the position of a sequence in the index or -1 if it is not found.
+   */
+  int getIndex(final String name)
+  {
+    final Integer index = contigIndex.get(name);
+    return (index == null ? -1 : index.intValue());
+  }
+
+  /**
+   * Select the sequence that bases are read from and map its part of the
+   * file.
+   * @param index position of the sequence in the index
+   * @throws IOException
+   */
+  synchronized void setContig(final int index) throws IOException
+  {
+    if(index == contig)
+      return;
+
+    // up to and including the last base
+    final long size = (lengths[index] == 0 ? 0 :
+        getFileOffset(lengths[index] - 1, lineBases[index], lineWidths[index]) + 1);
+    final int nsegments = (int) (size >> SEGMENT_SHIFT) + 1;
+    final MappedByteBuffer newSegments[] = new MappedByteBuffer[nsegments];
+    for(int i = 0; i < nsegments; i++)
+    {
+      final long start = (long) i << SEGMENT_SHIFT;
+      newSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+          offsets[index] + start, Math.min(1L << SEGMENT_SHIFT, size - start));
+    }
+
+    segments = newSegments;
+    contigLineBases = lineBases[index];
+    contigLineWidth = lineWidths[index];
+    contig = index;
+    clearCache();
+  }
+
+  /**
+   * Copy bases of the selected sequence into a buffer.
+   * @param start first base (1-based)
+   * @param end last base, which must not be beyond the end of the sequence
+   * @param dst the buffer to copy to
+   * @param dstOffset the index in dst of the first base
+   */
+  synchronized void getChars(final int start, final int end,
+                             final char dst[], final int dstOffset)
+  {
+    if(end < start)
+      return;
+
+    // copy whole blocks that are cached, decode the rest from the file
+    int pos = start - 1;
+    int off = dstOffset;
+    while(pos < end)
+    {
+      final int block = pos >> BLOCK_SHIFT;
+      final int blockEnd = Math.min(end, (block + 1) << BLOCK_SHIFT);
+      final int slot = findBlock(block);
+      if(slot >= 0)
+        System.arraycopy(blocks[slot], pos & (BLOCK_SIZE - 1), dst, off, blockEnd - pos);
+      else
+        decode(pos, blockEnd - pos, dst, off);
+      off += blockEnd - pos;
+      pos = blockEnd;
+    }
+  }
+
+  /**
+   * Return a base of the selected sequence.
+   * @param i the base position (1-based)
+   */
+  synchronized char charAt(final int i)
+  {
+    final int pos = i - 1;
+    return getBlock(pos >> BLOCK_SHIFT)[pos & (BLOCK_SIZE - 1)];
+  }
+
+  /**
+   * Close the FASTA file.
+   */
+  synchronized void close() throws IOException
+  {
+    segments = null;
+    contig = -1;
+    channel.close();
+  }
+
+  /**
+   * Decode bases from the mapped file.
+   * @param pos the first base (0-based)
+   * @param count the number of bases
+   */
+  private void decode(final int pos, final int count, final char dst[], final int dstOffset)
+  {
+    final MappedByteBuffer segs[] = segments;
+    final int lineSkip = contigLineWidth - contigLineBases;
+    int col = pos % contigLineBases;
+    long filePos = getFileOffset(pos, contigLineBases, contigLineWidth);
+
+    for(int i = 0; i < count; i++)
+    {
+      dst[dstOffset + i] = LOWER[segs[(int) (filePos >> SEGMENT_SHIFT)].get(
+          (int) (filePos & ((1 << SEGMENT_SHIFT) - 1))) & 0xff];
+      filePos++;
+      if(++col == contigLineBases)
+      {
+        col = 0;
+        filePos += lineSkip;
+      }
+    }
+  }
+
+  /**
+   * Return the decoded bases of a block, reading it if it isn't cached.
+   */
+  private char[] getBlock(final int block)
+  {
+    int slot = findBlock(block);
+    if(slot < 0)
+    {
+      // replace the least recently used block
+      slot = 0;
+      for(int i = 1; i < CACHE_SIZE; i++)
+        if(blockUsed[i] < blockUsed[slot])
+          slot = i;
+
+      if(blocks[slot] == null)
+        blocks[slot] = new char[BLOCK_SIZE];
+      final int start = block << BLOCK_SHIFT;
+      decode(start, Math.min(BLOCK_SIZE, lengths[contig] - start), blocks[slot], 0);
+      blockNumbers[slot] = block;
+    }
+    blockUsed[slot] = ++useCount;
+    lastSlot = slot;
+    return blocks[slot];
+  }
+
+  /**
+   * Return the cache slot that holds a block or -1.
+   */
+  private int findBlock(final int block)
+  {
+    if(blockNumbers[lastSlot] == block)
+      return lastSlot;
+    for(int i = 0; i < CACHE_SIZE; i++)
+      if(blockNumbers[i] == block)
+        return i;
+    return -1;
+  }
+
+  private void clearCache()
+  {
+    for(int i = 0; i < CACHE_SIZE; i++)
+    {
+      blockNumbers[i] = -1;
+      blockUsed[i] = 0;
+    }
+  }
+
+  /**
+   * Return the offset from the start of a sequence in the file of a base.
+   * @param pos the base (0-based)
+   */
+  private static long getFileOffset(final int pos, final int lineBases, final int lineWidth)
+  {
+    return (long) (pos / lineBases) * lineWidth + pos % lineBases;
+  }
+}
@@ -95,25 +95,17 @@ abstract class FeatureTable extends LineGroup {
   /**
    *  Add a feature to the feature table.  The features are ordered by first
    *  base and then last base.  This is an example ordering: 1..100, 1..200,
-   *  50..100, 150..250.  This method resets cached_feature_index and
-   *  cached_feature.
+   *  50..100, 150..250.
    *  @param new_feature The feature to add
    **/
   void add (final Feature new_feature) {
-    cached_feature = null;
-    cached_feature_index = -999;
-
     features.add (new_feature); 
   }
 
   /**
-   *  Remove the given Feature from this FeatureTable.  This method resets
-   *  cached_feature_index and cached_feature.
+   *  Remove the given Feature from this FeatureTable.
    **/
   Feature remove (final Feature feature) {
-    cached_feature = null;
-    cached_feature_index = -999;
-
     if (getFeatures ().contains (feature)) {
       getFeatures ().remove (feature);
       return feature;
@@ -125,48 +117,10 @@ abstract class FeatureTable extends LineGroup {
   /**
    *  Return the ith Feature from this FeatureTable.  This Features are
    *  returned in a consistent order, sorted by the first base of each
-   *  Feature.  This method uses and updates cached_feature_index and
-   *  cached_feature.
+   *  Feature.
    **/
   Feature getFeatureAtIndex (final int arg_index) {
-    if (cached_feature != null) {
-      if (arg_index == cached_feature_index) {
-        return cached_feature;
-      }
-
-      if (arg_index == cached_feature_index + 1) {
-        final Feature next_feature =
-          getFeatures ().getNextFeature (cached_feature);
-
-        if (next_feature == null) {
-          throw new ArrayIndexOutOfBoundsException (arg_index);
-        } else {
-          cached_feature_index = arg_index;
-          cached_feature = next_feature;
-
-          return cached_feature;
-        }
-      }
-    }
-
-    final FeatureEnumeration enumerator = features ();
-
-    int i = 0;
-
-    while (enumerator.hasMoreFeatures ()) {
-      final Feature this_feature = enumerator.nextFeature ();
-
-      if (i == arg_index) {
-        cached_feature = this_feature;
-        cached_feature_index = i;
-
-        return this_feature;
-      }
-
-      ++i;
-    }
-
-    return null;
+    return getFeatures ().getFeatureAtIndex (arg_index);
   }
 
   /**
@@ -181,24 +135,7 @@ abstract class FeatureTable extends LineGroup {
    *  getFeatureAtIndex ().
    **/
   int indexOf (final Feature feature) {
-    if (cached_feature == feature) {
-      return cached_feature_index;
-    }
-
-    final FeatureEnumeration enumerator = features ();
-
-    int i = 0;
-
-    while (enumerator.hasMoreFeatures ()) {
-      final Feature this_feature = enumerator.nextFeature ();
-
-      if (this_feature == feature) {
-        return i;
-      }
-      ++i;
-    }
-
-    return -1;
+    return getFeatures ().indexOf (feature);
   }
 
   /**
@@ -212,19 +149,6 @@ abstract class FeatureTable extends LineGroup {
     return getFeatures ().features ();
   }
 
-  /**
-   *  This holds the last Feature that was returned from getFeatureAtIndex ()
-   *  or the last Feature that was passed to indexOf ().
-   **/
-  private Feature cached_feature = null;
-
-  /**
-   *  This holds the last index that was passed to getFeatureAtIndex () or the
-   *  last index that was returned from indexOf ().  This is used to improve
-   *  the speed of those two methods.
-   **/
-  private int cached_feature_index = -999;
-
   /**
    *  This holds the features of this FeatureTable
    **/
@@ -26,6 +26,8 @@
 package uk.ac.sanger.artemis.io;
 
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  *  A tree that stores StreamFeature objects ordered with a StreamFeatureComparator
@@ -41,93 +43,43 @@ public class FeatureTree extends TreeSet {
    **/
   public FeatureTree (final Comparator comparator) {
     super (comparator);
-
-    this.comparator = comparator;
   }
 
   /**
-   *  Wrapper for TreeSet.add () which sets size_of_largest_feature_seen.
+   *  Wrapper for TreeSet.add () which also adds the Feature to the
+   *  interval tree.
    **/
-  public synchronized boolean add (final Object element) {
+  public boolean add (final Object element) {
     final Feature this_feature = (Feature) element;
 
-    getBucket (this_feature).add (this_feature);
-
-    return super.add (element);
-  }
-
-  /**
-   *  Wrapper for TreeSet.() which removes the Feature from
-   *  rbtree_buckets.
-   **/
-  public synchronized boolean remove (Object element) {
-    final Feature this_feature = (Feature) element;
-
-    getBucket (this_feature).remove (this_feature);
-
-    return super.remove (element);
-  }
-
-  /**
-   *  Find the sub-tree which has a first base that is >= the given base.
-   **/
-  private static SortedSet findByBase (final TreeSet tree, final int base) {
-    final ComparableFeature test_feature = new ComparableFeature () {
-      public void set (final Key k, final Location l,
-                       final QualifierVector qv) {}
-      public void setKey (final Key _) {}
-      public void setLocation (final Location _) {}
-      public void setLocation (final Location _, Entry entry) {}
-      public void setQualifiers (final QualifierVector _) {}
-      public void setQualifier (final Qualifier _) {}
-      public void removeQualifierByName (final String _) {}
-      private final Key dummy_key = new Key ("_dummy_key_");
-      public Key getKey () {return dummy_key;}
-      public Location getLocation () {return null;}
-      public QualifierVector getQualifiers () {return null;}
-      public Qualifier getQualifierByName (final String _) {return null;}
-      public int getFirstBase () {return base;}
-      public int getLastBase () {return base;}
-      public long getNumericID () {return -1;}
-      public Entry getEntry () {return null;}
-      public Feature copy () {return null;}
-      public void setUserData (final Object _) {}
-      public Object getUserData () {return null;}
-      public boolean isReadOnly () {return false;}
-    };
-
-    return tree.tailSet (test_feature);
+    lock.writeLock ().lock ();
+    try {
+      final boolean added = super.add (element);
+      if (added) {
+        intervals.insert (this_feature);
+        ranks.insert (this_feature);
+      }
+      return added;
+    } finally {
+      lock.writeLock ().unlock ();
+    }
   }
 
   /**
-   *  Add to features_in_range all the features in the given TreeSet which are
-   *  within the given Range.
-   *  @param max_feature_length the maximum length in bases of the features in
-   *    the TreeSet.
+   *  Wrapper for TreeSet.remove () which also removes the Feature from
+   *  the interval tree.  The Feature is found using the bounds it had when
+   *  it was added, so this works if the location has since changed.
    **/
-  private void getFeaturesInRange (final TreeSet tree,
-                                   final FeatureVector features_in_range,
-                                   final Range range,
-                                   final int max_feature_length) {
-    // find the leftmost node in the range
-    final SortedSet tail_set =
-      findByBase (tree, range.getStart () - max_feature_length);
-
-    final Iterator tail_set_iterator = tail_set.iterator ();
-
-    // now loop over all the features that could possibly be in the range
-    // (ie. those between range.getStart () - max_feature_length and
-    // range.getEnd ())
-    while (tail_set_iterator.hasNext ()) {
-      final Feature this_feature = (Feature) tail_set_iterator.next ();
-
-      if (this_feature.getFirstBase () > range.getEnd ()) {
-        return;
-      }
-      
-      if (this_feature.getLocation ().getTotalRange ().overlaps (range)) {
-        features_in_range.add (this_feature);
+  public boolean remove (Object element) {
+    lock.writeLock ().lock ();
+    try {
+      if (element instanceof Feature) {
+        intervals.delete ((Feature) element);
+        ranks.delete ((Feature) element);
       }
+      return super.remove (element);
+    } finally {
+      lock.writeLock ().unlock ();
     }
   }
 
@@ -137,25 +89,50 @@ public class FeatureTree extends TreeSet {
    *  @param range Return features that overlap this range - ie the start of
    *    the feature is less than or equal to the end of the range and the end
    *    of the feature is greater than or equal to the start of the range.
-   *  @return The features that are within the given range.  The returned
-   *    object is a copy - changes will not effect the FeatureTree object
-   *    itself.
+   *  @return The features that are within the given range, ordered by the
+   *    start of their total range.  The returned object is a copy - changes
+   *    will not effect the FeatureTree object itself.
    **/
-  public synchronized FeatureVector getFeaturesInRange (final Range range) {
-    // this default size will cover many common cases
-    final FeatureVector return_features = new FeatureVector();
-
-    for (int i = 0 ;
-         i < rbtree_buckets.size () && rbtree_buckets.elementAt (i) != null ;
-         ++i) {
-      getFeaturesInRange ((TreeSet) rbtree_buckets.elementAt (i),
-                          return_features, range,
-                          (int) Math.pow (BUCKET_MULTIPLIER, i + 1));
+  public FeatureVector getFeaturesInRange (final Range range) {
+    final FeatureVector return_features = new FeatureVector ();
+
+    lock.readLock ().lock ();
+    try {
+      intervals.findOverlaps (range.getStart (), range.getEnd (),
+                              return_features);
+    } finally {
+      lock.readLock ().unlock ();
     }
     
     return return_features;
   }
 
+  /**
+   *  Return the Feature at the given index in the order of the tree, or null
+   *  if the index is out of range.
+   **/
+  public Feature getFeatureAtIndex (final int index) {
+    lock.readLock ().lock ();
+    try {
+      return ranks.select (index);
+    } finally {
+      lock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   *  Return the index of the given Feature in the order of the tree, or -1
+   *  if the tree doesn't contain it.
+   **/
+  public int indexOf (final Feature feature) {
+    lock.readLock ().lock ();
+    try {
+      return ranks.rank (feature);
+    } finally {
+      lock.readLock ().unlock ();
+    }
+  }
+
   /**
    *  Returns an enumeration of the Feature objects in this FeatureTree.  The
    *  returned Enumeration object will generate all features in this object in
@@ -220,53 +197,396 @@ public class FeatureTree extends TreeSet {
   }
 
   /**
-   *  Features are stored in buckets.
-   *  Bucket 0 will hold a reference to all features that are less than
-   *  BUCKET_MULTIPLIER in length.  Bucket 1 will hold those from
-   *  BUCKET_MULTIPLIER to BUCKET_MULTIPLIER*BUCKET_MULTIPLIER-1 (inclusive)
-   *  in length.  Bucket 2 will hold those from BUCKET_MULTIPLIER^2 to
-   *  BUCKET_MULTIPLIER^3-1 (inclusive) in length.  etc.
+   *  An interval tree of the features keyed by the start of their total
+   *  range.  This is a treap where each node also holds the largest end of
+   *  the ranges in its subtree, so subtrees that end before a query range
+   *  are skipped.  The bounds of each feature are copied to the node when
+   *  it is inserted.
    **/
-  private TreeSet getBucket (final Feature feature) {
-    final int feature_length =
-      feature.getLocation ().getTotalRange ().getCount ();
+  private static class IntervalTree {
+    /**
+     *  Add a Feature to the tree.
+     **/
+    void insert (final Feature feature) {
+      final Range range = feature.getLocation ().getTotalRange ();
+      final Node node = new Node (feature, range.getStart (), range.getEnd (),
+                                  next_id++, random.nextInt ());
+      nodes.put (feature, node);
+      root = insert (root, node);
+    }
+
+    /**
+     *  Remove a Feature from the tree.
+     **/
+    void delete (final Feature feature) {
+      final Node node = nodes.remove (feature);
+      if (node != null) {
+        root = delete (root, node);
+      }
+    }
 
-    final int feature_bucket;
+    /**
+     *  Add the features that overlap start..end to the given vector.
+     **/
+    void findOverlaps (final int start, final int end,
+                       final FeatureVector features) {
+      findOverlaps (root, start, end, features);
+    }
 
-    if (feature_length <= BUCKET_MULTIPLIER) {
-      feature_bucket = 0;
-    } else {
-      // subtract 0.5 to feature_length to make sure that rounding errors go
-      // in out favour
-      feature_bucket =
-        (int) (Math.log (feature_length + 0.5) / Math.log (BUCKET_MULTIPLIER));
+    private static void findOverlaps (final Node node,
+                                      final int start, final int end,
+                                      final FeatureVector features) {
+      if (node == null || node.max_end < start) {
+        return;
+      }
+      findOverlaps (node.left, start, end, features);
+      if (node.start > end) {
+        // the right subtree starts after the range
+        return;
+      }
+      if (node.end >= start) {
+        features.add (node.feature);
+      }
+      findOverlaps (node.right, start, end, features);
+    }
+
+    private static Node insert (final Node root, final Node node) {
+      if (root == null) {
+        return node;
+      }
+      if (node.compareTo (root) < 0) {
+        root.left = insert (root.left, node);
+        if (root.left.priority > root.priority) {
+          return rotateRight (root);
+        }
+      } else {
+        root.right = insert (root.right, node);
+        if (root.right.priority > root.priority) {
+          return rotateLeft (root);
+        }
+      }
+      root.update ();
+      return root;
+    }
+
+    private static Node delete (final Node root, final Node node) {
+      if (root == null) {
+        return null;
+      }
+      if (root == node) {
+        return merge (root.left, root.right);
+      }
+      if (node.compareTo (root) < 0) {
+        root.left = delete (root.left, node);
+      } else {
+        root.right = delete (root.right, node);
+      }
+      root.update ();
+      return root;
+    }
+
+    /**
+     *  Merge two subtrees where all the nodes of left are before right.
+     **/
+    private static Node merge (final Node left, final Node right) {
+      if (left == null) {
+        return right;
+      }
+      if (right == null) {
+        return left;
+      }
+      if (left.priority > right.priority) {
+        left.right = merge (left.right, right);
+        left.update ();
+        return left;
+      } else {
+        right.left = merge (left, right.left);
+        right.update ();
+        return right;
+      }
+    }
+
+    private static Node rotateRight (final Node node) {
+      final Node left = node.left;
+      node.left = left.right;
+      left.right = node;
+      node.update ();
+      left.update ();
+      return left;
+    }
+
+    private static Node rotateLeft (final Node node) {
+      final Node right = node.right;
+      node.right = right.left;
+      right.left = node;
+      node.update ();
+      right.update ();
+      return right;
+    }
+
+    private Node root = null;
+
+    /**
+     *  Map from Feature to its Node, using identity as features with equal
+     *  locations may compare as equal.
+     **/
+    private final IdentityHashMap<Feature, Node> nodes =
+      new IdentityHashMap<Feature, Node> ();
+
+    private long next_id = 0;
+
+    private final Random random = new Random (1);
+  }
+
+  private static class Node {
+    Node (final Feature feature, final int start, final int end,
+          final long id, final int priority) {
+      this.feature = feature;
+      this.start = start;
+      this.end = end;
+      this.max_end = end;
+      this.id = id;
+      this.priority = priority;
+    }
+
+    /**
+     *  Nodes are ordered by start and then the order they were added.
+     **/
+    int compareTo (final Node node) {
+      if (start != node.start) {
+        return start < node.start ? -1 : 1;
+      }
+      if (id != node.id) {
+        return id < node.id ? -1 : 1;
+      }
+      return 0;
     }
 
-    // make the bucket we need and all smaller buckets
-    while (rbtree_buckets.size () <= feature_bucket) {
-      rbtree_buckets.addElement (new TreeSet (comparator));
+    /**
+     *  Reset max_end from this node and its children.
+     **/
+    void update () {
+      int max = end;
+      if (left != null && left.max_end > max) {
+        max = left.max_end;
+      }
+      if (right != null && right.max_end > max) {
+        max = right.max_end;
+      }
+      max_end = max;
     }
 
-    return (TreeSet) rbtree_buckets.elementAt (feature_bucket);
+    final Feature feature;
+    final int start;
+    final int end;
+    final long id;
+    final int priority;
+    int max_end;
+    Node left;
+    Node right;
   }
 
   /**
-   *  The maximum number of buckets.
+   *  An order statistic tree of the features in the order of the TreeSet.
+   *  This is a treap where each node holds the size of its subtree and a
+   *  reference to its parent, so the index of a feature is found from its
+   *  node without comparing features.  Nodes are removed without comparing
+   *  features either, so this works if the location has since changed.
    **/
-  private final int BUCKET_COUNT = 10;
+  private class RankTree {
+    /**
+     *  Add a Feature to the tree.
+     **/
+    @SuppressWarnings ("unchecked")
+    void insert (final Feature feature) {
+      final RankNode node = new RankNode (feature, random.nextInt ());
+      nodes.put (feature, node);
+
+      if (root == null) {
+        root = node;
+        return;
+      }
+
+      RankNode parent = root;
+      while (true) {
+        ++parent.size;
+        if (comparator ().compare (feature, parent.feature) < 0) {
+          if (parent.left == null) {
+            parent.left = node;
+            break;
+          }
+          parent = parent.left;
+        } else {
+          if (parent.right == null) {
+            parent.right = node;
+            break;
+          }
+          parent = parent.right;
+        }
+      }
+      node.parent = parent;
+
+      while (node.parent != null && node.priority > node.parent.priority) {
+        rotateUp (node);
+      }
+    }
+
+    /**
+     *  Remove a Feature from the tree.
+     **/
+    void delete (final Feature feature) {
+      final RankNode node = nodes.remove (feature);
+      if (node == null) {
+        return;
+      }
+
+      // rotate the node down until it has at most one child
+      while (node.left != null && node.right != null) {
+        if (node.left.priority > node.right.priority) {
+          rotateUp (node.left);
+        } else {
+          rotateUp (node.right);
+        }
+      }
+
+      final RankNode child = (node.left != null ? node.left : node.right);
+      replaceChild (node.parent, node, child);
+      for (RankNode ancestor = node.parent ; ancestor != null ;
+           ancestor = ancestor.parent) {
+        --ancestor.size;
+      }
+    }
+
+    /**
+     *  Return the Feature with the given number of features before it, or
+     *  null if there isn't one.
+     **/
+    Feature select (int index) {
+      if (index < 0) {
+        return null;
+      }
+      RankNode node = root;
+      while (node != null) {
+        final int left_size = size (node.left);
+        if (index < left_size) {
+          node = node.left;
+        } else if (index == left_size) {
+          return node.feature;
+        } else {
+          index -= left_size + 1;
+          node = node.right;
+        }
+      }
+      return null;
+    }
+
+    /**
+     *  Return the number of features before the given Feature, or -1 if it
+     *  isn't in the tree.
+     **/
+    int rank (final Feature feature) {
+      RankNode node = nodes.get (feature);
+      if (node == null) {
+        return -1;
+      }
+      int rank = size (node.left);
+      while (node.parent != null) {
+        if (node == node.parent.right) {
+          rank += size (node.parent.left) + 1;
+        }
+        node = node.parent;
+      }
+      return rank;
+    }
+
+    /**
+     *  Rotate a node above its parent.
+     **/
+    private void rotateUp (final RankNode node) {
+      final RankNode parent = node.parent;
+      final RankNode grandparent = parent.parent;
+
+      if (node == parent.left) {
+        parent.left = node.right;
+        if (node.right != null) {
+          node.right.parent = parent;
+        }
+        node.right = parent;
+      } else {
+        parent.right = node.left;
+        if (node.left != null) {
+          node.left.parent = parent;
+        }
+        node.left = parent;
+      }
+      parent.parent = node;
+      replaceChild (grandparent, parent, node);
+
+      parent.size = 1 + size (parent.left) + size (parent.right);
+      node.size = 1 + size (node.left) + size (node.right);
+    }
+
+    /**
+     *  Replace old_child of parent (or the root if parent is null) with
+     *  new_child.
+     **/
+    private void replaceChild (final RankNode parent, final RankNode old_child,
+                               final RankNode new_child) {
+      if (parent == null) {
+        root = new_child;
+      } else if (parent.left == old_child) {
+        parent.left = new_child;
+      } else {
+        parent.right = new_child;
+      }
+      if (new_child != null) {
+        new_child.parent = parent;
+      }
+    }
+
+    private int size (final RankNode node) {
+      return (node == null ? 0 : node.size);
+    }
+
+    private RankNode root = null;
+
+    /**
+     *  Map from Feature to its RankNode.
+     **/
+    private final IdentityHashMap<Feature, RankNode> nodes =
+      new IdentityHashMap<Feature, RankNode> ();
+
+    private final Random random = new Random (2);
+  }
+
+  private static class RankNode {
+    RankNode (final Feature feature, final int priority) {
+      this.feature = feature;
+      this.priority = priority;
+    }
+
+    final Feature feature;
+    final int priority;
+    int size = 1;
+    RankNode parent;
+    RankNode left;
+    RankNode right;
+  }
 
   /**
-   *  See comment on getBucket().
+   *  The features ordered by the start of their total range.
    **/
-  private final int BUCKET_MULTIPLIER = 4;
+  private final IntervalTree intervals = new IntervalTree ();
 
   /**
-   *  See comment above.
+   *  The features in the order of the TreeSet, for getFeatureAtIndex () and
+   *  indexOf ().
    **/
-  private final Vector rbtree_buckets = new Vector (BUCKET_COUNT);
+  private final RankTree ranks = new RankTree ();
 
   /**
-   *  The Comparator that was passed to the constructor.
+   *  Lock for the interval tree.  Range queries share the read lock so
+   *  can run at the same time.
    **/
-  private Comparator comparator;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock ();
 }
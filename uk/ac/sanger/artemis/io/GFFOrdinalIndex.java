@@ -0,0 +1,386 @@
+/* GFFOrdinalIndex
+ *
+ * This file is part of Artemis
+ *
+ * Copyright(C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or(at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+package uk.ac.sanger.artemis.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+/**
+ * Index of the feature lines of a bgzipped and tabix indexed GFF file by
+ * their position in each sequence, so that the n'th line of a sequence
+ * can be read with a single seek. For each sequence this records the
+ * number of lines and the BGZF virtual offset and start coordinate of
+ * every <code>INTERVAL</code>'th line.
+ * <p>
+ * The index is saved alongside the GFF (or in the temporary directory if
+ * that is not writable) as:
+ * <pre>
+ * int magic, int version, long GFF file length, long GFF last modified,
+ * int interval, int no. of sequences, then for each sequence:
+ *   UTF name, int no. of lines, and for each checkpoint:
+ *   long virtual offset, int start
+ * </pre>
+ */
+class GFFOrdinalIndex
+{
+  private static final int MAGIC = 0x474f4958; // GOIX
+  private static final int VERSION = 1;
+  /** lines between checkpoints */
+  private static final int INTERVAL = 64;
+
+  private final Hashtable<String, Contig> contigs = new Hashtable<String, Contig>();
+  private final BlockCompressedInputStream in;
+
+  private GFFOrdinalIndex(final File gffFile) throws IOException
+  {
+    in = new BlockCompressedInputStream(gffFile);
+  }
+
+  /**
+   * Open the index of a GFF file, creating it if it does not exist or
+   * is out of date.
+   * @param gffFile  bgzipped GFF file
+   * @return the index
+   * @throws IOException if the GFF cannot be read
+   */
+  protected static GFFOrdinalIndex open(final File gffFile) throws IOException
+  {
+    final File indexFile = getIndexFile(gffFile);
+    final GFFOrdinalIndex index = new GFFOrdinalIndex(gffFile);
+    if(isUpToDate(gffFile, indexFile))
+    {
+      try
+      {
+        index.read(indexFile);
+        return index;
+      }
+      catch(IOException e)
+      {
+        IndexedGFFDocumentEntry.logger4j.warn(
+            "Cannot read GFF index "+indexFile+" : "+e.getMessage());
+        index.contigs.clear();
+      }
+    }
+
+    index.build();
+    try
+    {
+      index.write(gffFile, indexFile);
+    }
+    catch(IOException e)
+    {
+      IndexedGFFDocumentEntry.logger4j.warn(
+          "Cannot write GFF index "+indexFile+" : "+e.getMessage());
+      indexFile.delete();
+    }
+    return index;
+  }
+
+  /**
+   * Return the file to use for the index of a GFF. This is alongside
+   * the GFF if that directory is writable, otherwise it is in the
+   * temporary directory.
+   * @param gffFile
+   * @return
+   */
+  protected static File getIndexFile(File gffFile)
+  {
+    gffFile = gffFile.getAbsoluteFile();
+    final File indexFile = new File(gffFile.getPath()+".oix");
+    if(indexFile.exists() ? indexFile.canWrite() : gffFile.getParentFile().canWrite())
+      return indexFile;
+    return new File(System.getProperty("java.io.tmpdir"),
+        gffFile.getName()+"."+Integer.toHexString(gffFile.getPath().hashCode())+".oix");
+  }
+
+  /**
+   * @return true if the index was built from the current version of the GFF
+   */
+  private static boolean isUpToDate(final File gffFile, final File indexFile)
+  {
+    if(!indexFile.exists())
+      return false;
+    try
+    {
+      final DataInputStream dis = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(indexFile)));
+      try
+      {
+        return readHeader(dis) &&
+               dis.readLong() == gffFile.length() &&
+               dis.readLong() == gffFile.lastModified() &&
+               dis.readInt() == INTERVAL;
+      }
+      finally
+      {
+        dis.close();
+      }
+    }
+    catch(IOException e)
+    {
+      return false;
+    }
+  }
+
+  private static boolean readHeader(final DataInputStream dis) throws IOException
+  {
+    return dis.readInt() == MAGIC && dis.readInt() == VERSION;
+  }
+
+  /**
+   * Read the whole GFF recording the checkpoints of each sequence.
+   */
+  private void build() throws IOException
+  {
+    IndexedGFFDocumentEntry.logger4j.debug("Building GFF ordinal index");
+    Contig c = null;
+    long offset = 0;
+    String ln;
+    while((ln = in.readLine()) != null)
+    {
+      if(ln.startsWith("##FASTA"))
+        break;
+      if(isFeatureLine(ln))
+      {
+        final String chr = ln.substring(0, ln.indexOf('\t'));
+        if(c == null || !c.name.equals(chr))
+        {
+          c = contigs.get(chr);
+          if(c == null)
+          {
+            c = new Contig(chr);
+            contigs.put(chr, c);
+          }
+        }
+        if(c.count % INTERVAL == 0)
+          c.addCheckpoint(offset, getStart(ln));
+        c.count++;
+      }
+      offset = in.getFilePointer();
+    }
+  }
+
+  private void read(final File indexFile) throws IOException
+  {
+    final DataInputStream dis = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(indexFile)));
+    try
+    {
+      readHeader(dis);
+      dis.readLong();
+      dis.readLong();
+      dis.readInt();
+      final int ncontigs = dis.readInt();
+      for(int i=0; i<ncontigs; i++)
+      {
+        final Contig c = new Contig(dis.readUTF());
+        c.count = dis.readInt();
+        final int ncheckpoints = (c.count + INTERVAL - 1) / INTERVAL;
+        c.offsets = new long[ncheckpoints];
+        c.starts = new int[ncheckpoints];
+        for(int j=0; j<ncheckpoints; j++)
+        {
+          c.offsets[j] = dis.readLong();
+          c.starts[j] = dis.readInt();
+        }
+        contigs.put(c.name, c);
+      }
+    }
+    finally
+    {
+      dis.close();
+    }
+  }
+
+  private void write(final File gffFile, final File indexFile) throws IOException
+  {
+    final DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(indexFile)));
+    try
+    {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeLong(gffFile.length());
+      dos.writeLong(gffFile.lastModified());
+      dos.writeInt(INTERVAL);
+      dos.writeInt(contigs.size());
+      for(Contig c: contigs.values())
+      {
+        dos.writeUTF(c.name);
+        dos.writeInt(c.count);
+        for(int j=0; j<(c.count + INTERVAL - 1) / INTERVAL; j++)
+        {
+          dos.writeLong(c.offsets[j]);
+          dos.writeInt(c.starts[j]);
+        }
+      }
+    }
+    finally
+    {
+      dos.close();
+    }
+  }
+
+  /**
+   * Return the number of feature lines for a sequence.
+   */
+  protected int getFeatureCount(final String chr)
+  {
+    final Contig c = contigs.get(chr);
+    return (c == null ? 0 : c.count);
+  }
+
+  /**
+   * Return the position of the last checkpoint of a sequence before
+   * any lines that start at or after a coordinate. Lines with that start
+   * are found by reading forward from here.
+   * @param chr    sequence name
+   * @param start  start coordinate of the sequence
+   * @return the position of the line in the sequence
+   */
+  protected int getOrdinalBefore(final String chr, final int start)
+  {
+    final Contig c = contigs.get(chr);
+    if(c == null)
+      return 0;
+    // last checkpoint that starts before the coordinate
+    int lo = 0;
+    int hi = (c.count + INTERVAL - 1) / INTERVAL - 1;
+    while(lo < hi)
+    {
+      final int mid = (lo + hi + 1) >>> 1;
+      if(c.starts[mid] < start)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return lo * INTERVAL;
+  }
+
+  /**
+   * Read the feature lines of a sequence starting at a position.
+   * @param chr      sequence name
+   * @param ordinal  position of the first line in the sequence
+   * @param max      maximum number of lines to read
+   * @return the lines, fewer than max if the end of the sequence is reached
+   * @throws IOException
+   */
+  protected synchronized String[] readLines(final String chr, final int ordinal, int max)
+         throws IOException
+  {
+    final Contig c = contigs.get(chr);
+    if(c == null || ordinal < 0 || ordinal >= c.count)
+      return new String[0];
+    max = Math.min(max, c.count - ordinal);
+
+    in.seek(c.offsets[ordinal / INTERVAL]);
+    int skip = ordinal % INTERVAL;
+    final String lines[] = new String[max];
+    int n = 0;
+    String ln;
+    while(n < max && (ln = in.readLine()) != null)
+    {
+      if(!isFeatureLine(ln))
+        continue;
+      if(skip > 0)
+        skip--;
+      else
+        lines[n++] = ln;
+    }
+    return lines;
+  }
+
+  protected synchronized void close() throws IOException
+  {
+    in.close();
+  }
+
+  /**
+   * Return true if a line is counted as a feature line: not empty, not a
+   * comment and with a sequence name before the first tab.
+   */
+  private static boolean isFeatureLine(final String ln)
+  {
+    return ln.length() > 0 && ln.charAt(0) != '#' && ln.indexOf('\t') > 0;
+  }
+
+  /**
+   * Return the start coordinate (4th column) of a GFF line.
+   */
+  private static int getStart(final String ln)
+  {
+    int pos = 0;
+    for(int i=0; i<3 && pos >= 0; i++)
+      pos = ln.indexOf('\t', pos) + 1;
+    if(pos <= 0)
+      return 0;
+    int end = ln.indexOf('\t', pos);
+    if(end < 0)
+      end = ln.length();
+    try
+    {
+      return Integer.parseInt(ln.substring(pos, end).trim());
+    }
+    catch(NumberFormatException e)
+    {
+      return 0;
+    }
+  }
+
+  private static class Contig
+  {
+    private final String name;
+    private int count = 0;
+    private long offsets[] = new long[16];
+    private int starts[] = new int[16];
+
+    Contig(final String name)
+    {
+      this.name = name;
+    }
+
+    private void addCheckpoint(final long offset, final int start)
+    {
+      final int n = count / INTERVAL;
+      if(n == offsets.length)
+      {
+        final long newOffsets[] = new long[n*2];
+        final int newStarts[] = new int[n*2];
+        System.arraycopy(offsets, 0, newOffsets, 0, n);
+        System.arraycopy(starts, 0, newStarts, 0, n);
+        offsets = newOffsets;
+        starts = newStarts;
+      }
+      offsets[n] = offset;
+      starts[n] = start;
+    }
+  }
+}
@@ -271,6 +271,7 @@ public class GenbankStreamSequence extends StreamSequence
 
       final int BLOCK_LENGTH = 10;
       final int BLOCK_COUNT  = 6;
+      final char block[] = new char[BLOCK_LENGTH];
 
       for(int j = 0 ; j < this_line_length ; j += BLOCK_LENGTH) 
       {
@@ -283,7 +284,8 @@ public class GenbankStreamSequence extends StreamSequence
         else 
           this_block_length = BLOCK_LENGTH;
 
-        line_buffer.append(getCharSubSequence(i + j + 1, i + j + this_block_length));
+        getChars(i + j + 1, i + j + this_block_length, block, 0);
+        line_buffer.append(block, 0, this_block_length);
 
 //sequence.substring(i + j,
 //                                            i + j + this_block_length));
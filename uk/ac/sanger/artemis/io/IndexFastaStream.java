@@ -38,7 +38,6 @@ import net.sf.picard.reference.ReferenceSequenceFileFactory;
 import uk.ac.sanger.artemis.io.Entry;
 import uk.ac.sanger.artemis.Options;
 import uk.ac.sanger.artemis.components.EntryFileDialog;
-import uk.ac.sanger.artemis.util.CacheHashMap;
 import uk.ac.sanger.artemis.util.FileDocument;
 import uk.ac.sanger.artemis.util.ReadOnlyException;
 import uk.ac.sanger.artemis.util.URLDocument;
@@ -49,7 +48,14 @@ public class IndexFastaStream extends StreamSequence
   private FastaSequenceIndex fastaIndex;
   private int len;
   private String contig;
-  private CacheHashMap basesCache;  // used by charAt()
+  private FastaBlockReader blockReader;
+  /** bases read by charAt() when the file is not mapped */
+  private String charBlock;
+  private int charBlockStart;
+  private static final int CHAR_BLOCK_SIZE = 1024;
+  
+  private static org.apache.log4j.Logger logger4j = 
+      org.apache.log4j.Logger.getLogger(IndexFastaStream.class);
   
   public IndexFastaStream(Entry entry)
   {
@@ -71,6 +77,15 @@ public class IndexFastaStream extends StreamSequence
       
       fastaIndex = new FastaSequenceIndex(fastaIndexFile);
       
+      try
+      {
+        blockReader = new FastaBlockReader(fasta, fastaIndexFile);
+      }
+      catch(IOException e)
+      {
+        logger4j.warn("Cannot map "+fasta.getName()+": "+e.getMessage());
+      }
+      
       try
       {
         indexSeqFile = new IndexedFastaSequenceFile(fasta, fastaIndex);
@@ -165,9 +180,48 @@ public class IndexFastaStream extends StreamSequence
     len = ref.length();
     contig = ref.getName();*/
     
+    if(blockReader != null)
+    {
+      try
+      {
+        blockReader.setContig(seqIndex);
+      }
+      catch(IOException e)
+      {
+        logger4j.warn("Cannot map "+getContigByIndex(seqIndex)+": "+e.getMessage());
+        closeBlockReader();
+      }
+    }
     len = getLengthByIndex(seqIndex);
     contig = getContigByIndex(seqIndex);
-    basesCache = null;
+    synchronized(this)
+    {
+      charBlock = null;
+    }
+  }
+
+  /**
+   * Release the mapped FASTA file. The bases are read through the
+   * IndexedFastaSequenceFile after this.
+   */
+  public void close()
+  {
+    closeBlockReader();
+  }
+
+  private void closeBlockReader()
+  {
+    if(blockReader == null)
+      return;
+    try
+    {
+      blockReader.close();
+    }
+    catch(IOException e)
+    {
+      logger4j.warn(e.getMessage());
+    }
+    blockReader = null;
   }
 
   /**
@@ -178,13 +232,41 @@ public class IndexFastaStream extends StreamSequence
    **/
   public String getSubSequence(int start, int end) 
   {
+    if(blockReader != null)
+      return new String(getCharSubSequence(start, end));
     byte b[] = indexSeqFile.getSubsequenceAt(contig, start, end).getBases();
     return new String(b).toLowerCase();
   }
   
   public char[] getCharSubSequence(int start, int end) 
   {
-    return getSubSequence(start, end).toCharArray();
+    if(blockReader == null)
+      return getSubSequence(start, end).toCharArray();
+
+    if(end > length())
+      end = length();
+    if(end < start)
+      return new char[0];
+    final char dst[] = new char[end-start+1];
+    blockReader.getChars(start, end, dst, 0);
+    return dst;
+  }
+
+  public void getChars(int start, int end, char dst[], int dst_offset)
+  {
+    if(blockReader != null)
+      blockReader.getChars(start, end, dst, dst_offset);
+    else
+      getSubSequence(start, end).getChars(0, end-start+1, dst, dst_offset);
+  }
+
+  /**
+   * The bases are read from the file rather than held in memory, so
+   * return a copy rather than reading each base separately.
+   */
+  public CharSequence getSubSequenceView(int start, int end)
+  {
+    return getSubSequence(start, Math.min(end, length()));
   }
   
   /**
@@ -193,24 +275,30 @@ public class IndexFastaStream extends StreamSequence
    */
   public char charAt(final int i)
   {
-    if(basesCache == null)
-      basesCache = new CacheHashMap(250,50);
-      
-    if(!basesCache.containsKey(i))
+    if(blockReader != null)
+      return blockReader.charAt(i);
+    return getCachedChar(i);
+  }
+
+  /**
+   * Read the bases from the index a block at a time for charAt().
+   */
+  private synchronized char getCachedChar(final int i)
+  {
+    if(charBlock == null || i < charBlockStart ||
+       i >= charBlockStart+charBlock.length())
     {
-      int end = i+249;
-      if(end > length())
-        end = length();
-      String seq = getSubSequence(i, end);
-      for(int idx=0; idx<seq.length(); idx++)
-        basesCache.put(i+idx, seq.charAt(idx));
+      charBlockStart = i;
+      charBlock = getSubSequence(i, Math.min(i+CHAR_BLOCK_SIZE-1, length()));
     }
-
-    return (Character)basesCache.get(i);
+    return charBlock.charAt(i-charBlockStart);
   }
   
   private int getLengthByIndex(int seqIndex)
   {
+    if(blockReader != null)
+      return blockReader.getLength(seqIndex);
+
     Iterator it = fastaIndex.iterator();
     int i = 0;
     while(it.hasNext())
@@ -232,6 +320,9 @@ public class IndexFastaStream extends StreamSequence
   
   private String getContigByIndex(int seqIndex)
   {
+    if(blockReader != null)
+      return blockReader.getContig(seqIndex);
+
     Iterator it = fastaIndex.iterator();
     int i = 0;
     while(it.hasNext())
@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -37,10 +38,18 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import net.sf.samtools.util.BlockCompressedInputStream;
 
 import uk.ac.sanger.artemis.EntryGroup;
+import uk.ac.sanger.artemis.Options;
 import uk.ac.sanger.artemis.components.FeatureDisplay;
 import uk.ac.sanger.artemis.components.genebuilder.GeneUtils;
 import uk.ac.sanger.artemis.components.variant.FeatureContigPredicate;
@@ -72,6 +81,23 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
    private boolean isGTF = false;
    // cache used by getFeatureAtIndex() and indexOf()
    private CacheHashMap gffCache = new CacheHashMap(150,5);
+   // position of each feature line, used by getFeatureAtIndex() and indexOf()
+   private GFFOrdinalIndex ordinalIndex;
+   
+   /** bases in each tile of the feature cache */
+   private static final int TILE_SIZE = 100000;
+   /** ranges over more tiles than this are read without the cache */
+   private static final int MAX_QUERY_TILES = 64;
+   // cache of merged features used by getFeaturesInRange(), keyed by
+   // contig and tile number and in least recently used order
+   private final LinkedHashMap<String, FeatureTile> tileCache =
+       new LinkedHashMap<String, FeatureTile>(64, 0.75f, true);
+   private int tileFeatureCount = 0;
+   private int maxTileFeatures = 200000;
+   private int tileGeneration = 0;
+   private final Set<String> pendingTiles = new HashSet<String>();
+   private ExecutorService tileLoader;
+   private final Vector<ChangeListener> loadListeners = new Vector<ChangeListener>();
    
    public static org.apache.log4j.Logger logger4j = 
        org.apache.log4j.Logger.getLogger(IndexedGFFDocumentEntry.class);
@@ -90,6 +116,11 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
   {
     this.document = document;
     entryInfo = new GFFEntryInformation();
+    
+    final Integer maxFeatures =
+        Options.getOptions().getIntegerProperty("indexed_gff_cache_features");
+    if(maxFeatures != null)
+      maxTileFeatures = maxFeatures.intValue();
 
     try
     {
@@ -173,7 +204,11 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
 
   /**
    *  Return a vector containing the references of the Feature objects within
-   *  the given range.
+   *  the given range.  The merged features are cached in tiles.  When there
+   *  are load listeners and this is called from the event dispatch thread
+   *  then tiles that are not cached are read in the background and only the
+   *  cached features are returned; the listeners are told when the tiles are
+   *  loaded.
    *  @param range Return features that overlap this range - ie the start of
    *    the feature is less than or equal to the end of the range and the end
    *    of the feature is greater than or equal to the start of the range.
@@ -186,6 +221,8 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     if(contig == null)
       initContig();
     
+    final boolean wait = 
+        loadListeners.size() == 0 || !SwingUtilities.isEventDispatchThread();
     final FeatureVector featuresInRange = new FeatureVector();
     final List<IndexContig> contigs = getContigsInRange(range);
 
@@ -193,37 +230,278 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     {
       try
       {
-        getFeaturesInRange(c, range, featuresInRange);
+        if(!getCachedFeaturesInRange(c, range, featuresInRange, wait))
+          featuresInRange.addAll(readFeatures(c, range));
       }
       catch(IOException ioe)
       {
         ioe.printStackTrace();
       }
     }
+    return featuresInRange;
+  }
+  
+  /**
+   * Read the features in a range of a contig and merge them into gene
+   * models.
+   * @param c
+   * @param range
+   * @return
+   * @throws IOException
+   */
+  private FeatureVector readFeatures(final IndexContig c, final Range range) throws IOException
+  {
+    final FeatureVector features = new FeatureVector();
+    synchronized(reader)
+    {
+      getFeaturesInRange(c, range, features);
+
+      if(features.size() > 0 && GFFStreamFeature.isGTF(features.get(0)))
+      {
+        isGTF = true;
+        // GTF
+        try
+        {
+          mergeGtfFeatures(features, "CDS");
+          mergeGtfFeatures(features, "exon");
+        }
+        catch (ReadOnlyException e)
+        {
+          e.printStackTrace();
+        }
+      }
+      else 
+      {
+        // GFF
+        combineGeneFeatures(features);
+      }
+    }
+    return features;
+  }
+  
+  /**
+   * Add the features in a range of a contig from the tile cache.
+   * @param c
+   * @param range
+   * @param features  the features are added to this
+   * @param wait      if false tiles that are not cached are read in the
+   *                  background and their features are not added
+   * @return false if the range is too large for the cache
+   * @throws IOException
+   */
+  private boolean getCachedFeaturesInRange(final IndexContig c,
+                                           final Range range,
+                                           final FeatureVector features,
+                                           final boolean wait) throws IOException
+  {
+    final int start = getCoordInContigCoords(range.getStart(), c);
+    final int end = Math.min(getCoordInContigCoords(range.getEnd(), c), c.end);
+    if(end < start)
+      return true;
+
+    final int firstTile = (start-1) / TILE_SIZE;
+    final int lastTile = (end-1) / TILE_SIZE;
+    if(lastTile - firstTile >= MAX_QUERY_TILES)
+      return false;
 
-    if(featuresInRange.size() > 0 && GFFStreamFeature.isGTF((Feature)featuresInRange.get(0)))
+    // features that overlap the range may belong to earlier tiles
+    final List<FeatureTile> tiles = new Vector<FeatureTile>();
+    int firstStart = start;
+    for(int t = firstTile; t <= lastTile; t++)
     {
-      isGTF = true;
-      // GTF
-      try
+      final FeatureTile tile = getTile(c, t, wait);
+      if(tile != null)
       {
-        mergeGtfFeatures(featuresInRange, "CDS");
-        mergeGtfFeatures(featuresInRange, "exon");
+        tiles.add(tile);
+        if(tile.firstStart < firstStart)
+          firstStart = tile.firstStart;
       }
-      catch (ReadOnlyException e)
+    }
+    for(int t = (firstStart-1) / TILE_SIZE; t < firstTile; t++)
+    {
+      final FeatureTile tile = getTile(c, t, wait);
+      if(tile != null)
+        tiles.add(tile);
+    }
+
+    for(FeatureTile tile: tiles)
+    {
+      for(int i = 0; i < tile.features.size(); i++)
       {
-        e.printStackTrace();
+        final Feature f = tile.features.featureAt(i);
+        if(f.getFirstBase() <= range.getEnd() && f.getLastBase() >= range.getStart())
+          features.add(f);
       }
-      
     }
-    else 
+    return true;
+  }
+  
+  /**
+   * Return a tile of the feature cache, reading it if necessary.
+   * @param c
+   * @param t     the tile number
+   * @param wait  if false and the tile is not cached, read it in the
+   *              background and return null
+   * @return
+   * @throws IOException
+   */
+  private FeatureTile getTile(final IndexContig c, final int t, final boolean wait) 
+          throws IOException
+  {
+    final String key = c.chr+":"+t;
+    final int generation;
+    synchronized(tileCache)
     {
-      // GFF
-      combineGeneFeatures(featuresInRange);
+      final FeatureTile tile = tileCache.get(key);
+      if(tile != null)
+        return tile;
+      generation = tileGeneration;
+      if(!wait && !pendingTiles.add(key))
+        return null;
     }
 
-    //combineGeneFeatures(featuresInRange);
-    return featuresInRange;
+    if(wait)
+      return readTile(c, t, key, generation);
+
+    getTileLoader().execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          readTile(c, t, key, generation);
+          fireFeaturesLoaded();
+        }
+        catch(IOException e)
+        {
+          logger4j.warn("Cannot read features in "+key+": "+e.getMessage());
+        }
+        finally
+        {
+          synchronized(tileCache)
+          {
+            pendingTiles.remove(key);
+          }
+        }
+      }
+    });
+    return null;
+  }
+  
+  /**
+   * Read a tile and add it to the cache.  A gene model belongs to the tile
+   * its gene starts in and other features belong to the tile they start in.
+   */
+  private FeatureTile readTile(final IndexContig c, final int t, 
+                               final String key, final int generation) throws IOException
+  {
+    final int tileStart = t*TILE_SIZE + 1;
+    final int tileEnd = tileStart + TILE_SIZE - 1;
+    final Range range;
+    try
+    {
+      range = new Range(getCoordInArtemisCoords(tileStart, c), 
+                        getCoordInArtemisCoords(tileEnd, c));
+    }
+    catch(OutOfRangeException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+
+    final FeatureVector features = readFeatures(c, range);
+    final FeatureVector tileFeatures = new FeatureVector();
+    int firstStart = tileStart;
+    for(int i = 0; i < features.size(); i++)
+    {
+      final Feature f = features.featureAt(i);
+      int ownerStart = f.getFirstBase();
+      if(f instanceof GFFStreamFeature && 
+         ((GFFStreamFeature)f).getChadoGene() != null &&
+         ((GFFStreamFeature)f).getChadoGene().getGene() != null)
+        ownerStart = ((GFFStreamFeature)f).getChadoGene().getGene().getFirstBase();
+      ownerStart = getCoordInContigCoords(ownerStart, c);
+
+      if(f.getFirstBase() <= range.getEnd() && f.getLastBase() >= range.getStart() &&
+         ownerStart < firstStart)
+        firstStart = ownerStart;
+      if(ownerStart >= tileStart && ownerStart <= tileEnd)
+        tileFeatures.add(f);
+    }
+
+    final FeatureTile tile = new FeatureTile(tileFeatures, firstStart);
+    synchronized(tileCache)
+    {
+      if(generation == tileGeneration && !tileCache.containsKey(key))
+      {
+        tileCache.put(key, tile);
+        tileFeatureCount += tile.features.size();
+
+        final Iterator<FeatureTile> it = tileCache.values().iterator();
+        while(tileFeatureCount > maxTileFeatures && tileCache.size() > 1)
+        {
+          tileFeatureCount -= it.next().features.size();
+          it.remove();
+        }
+      }
+    }
+    return tile;
+  }
+  
+  private synchronized ExecutorService getTileLoader()
+  {
+    if(tileLoader == null)
+    {
+      tileLoader = Executors.newSingleThreadExecutor(new ThreadFactory()
+      {
+        public Thread newThread(Runnable r)
+        {
+          final Thread thread = new Thread(r, "IndexedGFF "+getName());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return tileLoader;
+  }
+  
+  private void clearTileCache()
+  {
+    synchronized(tileCache)
+    {
+      tileCache.clear();
+      pendingTiles.clear();
+      tileFeatureCount = 0;
+      tileGeneration++;
+    }
+  }
+  
+  /**
+   * Add a listener to be told (on the event dispatch thread) when features
+   * that were read in the background are ready.
+   * @param l
+   */
+  public void addFeatureLoadListener(final ChangeListener l)
+  {
+    if(!loadListeners.contains(l))
+      loadListeners.add(l);
+  }
+  
+  public void removeFeatureLoadListener(final ChangeListener l)
+  {
+    loadListeners.remove(l);
+  }
+  
+  private void fireFeaturesLoaded()
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        final ChangeEvent event = new ChangeEvent(IndexedGFFDocumentEntry.this);
+        for(ChangeListener l: new Vector<ChangeListener>(loadListeners))
+          l.stateChanged(event);
+      }
+    });
   }
   
   private void getFeaturesInRange(IndexContig c, Range range, FeatureVector features) throws NumberFormatException, IOException
@@ -407,6 +685,19 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     return coord;
   }
   
+  /**
+   * Get coordinate in Artemis coordinates for a coordinate on the contig.
+   * @param coord
+   * @param c
+   * @return
+   */
+  private int getCoordInArtemisCoords(int coord, final IndexContig c)
+  {
+    if(combinedReference)
+      coord += c.getOffsetStart() - 1;
+    return coord;
+  }
+  
   /**
    * Get the GFF line for this feature, adjusting the coordinates if contigs
    * are concatenated.
@@ -888,29 +1179,13 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     if(featureCount > -1)
       return featureCount;
 
-    featureCount = 0;
-    List<IndexContig> contigs = getListOfContigs();
-    for(IndexContig c: contigs)
-    {
-      int nfeatures = 0;
-      final String r = c.chr+":"+1+"-"+Integer.MAX_VALUE;
-
-      TabixReader.Iterator tabixIterator = reader.query(r);
-      if(tabixIterator == null)
-        continue;
-
-      try
-      {
-        while( tabixIterator.next() != null )
-        {
-          featureCount++;
-          nfeatures++;
-        }
-        c.nfeatures = nfeatures;
-      }
-      catch(IOException ioe){}      
-    }
+    final GFFOrdinalIndex index = getOrdinalIndex();
+    if(index == null)
+      return 0;
 
+    featureCount = 0;
+    for(IndexContig c: getListOfContigs())
+      featureCount += index.getFeatureCount(c.chr);
     return featureCount;
   }
 
@@ -937,56 +1212,41 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     if(cachedGFF != null)
       return (GFFStreamFeature)cachedGFF;
 
-    int cnt = 0;
-    int start = 1;
+    final GFFOrdinalIndex index = getOrdinalIndex();
+    if(index == null)
+      return null;
 
-    final List<IndexContig> contigs = getListOfContigs();
-
-    for(IndexContig c: contigs)
+    int cnt = 0;
+    for(IndexContig c: getListOfContigs())
     {
-      int nfeatures = c.nfeatures;
-      if(idx > cnt+nfeatures)
+      final int nfeatures = index.getFeatureCount(c.chr);
+      if(idx >= cnt+nfeatures)
       {
         cnt+=nfeatures;
         continue;
       }
-      String r = c.chr+":"+start+"-"+Integer.MAX_VALUE;
 
-      TabixReader.Iterator tabixIterator = reader.query(r);
-      if(tabixIterator == null)
-        return null;
       try
       {
-        String ln;
-        while( (ln = tabixIterator.next()) != null )
+        // see if the following line is cached and if not cache the
+        // next block of lines - this speeds up the generation of the
+        // feature list
+        final String lines[] = index.readLines(c.chr, idx-cnt,
+            (gffCache.get(idx+1) == null ? 32 : 1));
+        for(int i=lines.length-1; i>=0; i--)
         {
-          if(idx == cnt++)
-          {
-            StringVector parts = StringVector.getStrings(ln, "\t", true);
-            final GFFStreamFeature gff = new GFFStreamFeature(
-                getGffInArtemisCoordinates(ln, parts, c));
-
-            gffCache.put(idx, gff);
-            
-            // see if the following line is cached and if not cache the
-            // next block of lines - this speeds up the generation of the
-            // feature list
-            if(gffCache.get(idx+1) == null)
-            {
-              cnt = 1;
-              while(cnt < 32 && (ln = tabixIterator.next()) != null) 
-              {
-                parts = StringVector.getStrings(ln, "\t", true);
-                gffCache.put(idx+cnt, new GFFStreamFeature(
-                  getGffInArtemisCoordinates(ln, parts, c)));
-                cnt++;
-              }
-            }
-            return gff;
-          }
+          final StringVector parts = StringVector.getStrings(lines[i], "\t", true);
+          gffCache.put(idx+i, new GFFStreamFeature(
+              getGffInArtemisCoordinates(lines[i], parts, c)));
         }
+        if(lines.length > 0)
+          return (GFFStreamFeature)gffCache.get(idx);
       }
-      catch(IOException ioe){}
+      catch(IOException ioe)
+      {
+        logger4j.warn(ioe.getMessage());
+      }
+      return null;
     }
 
     return null;
@@ -994,67 +1254,104 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
 
   public int indexOf(Feature feature)
   {
-    if(gffCache.containsValue(feature))
-    {
-      // retrieve from GFF cache
-      for (Object key : gffCache.keySet())
-      {
-        Feature f = (Feature)gffCache.get(key);
-        if(f.equals(feature))
-          return (Integer)key;
-      }
-    }
+    final GFFOrdinalIndex index = getOrdinalIndex();
+    if(index == null)
+      return -1;
 
-    final List<IndexContig> contigs = getListOfContigs();
     int cnt = 0;
-    
     final String keyStr = feature.getKey().getKeyString();
     final int sbeg1 = feature.getFirstBase();
     final int send1 = feature.getLastBase();
 
-    for(IndexContig c: contigs)
+    for(IndexContig c: getListOfContigs())
     {
+      final int nfeatures = index.getFeatureCount(c.chr);
       if(combinedReference && sbeg1 > c.getOffsetEnd() && send1 > c.getOffsetStart())
       {
-        cnt+=c.nfeatures;
+        cnt+=nfeatures;
         continue;
       }
-      
-      String r = c.chr+":"+1+"-"+Integer.MAX_VALUE;
-      TabixReader.Iterator tabixIterator = reader.query(r);
-      if(tabixIterator == null)
-        continue;
+
+      // read forward from the checkpoint before the feature start
+      // until the lines start after it, preferring the cached copy of
+      // the feature if there are several lines that match
+      final int start = getCoordInContigCoords(sbeg1, c);
+      int ordinal = index.getOrdinalBefore(c.chr, start);
+      int match = -1;
+      String matchLine = null;
       try
       {
-        String ln;
-        while( (ln = tabixIterator.next()) != null )
-        { 
-          final StringVector parts = StringVector.getStrings(ln, "\t", true);
-          int sbeg2 = getStartInArtemisCoords(parts, c);
-          int send2 = getEndInArtemisCoords(parts, c);
-
-          if(sbeg1 == sbeg2 && parts.get(2).equals(keyStr))
+        boolean more = true;
+        while(more)
+        {
+          final String lines[] = index.readLines(c.chr, ordinal, 64);
+          more = lines.length > 0;
+          for(int i=0; i<lines.length && more; i++)
           {
-            if(send1 == send2 || feature.getLocation().getRanges().size() > 1)
+            final StringVector parts = StringVector.getStrings(lines[i], "\t", true);
+            int sbeg2 = getStartInArtemisCoords(parts, c);
+            if(sbeg2 > sbeg1)
+              more = false;
+            else if(sbeg1 == sbeg2 && parts.get(2).equals(keyStr))
             {
-              if(gffCache.get(cnt) == null)
+              int send2 = getEndInArtemisCoords(parts, c);
+              if(send1 == send2 || feature.getLocation().getRanges().size() > 1)
               {
-                // add to cache
-                final GFFStreamFeature gff = new GFFStreamFeature(
-                  getGffInArtemisCoordinates(ln, parts, c));
-                gffCache.put(cnt, gff);
+                if(gffCache.get(cnt+ordinal) == feature)
+                  return cnt+ordinal;
+                if(match < 0)
+                {
+                  match = cnt+ordinal;
+                  matchLine = lines[i];
+                }
               }
-              return cnt;
             }
+            ordinal++;
+          }
+        }
+
+        if(match > -1)
+        {
+          if(gffCache.get(match) == null)
+          {
+            // add to cache
+            final StringVector parts = StringVector.getStrings(matchLine, "\t", true);
+            gffCache.put(match, new GFFStreamFeature(
+                getGffInArtemisCoordinates(matchLine, parts, c)));
           }
-          cnt++;
+          return match;
         }
       }
-      catch(IOException ioe){}
+      catch(IOException ioe)
+      {
+        logger4j.warn(ioe.getMessage());
+      }
+      cnt+=nfeatures;
     }
     return -1;
   }
 
+  /**
+   * Get the ordinal index of the GFF lines, reading or creating the
+   * sidecar index file the first time it is used.
+   * @return the index or null if the GFF could not be read
+   */
+  private synchronized GFFOrdinalIndex getOrdinalIndex()
+  {
+    if(ordinalIndex == null)
+    {
+      try
+      {
+        ordinalIndex = GFFOrdinalIndex.open(((FileDocument)getDocument()).getFile());
+      }
+      catch(IOException e)
+      {
+        logger4j.warn("Cannot index "+getName()+" : "+e.getMessage());
+      }
+    }
+    return ordinalIndex;
+  }
+
   public boolean contains(Feature feature)
   {
     return (indexOf(feature)>-1);
@@ -1088,8 +1385,20 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
   }
 
 
-  public void dispose()
+  public synchronized void dispose()
   {
+    if(ordinalIndex != null)
+    {
+      try
+      {
+        ordinalIndex.close();
+      }
+      catch(IOException e)
+      {
+        logger4j.warn(e.getMessage());
+      }
+      ordinalIndex = null;
+    }
   }
 
   public void save() throws IOException
@@ -1152,6 +1461,7 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
     featureCount = -1;
     
     gffCache.clear();
+    clearTileCache();
   }
 
   public void setEntryGroup(EntryGroup entryGroup)
@@ -1234,6 +1544,15 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
    *  Return true if the FeatureVector contains the given Feature.
    **/
   public static boolean contains(final uk.ac.sanger.artemis.Feature f, final uk.ac.sanger.artemis.FeatureVector fs)
+  {
+    return indexOf(f, fs) > -1;
+  }
+
+  /**
+   *  Return the index of the first Feature in the FeatureVector that is the
+   *  same feature as the given Feature, or -1 if there isn't one.
+   **/
+  public static int indexOf(final uk.ac.sanger.artemis.Feature f, final uk.ac.sanger.artemis.FeatureVector fs)
   {
     final String id = f.getIDString();
     final String keyStr = f.getKey().toString();
@@ -1242,8 +1561,8 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
 
     for(int i=0; i<fs.size(); i++)
       if(contains(fs.elementAt(i), id, keyStr, pId, loc))
-        return true;
-    return false;
+        return i;
+    return -1;
   }
   
   private static boolean contains(final uk.ac.sanger.artemis.Feature f, 
@@ -1282,13 +1601,28 @@ public class IndexedGFFDocumentEntry implements DocumentEntry
   }
   
 
+  /**
+   * Merged features of a tile and the first base (in contig coordinates)
+   * of the features that overlap the tile.
+   */
+  private static class FeatureTile
+  {
+    private final FeatureVector features;
+    private final int firstStart;
+    
+    FeatureTile(final FeatureVector features, final int firstStart)
+    {
+      this.features = features;
+      this.firstStart = firstStart;
+    }
+  }
+  
   class IndexContig
   {
     private String chr;
     private int start;
     private int end;
     private int offset;
-    private int nfeatures = 0;
 
     IndexContig(String chr, int s, int e, int off)
     {
@@ -241,6 +241,51 @@ abstract class LineGroup
     }
   }
 
+  /**
+   *  If the next line group in a stream is an EMBL or GENBANK feature then
+   *  read it and the rest of the features of the feature table, parsing
+   *  them with several threads.
+   *  @param reader The stream to read from.
+   *  @param thread_count The number of threads to parse the features with.
+   *  @return The features in the order of the stream or null if the next
+   *    line group is not a feature.
+   *  @exception IOException Thrown if exception occurs while reading.
+   *  @exception ReadFormatException Thrown if the format of the input is in
+   *    error.
+   **/
+  protected static FeatureVector readFeatures (final LinePushBackReader reader,
+                                               final int thread_count)
+      throws IOException
+  {
+    String line;
+
+    // skip blank lines as readNextLineGroup() does
+    LINES: while(true) 
+    {
+      line = reader.readLine ();
+
+      if(line == null) 
+        return null; // end of file
+
+      for(int i = 0 ; i < line.length () ; ++i) 
+      {
+        final char letter = line.charAt (i);
+
+        if(letter != ' ' && letter != '\t') 
+          break LINES;
+      }
+    }
+
+    final int line_type = LineGroup.getLineType (line);
+
+    reader.pushBack (line);
+
+    if(line_type != EMBL_FEATURE && line_type != GENBANK_FEATURE)
+      return null;
+
+    return PublicDBStreamFeature.readFeatures (reader, line_type, thread_count);
+  }
+
   /**
    *  Return the embl line type of the line contained in the argument String.
    */
@@ -27,6 +27,11 @@ package uk.ac.sanger.artemis.io;
 
 import uk.ac.sanger.artemis.util.*;
 import java.io.*;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  *  This is an implementation of Feature that can read and write itself to a
@@ -135,13 +140,87 @@ abstract public class PublicDBStreamFeature
   }
 
   /**
-   *  This is used by readFromStream () as temporary storage.  It is a class
-   *  member rather than a local variable so that we don't need to allocate a
-   *  object for each call.  The number we pick for the initial StringBuffer
-   *  size is not critical, but should cover most possibilities
+   *  Read the features of a feature table from a stream.  The text of each
+   *  feature is split from the stream in this thread and the locations and
+   *  qualifiers are parsed in batches by a ForkJoinPool.  The features are
+   *  then made in the order of the stream.
+   *  @param stream the features are read from this stream
+   *  @param feature_type LineGroup.EMBL_FEATURE or LineGroup.GENBANK_FEATURE
+   *  @param thread_count the number of threads to parse with
+   *  @exception IOException thrown if there is a problem reading a Feature -
+   *    most likely ReadFormatException.  This is the first problem in the
+   *    stream.
+   *  @return the features up to the end of the feature table
    **/
-  final static private StringBuffer qualifier_string_buffer =
-    new StringBuffer (1500);
+  protected static FeatureVector
+    readFeatures (final LinePushBackReader stream,
+                  final int feature_type,
+                  final int thread_count)
+      throws IOException {
+
+    final ForkJoinPool pool = new ForkJoinPool (thread_count);
+    final Vector<Future<Vector<FeatureText>>> batches =
+      new Vector<Future<Vector<FeatureText>>> ();
+
+    try {
+      Vector<FeatureText> batch = new Vector<FeatureText> (PARSE_BATCH_SIZE);
+
+      while (true) {
+        try {
+          batch.add (readFeatureText (stream, feature_type));
+        } catch (EOFException e) {
+          break;
+        }
+
+        if (batch.size () == PARSE_BATCH_SIZE) {
+          batches.add (pool.submit (new ParseTask (batch)));
+          batch = new Vector<FeatureText> (PARSE_BATCH_SIZE);
+        }
+      }
+
+      if (batch.size () > 0) {
+        batches.add (pool.submit (new ParseTask (batch)));
+      }
+
+      final FeatureVector features = new FeatureVector ();
+
+      for (Future<Vector<FeatureText>> future : batches) {
+        final Vector<FeatureText> texts;
+        try {
+          texts = future.get ();
+        } catch (ExecutionException e) {
+          if (e.getCause () instanceof IOException) {
+            throw (IOException) e.getCause ();
+          }
+          throw new Error ("internal error - unexpected exception: " +
+                           e.getCause ());
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException (e.getMessage ());
+        }
+
+        for (FeatureText text : texts) {
+          final PublicDBStreamFeature new_feature;
+
+          if (feature_type == LineGroup.EMBL_FEATURE) {
+            new_feature = new EmblStreamFeature ();
+          } else {
+            new_feature = new GenbankStreamFeature ();
+          }
+          new_feature.set (text);
+          features.add (new_feature);
+        }
+      }
+
+      return features;
+    } finally {
+      pool.shutdownNow ();
+    }
+  }
+
+  /**
+   *  The number of features parsed by each task of readFeatures ().
+   **/
+  final static private int PARSE_BATCH_SIZE = 256;
 
   /**
    *  Read the details of a feature from an EMBL stream into the current
@@ -153,6 +232,48 @@ abstract public class PublicDBStreamFeature
   private void setFromStream (final LinePushBackReader in_stream)
       throws IOException {
 
+    final int feature_type;
+
+    if (this instanceof EmblStreamFeature) {
+      feature_type = LineGroup.EMBL_FEATURE;
+    } else {
+      feature_type = LineGroup.GENBANK_FEATURE;
+    }
+
+    final FeatureText text = readFeatureText (in_stream, feature_type);
+
+    text.parse (getEntryInformation ());
+    set (text);
+  }
+
+  /**
+   *  Set the key, location and qualifiers of this feature from some parsed
+   *  feature text.
+   **/
+  private void set (final FeatureText text) throws ReadOnlyException {
+    try {
+      set (text.key, text.location, text.qualifiers);
+    } catch (EntryInformationException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
+    } catch (OutOfRangeException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
+    }
+
+    setDirtyFlag ();
+  }
+
+  /**
+   *  Read the text of the next feature from an EMBL or GENBANK stream.
+   *  @param in_stream the Feature is read from this stream
+   *  @param feature_type LineGroup.EMBL_FEATURE or LineGroup.GENBANK_FEATURE
+   *  @exception EOFException thrown if the stream is not at the start of a
+   *    feature.
+   *  @exception IOException thrown if there is a problem reading the Feature -
+   *    most likely ReadFormatException.
+   **/
+  private static FeatureText readFeatureText (final LinePushBackReader in_stream,
+                                              final int feature_type)
+      throws IOException {
     final String first_line = in_stream.readLine ();
 
     if (first_line == null) {
@@ -162,10 +283,7 @@ abstract public class PublicDBStreamFeature
 
     final int line_type = getLineType (first_line);
 
-    if (this instanceof EmblStreamFeature &&
-        line_type != LineGroup.EMBL_FEATURE ||
-        this instanceof GenbankStreamFeature &&
-        line_type != LineGroup.GENBANK_FEATURE) {
+    if (line_type != feature_type) {
       // this line is not the first line of a feature
 
       in_stream.pushBack (first_line);
@@ -194,7 +312,9 @@ abstract public class PublicDBStreamFeature
 
     String location_string = getRestOfFeatureLine (first_line);
 
-    qualifier_string_buffer.setLength (0);
+    // the number we pick for the initial StringBuffer size is not critical,
+    // but should cover most possibilities
+    final StringBuffer qualifier_string_buffer = new StringBuffer (1500);
 
     String line;
 
@@ -218,10 +338,7 @@ abstract public class PublicDBStreamFeature
 
       final int current_line_type = getLineType (line);
 
-      if (this instanceof EmblStreamFeature &&
-          current_line_type == LineGroup.EMBL_FEATURE ||
-          this instanceof GenbankStreamFeature &&
-          current_line_type == LineGroup.GENBANK_FEATURE) {
+      if (current_line_type == feature_type) {
 
         if (getKeyStringFromLine (line, in_stream.getLineNumber ()) == null) {
 
@@ -284,50 +401,84 @@ abstract public class PublicDBStreamFeature
       }
     }
 
+    return new FeatureText (key_string, location_string,
+                            qualifier_string_buffer.toString (),
+                            feature_start_line);
+  }
 
-    final Key key = new Key (key_string);
-
-    final Location location;
-
-    try {
-      location = new Location (location_string);
-    } catch (LocationParseException exception) {
-      // re-throw the exception with the line number added
-
-      final String new_error_string = exception.getMessage ();
-
-      // subtract 1 because the error was on the previous line
-      throw new ReadFormatException (new_error_string,
-                                     feature_start_line);
+  /**
+   *  The text of a feature from a stream, which parse () turns into a Key,
+   *  Location and QualifierVector.  parse () uses no shared state so the
+   *  text of several features can be parsed at once.
+   **/
+  private static class FeatureText {
+    FeatureText (final String key_string, final String location_string,
+                 final String qualifier_string, final int feature_start_line) {
+      this.key_string = key_string;
+      this.location_string = location_string;
+      this.qualifier_string = qualifier_string;
+      this.feature_start_line = feature_start_line;
     }
 
+    /**
+     *  Parse the location and qualifiers.
+     *  @exception ReadFormatException thrown if the location or the
+     *    qualifiers can't be parsed.
+     **/
+    void parse (final EntryInformation entry_information)
+        throws ReadFormatException {
+      key = new Key (key_string);
+
+      try {
+        location = new Location (location_string);
+      } catch (LocationParseException exception) {
+        // re-throw the exception with the line number added
+        throw new ReadFormatException (exception.getMessage (),
+                                       feature_start_line);
+      }
 
-    final QualifierVector qualifiers;
+      try {
+        qualifiers = getQualifiersFromString (qualifier_string,
+                                              entry_information);
+      } catch (QualifierParseException exception) {
+        // re-throw the exception with the line number added
+        throw new ReadFormatException (exception.getMessage (),
+                                       feature_start_line);
+      }
+    }
 
-    final String qualifier_string = qualifier_string_buffer.toString ();
+    final private String key_string;
+    final private String location_string;
+    final private String qualifier_string;
 
-    try {
-      qualifiers = getQualifiersFromString (qualifier_string,
-                                            getEntryInformation ());
-    } catch (QualifierParseException exception) {
-      // re-throw the exception with the line number added
-      final String new_error_string = exception.getMessage ();
+    /**
+     *  The line of the input where this feature starts - used for error
+     *  reporting.
+     **/
+    final private int feature_start_line;
 
-      // subtract 1 because the error was on the previous line
-      throw new ReadFormatException (new_error_string,
-                                     feature_start_line);
+    private Key key;
+    private Location location;
+    private QualifierVector qualifiers;
+  }
 
+  /**
+   *  Parses a batch of FeatureText objects for readFeatures ().
+   **/
+  private static class ParseTask implements Callable<Vector<FeatureText>> {
+    ParseTask (final Vector<FeatureText> texts) {
+      this.texts = texts;
     }
 
-    try {
-      set (key, location, qualifiers);
-    } catch (EntryInformationException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
+    public Vector<FeatureText> call () throws ReadFormatException {
+      for (FeatureText text : texts) {
+        // the features are not in an Entry yet so any qualifier is allowed
+        text.parse (SimpleEntryInformation.getDefaultEntryInformation ());
+      }
+      return texts;
     }
 
-    setDirtyFlag ();
+    final private Vector<FeatureText> texts;
   }
 
 
@@ -25,6 +25,7 @@
 
 package uk.ac.sanger.artemis.io;
 
+import uk.ac.sanger.artemis.Options;
 import uk.ac.sanger.artemis.util.*;
 
 import java.io.*;
@@ -75,6 +76,12 @@ abstract public class SimpleDocumentEntry
    *  made to setDirtyFlag().
    **/
   private Thread autosave_thread = null;
+
+  /**
+   *  The journal of the changes to this Entry, used instead of the
+   *  autosave_thread if it is set.
+   **/
+  private DocumentEntryJournal journal = null;
                                                                                                                
   /**
    *  The Date when this Entry last changed or null if this Entry
@@ -119,39 +126,29 @@ abstract public class SimpleDocumentEntry
 
     LineGroup new_line_group;
 
-    final int MAX_LOOP = 9999;
-    
-    while((new_line_group =
-            LineGroup.readNextLineGroup(pushback_reader, this)) != null) 
-    {       
-      if(new_line_group instanceof SimpleDocumentFeature)
+    final int read_threads = getFeatureReadThreadCount();
+
+    while(true)
+    {
+      if(read_threads > 1)
       {
-        final SimpleDocumentFeature new_feature =
-                   (SimpleDocumentFeature)new_line_group;
-        
-        // try several times because adding the Feature may cause more than
-        // one exception
-        int i;
-        EntryInformationException saved_error = null;
-
-        for(i = 0; i<MAX_LOOP; ++i) 
+        // parse the features of the feature table in parallel
+        final FeatureVector features =
+          LineGroup.readFeatures(pushback_reader, read_threads);
+        if(features != null)
         {
-          try 
-          {
-            addInternal(new_feature, true);
-            break;
-          } 
-          catch(EntryInformationException e) 
-          {
-            getEntryInformation().fixException(e);
-            saved_error = e;
-          }
+          for(int i = 0; i < features.size(); ++i)
+            addFeatureFromStream((SimpleDocumentFeature)features.featureAt(i));
+          continue;
         }
-
-        if(i == MAX_LOOP) 
-          throw new Error("internal error - too many exceptions: " +
-                           saved_error.getMessage());
       }
+
+      new_line_group = LineGroup.readNextLineGroup(pushback_reader, this);
+      if(new_line_group == null)
+        break;
+
+      if(new_line_group instanceof SimpleDocumentFeature)
+        addFeatureFromStream((SimpleDocumentFeature)new_line_group);
       else 
         addLineGroup(new_line_group);
       
@@ -160,6 +157,17 @@ abstract public class SimpleDocumentEntry
     }
 
     pushback_reader.close();
+
+    if(document instanceof DatabaseDocument)
+    {
+      // features made directly from the database rather than read as GFF
+      FeatureVector features;
+      while((features = ((DatabaseDocument)document).readFeatures()) != null)
+      {
+        for(int i = 0; i < features.size(); ++i)
+          addFeatureFromStream((SimpleDocumentFeature)features.featureAt(i));
+      }
+    }
     
     // we added some features above hence:
     last_change_time = null;
@@ -498,6 +506,53 @@ abstract public class SimpleDocumentEntry
       return feature_table.getFeatureCount();
   }
 
+  /**
+   *  Return the number of threads to parse feature tables with, from the
+   *  feature_read_threads option or the number of processors if it is not
+   *  set.
+   **/
+  private static int getFeatureReadThreadCount()
+  {
+    final Integer threads =
+      Options.getOptions().getIntegerProperty("feature_read_threads");
+    if(threads != null)
+      return threads.intValue();
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   *  Add a feature read by the constructor, fixing the EntryInformation
+   *  of this entry so that it can hold the feature.
+   **/
+  private void addFeatureFromStream(final SimpleDocumentFeature new_feature)
+      throws EntryInformationException
+  {
+    final int MAX_LOOP = 9999;
+
+    // try several times because adding the Feature may cause more than
+    // one exception
+    int i;
+    EntryInformationException saved_error = null;
+
+    for(i = 0; i<MAX_LOOP; ++i) 
+    {
+      try 
+      {
+        addInternal(new_feature, true);
+        break;
+      } 
+      catch(EntryInformationException e) 
+      {
+        getEntryInformation().fixException(e);
+        saved_error = e;
+      }
+    }
+
+    if(i == MAX_LOOP) 
+      throw new Error("internal error - too many exceptions: " +
+                       saved_error.getMessage());
+  }
+
   /**
    *  The method is identical to add() except that it doesn't check the
    *  read_only flag before adding and it doesn't throw ReadOnlyExceptions.
@@ -1128,6 +1183,27 @@ abstract public class SimpleDocumentEntry
     out_file.close();
 
     last_change_time = null;
+
+    if(journal != null && document == getDocument())
+      journal.saved();
+  }
+
+  /**
+   *  Return the journal of the changes to this Entry or null if it is not
+   *  journaled.
+   **/
+  public DocumentEntryJournal getJournal()
+  {
+    return journal;
+  }
+
+  /**
+   *  Set the journal of the changes to this Entry.  Called by
+   *  DocumentEntryJournal.makeJournal().
+   **/
+  protected void setJournal(final DocumentEntryJournal journal)
+  {
+    this.journal = journal;
   }
 
 
@@ -1162,7 +1238,7 @@ abstract public class SimpleDocumentEntry
     }
     else
     {
-       if(autosave_thread == null && getName() != null) 
+       if(autosave_thread == null && journal == null && getName() != null) 
        {
          // this is the first change so start autosaving
          autosave_thread = new DocumentEntryAutosaveThread(this);
@@ -1258,6 +1334,10 @@ abstract public class SimpleDocumentEntry
 
   public void dispose()
   {
+    final Sequence sequence = getSequence();
+    if(sequence instanceof IndexFastaStream)
+      ((IndexFastaStream) sequence).close();
+
     for(int i=0; i<line_groups.size(); i++)
       line_groups.removeElementAt(i);
     line_groups = null;
@@ -62,25 +62,28 @@ class StreamQualifier {
                          final EntryInformation entry_information)
       throws QualifierParseException {
 
-    if (!entry_information.isValidQualifier (name)) {
-      // use this qualifier value to decide how qualifiers with this name
-      // should be quoted
-      final QualifierInfo new_qualifier_info;
-      if (value.startsWith ("\"")) {
-        new_qualifier_info =
-          new QualifierInfo (name, QualifierInfo.QUOTED_TEXT,
-                             null, null, false);
-      } else {
-        new_qualifier_info =
-          new QualifierInfo (name, QualifierInfo.TEXT, null, null, false);
-      }
+    // features may be read by several threads at once
+    synchronized (entry_information) {
+      if (!entry_information.isValidQualifier (name)) {
+        // use this qualifier value to decide how qualifiers with this name
+        // should be quoted
+        final QualifierInfo new_qualifier_info;
+        if (value.startsWith ("\"")) {
+          new_qualifier_info =
+            new QualifierInfo (name, QualifierInfo.QUOTED_TEXT,
+                               null, null, false);
+        } else {
+          new_qualifier_info =
+            new QualifierInfo (name, QualifierInfo.TEXT, null, null, false);
+        }
 
-      try {
-        entry_information.addQualifierInfo (new_qualifier_info);
-      } catch (QualifierInfoException e) {
-        // this shouldn't happen because we have just checked that there is no
-        // qualifier with this name
-        throw new Error ("internal error - unexpected exception: " + e);
+        try {
+          entry_information.addQualifierInfo (new_qualifier_info);
+        } catch (QualifierInfoException e) {
+          // this shouldn't happen because we have just checked that there is
+          // no qualifier with this name
+          throw new Error ("internal error - unexpected exception: " + e);
+        }
       }
     }
 
@@ -161,17 +164,8 @@ class StreamQualifier {
   }
 
   /**
-   *  This is used by readFromStream () as temporary storage.  It is a class
-   *  member rather than a local variable so that we don't need to allocate a
-   *  object for each call.  The number we pick for the initial StringBuffer
-   *  size is not critical, but should cover most possibilities to prevent
-   *  reallocation.
-   **/
-  final private static StringBuffer read_name_string_buffer =
-    new StringBuffer (20);
-
-  /**
-   *  Read a qualifier name from a stream.
+   *  Read a qualifier name from a stream.  This has no shared state so
+   *  several threads may read qualifiers at once.
    *  @param buffered_reader the stream to read from
    *  @return the qualifier name if successful, otherwise null
    */
@@ -212,7 +206,9 @@ class StreamQualifier {
 
     buffered_reader.mark (1);
 
-    read_name_string_buffer.setLength (0);
+    // the number we pick for the initial size is not critical, but should
+    // cover most possibilities to prevent reallocation
+    final StringBuilder read_name_string_buffer = new StringBuilder (20);
 
     while ((current_char = buffered_reader.read ()) != -1) {
       if (Character.isLetter ((char) current_char) ||
@@ -244,42 +240,8 @@ class StreamQualifier {
   }
 
   /**
-   *  This is used by readFromStream () as temporary storage.  It is a class
-   *  member rather than a local variable so that we don't need to allocate a
-   *  object for each call.  The number we pick for the initial array
-   *  size is not critical, but should cover most possibilities to prevent
-   *  reallocation.
-   **/
-  private static char [] read_value_buffer = new char [5000];
-
-  /**
-   *  The index into read_value_buffer - used by readValue () to keep track of
-   *  where to put the next character.
-   **/
-  private static int buffer_index = 0;
-
-
-  /**
-   *  Append the given char to read_value_buffer (at the position
-   *  buffer_index), reallocating the buffer if necessary
-   **/
-  private static void appendToValueBuffer (final char new_char) {
-    if (buffer_index >= read_value_buffer.length) {
-      // reallocate as the buffer is full
-
-      final char [] temp_buffer = new char [read_value_buffer.length*2];
-
-      System.arraycopy (read_value_buffer, 0,
-                        temp_buffer, 0,
-                        read_value_buffer.length);
-      read_value_buffer = temp_buffer;
-    }
-
-    read_value_buffer [buffer_index++] = (char) new_char;
-  }
-
-  /**
-   *  Read a qualifier value from a stream.
+   *  Read a qualifier value from a stream.  This has no shared state so
+   *  several threads may read qualifiers at once.
    *  @param buffered_reader the stream to read from
    *  @return the qualifier value if successful, otherwise null
    *  @exception QualifierParseException Thrown if the format of the
@@ -289,10 +251,12 @@ class StreamQualifier {
    *    on the name, for example the value part of /codon_start qualifier must
    *    be a number: 1, 2 or 3.
    */
-  static synchronized String readValue (final BufferedReader buffered_reader)
+  static String readValue (final BufferedReader buffered_reader)
       throws QualifierParseException, IOException {
 
-    buffer_index = 0;
+    // the number we pick for the initial size is not critical, but should
+    // cover most possibilities to prevent reallocation
+    final StringBuilder read_value_buffer = new StringBuilder (100);
 
     buffered_reader.mark (1);
 
@@ -337,7 +301,7 @@ class StreamQualifier {
     } else {
       // append the char now so that loop doesn't stop immediately in the '"'
       // case
-      appendToValueBuffer ((char) current_char);
+      read_value_buffer.append ((char) current_char);
     }
 
     buffered_reader.mark (1);
@@ -374,8 +338,8 @@ class StreamQualifier {
 
           if (next_char == '"') {
             // we have hit a quoted quote
-            appendToValueBuffer ('"');
-            appendToValueBuffer ('"');
+            read_value_buffer.append ('"');
+            read_value_buffer.append ('"');
             continue;
           } else {
             // end of line or next qualifier
@@ -384,12 +348,12 @@ class StreamQualifier {
               buffered_reader.reset ();
             }
 
-            appendToValueBuffer ('"');
+            read_value_buffer.append ('"');
             break;
           }
         } else {
           // end of value
-          appendToValueBuffer ((char) current_char);
+          read_value_buffer.append ((char) current_char);
           break;
         }
       } else {
@@ -400,7 +364,7 @@ class StreamQualifier {
           buffered_reader.reset ();
           break;
         } else {
-          appendToValueBuffer ((char) current_char);
+          read_value_buffer.append ((char) current_char);
 
           // save the new position and go around the loop again
           buffered_reader.mark (1);
@@ -415,13 +379,15 @@ class StreamQualifier {
 
     }
 
-    // move buffer_index back past any whitespace
+    // remove any trailing whitespace
+    int buffer_index = read_value_buffer.length ();
     while (buffer_index > 0 &&
-           Character.isWhitespace (read_value_buffer[buffer_index-1])) {
+           Character.isWhitespace (read_value_buffer.charAt (buffer_index-1))) {
       --buffer_index;
     }
+    read_value_buffer.setLength (buffer_index);
 
-    return new String (read_value_buffer, 0, buffer_index);
+    return read_value_buffer.toString ();
   }
 
   /**
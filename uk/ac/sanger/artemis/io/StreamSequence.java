@@ -32,7 +32,8 @@ import java.io.Writer;
  *  This is an implementation of Sequence that can read and write itself to a
  *  stream.
  *
- *  Sequence stored in 4 bit chunks.
+ *  Sequence stored in 2 bit chunks (a, c, g or t).  Any other bases (N runs
+ *  and IUPAC codes) are kept in a sorted list of runs of the same base.
  *
  *  @author Kim Rutherford
  *  @version $Id: StreamSequence.java,v 1.15 2008-12-11 15:43:31 tjc Exp $
@@ -53,12 +54,28 @@ public abstract class StreamSequence
    **/
   abstract public int getFormatType();
 
+  /** The bases for each 2 bit code. */
+  private static final char CODES[] = { 'a', 'c', 'g', 't' };
+
   /**
-   *  Contains the sequence data for this object.  It will contain the bases
-   *  of the sequence with no spaces after the Feature constructor finishes.
+   *  Contains the sequence data for this object, 4 bases to a byte.  It will
+   *  contain the bases of the sequence with no spaces after the Feature
+   *  constructor finishes.  Bases in the exception runs are stored as 0.
    **/
   private byte[] sequencePacked;
 
+  /** First base (1-based) of each run of bases that aren't a, c, g or t. */
+  private int exception_starts[] = new int[0];
+
+  /** Last base (1-based) of each exception run. */
+  private int exception_ends[] = new int[0];
+
+  /** The base of each exception run. */
+  private char exception_bases[] = new char[0];
+
+  /** Number of exception runs in use. */
+  private int exception_count = 0;
+
   /** Count of the a bases in the sequence. */
   private int a_count = 0;
 
@@ -71,11 +88,7 @@ public abstract class StreamSequence
   /** Count of the t bases in the sequence. */
   private int t_count = 0;
 
-  /** char array for returning sequence chunks */
-  private char[] dst = null;
-
   private int sequence_length;
-  private char bases[];
 
   /**
    *  Return a the given range of bases as a String.  Returns an empty
@@ -88,230 +101,187 @@ public abstract class StreamSequence
     if(end < start)    // empty range
       return "";
     else 
-    {
-      final char[] c = getCharSubSequence(start,end);
-      if(end > length())
-        end = length();
-
-      return new String(c,0,end-start+1);
-    }
-  }
-
-  public void forceReset()
-  {
-    dst = null;
+      return new String(getCharSubSequence(start,end));
   }
 
+  /**
+   *  Return the given range of bases.  The end is truncated to the length of
+   *  the sequence.
+   *  @param start The start base of the range.
+   *  @param end The end base of the range.
+   **/
   public char[] getCharSubSequence(int start, int end) 
   {
-    char[] this_dst = null;
-    if(end-start > 1000)
-      this_dst = dst;
-
-    int dst_length = 0;
-    if(this_dst != null)
-      dst_length = this_dst.length;
-
-    if(this_dst == null || dst_length < end-start+1 || end >= length()) 
-    {
-      if(end-start > 1000)
-      {
-        dst = new char[end-start+1];
-        this_dst = dst;
-      }
-      else
-        this_dst = new char[end-start+1];
-      
-      dst_length = this_dst.length;
-//    dst = new char[end-start+3];
-//    System.out.println("REALLOCATE "+ this_dst.length);
-    }
+    if(end > length())
+      end = length();
+    if(end < start)
+      return new char[0];
 
-//  int packStart = Math.round( (float)start/2.f ) - 1;
-    int packStart = (start - 1) >> 1;
-    int packEnd   = (int) Math.round( (double)end/2.d ); // end/2;
-    
-    int count = 0;
-    byte currStorageUnit;
-    int index1;
-    int index2;
-
-    // skip first four bits
-    if(start % 2 == 0)
-    {
-      currStorageUnit = sequencePacked[packStart];
-      index1 = (int)(currStorageUnit & 0x000F);
-      this_dst[count] = bases[index1];
+    final char this_dst[] = new char[end-start+1];
+    getChars(start, end, this_dst, 0);
+    return this_dst;
+  }
 
-      packStart++;
-      packEnd++;
-      count++;
-    }
+  /**
+   *  Copy the given range of bases into a buffer supplied by the caller, so
+   *  that no memory is allocated.
+   *  @param start The start base of the range.
+   *  @param end The end base of the range, which must not be beyond the end
+   *    of the sequence.
+   *  @param dst The buffer to copy to.
+   *  @param dst_offset The index in dst of the first base.
+   **/
+  public void getChars(final int start, final int end,
+                       final char dst[], final int dst_offset)
+  {
+    final byte packed[] = sequencePacked;
+    for(int pos = start - 1, i = dst_offset; pos < end; pos++, i++)
+      dst[i] = CODES[(packed[pos >> 2] >> ((pos & 3) << 1)) & 3];
 
-    for(int i=packStart; i <= packEnd && count < dst_length && i < sequencePacked.length; i++) 
+    // overwrite the bases that are not a, c, g or t
+    for(int run = findException(start);
+        run < exception_count && exception_starts[run] <= end; run++)
     {
-      currStorageUnit = sequencePacked[i];
-      index1 = (int)(currStorageUnit & 0x000F);
-      index2 = (int)( (currStorageUnit >> 4) & 0x000F);
-
-      try
-      {
-        this_dst[count] = bases[index2];
-      }
-      catch(ArrayIndexOutOfBoundsException oob)
-      {
-//      System.out.println("start "+start+" end "+end+"  packStart "+packStart+" packEnd "+packEnd);
-//      System.out.println("count "+count+"  this_dst.length "+this_dst.length+"  index2 "+index2);
-//      oob.printStackTrace();
-      }
-      count++;
-
-      if(count < dst_length)
-      {
-        this_dst[count] = bases[index1]; 
-      }
-
-      count++;
+      final int run_start = Math.max(start, exception_starts[run]);
+      final int run_end = Math.min(end, exception_ends[run]);
+      for(int pos = run_start; pos <= run_end; pos++)
+        dst[dst_offset + pos - start] = exception_bases[run];
     }
+  }
 
-    return this_dst;
+  /**
+   *  Return a view of the given range of bases that reads the bases from this
+   *  sequence when they are needed rather than copying them.
+   *  @param start The start base of the range.
+   *  @param end The end base of the range.
+   **/
+  public CharSequence getSubSequenceView(final int start, final int end)
+  {
+    return new SubSequenceView(start, Math.min(end, length()));
   }
 
+  /**
+   *  Return the complete sequence.
+   **/
   public char[] getCharSequence()
   {
-    char dst[] = new char[length()];
-    int packEnd = (int)Math.round( (double)length()/2.d );
-    int count = 0;
-    byte currStorageUnit = 0;
-
-    for(int i=0; i < packEnd; i++)
-    {
-      currStorageUnit = sequencePacked[i];
-      int index1 = (int)(currStorageUnit & 0x000F);
-      currStorageUnit = (byte) (currStorageUnit>>4);
-      int index2 = (int)(currStorageUnit & 0x000F);
-
-      dst[count]   = bases[index2];
-      count++;
-
-      if(count < dst.length)
-        dst[count] = bases[index1];
-
-//    System.out.print(Packing.unpack(index2));
-//    if(count < dst.length)
-//      System.out.print(Packing.unpack(index1));
+    return getCharSubSequence(1, length());
+  }
 
-      count++;
-    }
-//  System.out.println("\n"+currStorageUnit);
+  public char charAt(final int i)
+  {
+    final int run = findException(i);
+    if(run < exception_count && exception_starts[run] <= i)
+      return exception_bases[run];
 
-    return dst;  
+    final int pos = i - 1;
+    return CODES[(sequencePacked[pos >> 2] >> ((pos & 3) << 1)) & 3];
   }
 
-  public char charAt(final int i)
+  /**
+   *  Return the index of the first exception run that ends at or after the
+   *  given base, or exception_count if there is none.
+   **/
+  private int findException(final int base)
   {
-    final int packStart = (i-1) >> 1;
-    final byte currStorageUnit = sequencePacked[packStart];
-    final int index;
-
-    if(i % 2 == 0)
-      index = (int)(currStorageUnit & 0x000F);
-    else
-      index = (int)( (currStorageUnit >> 4) & 0x000F);
-  
-    return bases[index];
+    int lo = 0;
+    int hi = exception_count;
+    while(lo < hi)
+    {
+      final int mid = (lo + hi) >>> 1;
+      if(exception_ends[mid] < base)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
   }
 
   public void setFromChar(final char dna[])
   { 
-    sequence_length = dna.length;
-    int numBytes = (int)Math.round( (double)sequence_length/2.d );
-
-    sequencePacked = new byte[numBytes];
-    setFromChar(dna, 0, 0, sequence_length);
+    sequence_length = 0;
+    exception_count = 0;
+    setSequencePackingCapacity(dna.length);
+    appendChar(dna);
     setCounts(dna);
   }
 
-  /** 
-   *
-   *  Set this sequence to hold the bases in the given byte array.
-   *
-   **/
-  private void setFromChar(final char dna[], int offset, 
-                          final int bit_shift,
-                          final int new_sequence_length)
+  protected void appendChar(final char dna[])
   {
-    int offsetSize    = offset >> 1;
-    int bytePointer   = offset >> 1;
-    int symbolPointer = 0;
-    int numBytes      = (int)Math.round( (double)dna.length/2.d );
-
-    // filled last unit if = 0
-    int filledLastUnit = dna.length & 0x0001;
-    byte currByte;
-    if(bit_shift != 0)
-    {
-//    System.out.println("Bit Shifty..."+offset);
-      currByte = sequencePacked[sequence_length>>1];
-      currByte = (byte)(currByte | Packing.pack(dna[symbolPointer]));
-      sequencePacked[bytePointer] = currByte;
-      bytePointer++;
-      symbolPointer++;
-      if(filledLastUnit == 0)
-        offsetSize += 1;
-    }
-    else 
-      currByte = 0; 
+    final int newlength = sequence_length + dna.length;
+    final int numBytes  = (newlength >> 2) + 1;
+    if(numBytes > capacity())
+      expandCapacity(numBytes);
 
-    for(int i=bytePointer; i<numBytes+offsetSize; i++) 
+    for(int i = 0; i < dna.length; i++)
     {
-      // each byte consists of 4 bit nibbles
-      // process each separately
-      for(int j=0; j < 2; j++) 
+      final int pos = sequence_length + i;
+      final int code;
+      switch(dna[i])
       {
-        currByte = (byte)(currByte<<4 | Packing.pack(dna[symbolPointer]));
-
-        symbolPointer++;
-
-        if(j == 0 && symbolPointer == dna.length) 
-        {
-          currByte = (byte)(currByte<<4);
+        case 'a':
+          code = 0;
+          break;
+        case 'c':
+          code = 1;
+          break;
+        case 'g':
+          code = 2;
+          break;
+        case 't':
+          code = 3;
+          break;
+        default:
+          addException(pos + 1, Packing.unpack(Packing.pack(dna[i])));
+          code = 0;
           break;
-        }
       }
-      sequencePacked[bytePointer] = currByte;
-//    System.out.println(" "+symbolPointer+" bytePointer " + bytePointer + " to " +
-//                          Integer.toString((int) currByte, 2) + " decimal " +
-//                          Integer.toString((int) currByte, 10) + " hex " +
-//                          Integer.toString((int) currByte, 16));
-      bytePointer++;
-      currByte = 0;
-    }
-
-    if(bases == null)
-      bases = Packing.bases;
 
+      // clear the bits in case a sequence has been set before
+      final int shift = (pos & 3) << 1;
+      sequencePacked[pos >> 2] =
+        (byte) ((sequencePacked[pos >> 2] & ~(3 << shift)) | (code << shift));
+    }
+    sequence_length = newlength;
   }
 
-  protected void appendChar(final char dna[])
+  /**
+   *  Record a base that isn't a, c, g or t, extending the last run if it is
+   *  the same base and follows on from it.
+   **/
+  private void addException(final int base, final char c)
   {
-    int newlength = sequence_length + dna.length;
-    int numBytes  = (int)Math.round( (double)newlength/2.d );
-    if(numBytes > capacity())
-      expandCapacity(numBytes);
+    if(exception_count > 0 &&
+       exception_ends[exception_count-1] == base - 1 &&
+       exception_bases[exception_count-1] == c)
+    {
+      exception_ends[exception_count-1] = base;
+      return;
+    }
 
-//  System.out.println("capacity "+capacity()+" numBytes "+numBytes);
-    // filled last unit if = 0
-    int filledLastUnit = sequence_length & 0x0001;
+    if(exception_count == exception_starts.length)
+    {
+      final int new_size = exception_count * 2 + 16;
+      final int new_starts[] = new int[new_size];
+      final int new_ends[] = new int[new_size];
+      final char new_bases[] = new char[new_size];
+      System.arraycopy(exception_starts, 0, new_starts, 0, exception_count);
+      System.arraycopy(exception_ends, 0, new_ends, 0, exception_count);
+      System.arraycopy(exception_bases, 0, new_bases, 0, exception_count);
+      exception_starts = new_starts;
+      exception_ends = new_ends;
+      exception_bases = new_bases;
+    }
 
-    setFromChar(dna, sequence_length, filledLastUnit, newlength);
-    sequence_length = newlength;
+    exception_starts[exception_count] = base;
+    exception_ends[exception_count] = base;
+    exception_bases[exception_count] = c;
+    ++exception_count;
   }
 
   protected void setSequencePackingCapacity(final int n)
   {
-    int numBytes  = Math.round( n/2.f );
-    sequencePacked = new byte[numBytes];
+    sequencePacked = new byte[(n >> 2) + 1];
   }
 
 
@@ -330,7 +300,6 @@ public abstract class StreamSequence
     else if(minimumCapacity > newCapacity) 
       newCapacity = minimumCapacity;
 	
-//  System.out.println("EXPANDING.... "+newCapacity);
     byte newValue[] = new byte[newCapacity];
     System.arraycopy(sequencePacked, 0, newValue, 0, sequencePacked.length);
     sequencePacked = newValue;
@@ -411,27 +380,19 @@ public abstract class StreamSequence
    **/
   protected void setCounts()
   {
+    final int counts[] = new int[4];
     final int len = length();
-    final int packEnd = (int)Math.round( (double)len/2.d );
-    int count = 0;
-    byte currStorageUnit;
-    int index1;
-    int index2;
-
-    for(int i=0; i < packEnd; i++)
-    {
-      currStorageUnit = sequencePacked[i];
-      index1 = currStorageUnit & 0x000F;
-      index2 = (currStorageUnit>>4) & 0x000F;
-
-      counter(bases[index2]);
-      count++;
+    for(int pos = 0; pos < len; pos++)
+      ++counts[(sequencePacked[pos >> 2] >> ((pos & 3) << 1)) & 3];
 
-      if(count < len)
-        counter(bases[index1]);
+    // the exception runs are stored as a
+    for(int run = 0; run < exception_count; run++)
+      counts[0] -= exception_ends[run] - exception_starts[run] + 1;
 
-      count++;
-    }
+    a_count = counts[0];
+    c_count = counts[1];
+    g_count = counts[2];
+    t_count = counts[3];
   }
 
 
@@ -466,4 +427,41 @@ public abstract class StreamSequence
         break;
     }
   }
+
+  /**
+   *  A read only view of a range of the sequence.
+   **/
+  private class SubSequenceView implements CharSequence
+  {
+    private final int start;
+    private final int end;
+
+    SubSequenceView(final int start, final int end)
+    {
+      this.start = start;
+      this.end = end;
+    }
+
+    public int length()
+    {
+      return Math.max(0, end - start + 1);
+    }
+
+    public char charAt(final int index)
+    {
+      if(index < 0 || index >= length())
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+      return StreamSequence.this.charAt(start + index);
+    }
+
+    public CharSequence subSequence(final int sub_start, final int sub_end)
+    {
+      return new SubSequenceView(start + sub_start, start + sub_end - 1);
+    }
+
+    public String toString()
+    {
+      return getSubSequence(start, end);
+    }
+  }
 }
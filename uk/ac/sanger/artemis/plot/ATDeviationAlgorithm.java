@@ -26,8 +26,6 @@
 package uk.ac.sanger.artemis.plot;
 
 import uk.ac.sanger.artemis.sequence.*;
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 
 /**
  *  Objects of this class have one useful method - getValues (), which takes a
@@ -59,36 +57,13 @@ public class ATDeviationAlgorithm extends BaseAlgorithm {
    *    this array.
    **/
   public void getValues (int start, int end, final float [] values) {
-    final String sequence;
+    final int [] counts = new int [4];
+    getBaseCounts (start, end, counts);
 
-    try {
-      sequence = getStrand ().getSubSequence (new Range (start, end));
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
-
-    float a_count = 0;
-    float t_count = 0;
-
-    for (int i = 0 ; i < sequence.length () ; ++i) {
-      final char this_char = sequence.charAt (i);
-
-      if (this_char == 'a') {
-        ++a_count;
-      }
-
-      if (this_char == 't') {
-        ++t_count;
-      }
-    }
+    final float a_count = counts[2];
+    final float t_count = counts[0];
 
     if (a_count + t_count > 0) {
-//        if (start == 1) {
-//        System.out.println ("start: " + start + " end: " + end +
-//                            " returning: " +
-//                            (a_count - t_count) / (a_count + t_count));
-        
-//        }
       values[0] = (a_count - t_count) / (a_count + t_count);
     } else {
       values[0] = 0;
@@ -26,6 +26,8 @@
 package uk.ac.sanger.artemis.plot;
 
 import uk.ac.sanger.artemis.sequence.*;
+import uk.ac.sanger.artemis.io.Range;
+import uk.ac.sanger.artemis.util.OutOfRangeException;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.FontMetrics;
@@ -198,11 +200,180 @@ public abstract class BaseAlgorithm extends Algorithm
    **/
   public abstract void getValues (int start, int end, final float [] values);
 
+  /**
+   *  Return the values of the function for a series of windows of bases.
+   *  If isIncremental () returns true the bases of the whole range are read
+   *  once and the window statistic is updated as each step enters and leaves
+   *  the window, otherwise getValues () is called for each window.
+   *  @param start The start base of the first window.
+   *  @param window_size The number of bases in each window.
+   *  @param step_size The number of bases between the starts of consecutive
+   *    windows.
+   *  @param values The results are returned in this array, indexed by value
+   *    then by window.  values[0].length gives the number of windows.
+   **/
+  public void getValues (final int start, final int window_size,
+                         final int step_size, final float [][] values) {
+    final int window_count = values[0].length;
+    final float [] temp_values = new float [values.length];
+
+    if (!isIncremental ()) {
+      for (int i = 0 ; i < window_count ; ++i) {
+        getValues (start + i * step_size,
+                   start + i * step_size + window_size - 1, temp_values);
+        for (int j = 0 ; j < values.length ; ++j) {
+          values[j][i] = temp_values[j];
+        }
+      }
+      return;
+    }
+
+    final int window_length = getWindowLength (window_size);
+    final char [] sequence;
+
+    try {
+      sequence = getWindowSequence (new Range (start, start +
+          (window_count - 1) * step_size + window_length - 1));
+    } catch (OutOfRangeException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
+    }
+
+    // the bases from window_start to window_end - 1 are in the window
+    int window_start = 0;
+    int window_end = 0;
+
+    resetWindow ();
+
+    for (int i = 0 ; i < window_count ; ++i) {
+      final int next_start = i * step_size;
+
+      if (next_start >= window_end) {
+        // no overlap with the previous window
+        resetWindow ();
+        window_start = window_end = next_start;
+      }
+
+      while (window_start < next_start) {
+        removeBase (sequence, window_start++);
+      }
+      while (window_end < next_start + window_length) {
+        addBase (sequence, window_end++);
+      }
+
+      getWindowValues (sequence, window_start, window_end, temp_values);
+      for (int j = 0 ; j < values.length ; ++j) {
+        values[j][i] = temp_values[j];
+      }
+    }
+  }
+
+  /**
+   *  Return the number of each base between a pair of bases of the Strand
+   *  returned by getStrand (), indexed as Bases.getIndexOfBase () (t, c, a,
+   *  g).  The counts come from the composition index of the Bases so the
+   *  bases aren't read.
+   *  @param start The start base (included in the range).
+   *  @param end The end base (included in the range).
+   *  @param counts The counts are returned in this array of length 4.
+   **/
+  protected void getBaseCounts (final int start, final int end,
+                                final int [] counts) {
+    try {
+      getBases ().getBaseCounts (new Range (start, end),
+                                 getStrand ().getDirection (), counts);
+    } catch (OutOfRangeException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
+    }
+  }
+
+  /**
+   *  Read the forward strand bases between a pair of positions into a buffer
+   *  that is reused by later calls, so that getValues () doesn't need to
+   *  allocate an array for each window.
+   *  @param start The start base (included in the range).
+   *  @param end The end base (included in the range).
+   *  @return The buffer, which may be longer than the number of bases read.
+   **/
+  protected char [] getRawSubSequenceBuffer (final int start, final int end) {
+    final int length = end - start + 1;
+    if (sequence_buffer == null || sequence_buffer.length < length) {
+      sequence_buffer = new char [length];
+    }
+
+    try {
+      getStrand ().getRawSubSequenceC (new Range (start, end), sequence_buffer);
+    } catch (OutOfRangeException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
+    }
+    return sequence_buffer;
+  }
+
+  /**
+   *  Return true if this algorithm implements resetWindow (), addBase (),
+   *  removeBase () and getWindowValues () so that getValues () can update
+   *  the window statistic as it slides along the sequence.
+   **/
+  protected boolean isIncremental () {
+    return false;
+  }
+
+  /**
+   *  Return the number of bases an incremental algorithm should use for a
+   *  window of the given size.
+   **/
+  protected int getWindowLength (final int window_size) {
+    return window_size;
+  }
+
+  /**
+   *  Return the bases that an incremental algorithm will be fed.  By default
+   *  this is the given range of the Strand returned by getStrand ().
+   **/
+  protected char [] getWindowSequence (final Range range) {
+    return getStrand ().getBases ().getSubSequenceC (range,
+                                                 getStrand ().getDirection ());
+  }
+
+  /**
+   *  Clear the window statistic of an incremental algorithm.
+   **/
+  protected void resetWindow () {
+  }
+
+  /**
+   *  Add a base to the right hand end of the window.
+   *  @param sequence The bases returned by getWindowSequence ().
+   *  @param index The index of the base in sequence.
+   **/
+  protected void addBase (final char [] sequence, final int index) {
+  }
+
+  /**
+   *  Remove a base from the left hand end of the window.
+   *  @param sequence The bases returned by getWindowSequence ().
+   *  @param index The index of the base in sequence.
+   **/
+  protected void removeBase (final char [] sequence, final int index) {
+  }
+
+  /**
+   *  Return the value of the function for the bases currently in the window.
+   *  @param sequence The bases returned by getWindowSequence ().
+   *  @param window_start The index of the first base in the window.
+   *  @param window_end The index after the last base in the window.
+   *  @param values The results are returned in this array.
+   **/
+  protected void getWindowValues (final char [] sequence,
+                                  final int window_start,
+                                  final int window_end,
+                                  final float [] values) {
+  }
+
   /**
    *  Return the number of values a call to getValues () will return.
    **/
   public abstract int getValueCount ();
-  
+
   /**
    *  The Bases we will do the calculation on.
    **/
@@ -219,4 +390,9 @@ public abstract class BaseAlgorithm extends Algorithm
    *  Strand.
    **/
   private boolean forward_flag;
+
+  /**
+   *  The buffer returned by getRawSubSequenceBuffer ().
+   **/
+  private char [] sequence_buffer;
 }
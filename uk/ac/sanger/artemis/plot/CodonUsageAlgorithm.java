@@ -35,7 +35,6 @@ import uk.ac.sanger.artemis.*;
 import uk.ac.sanger.artemis.sequence.*;
 
 import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 
 /**
  *  Objects of this class have one useful method - getValues (), which takes a
@@ -93,23 +92,14 @@ public class CodonUsageAlgorithm extends BaseAlgorithm {
     else 
       start += (end - start + 1) % 3;
 
-    final char[] sequence;
-
-    try 
-    {
-      sequence = getStrand ().getRawSubSequenceC(new Range (start, end));
-    }
-    catch (OutOfRangeException e)
-    {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
+    final char[] sequence = getRawSubSequenceBuffer(start, end);
 
     float[] totals = { 0, 0, 0 };
 
     // a count of the number of codons we have seen
     int codon_count = 0;
 
-    final int sub_sequence_length = sequence.length;
+    final int sub_sequence_length = end - start + 1;
 
     if(getStrand ().isForwardStrand ()) 
     {
@@ -255,6 +245,31 @@ public class CodonUsageAlgorithm extends BaseAlgorithm {
    *  Calculate the codon usage score for the given Feature.
    **/
   public float getFeatureScore (final Feature feature) {
+    if (feature.getAmbiguousCodonCount () == 0) {
+      // use the codon counts of the feature rather than its bases
+      double total = 0;
+      int codon_count = 0;
+
+      for (int first = 0 ; first < 4 ; ++first) {
+        for (int second = 0 ; second < 4 ; ++second) {
+          for (int third = 0 ; third < 4 ; ++third) {
+            final int count = feature.getCodonCount (first, second, third);
+
+            if (count > 0) {
+              final float this_weight =
+                usage_data.getCodonValue (Bases.letter_index[first],
+                                          Bases.letter_index[second],
+                                          Bases.letter_index[third]);
+              total += count * Math.log (this_weight);
+              codon_count += count;
+            }
+          }
+        }
+      }
+
+      return (float) Math.exp (total / codon_count);
+    }
+
     final String sequence = feature.getTranslationBases ();
 
     float total = 0F;
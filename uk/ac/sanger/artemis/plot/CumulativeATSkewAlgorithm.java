@@ -22,8 +22,6 @@
 
 package uk.ac.sanger.artemis.plot;
 
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 import uk.ac.sanger.artemis.sequence.*;
 
 /**
@@ -55,45 +53,20 @@ public class CumulativeATSkewAlgorithm extends BaseAlgorithm
    **/
   public void getValues(int start, int end, final float [] values) 
   {
-    final String sequence;
-    String subseq;
-
-// sliding window code here
-
-    int leap = end-start;    
+    final int leap = end-start;
+    final int counts[] = new int[4];
     values[0] = 0;
- 
-    float a_count = 0;
-    float t_count = 0;
-   
-    for(int window = 0 ; window < end ; window += leap) 
-    {
-      try
-      {
-        subseq = getStrand().getSubSequence(new Range(window, window+leap));
-      }
-      catch(OutOfRangeException e) 
-      {
-        throw new Error("internal error - unexpected exception: " + e);
-      }
-
-      a_count = 0;
-      t_count = 0;
 
-      for(int i = 0 ; i < subseq.length() ; ++i) 
-      {
-        final char this_char = subseq.charAt(i);
-
-        if(this_char == 'a')
-          ++a_count;
+    for(int window = 0 ; window < end ; window += leap)
+    {
+      getBaseCounts(window, window+leap, counts);
 
-        if(this_char == 't') 
-          ++t_count;
-      }
+      final float a_count = counts[2];
+      final float t_count = counts[0];
 
       if(a_count + t_count > 0) 
-        values[0] += (a_count - t_count) / (a_count + t_count); 
-    }
+        values[0] += (a_count - t_count) / (a_count + t_count);
+    } 
   }
 
   /**
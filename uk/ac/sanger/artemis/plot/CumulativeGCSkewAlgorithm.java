@@ -22,8 +22,6 @@
 
 package uk.ac.sanger.artemis.plot;
 
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 import uk.ac.sanger.artemis.sequence.*;
 
 /**
@@ -53,43 +51,18 @@ public class CumulativeGCSkewAlgorithm extends BaseAlgorithm
    **/
   public void getValues(int start, int end, final float [] values) 
   {
-    final String sequence;
-    String subseq;
-
-// try sliding window code here
-
-    int leap = end-start;
-    values[0] = 0;	    
-
-    float g_count = 0;
-    float c_count = 0;
+    final int leap = end-start;
+    final int counts[] = new int[4];
+    values[0] = 0;
 
     for(int window = 0 ; window < end ; window += leap)
     {
-      try
-      {
-	subseq = getStrand().getSubSequence(new Range(window, window+leap));
-      }
-      catch(OutOfRangeException e) 
-      {
-        throw new Error("internal error - unexpected exception: " + e);
-      }
-
-      g_count = 0;
-      c_count = 0;
-    
-      for(int i = 0 ; i < subseq.length() ; ++i) 
-      {
-        final char this_char = subseq.charAt(i);
-
-        if(this_char == 'g')
-          ++g_count;
-
-        if(this_char == 'c') 
-          ++c_count;
-      }
-
-      if(c_count + g_count > 0) 
+      getBaseCounts(window, window+leap, counts);
+
+      final float g_count = counts[3];
+      final float c_count = counts[1];
+
+      if(g_count + c_count > 0) 
         values[0] += (g_count - c_count) / (g_count + c_count);
     } 
   }
@@ -26,8 +26,6 @@
 package uk.ac.sanger.artemis.plot;
 
 import uk.ac.sanger.artemis.sequence.*;
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 
 /**
  *  Objects of this class have one useful method - getValues (), which takes a
@@ -59,33 +57,13 @@ public class GCDeviationAlgorithm extends BaseAlgorithm {
    *    this array.
    **/
   public void getValues (int start, int end, final float [] values) {
-    final String sequence;
+    final int [] counts = new int [4];
+    getBaseCounts (start, end, counts);
 
-    try {
-      sequence = getStrand ().getSubSequence (new Range (start, end));
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
-
-    float g_count = 0;
-    float c_count = 0;
-
-    for (int i = 0 ; i < sequence.length () ; ++i) {
-      final char this_char = sequence.charAt (i);
-
-      if (this_char == 'g') {
-        ++g_count;
-      }
-
-      if (this_char == 'c') {
-        ++c_count;
-      }
-    }
+    final float g_count = counts[3];
+    final float c_count = counts[1];
 
     if (c_count + g_count > 0) {
-//        System.out.println ("start: " + start + " end: " + end +
-//                            " returning: " +
-//                            (g_count - c_count) / (g_count + c_count));
       values[0] = (g_count - c_count) / (g_count + c_count);
     } else {
       values[0] = 0;
@@ -27,7 +27,6 @@ package uk.ac.sanger.artemis.plot;
 
 import uk.ac.sanger.artemis.sequence.*;
 import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
 
 import java.awt.*;
 
@@ -91,18 +90,8 @@ public class GCFrameAlgorithm extends BaseAlgorithm
     for(int i = 0; i < getValueCount(); ++i)
       gc_counts[i] = 0;
     
-    final char[] sub_sequence;
-
-    try 
-    {
-      sub_sequence = getStrand().getRawSubSequenceC(new Range(start, end));
-    } 
-    catch(OutOfRangeException e) 
-    {
-      throw new Error("internal error - unexpected exception: " + e);
-    }
-
-    final int sub_sequence_length = sub_sequence.length;
+    final char[] sub_sequence = getRawSubSequenceBuffer(start, end);
+    final int sub_sequence_length = end - start + 1;
 
     if(getStrand().isForwardStrand()) 
     {
@@ -25,9 +25,6 @@
 
 package uk.ac.sanger.artemis.plot;
 
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
-
 import uk.ac.sanger.artemis.sequence.*;
 
 /**
@@ -66,51 +63,48 @@ public class GCSDWindowAlgorithm extends BaseAlgorithm {
   public void getValues (int start, int end, float [] values) {
     final int window_size = end - start + 1;
 
-    final float standard_deviation;
-
-    if (window_size > getDefaultMaxWindowSize ().intValue ()) {
-      standard_deviation = calculateSD (window_size);
-    } else {
-      if (standard_deviations[window_size - 1] < 0) {
-        // set the cached value
-        standard_deviation = calculateSD (window_size);
-        standard_deviations[window_size - 1] = standard_deviation;
-
-        //       System.err.println ("SD: " + standard_deviation);
-      } else {
-        standard_deviation = standard_deviations[window_size - 1];
-      }
-    }
-
-    final String sequence;
-
-    try {
-      sequence = getStrand ().getSubSequence (new Range (start, end));
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
-
-    float gc_count = 0;
+    final float standard_deviation = getStandardDeviation (window_size);
 
-    for (int i = 0 ; i < sequence.length () ; ++i) {
-      final char this_char = sequence.charAt (i);
-//      System.out.println (this_char);
+    final int [] counts = new int [4];
+    getBaseCounts (start, end, counts);
 
-      if (this_char == 'g' || this_char == 'c') {
-        ++gc_count;
-      }
-    }
+    final float gc_count = counts[1] + counts[3];
+    final float gc_content = gc_count / window_size * 100;
 
-    final float gc_content = gc_count/sequence.length () * 100;
+    values[0] = getCutoffValue (gc_content, standard_deviation);
+  }
 
+  /**
+   *  Return gc_content if it is more than 2.5 standard deviations from the
+   *  average GC content of the sequence, otherwise return the average.
+   **/
+  private float getCutoffValue (final float gc_content,
+                                final float standard_deviation) {
     final float gc_average =
       getStrand ().getBases ().getAverageGCPercent ();
 
     if (Math.abs (gc_content - gc_average) < standard_deviation * 2.5) {
-      values[0] = gc_average;
+      return gc_average;
     } else {
-      values[0] = gc_content;
+      return gc_content;
+    }
+  }
+
+  /**
+   *  Return the standard deviation of the GC content of windows of the given
+   *  size, using the cached value if there is one.
+   **/
+  private float getStandardDeviation (final int window_size) {
+    if (window_size > getDefaultMaxWindowSize ().intValue ()) {
+      return calculateSD (window_size);
     }
+
+    if (standard_deviations[window_size - 1] < 0) {
+      // set the cached value
+      standard_deviations[window_size - 1] = calculateSD (window_size);
+    }
+
+    return standard_deviations[window_size - 1];
   }
 
   /**
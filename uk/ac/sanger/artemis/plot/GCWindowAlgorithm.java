@@ -25,9 +25,6 @@
 
 package uk.ac.sanger.artemis.plot;
 
-import uk.ac.sanger.artemis.util.*;
-import uk.ac.sanger.artemis.io.Range;
-
 import uk.ac.sanger.artemis.sequence.*;
 
 /**
@@ -59,28 +56,12 @@ public class GCWindowAlgorithm extends BaseAlgorithm {
    *    this array.
    **/
   public void getValues (int start, int end, final float [] values) {
-    final String sequence;
-
-    try {
-      sequence = getStrand ().getSubSequence (new Range (start, end));
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
-
-    float gc_count = 0;
-
-    for (int i = 0 ; i < sequence.length () ; ++i) {
-      final char this_char = sequence.charAt (i);
-//      System.out.println (this_char);
-
-      if (this_char == 'g' || this_char == 'c') {
-        ++gc_count;
-      }
-    }
+    final int [] counts = new int [4];
+    getBaseCounts (start, end, counts);
 
-//    System.out.println ("start: " + start + " end: " + end + " returning: " + gc_count/sequence.length ()); 
+    final float gc_count = counts[1] + counts[3];
 
-    values[0] = gc_count/sequence.length () * 100;
+    values[0] = gc_count / (end - start + 1) * 100;
   }
 
   /**
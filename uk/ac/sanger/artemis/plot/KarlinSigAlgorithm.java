@@ -72,18 +72,137 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
     final char[] sub_sequence;
 
     try {
-      // reset
-      if(end-start > 1000)
-        ((uk.ac.sanger.artemis.io.StreamSequence)(getStrand().getBases().getSequence())).forceReset();
       sub_sequence = getStrand().getRawSubSequenceC(new Range (start, end));
     } catch (OutOfRangeException e) {
       throw new Error ("internal error - unexpected exception: " + e);
     }
 
+    values [0] = getSignatureDifference (getRelativeAbundance (sub_sequence));
+  }
+
+  /**
+   *  Return true - the dinucleotide counts are updated as the window moves.
+   **/
+  protected boolean isIncremental () {
+    return true;
+  }
+
+  /**
+   *  Return the window size moved down to a multiple of three, as in
+   *  getValues ().
+   **/
+  protected int getWindowLength (final int window_size) {
+    return window_size - window_size % 3;
+  }
+
+  /**
+   *  Return the bases of the given range of the forward strand, as in
+   *  getValues ().
+   **/
+  protected char [] getWindowSequence (final Range range) {
+    return getStrand ().getRawSubSequenceC (range);
+  }
+
+  /**
+   *  Clear the dinucleotide counts of the window.
+   **/
+  protected void resetWindow () {
+    for (int i = 0 ; i < 4 ; ++i) {
+      for (int j = 0 ; j < 4 ; ++j) {
+        window_dinucleotide_counts[i][j] = 0;
+      }
+    }
+    window_base_count = 0;
+  }
+
+  /**
+   *  Add a base and the dinucleotide it ends to the window.
+   **/
+  protected void addBase (final char [] sequence, final int index) {
+    if (window_base_count > 0) {
+      countDinucleotide (sequence, index - 1, 1);
+    }
+    ++window_base_count;
+  }
+
+  /**
+   *  Remove a base and the dinucleotide it starts from the window.
+   **/
+  protected void removeBase (final char [] sequence, final int index) {
+    --window_base_count;
+    if (window_base_count > 0) {
+      countDinucleotide (sequence, index, -1);
+    }
+  }
+
+  /**
+   *  Add delta to the count of the forward strand dinucleotide that starts
+   *  at the given index, ignoring Ns.
+   **/
+  private void countDinucleotide (final char [] sequence, final int index,
+                                  final int delta) {
+    final int this_base_index = Bases.getIndexOfBase (sequence[index]);
+    final int next_base_index = Bases.getIndexOfBase (sequence[index + 1]);
+
+    if (this_base_index < 4 && next_base_index < 4) {
+      window_dinucleotide_counts[this_base_index][next_base_index] += delta;
+    }
+  }
+
+  /**
+   *  Return the Karlin genomic signature of the bases in the window.  The
+   *  counts of the reverse complement are derived from the forward strand
+   *  counts so that the result is the same as from getValues ().
+   **/
+  protected void getWindowValues (final char [] sequence,
+                                  final int window_start,
+                                  final int window_end,
+                                  final float [] values) {
+    final int [] base_counts = new int [4];
+    final int [][] dinucleotide_base_counts = new int [4][4];
+
+    for (int first_base_index = 0 ; first_base_index < 4 ; ++first_base_index) {
+      for (int second_base_index = 0 ;
+           second_base_index < 4 ;
+           ++second_base_index) {
+        final int count =
+          window_dinucleotide_counts[first_base_index][second_base_index];
+
+        // the complement of a base index is index ^ 2 (t,c,a,g)
+        dinucleotide_base_counts[first_base_index][second_base_index] += count;
+        dinucleotide_base_counts[second_base_index ^ 2][first_base_index ^ 2] +=
+          count;
+        base_counts[first_base_index] += count;
+        base_counts[second_base_index ^ 2] += count;
+      }
+    }
+
+    // the last base of each strand
+    final int last_f_base_index =
+      Bases.getIndexOfBase (sequence[window_end - 1]);
+    if (last_f_base_index < 4) {
+      ++base_counts[last_f_base_index];
+    }
+
+    final int first_f_base_index =
+      Bases.getIndexOfBase (sequence[window_start]);
+    if (first_f_base_index < 4) {
+      ++base_counts[first_f_base_index ^ 2];
+    }
+
+    values [0] = getSignatureDifference (
+      getRelativeAbundance (base_counts, dinucleotide_base_counts,
+                            window_end - window_start));
+  }
+
+  /**
+   *  Return the absolute difference between the given relative abundance
+   *  values and those of the complete sequence.
+   **/
+  private float getSignatureDifference (
+      final float [][] subseq_relative_abundance_values) {
     final float [][] global_relative_abundance_values =
       getGlobalRelativeAbundance ();
-    final float [][] subseq_relative_abundance_values =
-      getRelativeAbundance (sub_sequence);
 
     float signature_difference = 0;
 
@@ -97,7 +216,7 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
       }
     }
 
-    values [0] = (float) signature_difference / 16f ;
+    return signature_difference / 16f ;
   }
 
   /**
@@ -198,8 +317,6 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
    *  [0][1], etc.
    **/
   private float [][] getRelativeAbundance (final char [] sequence_forward_raw) {
-    final float [][] return_value = new float [4][4];
-
     final char [] sequence_reverse_raw =
       Bases.reverseComplement (sequence_forward_raw);
 
@@ -242,6 +359,19 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
     if (next_r_base_index < 4) 
       ++base_counts[next_r_base_index];
 
+    return getRelativeAbundance (base_counts, dinucleotide_base_counts,
+                                 sequence_reverse_raw.length);
+  }
+
+  /**
+   *  Return a 4x4 array containing the relative abundance values from counts
+   *  of the bases and dinucleotides of both strands of a sequence of the
+   *  given length.
+   **/
+  private float [][] getRelativeAbundance (final int [] base_counts,
+                                           final int [][] dinucleotide_base_counts,
+                                           final int length) {
+    final float [][] return_value = new float [4][4];
 
     for (int first_base_index = 0 ;
          first_base_index < 4 ;
@@ -253,13 +383,13 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
       {
         final float dinucleotide_frequency =
           1f * dinucleotide_base_counts[first_base_index][second_base_index] /
-          (sequence_reverse_raw.length - 1) / 2;
+          (length - 1) / 2;
         final float first_base_frequency =
           1f * base_counts[first_base_index] /
-          sequence_reverse_raw.length / 2;
+          length / 2;
         final float second_base_frequency =
           1f * base_counts[second_base_index] /
-          sequence_reverse_raw.length / 2;
+          length / 2;
 
         return_value[first_base_index][second_base_index] =
           dinucleotide_frequency /
@@ -297,4 +427,15 @@ public class KarlinSigAlgorithm extends BaseAlgorithm {
    *  stored in global_signature[0][0], "TC" is stored in [0][1], etc.
    **/
   private float [][] global_relative_abundance_values = null;
+
+  /**
+   *  The counts of the forward strand dinucleotides in the current window.
+   *  Indexed by base (t,c,a,g).
+   **/
+  private final int [][] window_dinucleotide_counts = new int [4][4];
+
+  /**
+   *  The number of bases in the current window.
+   **/
+  private int window_base_count = 0;
 }
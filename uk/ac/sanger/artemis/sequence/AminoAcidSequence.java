@@ -375,17 +375,13 @@ public class AminoAcidSequence
                                final boolean search_fwd_strand,
                                final boolean search_bwd_strand) 
   {
-    final String bases_string = bases.toString();
+    // search the bases forward for this sequence and its complement
 
-    // search the bases_string forward for the pattern_string and its
-    // complement
-
-    // the String index position in bases_string at which to start the search
-    // for this pattern
+    // the index in the bases at which to start the search for this sequence
     final int forward_search_start_index;
 
-    // the String index position in bases_string at which to start the search
-    // for the reverse complement of this position
+    // the index in the bases at which to start the search for the reverse
+    // complement of this sequence
     final int complement_search_start_index;
 
     if(search_backwards) 
@@ -434,73 +430,42 @@ public class AminoAcidSequence
       }
     }
 
-    final int forward_search_result;
-    if(search_fwd_strand)
-      forward_search_result = searchFor(bases_string,
-                                        forward_search_start_index,
-                                        search_backwards);
+    final int forward_index =
+      search_fwd_strand ? forward_search_start_index : -1;
+    final int complement_index =
+      search_bwd_strand ? complement_search_start_index : -1;
+
+    // when searching backwards take the match that is closest to the end,
+    // or the complement match if there is a tie, otherwise take the match
+    // that is closest to base 1, or the forward match if there is a tie
+    final long match;
+    if(search_backwards)
+      match = getSearch().findLast(bases, forward_index, complement_index);
     else
-      forward_search_result = -1;
+      match = getSearch().findFirst(bases, forward_index, complement_index);
 
-    final int complement_search_result;
-    if(search_bwd_strand)
-      complement_search_result = reverseComplementSearchFor(bases_string,
-                                       complement_search_start_index,
-                                       search_backwards);
-    else
-      complement_search_result = -1;
+    // no match
+    if(match == -1)
+      return null;
+
+    final int match_index = PatternSearch.getIndex(match);
 
     final int match_first_base;
     final int match_last_base;
 
     final Strand match_strand;
 
-    if(forward_search_result == -1)
+    if(PatternSearch.isReverse(match))
     {
-      // no match
-      if(complement_search_result == -1) 
-        return null;
-    }
-
-    if(search_backwards) 
-    {
-      // take the match that is closest to the end, or the complement match if
-      // there is a tie
-      if(complement_search_result != -1 &&
-         (forward_search_result == -1 ||
-          complement_search_result >= forward_search_result)) 
-      {
-        match_first_base =
-          bases.getComplementPosition (complement_search_result + 1);
-        match_last_base = match_first_base - (length () * 3 - 1);
-        match_strand = bases.getReverseStrand ();
-      }
-      else
-      {
-        match_first_base = forward_search_result + 1;
-        match_last_base = match_first_base + length () * 3 - 1;
-        match_strand = bases.getForwardStrand ();
-      }
+      match_first_base = bases.getComplementPosition(match_index + 1);
+      match_last_base = match_first_base - (length() * 3 - 1);
+      match_strand = bases.getReverseStrand();
     }
     else
     {
-      // take the match that is closest to base 1, or the forward match if
-      // there is a tie
-      if(forward_search_result != -1 &&
-         (complement_search_result == -1 ||
-          forward_search_result <= complement_search_result)) 
-      {
-        match_first_base = forward_search_result + 1;
-        match_last_base = match_first_base + length () * 3 - 1;
-        match_strand = bases.getForwardStrand ();
-      }
-      else
-      {
-        match_first_base =
-          bases.getComplementPosition (complement_search_result + 1);
-        match_last_base = match_first_base - (length () * 3 - 1);
-        match_strand = bases.getReverseStrand ();
-      }
+      match_first_base = match_index + 1;
+      match_last_base = match_first_base + length() * 3 - 1;
+      match_strand = bases.getForwardStrand();
     }
 
     try 
@@ -516,240 +481,26 @@ public class AminoAcidSequence
   }
 
   /**
-   *  Search for this AminoAcidSequence in the given String of bases.  The
-   *  String is treated as a sequence of bases and this AminoAcidSequence is
-   *  searched for in each of the three reading frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @param search_backwards If true the search will move from last base to
-   *    first base, otherwise first to last.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int searchFor(final String bases_string,
-                       final int start_index,
-                       final boolean search_backwards) 
-  {
-    if(search_backwards) 
-      return searchBackwardFor(bases_string, start_index);
-    else 
-      return searchForwardFor(bases_string, start_index);
-  }
-
-  /**
-   *  Search forward for this AminoAcidSequence in the given String of bases.
-   *  The String is treated as a sequence of bases and this AminoAcidSequence
-   *  is searched for in each of the three reading frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @return The index of the match or -1 if there is no match.
+   *  Return the PatternSearch for this sequence, which matches it against
+   *  the translation of the codons in each reading frame of both strands.
+   *  'X' AAs in this sequence match any codon.
    **/
-  private int searchForwardFor(final String bases_string,
-                              final int start_index) 
+  private PatternSearch getSearch()
   {
-    final int pattern_base_length = length() * 3;
-
-    for(int base_index = start_index;
-        base_index <= bases_string.length() - pattern_base_length ;
-        ++base_index) 
+    if(search == null)
     {
-      boolean matched = true;
-
-      for(int offset = 0 ; offset < length(); ++offset) 
+      final String reverse_string =
+        new StringBuffer(amino_acid_string).reverse().toString();
+      search = new PatternSearch(amino_acid_string, reverse_string, 3,
+                                 new PatternSearch.SymbolMatcher()
       {
-        final char search_aa = amino_acid_string.charAt(offset);
-
-        // X matches any AA
-        if(search_aa == 'x' || search_aa == 'X') 
-          continue;
-
-        final char base1 = bases_string.charAt(base_index + offset * 3 + 0);
-        final char base2 = bases_string.charAt(base_index + offset * 3 + 1);
-        final char base3 = bases_string.charAt(base_index + offset * 3 + 2);
-
-        if(getCodonTranslation(base1, base2, base3) != search_aa)
+        public boolean matches(final char aa_char, final char search_aa)
         {
-          matched = false;
-          break;
+          return search_aa == 'x' || search_aa == 'X' || aa_char == search_aa;
         }
-      }
-
-      if(matched)
-        return base_index;
+      });
     }
-
-    return -1;
-  }
-
-  /**
-   *  Search backward for this AminoAcidSequence in the given String of bases.
-   *  The String is treated as a sequence of bases and this AminoAcidSequence
-   *  is searched for in each of the three reading frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int searchBackwardFor(final String bases_string,
-                               int start_index) 
-  {
-    if(bases_string.length() - start_index < length() * 3) 
-      start_index = bases_string.length() - length() * 3;
-
-    for(int base_index = start_index; base_index >= 0;
-        --base_index) 
-    {
-      boolean matched = true;
-
-      for(int offset = 0 ; offset < length() ; ++offset) 
-      {
-        final char search_aa = amino_acid_string.charAt(offset);
-
-        // X matches any AA
-        if(search_aa == 'x' || search_aa == 'X') 
-          continue;
-
-        final char base1 = bases_string.charAt(base_index + offset * 3 + 0);
-        final char base2 = bases_string.charAt(base_index + offset * 3 + 1);
-        final char base3 = bases_string.charAt(base_index + offset * 3 + 2);
-
-        if(getCodonTranslation(base1, base2, base3) != search_aa) 
-        {
-          matched = false;
-          break;
-        }
-      }
-
-      if(matched)
-        return base_index;
-    }
-
-    return -1;
-  }
-
-  /**
-   *  Search for this AminoAcidSequence in the reverse complement of the given
-   *  String of bases.  The String is treated as a sequence of bases and this
-   *  AminoAcidSequence is searched for in each of the three reading frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @param search_backwards If true the search will move from last base to
-   *    first base, otherwise first to last.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int reverseComplementSearchFor(final String bases_string,
-                                        final int start_index,
-                                        final boolean search_backwards) 
-  {
-    if(search_backwards) 
-      return reverseComplementSearchBackwardFor(bases_string, start_index);
-    else 
-      return reverseComplementSearchForwardFor(bases_string, start_index);
-  }
-
-  /**
-   *  Search forward for this AminoAcidSequence in the reverse complement of
-   *  the given String of bases.  The String is treated as a sequence of bases
-   *  and this AminoAcidSequence is searched for in each of the three reading
-   *  frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int reverseComplementSearchForwardFor(final String bases_string,
-                                               final int start_index) 
-  {
-    final int pattern_base_length = length() * 3;
-
-    for(int base_index = start_index ;
-        base_index <= bases_string.length() - pattern_base_length ;
-        ++base_index) 
-    {
-      boolean matched = true;
-
-      for(int offset = 0; offset < length (); ++offset)
-      {
-        final char base1 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 0));
-        final char base2 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 1));
-        final char base3 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 2));
-
-        final char amino_acid_char =
-          amino_acid_string.charAt(amino_acid_string.length() - offset - 1);
-
-        // X matches any AA
-        if(amino_acid_char == 'x' || amino_acid_char == 'X')
-          // X matches any AA
-          continue;
-
-        if(getCodonTranslation(base3, base2, base1) != amino_acid_char) 
-        {
-          matched = false;
-          break;
-        }
-      }
-
-      if(matched)
-        return base_index;
-    }
-
-    return -1;
-  }
-
-  /**
-   *  Search backward for this AminoAcidSequence in the reverse complement of
-   *  the given String of bases.  The String is treated as a sequence of bases
-   *  and this AminoAcidSequence is searched for in each of the three reading
-   *  frames.
-   *  @param bases_string Search this String for the amino acid sequence.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int reverseComplementSearchBackwardFor(final String bases_string,
-                                                int start_index) 
-  {
-    if(bases_string.length() - start_index < length() * 3) 
-      start_index = bases_string.length() - length() * 3;
-
-    for(int base_index = start_index; base_index >= 0;
-         --base_index)
-    {
-      boolean matched = true;
-
-      for(int offset = 0 ; offset < length() ; ++offset)
-      {
-        final char base1 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 0));
-        final char base2 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 1));
-        final char base3 =
-          Bases.complement(bases_string.charAt(base_index + offset * 3 + 2));
-
-        final char amino_acid_char =
-          amino_acid_string.charAt(amino_acid_string.length() - offset - 1);
-
-        // X matches any AA
-        if(amino_acid_char == 'x' || amino_acid_char == 'X') 
-          continue;
-
-        if(getCodonTranslation(base3, base2, base1) != amino_acid_char)
-        {
-          matched = false;
-          break;
-        }
-      }
-
-      if(matched) 
-        return base_index;
-    }
-
-    return -1;
+    return search;
   }
 
   /**
@@ -994,6 +745,11 @@ public class AminoAcidSequence
    **/
   private String amino_acid_string = null;
 
+  /**
+   *  Used by findMatch() to search the bases.  See getSearch().
+   **/
+  private PatternSearch search = null;
+
   /**
    *  The three letter abbreviated names for the amino acids and stop codons.
    *  The names here correspond to the letter codes at the same indices in
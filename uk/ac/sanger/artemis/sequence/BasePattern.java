@@ -83,12 +83,17 @@ public class BasePattern {
    *  length.
    **/
   public boolean matches (final String match_string) {
-    if (match_string.length () == pattern_string.length () &&
-        searchFor (match_string, 0) == 0) {
-      return true;
-    } else {
+    if (match_string.length () != pattern_string.length ()) {
       return false;
     }
+
+    for (int i = 0 ; i < pattern_string.length () ; ++i) {
+      if (!charMatch (match_string.charAt (i), pattern_string.charAt (i))) {
+        return false;
+      }
+    }
+
+    return true;
   }
 
   /**
@@ -115,17 +120,13 @@ public class BasePattern {
                                 final boolean search_backwards,
                                 final boolean search_fwd_strand,
                                 final boolean search_bwd_strand) {
-    final String bases_string = bases.toString ();
+    // search the bases forward for the pattern_string and its complement
 
-    // search the bases_string forward for the pattern_string and its
-    // complement
-
-    // the String index position in bases_string at which to start the search
-    // for this pattern
+    // the index in the bases at which to start the search for this pattern
     final int forward_search_start_index;
 
-    // the String index position in bases_string at which to start the search
-    // for the reverse complement of this position
+    // the index in the bases at which to start the search for the reverse
+    // complement of this pattern
     final int complement_search_start_index;
 
     if (search_backwards) {
@@ -159,78 +160,27 @@ public class BasePattern {
       }
     }
     
-    final int forward_search_result;
-    if(search_fwd_strand)
-      forward_search_result = searchFor (bases_string, pattern_string,
-                                         forward_search_start_index, search_backwards);
-    else
-      forward_search_result = -1;
-
-    final int complement_search_result;
-    if(search_bwd_strand)
-      complement_search_result = searchFor (bases_string, Bases.reverseComplement (pattern_string),
-                                            complement_search_start_index, search_backwards);
-    else
-      complement_search_result = -1;
-
-    final int match_first_base;
-    final int match_last_base;
-
-    final Strand match_strand;
-
-    if (forward_search_result == -1) {
-      if (complement_search_result == -1) {
-        // no match
-        return null;
-      }
-    }
-
+    final int forward_index =
+      search_fwd_strand ? forward_search_start_index : -1;
+    final int complement_index =
+      search_bwd_strand ? complement_search_start_index : -1;
+
+    // when searching backwards take the match that is closest to the end,
+    // or the complement match if there is a tie, otherwise take the match
+    // that is closest to base 1, or the forward match if there is a tie
+    final long match;
     if (search_backwards) {
-      // take the match that is closest to the end, or the complement match if
-      // there is a tie
-      if (complement_search_result != -1 &&
-          (forward_search_result == -1 ||
-           forward_search_result != -1 &&
-           complement_search_result >= forward_search_result)) {
-        match_first_base =
-          bases.getComplementPosition (complement_search_result + 1);
-        match_last_base = match_first_base - (pattern_string.length () - 1);
-        match_strand = bases.getReverseStrand ();
-      } else {
-        match_first_base = forward_search_result + 1;
-        match_last_base = match_first_base + pattern_string.length () - 1;
-        match_strand = bases.getForwardStrand ();
-      }
+      match = getSearch ().findLast (bases, forward_index, complement_index);
     } else {
-      // take the match that is closest to base 1, or the forward match if
-      // there is a tie
-      if (forward_search_result != -1 &&
-          (complement_search_result == -1 ||
-           complement_search_result != -1 &&
-           forward_search_result <= complement_search_result)) {
-        match_first_base = forward_search_result + 1;
-        match_last_base = match_first_base + pattern_string.length () - 1;
-        match_strand = bases.getForwardStrand ();
-      } else {
-        match_first_base =
-          bases.getComplementPosition (complement_search_result + 1);
-        match_last_base = match_first_base - (pattern_string.length () - 1);
-        match_strand = bases.getReverseStrand ();
-      }
+      match = getSearch ().findFirst (bases, forward_index, complement_index);
     }
 
-    if (match_last_base > search_end_position) {
-      // there is no match within the range
+    if (match == -1) {
+      // no match
       return null;
     }
 
-    try {
-      return new MarkerRange (match_strand,
-                              match_first_base,
-                              match_last_base);
-    } catch (OutOfRangeException e) {
-      throw new Error ("internal error - unexpected exception: " + e);
-    }
+    return makeMatchRange (bases, match, search_end_position);
   }
 
   /**
@@ -251,16 +201,35 @@ public class BasePattern {
                                         final int search_end_position) {
     final MarkerRangeVector return_vector = new MarkerRangeVector ();
 
-    Marker current_position_marker = search_start_marker;
+    // start where findMatch () would start a forward search
+    final int forward_search_start_index;
+    final int complement_search_start_index;
+
+    if (search_start_marker == null) {
+      forward_search_start_index = 0;
+      complement_search_start_index = 0;
+    } else {
+      forward_search_start_index = search_start_marker.getRawPosition ();
+      if (search_start_marker.getStrand ().isForwardStrand ()) {
+        complement_search_start_index =
+          search_start_marker.getRawPosition () - 1;
+      } else {
+        complement_search_start_index =
+          search_start_marker.getRawPosition ();
+      }
+    }
+
+    final long matches[] =
+      getSearch ().findAll (bases, forward_search_start_index,
+                            complement_search_start_index);
 
-    while (true) {
+    for (int i = 0 ; i < matches.length ; ++i) {
       final MarkerRange new_match_position =
-        findMatch (bases, current_position_marker, search_end_position, false, true, true);
+        makeMatchRange (bases, matches[i], search_end_position);
 
       if (new_match_position == null) {
         break;
       } else {
-        current_position_marker = new_match_position.getRawStart ();
         return_vector.add (new_match_position);
       }
     }
@@ -269,97 +238,61 @@ public class BasePattern {
   }
 
   /**
-   *  Search for this BasePattern in the given string.
-   *  @param bases_string Search this String for the pattern.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @return The index of the match or -1 if there is no match.
-   **/
-  private int searchFor (final String bases_string,
-                        final int start_index) {
-    return searchFor (bases_string, pattern_string, start_index, false);
-  }
-
-  /**
-   *  Search for a pattern in a string.
-   *  @param bases_string Search this String for the pattern.
-   *  @param pattern_string This contains the pattern to search for and may
-   *    include IUB base codes.
-   *  @param start_index This is the index in bases_string where the search
-   *    should start.
-   *  @param search_backwards If true the search will move from last base to
-   *    first base, otherwise first to last.
-   *  @return The index of the match or -1 if there is no match.
+   *  Make a MarkerRange for a match found by the PatternSearch.
+   *  @return The MarkerRange or null if the match extends past
+   *    search_end_position.
    **/
-  private int searchFor (final String bases_string,
-                         final String pattern_string,
-                         int start_index,
-                         final boolean search_backwards) {
+  private MarkerRange makeMatchRange (final Bases bases,
+                                      final long match,
+                                      final int search_end_position) {
+    final int match_index = PatternSearch.getIndex (match);
 
-    if (search_backwards) {
-      if (pattern_type == SIMPLE_PATTERN) {
-        // indexOf () is much faster in this case
-        return bases_string.lastIndexOf (pattern_string, start_index);
-      }
-
-      if (bases_string.length () - start_index < toString ().length ()) {
-        start_index = bases_string.length () - toString ().length ();
-      }
+    final int match_first_base;
+    final int match_last_base;
 
-      for (int i = start_index ; i > 0 ; --i) {
-        boolean match_failed = false;
-        for (int pattern_index = 0 ;
-             pattern_index < pattern_string.length () ;
-             ++pattern_index) {
-          if (charMatch (bases_string.charAt (i + pattern_index),
-                         pattern_string.charAt (pattern_index))) {
-            // OK, so continue with the inner loop
-          } else {
-            match_failed = true;
-            break;
-          }
-        }
+    final Strand match_strand;
 
-        if (match_failed) {
-          // go around main loop again
-        } else {
-          // found a match
-          return i;
-        }
-      }
+    if (PatternSearch.isReverse (match)) {
+      match_first_base = bases.getComplementPosition (match_index + 1);
+      match_last_base = match_first_base - (pattern_string.length () - 1);
+      match_strand = bases.getReverseStrand ();
     } else {
-      if (pattern_type == SIMPLE_PATTERN) {
-        // indexOf () is much faster in this case
-        return bases_string.indexOf (pattern_string, start_index);
-      }
+      match_first_base = match_index + 1;
+      match_last_base = match_first_base + pattern_string.length () - 1;
+      match_strand = bases.getForwardStrand ();
+    }
 
-      for (int i = start_index ;
-           i < bases_string.length () - pattern_string.length () + 1;
-           ++i) {
-        boolean match_failed = false;
-        for (int pattern_index = 0 ;
-             pattern_index < pattern_string.length () ;
-             ++pattern_index) {
-          
-          if (charMatch (bases_string.charAt (i + pattern_index),
-                         pattern_string.charAt (pattern_index))) {
-            // OK, so continue with the inner loop
-          } else {
-            match_failed = true;
-            break;
-          }
-        }
+    if (match_last_base > search_end_position) {
+      // there is no match within the range
+      return null;
+    }
 
-        if (match_failed) {
-          // go around main loop again
-        } else {
-          // found a match
-          return i;
-        }
-      }
+    try {
+      return new MarkerRange (match_strand,
+                              match_first_base,
+                              match_last_base);
+    } catch (OutOfRangeException e) {
+      throw new Error ("internal error - unexpected exception: " + e);
     }
+  }
 
-    return -1;
+  /**
+   *  Return the PatternSearch for this pattern and its reverse complement,
+   *  making it the first time this is called.
+   **/
+  private PatternSearch getSearch () {
+    if (search == null) {
+      search =
+        new PatternSearch (pattern_string,
+                           Bases.reverseComplement (pattern_string), 1,
+                           new PatternSearch.SymbolMatcher () {
+          public boolean matches (final char base_char,
+                                  final char pattern_char) {
+            return charMatch (base_char, pattern_char);
+          }
+        });
+    }
+    return search;
   }
 
   /**
@@ -368,8 +301,8 @@ public class BasePattern {
    *  @param pattern_char The single letter IUC base code to match the
    *    character against.
    **/
-  private boolean charMatch (final char base_char,
-                             final char pattern_char) {
+  private static boolean charMatch (final char base_char,
+                                    final char pattern_char) {
     switch (base_char) {
     case 'c':
       switch (pattern_char) {
@@ -449,6 +382,11 @@ public class BasePattern {
    *  The type of this pattern, SIMPLE_PATTERN, IUC_PATTERN etc.
    **/
   final int pattern_type;
+
+  /**
+   *  Used to search for this pattern.  See getSearch ().
+   **/
+  private PatternSearch search = null;
 }
 
 
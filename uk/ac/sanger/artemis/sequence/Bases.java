@@ -34,6 +34,7 @@ import uk.ac.sanger.artemis.io.StreamSequence;
 
 import org.biojava.bio.symbol.IllegalSymbolException;
 
+import java.nio.CharBuffer;
 import java.util.WeakHashMap;
 import java.util.Iterator;
 
@@ -89,6 +90,12 @@ public class Bases
    *  start codon on fwd or reverse strand repectively.
    **/
   private byte [] start_codon_cache = null;
+
+  /**
+   *  Cumulative base counts, built when first needed by getBaseCounts() and
+   *  cleared when the sequence changes.
+   **/
+  private CompositionIndex composition_index = null;
   
   /**
    *  Create a new Bases object.
@@ -174,6 +181,7 @@ public class Bases
     final SequenceChangeEvent event =
       new SequenceChangeEvent (this, SequenceChangeEvent.REVERSE_COMPLEMENT);
 
+    clearCompositionIndex ();
     fireSequenceChangeEvent (event);
   }
 
@@ -546,8 +554,8 @@ public class Bases
     if(range_end_index > sequence_length)
       range_end_index = sequence_length;
 
-    final char sequence_string[] =
-      getSequence().getCharSubSequence(range_start_index, range_end_index);
+    final CharSequence sequence_string =
+      getSequenceView(range_start_index, range_end_index);
 
     range_start_index--;
     range_end_index--;
@@ -710,7 +718,7 @@ public class Bases
  
     range_start_index--;
     range_end_index--;
-    char[] sequence_string = null;
+    CharSequence sequence_string = null;
 
     // whether a codon is a stp codon or not is cached in
     // 2 bit chunks (i.e. 4 per byte)
@@ -741,8 +749,8 @@ public class Bases
       if(bitty == 0)  // not cached yet
       {
         if(sequence_string == null)
-          sequence_string = getSequence().getCharSubSequence(range_start_index+1,
-                                                               range_end_index+1);
+          sequence_string = getSequenceView(range_start_index+1,
+                                            range_end_index+1);
 
         setCache(range_start_index, range_end_index, sequence_string, i,
                  query_codons, this_forward_codon_flags, ncurrent_byte, 
@@ -791,6 +799,17 @@ public class Bases
     return return_positions;
   }
 
+  /**
+   *  Return a read-only view of a range of the forward strand bases, which
+   *  avoids copying the bases where the Sequence supports it.
+   **/
+  private CharSequence getSequenceView(final int start, final int end)
+  {
+    if(getSequence() instanceof StreamSequence)
+      return ((StreamSequence)getSequence()).getSubSequenceView(start, end);
+    return CharBuffer.wrap(getSequence().getCharSubSequence(start, end));
+  }
+
   /**
    * Set the codon cache for forward and reverse strand.
    * @param range_start_index
@@ -804,7 +823,7 @@ public class Bases
    */
   private void setCache(int range_start_index, 
                         int range_end_index, 
-                        char[] sequence_string, 
+                        CharSequence sequence_string, 
                         int i,
                         final StringVector query_codons,
                         final byte[] this_codon_flags,
@@ -817,13 +836,13 @@ public class Bases
     // forward codon
     if(i < range_end_index-1)
       if(query_codons == null)
-        ismatch = isStopCodon(sequence_string[i-range_start_index],
-                              sequence_string[i-range_start_index+1],
-                              sequence_string[i-range_start_index+2]);
+        ismatch = isStopCodon(sequence_string.charAt(i-range_start_index),
+                              sequence_string.charAt(i-range_start_index+1),
+                              sequence_string.charAt(i-range_start_index+2));
       else
-        ismatch = isCodon(sequence_string[i-range_start_index],
-                          sequence_string[i-range_start_index+1],
-                          sequence_string[i-range_start_index+2],
+        ismatch = isCodon(sequence_string.charAt(i-range_start_index),
+                          sequence_string.charAt(i-range_start_index+1),
+                          sequence_string.charAt(i-range_start_index+2),
                           query_codons);
 
     if(ismatch)
@@ -841,15 +860,15 @@ public class Bases
 
     // reverse codon
     ismatch = false;
-    if(i-range_start_index > 1 && i-range_start_index < sequence_string.length)
+    if(i-range_start_index > 1 && i-range_start_index < sequence_string.length())
       if(query_codons == null)
-        ismatch = isStopCodon(complement(sequence_string[i-range_start_index]),
-                              complement(sequence_string[i-range_start_index-1]),
-                              complement(sequence_string[i-range_start_index-2]));
+        ismatch = isStopCodon(complement(sequence_string.charAt(i-range_start_index)),
+                              complement(sequence_string.charAt(i-range_start_index-1)),
+                              complement(sequence_string.charAt(i-range_start_index-2)));
       else
-        ismatch = isCodon(complement(sequence_string[i-range_start_index]),
-                          complement(sequence_string[i-range_start_index-1]),
-                          complement(sequence_string[i-range_start_index-2]),
+        ismatch = isCodon(complement(sequence_string.charAt(i-range_start_index)),
+                          complement(sequence_string.charAt(i-range_start_index-1)),
+                          complement(sequence_string.charAt(i-range_start_index-2)),
                           query_codons);
     if(ismatch)
       this_codon_flags[ncurrent_byte] =                // reverse strand stop/start = 3
@@ -939,6 +958,23 @@ public class Bases
   }
 
   public char[] getSubSequenceC(final Range range, final int direction)
+  {
+    final char[] sub_sequence = new char[range.getCount()];
+    getSubSequenceC(range, direction, sub_sequence);
+    return sub_sequence;
+  }
+
+  /**
+   *  Copy a sub sequence of the bases from this object into a buffer, as
+   *  getSubSequenceC(Range, int) but without allocating a new array.  Bases
+   *  outside the sequence are returned as '@'.
+   *  @param range The range of the bases to be extracted.
+   *  @param direction The direction of the returned sequence.
+   *  @param buffer The bases are returned at the start of this array, which
+   *    must have room for range.getCount() bases.
+   **/
+  public void getSubSequenceC(final Range range, final int direction,
+                              final char[] buffer)
   {
     final Range real_range;
 
@@ -949,51 +985,50 @@ public class Bases
     
     // we need to make sure that we pass in-range coordinates to
     // Sequence.getSubSequence()
-    final int sub_seq_start_index;
-    final int sub_seq_end_index;
+    final int sub_seq_start_index = Math.max(1, real_range.getStart());
+    final int sub_seq_end_index = Math.min(getLength(), real_range.getEnd());
+    final int count = range.getCount();
 
-    if(real_range.getStart () < 1) 
-      sub_seq_start_index = 1;
-    else 
-      sub_seq_start_index = real_range.getStart ();
-
-    if(real_range.getEnd () > getLength ()) 
-      sub_seq_end_index = getLength ();
-    else
-      sub_seq_end_index = real_range.getEnd ();
-
-    char[] sub_sequence = 
-      getSequence().getCharSubSequence(sub_seq_start_index, sub_seq_end_index);
-
-    if(real_range.getStart() < 1) 
+    // sanity checks - if the user asks for more bases than we
+    // have, we return the symbol "@" for the out-of-range bases.
+    int offset = sub_seq_start_index - real_range.getStart();
+    if(offset > count)
+      offset = count;
+    for(int i = 0; i < offset; ++i)
+      buffer[i] = '@';
+
+    int i = offset;
+    if(sub_seq_end_index >= sub_seq_start_index)
     {
-      final int dummy_base_count = 1 - real_range.getStart();
-      final char[] dummy_bases = new char[dummy_base_count+sub_sequence.length];
-
-      for(int i = 0; i < dummy_base_count; ++i)
-        dummy_bases[i] = '@';
-
-      System.arraycopy(sub_sequence, 0, dummy_bases, dummy_base_count, sub_sequence.length);
-      sub_sequence = dummy_bases;
+      if(getSequence() instanceof StreamSequence)
+        ((StreamSequence)getSequence()).getChars(sub_seq_start_index,
+            sub_seq_end_index, buffer, offset);
+      else
+        System.arraycopy(getSequence().getCharSubSequence(sub_seq_start_index,
+            sub_seq_end_index), 0, buffer, offset,
+            sub_seq_end_index - sub_seq_start_index + 1);
+      i += sub_seq_end_index - sub_seq_start_index + 1;
     }
 
-    if(real_range.getEnd() > getLength()) 
-    {
-      final int dummy_base_count = real_range.getEnd() - getLength();
-      final char[] dummy_bases = new char[dummy_base_count+sub_sequence.length];
+    for(; i < count; ++i)
+      buffer[i] = '@';
 
-      for(int i = sub_sequence.length; i < dummy_bases.length; ++i)
-        dummy_bases[i] = '@';
+    if(FORWARD != direction)
+      reverseComplement(buffer, count);
+  }
 
-      System.arraycopy(sub_sequence, 0, dummy_bases, 0, sub_sequence.length);
-      sub_sequence = dummy_bases;
+  /**
+   *  Reverse complement the first length bases of a char array in place.
+   **/
+  private static void reverseComplement(final char[] sequence_char,
+                                        final int length)
+  {
+    for(int i = 0, j = length - 1; i <= j; ++i, --j)
+    {
+      final char base = complement(sequence_char[i]);
+      sequence_char[i] = complement(sequence_char[j]);
+      sequence_char[j] = base;
     }
-
-
-    if(FORWARD == direction)
-      return sub_sequence;
-    else
-      return reverseComplement(sub_sequence);
   }
 
   /**
@@ -1025,8 +1060,6 @@ public class Bases
     final int range_start_index = range.getStart();
     final int range_end_index   = range.getEnd();
 
-    // ensure we just get subsequence of interest
-    ((StreamSequence)getSequence()).forceReset();
     // sequence to reverse complement
     final char[] sub_sequence = reverseComplement(getSequence().getCharSubSequence(
                                               range_start_index, range_end_index));  
@@ -1066,6 +1099,7 @@ public class Bases
       new SequenceChangeEvent(this, SequenceChangeEvent.CONTIG_REVERSE_COMPLEMENT,
                               range, sub_sequence.length);
 
+    clearCompositionIndex();
     fireSequenceChangeEvent(event);
   }
 
@@ -1140,6 +1174,7 @@ public class Bases
       new SequenceChangeEvent(SequenceChangeEvent.CONTIG_REORDER,
                               new_base_pos, range);
 
+    clearCompositionIndex();
     fireSequenceChangeEvent(event);
   }
 
@@ -1175,6 +1210,7 @@ public class Bases
                                range.getStart (),
                                removed_bases);
 
+    clearCompositionIndex ();
     fireSequenceChangeEvent (event);
 
     return removed_bases;
@@ -1223,6 +1259,7 @@ public class Bases
                                real_position,
                                real_bases);
 
+    clearCompositionIndex ();
     fireSequenceChangeEvent (event);
 
     return;
@@ -1295,6 +1332,53 @@ public class Bases
     }
   }
 
+  /**
+   *  Return the number of each base in a range of a strand, indexed as
+   *  getIndexOfBase() (t, c, a, g).  Bases outside the sequence and bases
+   *  other than t, c, a and g are not counted.
+   *  @param range The inclusive range of bases to count.
+   *  @param direction The strand (FORWARD or REVERSE) the range refers to.
+   *  @param counts The counts are returned in this array, which should be
+   *    four long.
+   **/
+  public void getBaseCounts (final Range range, final int direction,
+                             final int [] counts) {
+    final CompositionIndex index = getCompositionIndex ();
+
+    if (direction == FORWARD) {
+      index.getCounts (range.getStart (), range.getEnd (), counts);
+    } else {
+      // count the forward strand then swap t/a and c/g
+      final int raw_start = getComplementPosition (range.getEnd ());
+      final int raw_end = getComplementPosition (range.getStart ());
+      index.getCounts (raw_start, raw_end, counts);
+
+      for (int i = 0 ; i < 2 ; ++i) {
+        final int tmp = counts[i];
+        counts[i] = counts[i + 2];
+        counts[i + 2] = tmp;
+      }
+    }
+  }
+
+  /**
+   *  Return the composition index of the sequence, creating it if necessary.
+   **/
+  private synchronized CompositionIndex getCompositionIndex () {
+    if (composition_index == null ||
+        composition_index.getLength () != getLength ()) {
+      composition_index = new CompositionIndex (getSequence ());
+    }
+    return composition_index;
+  }
+
+  /**
+   *  Discard the composition index after the sequence has changed.
+   **/
+  private synchronized void clearCompositionIndex () {
+    composition_index = null;
+  }
+
   /**
    *  Return the average gc percent for the sequence.
    **/
@@ -0,0 +1,225 @@
+/* CompositionIndex.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.sequence;
+
+import uk.ac.sanger.artemis.io.Sequence;
+import uk.ac.sanger.artemis.io.StreamSequence;
+
+/**
+ *  Cumulative counts of the t, c, a and g bases of a sequence, so that the
+ *  composition of any range can be found without reading the bases.  The
+ *  bases are packed 2 bits per base into blocks of 64.  Each block has the
+ *  counts at its start relative to a 32 bit checkpoint every 65536 bases, and
+ *  a count within a block is a bit count of the packed bases.
+ *  Bases other than t, c, a and g are not counted.
+ **/
+class CompositionIndex
+{
+  /** Bases per block (1 << BLOCK_SHIFT). */
+  private static final int BLOCK_SHIFT = 6;
+
+  /** Blocks per checkpoint (1 << CHECKPOINT_SHIFT). */
+  private static final int CHECKPOINT_SHIFT = 10;
+
+  /** Number of bases read from the sequence at a time when building. */
+  private static final int READ_SIZE = 960;
+
+  /** High bit of the 2 bit code of each base in a block. */
+  private final long hi_bits[];
+
+  /** Low bit of the 2 bit code of each base in a block. */
+  private final long lo_bits[];
+
+  /**
+   *  Set for each base in a block that is not t, c, a or g.  This is null
+   *  if there are no such bases.
+   **/
+  private long other_bits[];
+
+  /** Counts at the start of each checkpoint, 4 per checkpoint. */
+  private final int checkpoint_counts[];
+
+  /** Counts at the start of each block relative to its checkpoint. */
+  private final char block_counts[];
+
+  /** The length of the sequence. */
+  private final int length;
+
+  /**
+   *  Read the sequence and create the index.
+   **/
+  CompositionIndex(final Sequence sequence)
+  {
+    length = sequence.length();
+
+    final int nblocks = (length >> BLOCK_SHIFT) + 1;
+    hi_bits = new long[nblocks];
+    lo_bits = new long[nblocks];
+    checkpoint_counts = new int[((nblocks >> CHECKPOINT_SHIFT) + 1) * 4];
+    block_counts = new char[nblocks * 4];
+
+    final int counts[] = new int[4];
+    final char buffer[] = new char[READ_SIZE];
+    for(int start = 1; start <= length; start += READ_SIZE)
+    {
+      final int end = Math.min(start + READ_SIZE - 1, length);
+      final char bases[];
+      if(sequence instanceof StreamSequence)
+      {
+        ((StreamSequence) sequence).getChars(start, end, buffer, 0);
+        bases = buffer;
+      }
+      else
+        bases = sequence.getCharSubSequence(start, end);
+
+      for(int i = 0; i < end - start + 1; i++)
+      {
+        final int pos = start - 1 + i;
+        final int block = pos >> BLOCK_SHIFT;
+        if((pos & ((1 << BLOCK_SHIFT) - 1)) == 0)
+          setBlockCounts(block, counts);
+
+        final long bit = 1L << (pos & ((1 << BLOCK_SHIFT) - 1));
+        final int code = getCode(bases[i]);
+        if(code < 0)
+        {
+          if(other_bits == null)
+            other_bits = new long[nblocks];
+          other_bits[block] |= bit;
+          continue;
+        }
+
+        if((code & 2) != 0)
+          hi_bits[block] |= bit;
+        if((code & 1) != 0)
+          lo_bits[block] |= bit;
+        ++counts[code];
+      }
+    }
+
+    if((length & ((1 << BLOCK_SHIFT) - 1)) == 0)
+      setBlockCounts(length >> BLOCK_SHIFT, counts);
+  }
+
+  /**
+   *  Return the 2 bit code of a base, in the order used by
+   *  Bases.getIndexOfBase() (t, c, a, g), or -1 for any other character.
+   **/
+  private static int getCode(final char base)
+  {
+    switch(base)
+    {
+      case 't':
+        return 0;
+      case 'c':
+        return 1;
+      case 'a':
+        return 2;
+      case 'g':
+        return 3;
+    }
+    return -1;
+  }
+
+  /**
+   *  Record the counts at the start of a block.
+   **/
+  private void setBlockCounts(final int block, final int counts[])
+  {
+    final int checkpoint = block >> CHECKPOINT_SHIFT;
+    if((block & ((1 << CHECKPOINT_SHIFT) - 1)) == 0)
+      System.arraycopy(counts, 0, checkpoint_counts, checkpoint * 4, 4);
+
+    for(int i = 0; i < 4; i++)
+      block_counts[block * 4 + i] =
+        (char) (counts[i] - checkpoint_counts[checkpoint * 4 + i]);
+  }
+
+  /**
+   *  Add the number of each base in the first n bases of the sequence to
+   *  counts, which is indexed as Bases.getIndexOfBase() (t, c, a, g).
+   **/
+  private void addPrefixCounts(final int n, final int counts[], final int sign)
+  {
+    final int block = n >> BLOCK_SHIFT;
+    final int checkpoint = block >> CHECKPOINT_SHIFT;
+    final int offset = n & ((1 << BLOCK_SHIFT) - 1);
+
+    long mask = 0;
+    long hi = 0;
+    long lo = 0;
+    if(offset > 0)
+    {
+      mask = (1L << offset) - 1;
+      if(other_bits != null)
+        mask &= ~other_bits[block];
+      hi = hi_bits[block];
+      lo = lo_bits[block];
+    }
+
+    for(int i = 0; i < 4; i++)
+    {
+      int count = checkpoint_counts[checkpoint * 4 + i] +
+                  block_counts[block * 4 + i];
+      if(mask != 0)
+      {
+        final long match = mask & ((i & 2) != 0 ? hi : ~hi) &
+                                  ((i & 1) != 0 ? lo : ~lo);
+        count += Long.bitCount(match);
+      }
+      counts[i] += sign * count;
+    }
+  }
+
+  /**
+   *  Return the number of each base between a pair of positions on the
+   *  forward strand, indexed as Bases.getIndexOfBase() (t, c, a, g).
+   *  Positions outside the sequence are ignored.
+   *  @param start The start base (included in the range).
+   *  @param end The end base (included in the range).
+   *  @param counts The counts are returned in this array of length 4.
+   **/
+  void getCounts(int start, int end, final int counts[])
+  {
+    for(int i = 0; i < 4; i++)
+      counts[i] = 0;
+
+    if(start < 1)
+      start = 1;
+    if(end > length)
+      end = length;
+    if(end < start)
+      return;
+
+    addPrefixCounts(end, counts, 1);
+    addPrefixCounts(start - 1, counts, -1);
+  }
+
+  /**
+   *  Return the length of the sequence that this index was made from.
+   **/
+  int getLength()
+  {
+    return length;
+  }
+}
@@ -0,0 +1,494 @@
+/* PatternSearch.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.sequence;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uk.ac.sanger.artemis.io.Sequence;
+import uk.ac.sanger.artemis.io.StreamSequence;
+
+/**
+ *  Searches the bases of a sequence for a pattern on both strands in one
+ *  pass, reading the bases from the Sequence a block at a time rather than
+ *  as one String.  A pattern is a string of units: single bases for a
+ *  BasePattern, or codons (in every frame) for an AminoAcidSequence.  The
+ *  units are matched with the Shift-And algorithm, which keeps a bit for
+ *  each prefix of the pattern that matches the latest units.  Patterns
+ *  longer than 64 units use the bits for their last 64 units and the rest
+ *  is checked for each possible match.
+ *  <p>
+ *  A match is given as the index in the forward strand of its lowest base,
+ *  and matches are found in order of index with forward strand matches
+ *  before reverse strand matches at the same index.
+ **/
+class PatternSearch
+{
+  /** Number of bases read from the sequence at a time. */
+  private static final int READ_SIZE = 1 << 16;
+
+  /** Number of bases read by the first read of a search. */
+  private static final int FIRST_READ_SIZE = 1 << 10;
+
+  /** Bases searched by each task of findAll(). */
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  /**
+   *  Matches the symbols of a sequence (bases or amino acids) against the
+   *  characters of a pattern.
+   **/
+  interface SymbolMatcher
+  {
+    boolean matches(char symbol, char pattern_char);
+  }
+
+  /**
+   *  Receives the matches of scan().
+   **/
+  private interface MatchListener
+  {
+    /**
+     *  @param index the index of the lowest base of the match
+     *  @param reverse true for a match on the reverse strand
+     *  @return false to stop the search
+     **/
+    boolean matchFound(int index, boolean reverse);
+  }
+
+  /** The forward and reverse strand patterns. */
+  private final String patterns[];
+
+  private final SymbolMatcher matcher;
+
+  /** 1 if the units are bases, 3 if they are codons. */
+  private final int unit_length;
+
+  /** The length of the pattern in bases. */
+  private final int base_length;
+
+  /**
+   *  The number of units at the start of the pattern that are not covered
+   *  by the bits and must be checked separately.
+   **/
+  private final int unchecked_length;
+
+  /**
+   *  For each strand, the bits of the units that match each symbol below
+   *  128, followed by the bits for all other symbols.
+   **/
+  private final long masks[][];
+
+  /** The bit that is set when the whole pattern matches. */
+  private final long match_bit;
+
+  /**
+   *  Create a new PatternSearch.
+   *  @param forward_pattern the pattern to match on the forward strand
+   *  @param reverse_pattern the pattern to match in the forward strand for
+   *    a match on the reverse strand, ie. the reverse complement of the
+   *    forward pattern
+   *  @param unit_length 1 to match the pattern against single bases or 3 to
+   *    match it against the translations of codons
+   **/
+  PatternSearch(final String forward_pattern,
+                final String reverse_pattern,
+                final int unit_length,
+                final SymbolMatcher matcher)
+  {
+    this.patterns = new String[] { forward_pattern, reverse_pattern };
+    this.matcher = matcher;
+    this.unit_length = unit_length;
+    this.base_length = forward_pattern.length() * unit_length;
+    this.unchecked_length = Math.max(0, forward_pattern.length() - 64);
+
+    final int bit_count = forward_pattern.length() - unchecked_length;
+    match_bit = 1L << (bit_count - 1);
+
+    masks = new long[2][129];
+    for(int strand = 0; strand < 2; strand++)
+    {
+      for(int symbol = 0; symbol < 129; symbol++)
+      {
+        for(int i = 0; i < bit_count; i++)
+        {
+          if(matcher.matches((char) symbol,
+                             patterns[strand].charAt(unchecked_length + i)))
+            masks[strand][symbol] |= 1L << i;
+        }
+      }
+    }
+  }
+
+  /**
+   *  Return the length of the pattern in bases.
+   **/
+  int getBaseLength()
+  {
+    return base_length;
+  }
+
+  /**
+   *  Find the first match at or after the given indices.
+   *  @param forward_start the lowest index of a forward strand match, or -1
+   *    to not search the forward strand
+   *  @param reverse_start the lowest index of a reverse strand match, or -1
+   *    to not search the reverse strand
+   *  @return the match as encode() returns it, or -1 if there is none
+   **/
+  long findFirst(final Bases bases,
+                 final int forward_start, final int reverse_start)
+  {
+    final long result[] = { -1 };
+    final MatchListener listener = new MatchListener()
+    {
+      public boolean matchFound(final int index, final boolean reverse)
+      {
+        if(index < (reverse ? reverse_start : forward_start))
+          return true;
+        result[0] = encode(index, reverse);
+        return false;
+      }
+    };
+
+    final int from = lowest(forward_start, reverse_start);
+    if(from >= 0)
+      scan(bases.getSequence(), from, bases.getLength() - 1,
+           forward_start >= 0, reverse_start >= 0, listener);
+    return result[0];
+  }
+
+  /**
+   *  Find the last match at or before the given indices.  The sequence is
+   *  searched a block at a time from the end.
+   *  @param forward_end the highest index of a forward strand match, or -1
+   *    to not search the forward strand
+   *  @param reverse_end the highest index of a reverse strand match, or -1
+   *    to not search the reverse strand
+   *  @return the match as encode() returns it, or -1 if there is none
+   **/
+  long findLast(final Bases bases,
+                final int forward_end, final int reverse_end)
+  {
+    final int last_start = Math.min(Math.max(forward_end, reverse_end),
+                                    bases.getLength() - base_length);
+    if(last_start < 0)
+      return -1;
+
+    final long result[] = { -1 };
+    final MatchListener listener = new MatchListener()
+    {
+      public boolean matchFound(final int index, final boolean reverse)
+      {
+        if(index > last_start)
+          return false;
+        if(index <= (reverse ? reverse_end : forward_end))
+          result[0] = encode(index, reverse);
+        return true;
+      }
+    };
+
+    // search windows of matches that end at the previous window, starting
+    // small so that a match close to the start is found quickly
+    int window_size = FIRST_READ_SIZE;
+    for(int window_end = last_start; window_end >= 0;
+        window_end -= window_size, window_size = Math.min(window_size * 2, READ_SIZE))
+    {
+      final int from = Math.max(0, window_end - window_size + 1);
+      scan(bases.getSequence(), from, window_end + base_length - 1,
+           forward_end >= from, reverse_end >= from, listener);
+      if(result[0] >= 0)
+        break;
+    }
+    return result[0];
+  }
+
+  /**
+   *  Find all the matches at or after the given indices.  Long sequences
+   *  are searched in chunks in parallel.
+   *  @param forward_start the lowest index of a forward strand match, or -1
+   *    to not search the forward strand
+   *  @param reverse_start the lowest index of a reverse strand match, or -1
+   *    to not search the reverse strand
+   *  @return the matches as encode() returns them, in order
+   **/
+  long[] findAll(final Bases bases,
+                 final int forward_start, final int reverse_start)
+  {
+    final int from = lowest(forward_start, reverse_start);
+    final int length = bases.getLength();
+    if(from < 0 || from > length - base_length)
+      return new long[0];
+
+    final Sequence sequence = bases.getSequence();
+    final Vector<Callable<long[]>> chunks = new Vector<Callable<long[]>>();
+    for(int start = from; start < length; start += CHUNK_SIZE)
+    {
+      // a chunk has the matches that start in it, so it is searched as far
+      // as the end of a match at its last base
+      final int chunk_start = start;
+      final int chunk_end =
+        (int) Math.min((long) start + CHUNK_SIZE + base_length - 2, length - 1);
+      chunks.add(new Callable<long[]>()
+      {
+        public long[] call()
+        {
+          final MatchCollector collector =
+            new MatchCollector(forward_start, reverse_start);
+          scan(sequence, chunk_start, chunk_end,
+               forward_start >= 0, reverse_start >= 0, collector);
+          return collector.getMatches();
+        }
+      });
+    }
+
+    if(chunks.size() == 1)
+      return call(chunks.get(0));
+
+    final ForkJoinPool pool =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try
+    {
+      final Vector<Future<long[]>> results = new Vector<Future<long[]>>();
+      for(int i = 0; i < chunks.size(); i++)
+        results.add(pool.submit(chunks.get(i)));
+
+      long matches[] = new long[0];
+      for(int i = 0; i < results.size(); i++)
+      {
+        final long chunk_matches[] = results.get(i).get();
+        final int count = matches.length;
+        matches = Arrays.copyOf(matches, count + chunk_matches.length);
+        System.arraycopy(chunk_matches, 0, matches, count, chunk_matches.length);
+      }
+      return matches;
+    }
+    catch(ExecutionException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e.getCause());
+    }
+    catch(InterruptedException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  private static long[] call(final Callable<long[]> callable)
+  {
+    try
+    {
+      return callable.call();
+    }
+    catch(Exception e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+  }
+
+  /**
+   *  Return a match as a long: the index of its lowest base times two, plus
+   *  one if it is on the reverse strand.
+   **/
+  static long encode(final int index, final boolean reverse)
+  {
+    return ((long) index << 1) | (reverse ? 1 : 0);
+  }
+
+  /**
+   *  Return the index of the lowest base of a match from encode().
+   **/
+  static int getIndex(final long match)
+  {
+    return (int) (match >> 1);
+  }
+
+  /**
+   *  Return true if a match from encode() is on the reverse strand.
+   **/
+  static boolean isReverse(final long match)
+  {
+    return (match & 1) != 0;
+  }
+
+  /**
+   *  Return the lower of two indices that are not -1, or -1 if both are.
+   **/
+  private static int lowest(final int index1, final int index2)
+  {
+    if(index1 < 0)
+      return index2;
+    if(index2 < 0)
+      return index1;
+    return Math.min(index1, index2);
+  }
+
+  /**
+   *  Pass the matches that lie within the given range of the sequence to a
+   *  listener, in order.
+   *  @param from the index of the first base to search
+   *  @param to the index of the last base to search
+   **/
+  private void scan(final Sequence sequence, final int from, final int to,
+                    final boolean search_forward, final boolean search_reverse,
+                    final MatchListener listener)
+  {
+    // the buffer keeps the bases of the match that ends at the last base
+    // read, which is needed to check the units not covered by the bits
+    final int keep_length = base_length - 1;
+
+    // read a little at first in case there is a match near the start
+    int read_size = FIRST_READ_SIZE;
+    char buffer[] = new char[keep_length + read_size];
+
+    // for each strand, the bits in each frame
+    final long state[][] = new long[2][unit_length];
+
+    // the index of the base at the start of the buffer
+    int buffer_index = from;
+    int buffer_count = 0;
+
+    for(int start = from; start <= to; start += read_size)
+    {
+      if(start > from && read_size < READ_SIZE)
+      {
+        read_size *= 2;
+        buffer = Arrays.copyOf(buffer, keep_length + read_size);
+      }
+      final int end = Math.min(start + read_size - 1, to);
+
+      final int keep = Math.min(buffer_count, keep_length);
+      System.arraycopy(buffer, buffer_count - keep, buffer, 0, keep);
+      buffer_index += buffer_count - keep;
+      buffer_count = keep + end - start + 1;
+
+      if(sequence instanceof StreamSequence)
+        ((StreamSequence) sequence).getChars(start + 1, end + 1, buffer, keep);
+      else
+        System.arraycopy(sequence.getCharSubSequence(start + 1, end + 1), 0,
+                         buffer, keep, end - start + 1);
+
+      for(int i = keep; i < buffer_count; i++)
+      {
+        if(i + buffer_index - from < unit_length - 1)
+          continue;     // not a whole codon yet
+
+        final int frame = (i + buffer_index) % unit_length;
+        final int match_index = i + buffer_index - base_length + 1;
+
+        for(int strand = 0; strand < 2; strand++)
+        {
+          if(strand == 0 ? !search_forward : !search_reverse)
+            continue;
+
+          final char symbol = getSymbol(buffer, i, strand);
+          final long bits = (state[strand][frame] << 1 | 1) &
+                            masks[strand][symbol < 128 ? symbol : 128];
+          state[strand][frame] = bits;
+
+          if((bits & match_bit) != 0 && match_index >= from &&
+             (unchecked_length == 0 ||
+              matchesUnchecked(buffer, match_index - buffer_index, strand)) &&
+             !listener.matchFound(match_index, strand == 1))
+            return;
+        }
+      }
+    }
+  }
+
+  /**
+   *  Return the symbol of the unit that ends at the given index of the
+   *  buffer: the base or the translation of the codon on the given strand.
+   **/
+  private char getSymbol(final char buffer[], final int i, final int strand)
+  {
+    if(unit_length == 1)
+      return buffer[i];
+
+    if(strand == 0)
+      return AminoAcidSequence.getCodonTranslation(buffer[i - 2],
+                                                   buffer[i - 1],
+                                                   buffer[i]);
+    else
+      return AminoAcidSequence.getCodonTranslation(Bases.complement(buffer[i]),
+                                                   Bases.complement(buffer[i - 1]),
+                                                   Bases.complement(buffer[i - 2]));
+  }
+
+  /**
+   *  Return true if the units at the start of the pattern that are not
+   *  covered by the bits match.
+   *  @param start the index in the buffer of the first base of the match
+   **/
+  private boolean matchesUnchecked(final char buffer[], final int start,
+                                   final int strand)
+  {
+    for(int i = 0; i < unchecked_length; i++)
+    {
+      final char symbol =
+        getSymbol(buffer, start + (i + 1) * unit_length - 1, strand);
+      if(!matcher.matches(symbol, patterns[strand].charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   *  Collects the matches at or after the start indices.
+   **/
+  private static class MatchCollector implements MatchListener
+  {
+    private final int forward_start;
+    private final int reverse_start;
+
+    private long matches[] = new long[16];
+    private int count = 0;
+
+    MatchCollector(final int forward_start, final int reverse_start)
+    {
+      this.forward_start = forward_start;
+      this.reverse_start = reverse_start;
+    }
+
+    public boolean matchFound(final int index, final boolean reverse)
+    {
+      if(index < (reverse ? reverse_start : forward_start))
+        return true;
+      if(count == matches.length)
+        matches = Arrays.copyOf(matches, count * 2);
+      matches[count++] = encode(index, reverse);
+      return true;
+    }
+
+    long[] getMatches()
+    {
+      return Arrays.copyOf(matches, count);
+    }
+  }
+}
@@ -621,6 +621,16 @@ public class Strand {
   public char[] getRawSubSequenceC (Range range) {
     return getBases ().getSubSequenceC (range, FORWARD);
   }
+
+  /**
+   *  Copy a sub-sequence of bases from the Bases object that underlies this
+   *  Strand object into a buffer, which must have room for range.getCount ()
+   *  bases.
+   *  @param range The inclusive range of bases to return.
+   **/
+  public void getRawSubSequenceC (Range range, char[] buffer) {
+    getBases ().getSubSequenceC (range, FORWARD, buffer);
+  }
   
   /**
    *  Return a sub-sequence of bases from this Bases object that underlies
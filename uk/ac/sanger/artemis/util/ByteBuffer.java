@@ -111,6 +111,8 @@ public class ByteBuffer
   */
   public byte[] getBytes()
   { 
+    if(buff == null)
+      return new byte[0];
     byte[] newbuff = new byte[count];
     System.arraycopy(buff, 0, newbuff, 0, count);
     return newbuff;
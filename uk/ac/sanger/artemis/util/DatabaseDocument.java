@@ -27,14 +27,23 @@ package uk.ac.sanger.artemis.util;
 import uk.ac.sanger.artemis.Options;
 import uk.ac.sanger.artemis.io.ChadoCanonicalGene;
 import uk.ac.sanger.artemis.io.DocumentEntry;
+import uk.ac.sanger.artemis.io.FeatureVector;
 import uk.ac.sanger.artemis.io.GFF3Encoder;
 import uk.ac.sanger.artemis.io.GFFStreamFeature;
+import uk.ac.sanger.artemis.io.InvalidRelationException;
+import uk.ac.sanger.artemis.io.Key;
+import uk.ac.sanger.artemis.io.Location;
 import uk.ac.sanger.artemis.io.PartialSequence;
+import uk.ac.sanger.artemis.io.Qualifier;
+import uk.ac.sanger.artemis.io.QualifierLazyLoading;
+import uk.ac.sanger.artemis.io.QualifierVector;
 import uk.ac.sanger.artemis.io.Range;
+import uk.ac.sanger.artemis.io.RangeVector;
 import uk.ac.sanger.artemis.io.ReadFormatException;
 import uk.ac.sanger.artemis.chado.ArtemisUtils;
 import uk.ac.sanger.artemis.chado.ChadoCvTermView;
 import uk.ac.sanger.artemis.chado.ChadoTransactionManager;
+import uk.ac.sanger.artemis.chado.ClusterLazyQualifierValue;
 import uk.ac.sanger.artemis.chado.FeatureForUpdatingResidues;
 import uk.ac.sanger.artemis.chado.IBatisDAO;
 import uk.ac.sanger.artemis.chado.JdbcDAO;
@@ -43,6 +52,7 @@ import uk.ac.sanger.artemis.chado.ChadoTransaction;
 import uk.ac.sanger.artemis.components.database.DatabaseEntrySource;
 import uk.ac.sanger.artemis.components.genebuilder.GeneUtils;
 import uk.ac.sanger.artemis.components.Splash;
+import uk.ac.sanger.artemis.components.genebuilder.ortholog.MatchPanel;
 import uk.ac.sanger.artemis.util.DatabaseLocationParser;
 
 import org.gmod.schema.sequence.Feature;
@@ -55,6 +65,7 @@ import org.gmod.schema.sequence.FeatureCvTerm;
 import org.gmod.schema.sequence.FeatureCvTermProp;
 import org.gmod.schema.sequence.FeatureCvTermDbXRef;
 import org.gmod.schema.sequence.FeatureCvTermPub;
+import org.gmod.schema.sequence.FeatureDbXRef;
 import org.gmod.schema.cv.Cv;
 import org.gmod.schema.cv.CvTerm;
 import org.gmod.schema.general.Db;
@@ -77,12 +88,18 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.Vector;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Iterator;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPasswordField;
@@ -114,6 +131,24 @@ public class DatabaseDocument extends Document
 
   private ByteBuffer gff_buff;
 
+  /** features still to be returned by readFeatures() */
+  private ChadoFeatureReader featureReader;
+
+  /** features for the entries to split into, see getGffDocuments() */
+  private ChadoFeatureReader[] featureReaders;
+
+  /** number of features made by each call to readFeatures() */
+  private static final int FEATURE_BATCH_SIZE = 1000;
+
+  /** number of side table queries to run at the same time */
+  private static final int SIDE_TABLE_THREADS = 4;
+
+  /** number of features looked up, or writes sent, together by commit() */
+  private static final int COMMIT_BATCH_SIZE = 500;
+
+  /** data access object set by setDAO() for the tests */
+  private GmodDAO localDAO;
+
   /** entries to split into - each is given a name and the features within the entry */
   private static String[][][] TYPES = 
   { 
@@ -152,6 +187,10 @@ public class DatabaseDocument extends Document
   public static String EXONMODEL  = "exon-model";
   public static String TRANSCRIPT = "mRNA";
   public static boolean CHADO_INFER_CDS = false;
+  /** make features directly from chado rather than reading them as GFF */
+  public static boolean CHADO_DIRECT_LOAD = true;
+  /** look up the features to commit together and batch the simple writes */
+  public static boolean CHADO_BATCH_COMMIT = true;
   
   /** list of controlled_curation CV names */
   private static Vector<String> cvControledCuratioNames;
@@ -568,19 +607,35 @@ public class DatabaseDocument extends Document
         
         entryBuffer.append("##sequence-region " + srcFeature.getUniqueName() +
             " 1 " + srcFeature.getResidues().length + "\n");
-        gff_buffer = getGff(dao, srcFeature);
-        
-        if(splitGFFEntry)
+        final ChadoFeatureReader chadoFeatures = getChadoFeatures(dao, srcFeature);
+
+        if(CHADO_DIRECT_LOAD)
         {
-          if(gff_buffer[0].size() > 0)
-            entryBuffer.append(gff_buffer[0]);
+          // the features are made by readFeatures() rather than from GFF
+          if(splitGFFEntry)
+          {
+            featureReaders = getFeatureReaders(dao, chadoFeatures);
+            featureReader = featureReaders[0];
+          }
+          else
+            featureReader = chadoFeatures;
         }
         else
         {
-          for(int i = 0; i < gff_buffer.length; i++)
+          gff_buffer = getGff(dao, chadoFeatures);
+
+          if(splitGFFEntry)
+          {
+            if(gff_buffer[0].size() > 0)
+              entryBuffer.append(gff_buffer[0]);
+          }
+          else
           {
-            if(gff_buffer[i].size() > 0)
-              entryBuffer.append(gff_buffer[i]);
+            for(int i = 0; i < gff_buffer.length; i++)
+            {
+              if(gff_buffer[i].size() > 0)
+                entryBuffer.append(gff_buffer[i]);
+            }
           }
         }
 
@@ -629,23 +684,31 @@ public class DatabaseDocument extends Document
                                             String schema)
   {
     int nentries = 0;
-    for(int i = 1; i < gff_buffer.length; i++)
+    for(int i = 1; i < TYPES.length + 1; i++)
     {
-      if(gff_buffer[i].size() > 0)
+      if(getGffSize(i) > 0)
         nentries++;
     }
 
     DatabaseDocument[] new_docs = new DatabaseDocument[nentries];
     nentries = 0;
-    for(int i = 1; i < gff_buffer.length; i++)
+    for(int i = 1; i < TYPES.length + 1; i++)
     {
-      if(gff_buffer[i].size() == 0)
+      if(getGffSize(i) == 0)
         continue;
 
       String name = TYPES[i-1][0][0];
 
-      new_docs[nentries] = new DatabaseDocument(location, pfield, id, schema,
-                                                gff_buffer[i], name);
+      if(featureReaders != null)
+      {
+        // features are made by readFeatures() so there are no GFF lines
+        new_docs[nentries] = new DatabaseDocument(location, pfield, id, schema,
+                                                  new ByteBuffer(), name);
+        new_docs[nentries].featureReader = featureReaders[i];
+      }
+      else
+        new_docs[nentries] = new DatabaseDocument(location, pfield, id, schema,
+                                                  gff_buffer[i], name);
       nentries++;
     }
 
@@ -653,17 +716,27 @@ public class DatabaseDocument extends Document
   }
 
   /**
-   * Create an array of GFF lines.
+   * Return the size of the GFF, or the number of features, for the entry
+   * with the given index (0 for this entry, otherwise the index in TYPES
+   * plus one).
+   */
+  private int getGffSize(final int index)
+  {
+    if(featureReaders != null)
+      return featureReaders[index].features.size();
+    return gff_buffer[index].size();
+  }
+
+  /**
+   * Read the features located on the source feature, and the dbxrefs,
+   * synonyms etc. of the features unless they are lazily loaded.
    * @param dao                 the data access object 
-   * @param parentFeatureID     the parent identifier for the features to 
-   *                            extract
-   * @return   the <code>ByteBuffer</code> array of GFF lines
+   * @param srcFeature          the source feature
+   * @return   the features and the data to make them into GFF
    */
-  private ByteBuffer[] getGff(final GmodDAO dao, 
-                              final Feature srcFeature)
+  private ChadoFeatureReader getChadoFeatures(final GmodDAO dao, 
+                                              final Feature srcFeature)
   {
-    //final int srcfeature_id = Integer.parseInt(srcFeatureId);
-    
     logger4j.debug("BUILD GFF FEATURES");
     
     // build srcfeature object
@@ -687,11 +760,8 @@ public class DatabaseDocument extends Document
     child.setCvTerm(cvTerm);
     
     final List<Feature> featList = dao.getFeaturesByLocatedOnFeature(child);
-    final ByteBuffer[] buffers = new ByteBuffer[TYPES.length + 1];
-    for(int i = 0; i < buffers.length; i++)
-      buffers[i] = new ByteBuffer();
-    
-    ByteBuffer this_buff;
+    final ChadoFeatureReader reader = new ChadoFeatureReader(dao,
+        srcFeature.getUniqueName(), featList, progress_listener);
     int feature_size = featList.size();
     final Hashtable<String, Feature> id_store = new Hashtable<String, Feature>(feature_size);
 
@@ -701,84 +771,163 @@ public class DatabaseDocument extends Document
       Feature feat = featList.get(i);
       id_store.put(Integer.toString(feat.getFeatureId()), feat);
     }
+    reader.id_store = id_store;
 
     if(lazyFeatureLoad)
+    {
       idFeatureStore = id_store;
+      return reader;
+    }
 
     // get all dbrefs & synonyms etc
-    final Hashtable<Integer, List<String>> dbxrefs;
-    final Hashtable<Integer, List<FeatureSynonym>> synonym;
-    final Hashtable<Integer, List<FeatureCvTerm>> featureCvTerms;
-    final Hashtable<Integer, List<FeatureCvTermDbXRef>> featureCvTermDbXRefs;
-    Hashtable<Integer, List<FeatureCvTermPub>> featureCvTermPubs = null;
-    final Hashtable<Integer, List<FeaturePub>> featurePubs;
-    final List<PubDbXRef> pubDbXRefs;
-    
-    if(lazyFeatureLoad)
-    {
-      dbxrefs = null;
-      synonym = null;
-      featureCvTerms = null;
-      featureCvTermDbXRefs = null;
-      featureCvTermPubs = null;
-      featurePubs = null;
-      pubDbXRefs = null;
-    }
-    else
+    readSideTables(dao, srcFeature, reader);
+    return reader;
+  }
+
+  /**
+   * Read the dbxrefs, synonyms, controlled vocabulary terms and publications
+   * of the features on a source feature into the reader. The queries are
+   * independent so they are run at the same time, each taking its own
+   * connection from the iBatis pool, and the time taken is that of the
+   * slowest rather than the sum of them all.
+   * @param dao          the data access object 
+   * @param srcFeature   the source feature
+   * @param reader       the reader to set the side tables of
+   */
+  private void readSideTables(final GmodDAO dao, 
+                              final Feature srcFeature,
+                              final ChadoFeatureReader reader)
+  {
+    final ExecutorService executor = 
+      Executors.newFixedThreadPool(SIDE_TABLE_THREADS);
+    try
     {
-      dbxrefs= IBatisDAO.mergeDbXRef(
-        dao.getFeatureDbXRefsBySrcFeature(srcFeature));
-      synonym = getAllFeatureSynonyms(
-        dao.getFeatureSynonymsBySrcFeature(srcFeature));
-      featureCvTerms = getFeatureCvTermsByFeature(dao, 
-        dao.getFeatureCvTermsBySrcFeature(srcFeature));
-      featureCvTermDbXRefs = getFeatureCvTermDbXRef(dao, 
-        dao.getFeatureCvTermDbXRefBySrcFeature(srcFeature));
-      
-      try
+      final Future<IntHashMap<List<String>>> dbxrefs = executor.submit(
+          new Callable<IntHashMap<List<String>>>()
       {
-        featureCvTermPubs = getFeatureCvTermPub(dao, 
-          dao.getFeatureCvTermPubBySrcFeature(srcFeature));
-      } 
-      catch(Exception e) 
-      { 
-        e.printStackTrace();
-        if(dao instanceof IBatisDAO)
+        public IntHashMap<List<String>> call()
+        {
+          return mergeDbXRef(dao.getFeatureDbXRefsBySrcFeature(srcFeature));
+        }
+      });
+      final Future<IntHashMap<List<FeatureSynonym>>> synonym = executor.submit(
+          new Callable<IntHashMap<List<FeatureSynonym>>>()
+      {
+        public IntHashMap<List<FeatureSynonym>> call()
+        {
+          return getAllFeatureSynonyms(
+              dao.getFeatureSynonymsBySrcFeature(srcFeature));
+        }
+      });
+      final Future<IntHashMap<List<FeatureCvTerm>>> featureCvTerms = executor.submit(
+          new Callable<IntHashMap<List<FeatureCvTerm>>>()
+      {
+        public IntHashMap<List<FeatureCvTerm>> call()
+        {
+          return getFeatureCvTermsByFeature(dao, 
+              dao.getFeatureCvTermsBySrcFeature(srcFeature));
+        }
+      });
+      final Future<IntHashMap<List<FeatureCvTermDbXRef>>> featureCvTermDbXRefs = 
+        executor.submit(new Callable<IntHashMap<List<FeatureCvTermDbXRef>>>()
+      {
+        public IntHashMap<List<FeatureCvTermDbXRef>> call()
+        {
+          return getFeatureCvTermDbXRef(dao, 
+              dao.getFeatureCvTermDbXRefBySrcFeature(srcFeature));
+        }
+      });
+      final Future<IntHashMap<List<FeatureCvTermPub>>> featureCvTermPubs = 
+        executor.submit(new Callable<IntHashMap<List<FeatureCvTermPub>>>()
+      {
+        public IntHashMap<List<FeatureCvTermPub>> call()
         {
           try
           {
-            ((IBatisDAO) dao).endTransaction();
-            ((IBatisDAO) dao).startTransaction();
+            return getFeatureCvTermPub(dao, 
+                dao.getFeatureCvTermPubBySrcFeature(srcFeature));
+          }
+          catch(Exception e)
+          {
+            // this runs outside the transaction of the main query so
+            // that is not affected
+            e.printStackTrace();
+            return null;
           }
-          catch(SQLException sqle){}  
         }
-      }
-      featurePubs = getFeaturePubs(dao,
-          dao.getFeaturePubsBySrcFeature(srcFeature));
-      pubDbXRefs= dao.getPubDbXRef();
+      });
+      final Future<IntHashMap<List<FeaturePub>>> featurePubs = executor.submit(
+          new Callable<IntHashMap<List<FeaturePub>>>()
+      {
+        public IntHashMap<List<FeaturePub>> call()
+        {
+          return getFeaturePubs(dao,
+              dao.getFeaturePubsBySrcFeature(srcFeature));
+        }
+      });
+      final Future<List<PubDbXRef>> pubDbXRefs = executor.submit(
+          new Callable<List<PubDbXRef>>()
+      {
+        public List<PubDbXRef> call()
+        {
+          return dao.getPubDbXRef();
+        }
+      });
+
+      reader.dbxrefs = dbxrefs.get();
+      reader.synonym = synonym.get();
+      reader.featureCvTerms = featureCvTerms.get();
+      reader.featureCvTermDbXRefs = featureCvTermDbXRefs.get();
+      reader.featureCvTermPubs = featureCvTermPubs.get();
+      reader.featurePubs = featurePubs.get();
+      reader.pubDbXRefs = pubDbXRefs.get();
+    }
+    catch(InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch(ExecutionException e)
+    {
+      if(e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      executor.shutdownNow();
     }
+  }
+
+  /**
+   * Create an array of GFF lines.
+   * @param dao                 the data access object 
+   * @param chadoFeatures       the features read by getChadoFeatures()
+   * @return   the <code>ByteBuffer</code> array of GFF lines
+   */
+  private ByteBuffer[] getGff(final GmodDAO dao, 
+                              final ChadoFeatureReader chadoFeatures)
+  {
+    final List<Feature> featList = chadoFeatures.features;
+    final ByteBuffer[] buffers = new ByteBuffer[TYPES.length + 1];
+    for(int i = 0; i < buffers.length; i++)
+      buffers[i] = new ByteBuffer();
+    
+    int feature_size = featList.size();
     
     // create gff byte stream
     for(int i = 0; i < feature_size; i++)
     { 
       // select buffer based on feature type
       Feature feat = featList.get(i);
-      int type_id = feat.getCvTerm().getCvTermId();
-      String typeName = getCvtermName(type_id, dao, gene_builder);
-      this_buff = buffers[0];
-
-      for(int j = 0; j < TYPES.length; j++)
-      {
-        for(int k=0; k<TYPES[j][1].length; k++)
-          if(TYPES[j][1][k].equals(typeName))
-            this_buff = buffers[j+1];
-      }
-
-      chadoToGFF(feat, srcFeature.getUniqueName(),
-                 dbxrefs, synonym, featureCvTerms,
-                 pubDbXRefs, featureCvTermDbXRefs, featureCvTermPubs,
-                 featurePubs,
-                 id_store, dao, 
+      final ByteBuffer this_buff = buffers[getTypesIndex(feat, dao)];
+
+      chadoToGFF(feat, chadoFeatures.srcFeatureName,
+                 chadoFeatures.dbxrefs, chadoFeatures.synonym,
+                 chadoFeatures.featureCvTerms,
+                 chadoFeatures.pubDbXRefs, chadoFeatures.featureCvTermDbXRefs,
+                 chadoFeatures.featureCvTermPubs,
+                 chadoFeatures.featurePubs,
+                 chadoFeatures.id_store, dao, 
                  feat.getFeatureLoc(), this_buff, gene_builder);
        
       if( i%10 == 0 || i == feature_size-1)
@@ -790,28 +939,119 @@ public class DatabaseDocument extends Document
   }
 
   /**
-   * Get a <code>Hashtable</code> of feature_id keys and their corresponding 
+   * Split the features into one reader for this entry and one for each of
+   * the TYPES entries.
+   * @param dao                 the data access object 
+   * @param chadoFeatures       the features read by getChadoFeatures()
+   * @return   the <code>ChadoFeatureReader</code> array
+   */
+  private ChadoFeatureReader[] getFeatureReaders(final GmodDAO dao,
+                                                 final ChadoFeatureReader chadoFeatures)
+  {
+    final List<Feature> featList = chadoFeatures.features;
+    final List<List<Feature>> lists = new Vector<List<Feature>>();
+    for(int i = 0; i < TYPES.length + 1; i++)
+      lists.add(new Vector<Feature>());
+
+    for(int i = 0; i < featList.size(); i++)
+    {
+      Feature feat = featList.get(i);
+      lists.get(getTypesIndex(feat, dao)).add(feat);
+    }
+
+    final ChadoFeatureReader[] readers = new ChadoFeatureReader[lists.size()];
+    for(int i = 0; i < readers.length; i++)
+      readers[i] = new ChadoFeatureReader(chadoFeatures, lists.get(i));
+    return readers;
+  }
+
+  /**
+   * Return 0 for features that go in this entry when splitting the GFF into
+   * entries, otherwise the index in TYPES plus one.
+   */
+  private int getTypesIndex(final Feature feat, final GmodDAO dao)
+  {
+    int type_id = feat.getCvTerm().getCvTermId();
+    String typeName = getCvtermName(type_id, dao, gene_builder);
+    int index = 0;
+
+    for(int j = 0; j < TYPES.length; j++)
+    {
+      for(int k=0; k<TYPES[j][1].length; k++)
+        if(TYPES[j][1][k].equals(typeName))
+          index = j+1;
+    }
+    return index;
+  }
+
+  /**
+   * Return the next batch of features made directly from the chado features
+   * by getInputStream(), rather than written to and read from the stream as
+   * GFF.
+   * @return  the features or null if there are no more
+   * @throws ReadFormatException if a feature has an invalid location
+   */
+  public FeatureVector readFeatures()
+         throws ReadFormatException
+  {
+    if(featureReader == null)
+      return null;
+
+    final FeatureVector features =
+      featureReader.readFeatures(FEATURE_BATCH_SIZE, gene_builder);
+    if(features == null)
+      featureReader = null;
+    return features;
+  }
+
+  /**
+   * Get a map of feature_id keys and their corresponding dbxrefs, as
+   * db:accession strings.
+   * @param list  a <code>List</code> of <code>FeatureDbXRef</code> objects,
+   *              as the DAO returns them.
+   */
+  private static IntHashMap<List<String>> mergeDbXRef(final List<?> list)
+  {
+    final IntHashMap<List<String>> dbxrefs = new IntHashMap<List<String>>();
+    for(Object o : list)
+    {
+      final FeatureDbXRef dbxref = (FeatureDbXRef) o;
+      final int featureId = dbxref.getFeature().getFeatureId();
+      List<String> value = dbxrefs.get(featureId);
+      if(value == null)
+      {
+        value = new Vector<String>();
+        dbxrefs.put(featureId, value);
+      }
+      value.add(dbxref.getDbXRef().getDb().getName() + ":" + 
+                dbxref.getDbXRef().getAccession());
+    }
+    return dbxrefs;
+  }
+
+  /**
+   * Get a map of feature_id keys and their corresponding 
    * feature_synonym
    * 
    */
-  private Hashtable<Integer, List<FeatureSynonym>> getAllFeatureSynonyms(final List<FeatureSynonym> list) 
+  private IntHashMap<List<FeatureSynonym>> getAllFeatureSynonyms(final List<?> list) 
   {   
-    Hashtable<Integer, List<FeatureSynonym>> synonym = new Hashtable<Integer, List<FeatureSynonym>>();
-    Integer featureId;
+    IntHashMap<List<FeatureSynonym>> synonym = new IntHashMap<List<FeatureSynonym>>();
+    int featureId;
     List<FeatureSynonym> value;
     FeatureSynonym alias;
     
     for(int i=0; i<list.size(); i++)
     {
-      alias = list.get(i);
-      featureId = new Integer(alias.getFeature().getFeatureId());
-      if(synonym.containsKey(featureId))
-        value = synonym.get(featureId);
-      else
+      alias = (FeatureSynonym) list.get(i);
+      featureId = alias.getFeature().getFeatureId();
+      value = synonym.get(featureId);
+      if(value == null)
+      {
         value = new Vector<FeatureSynonym>();
-      
+        synonym.put(featureId, value);
+      }
       value.add(alias);
-      synonym.put(featureId, value);
     }
     
     return synonym;
@@ -823,25 +1063,25 @@ public class DatabaseDocument extends Document
    * @param list
    * @return
    */
-  private Hashtable<Integer, List<FeaturePub>> getFeaturePubs(final GmodDAO dao,
-                                                              final List<FeaturePub> list)
+  private IntHashMap<List<FeaturePub>> getFeaturePubs(final GmodDAO dao,
+                                                      final List<?> list)
   {
-    final Hashtable<Integer, List<FeaturePub>> featurePubs = new Hashtable<Integer, List<FeaturePub>>();
-    Integer featureId;
+    final IntHashMap<List<FeaturePub>> featurePubs = new IntHashMap<List<FeaturePub>>();
+    int featureId;
     List<FeaturePub> value;
     FeaturePub featurePub;
     
     for(int i=0; i<list.size(); i++)
     {
-      featurePub = list.get(i);
-      featureId = new Integer(featurePub.getFeature().getFeatureId());
-      if(featurePubs.containsKey(featureId))
-        value = featurePubs.get(featureId);
-      else
+      featurePub = (FeaturePub) list.get(i);
+      featureId = featurePub.getFeature().getFeatureId();
+      value = featurePubs.get(featureId);
+      if(value == null)
+      {
         value = new Vector<FeaturePub>();
-      
+        featurePubs.put(featureId, value);
+      }
       value.add(featurePub);
-      featurePubs.put(featureId, value);
     }
     
     return featurePubs;
@@ -852,26 +1092,26 @@ public class DatabaseDocument extends Document
    * @param chadoFeature null if we want them all
    * @return
    */
-  private Hashtable<Integer, List<FeatureCvTerm>> getFeatureCvTermsByFeature(
+  private IntHashMap<List<FeatureCvTerm>> getFeatureCvTermsByFeature(
                                 final GmodDAO dao, 
-                                final List<FeatureCvTerm> list)
+                                final List<?> list)
   {
-    Hashtable<Integer, List<FeatureCvTerm>> featureCvTerms = new Hashtable<Integer, List<FeatureCvTerm>>();
-    Integer featureId;
+    IntHashMap<List<FeatureCvTerm>> featureCvTerms = new IntHashMap<List<FeatureCvTerm>>();
+    int featureId;
     List<FeatureCvTerm> value;
     FeatureCvTerm feature_cvterm;
     
     for(int i=0; i<list.size(); i++)
     {
-      feature_cvterm = list.get(i);
-      featureId = new Integer(feature_cvterm.getFeature().getFeatureId());
-      if(featureCvTerms.containsKey(featureId))
-        value = featureCvTerms.get(featureId);
-      else
+      feature_cvterm = (FeatureCvTerm) list.get(i);
+      featureId = feature_cvterm.getFeature().getFeatureId();
+      value = featureCvTerms.get(featureId);
+      if(value == null)
+      {
         value = new Vector<FeatureCvTerm>();
-      
+        featureCvTerms.put(featureId, value);
+      }
       value.add(feature_cvterm);
-      featureCvTerms.put(featureId, value);
     }
     return featureCvTerms;
   }
@@ -882,64 +1122,64 @@ public class DatabaseDocument extends Document
    * @param chadoFeature null if we want all
    * @return
    */
-  private Hashtable<Integer, List<FeatureCvTermDbXRef>> getFeatureCvTermDbXRef(
-      final GmodDAO dao, final List<FeatureCvTermDbXRef> list)
+  private IntHashMap<List<FeatureCvTermDbXRef>> getFeatureCvTermDbXRef(
+      final GmodDAO dao, final List<?> list)
   {
     if(list == null || list.size() == 0)
       return null;
     
-    Integer featureCvTermDbXRefId;
+    int featureCvTermId;
     List<FeatureCvTermDbXRef> value;
     
-    Hashtable<Integer, List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = 
-      new Hashtable<Integer, List<FeatureCvTermDbXRef>>(list.size());
+    IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = 
+      new IntHashMap<List<FeatureCvTermDbXRef>>(list.size());
     for(int i=0; i<list.size(); i++)
     {
       FeatureCvTermDbXRef featureCvTermDbXRef =
-        list.get(i);
+        (FeatureCvTermDbXRef) list.get(i);
       
-      featureCvTermDbXRefId = new Integer(
-          featureCvTermDbXRef.getFeatureCvTerm().getFeatureCvTermId());
+      featureCvTermId = 
+          featureCvTermDbXRef.getFeatureCvTerm().getFeatureCvTermId();
       
-      if(featureCvTermDbXRefs.containsKey(featureCvTermDbXRefId))
-        value = featureCvTermDbXRefs.get(featureCvTermDbXRefId);
-      else
+      value = featureCvTermDbXRefs.get(featureCvTermId);
+      if(value == null)
+      {
         value = new Vector<FeatureCvTermDbXRef>();
-      
+        featureCvTermDbXRefs.put(featureCvTermId, value);
+      }
       value.add(featureCvTermDbXRef);
-      featureCvTermDbXRefs.put(featureCvTermDbXRefId, value);
     }
      
     return featureCvTermDbXRefs;
   }
   
-  private Hashtable<Integer, List<FeatureCvTermPub>> getFeatureCvTermPub(
+  private IntHashMap<List<FeatureCvTermPub>> getFeatureCvTermPub(
                                         final GmodDAO dao,
-                                        final List<FeatureCvTermPub> list)
+                                        final List<?> list)
   {
     if(list == null || list.size() == 0)
       return null;
 
-    Integer featureCvTermId;
+    int featureCvTermId;
     List<FeatureCvTermPub> value;
 
-    Hashtable<Integer, List<FeatureCvTermPub>> featureCvTermPubs = 
-      new Hashtable<Integer, List<FeatureCvTermPub>>(list.size());
+    IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs = 
+      new IntHashMap<List<FeatureCvTermPub>>(list.size());
     for(int i=0; i<list.size(); i++)
     {
       FeatureCvTermPub featureCvTermPub =
-        list.get(i);
+        (FeatureCvTermPub) list.get(i);
       
-      featureCvTermId = new Integer(
-          featureCvTermPub.getFeatureCvTerm().getFeatureCvTermId());
+      featureCvTermId = 
+          featureCvTermPub.getFeatureCvTerm().getFeatureCvTermId();
       
-      if(featureCvTermPubs.containsKey(featureCvTermId))
-        value = featureCvTermPubs.get(featureCvTermId);
-      else
+      value = featureCvTermPubs.get(featureCvTermId);
+      if(value == null)
+      {
         value = new Vector<FeatureCvTermPub>();
-      
+        featureCvTermPubs.put(featureCvTermId, value);
+      }
       value.add(featureCvTermPub);
-      featureCvTermPubs.put(featureCvTermId, value);
     }
     return featureCvTermPubs;
   }
@@ -973,17 +1213,17 @@ public class DatabaseDocument extends Document
     featureLoc.setFmax(new Integer(range.getEnd()));
     srcFeature.setFeatureLoc(featureLoc);
     
-    Hashtable<Integer, List<String>> dbxrefs = IBatisDAO.mergeDbXRef(
+    IntHashMap<List<String>> dbxrefs = mergeDbXRef(
         dao.getFeatureDbXRefsBySrcFeature(srcFeature));
-    Hashtable<Integer, List<FeatureSynonym>> synonym = getAllFeatureSynonyms(
+    IntHashMap<List<FeatureSynonym>> synonym = getAllFeatureSynonyms(
         dao.getFeatureSynonymsBySrcFeature(srcFeature));
-    Hashtable<Integer, List<FeatureCvTerm>> featureCvTerms = getFeatureCvTermsByFeature(dao, 
+    IntHashMap<List<FeatureCvTerm>> featureCvTerms = getFeatureCvTermsByFeature(dao, 
         dao.getFeatureCvTermsBySrcFeature(srcFeature));
-    Hashtable<Integer, List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = getFeatureCvTermDbXRef(dao, 
+    IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = getFeatureCvTermDbXRef(dao, 
         dao.getFeatureCvTermDbXRefBySrcFeature(srcFeature));
-    Hashtable<Integer, List<FeatureCvTermPub>> featureCvTermPubs = getFeatureCvTermPub(dao, 
+    IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs = getFeatureCvTermPub(dao, 
         dao.getFeatureCvTermPubBySrcFeature(srcFeature));
-    Hashtable<Integer, List<FeaturePub>> featurePubs = getFeaturePubs(dao,
+    IntHashMap<List<FeaturePub>> featurePubs = getFeaturePubs(dao,
         dao.getFeaturePubsBySrcFeature(srcFeature));
 
     List<PubDbXRef> pubDbXRefs = dao.getPubDbXRef();
@@ -1177,19 +1417,19 @@ public class DatabaseDocument extends Document
       logger4j.debug("FEATURELOC NOT FOUND :: "+chadoFeature.getUniqueName());
       return null;
     }
-    final Hashtable<Integer, List<String>> dbxrefs = IBatisDAO.mergeDbXRef(
+    final IntHashMap<List<String>> dbxrefs = mergeDbXRef(
         dao.getFeatureDbXRefsByFeatureUniquename(chadoFeature.getUniqueName()));
     
-    final Hashtable<Integer, List<FeatureSynonym>> synonym = getAllFeatureSynonyms( 
+    final IntHashMap<List<FeatureSynonym>> synonym = getAllFeatureSynonyms( 
         dao.getFeatureSynonymsByFeatureUniquename(chadoFeature.getUniqueName()));
     
-    final Hashtable<Integer, List<FeatureCvTerm>> featureCvTerms = getFeatureCvTermsByFeature(dao, 
+    final IntHashMap<List<FeatureCvTerm>> featureCvTerms = getFeatureCvTermsByFeature(dao, 
                                   dao.getFeatureCvTermsByFeature(chadoFeature));
     
-    final Hashtable<Integer, List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = getFeatureCvTermDbXRef(dao, 
+    final IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs = getFeatureCvTermDbXRef(dao, 
                              dao.getFeatureCvTermDbXRefByFeature(chadoFeature));
     
-    Hashtable<Integer, List<FeatureCvTermPub>> featureCvTermPubs = null;
+    IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs = null;
     
     try
     {
@@ -1198,7 +1438,7 @@ public class DatabaseDocument extends Document
     }
     catch(RuntimeException re){re.printStackTrace();}
 
-    final Hashtable<Integer, List<FeaturePub>> featurePubs = getFeaturePubs(dao,
+    final IntHashMap<List<FeaturePub>> featurePubs = getFeaturePubs(dao,
         dao.getFeaturePubsByFeature(chadoFeature));
     List<PubDbXRef> pubDbXRefs= new Vector<PubDbXRef>(); //dao.getPubDbXRef();
     chadoToGFF(chadoFeature, parentName, dbxrefs, synonym, featureCvTerms,
@@ -1224,74 +1464,230 @@ public class DatabaseDocument extends Document
   private static void chadoToGFF(
       final Feature feat,
       final String parentFeature,
-      final Hashtable<Integer, List<String>> dbxrefs,
-      final Hashtable<Integer, List<FeatureSynonym>> synonym,
-      final Hashtable<Integer, List<FeatureCvTerm>> featureCvTerms,
+      final IntHashMap<List<String>> dbxrefs,
+      final IntHashMap<List<FeatureSynonym>> synonym,
+      final IntHashMap<List<FeatureCvTerm>> featureCvTerms,
       final List<PubDbXRef>  pubDbXRefs,
-      final Hashtable<Integer, List<FeatureCvTermDbXRef>> featureCvTermDbXRefs,
-      final Hashtable<Integer, List<FeatureCvTermPub>> featureCvTermPubs,
-      final Hashtable<Integer, List<FeaturePub>> featurePubs,
+      final IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs,
+      final IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs,
+      final IntHashMap<List<FeaturePub>> featurePubs,
       final Hashtable<String, Feature> id_store,
       final GmodDAO dao,
       final FeatureLoc featureloc,
       final ByteBuffer this_buff,
       final boolean gene_builder)
   {
-    String gff_source = null;
+    final int fmin          = featureloc.getFmin().intValue() + 1;
+    final int fmax          = featureloc.getFmax().intValue();
+    final int type_id       = feat.getCvTerm().getCvTermId();
+    final Short strand      = featureloc.getStrand();
+    final Integer phase     = featureloc.getPhase();
+    final String typeName   = getCvtermName(type_id, dao, gene_builder);
+    final String timelastmodified = Long.toString(feat.getTimeLastModified().getTime());
+
+    // the attributes are made first as they give the GFF source
+    final ByteBuffer attr_buff = new ByteBuffer();
+    final String gff_source = addChadoAttributes(new GFFAttributes(attr_buff),
+        feat, dbxrefs, synonym, featureCvTerms, pubDbXRefs,
+        featureCvTermDbXRefs, featureCvTermPubs, featurePubs, id_store, dao,
+        featureloc, gene_builder);
+
+    this_buff.append(parentFeature + "\t"); // seqid
     
+    if(gff_source != null)
+      this_buff.append(gff_source+"\t");    // source
+    else
+      this_buff.append("chado\t");
+    
+    if(typeName.equals("exon"))
+      this_buff.append(EXONMODEL + "\t");   // type
+    else
+      this_buff.append(typeName + "\t");    // type
+    this_buff.append(fmin + "\t");          // start
+    this_buff.append(fmax + "\t");          // end
+    this_buff.append(".\t");                // score
+    if(strand.equals( new Short((short)-1)) )                        // strand
+      this_buff.append("-\t");
+    else if(strand.equals( new Short((short)1)) )
+      this_buff.append("+\t");
+    else
+      this_buff.append(".\t");
+
+    if(phase == null)
+      this_buff.append(".\t");               // phase
+    else
+      this_buff.append(phase+"\t"); 
+
+    this_buff.append(attr_buff);
+    this_buff.append("timelastmodified=" + timelastmodified + ";");
+    this_buff.append("\n");
+  }
+  
+  /**
+   * Make a GFFStreamFeature from the chado feature, with the same key,
+   * location and qualifiers as reading the GFF line made by chadoToGFF().
+   * @param feat           Chado feature
+   * @param parentFeature  parent of this feature
+   * @param dbxrefs        hashtable containing dbxrefs
+   * @param synonym        hashtable containing synonynms
+   * @param featureCvTerms
+   * @param pubDbXRefs
+   * @param featureCvTermDbXRefs
+   * @param id_store       id store for looking up parent names
+   * @param dao            chado data access
+   * @param featureloc     feature location for this chado feature
+   * @return the new feature
+   * @throws ReadFormatException if the location is invalid
+   */
+  private static GFFStreamFeature chadoToGFFStreamFeature(
+      final Feature feat,
+      final String parentFeature,
+      final IntHashMap<List<String>> dbxrefs,
+      final IntHashMap<List<FeatureSynonym>> synonym,
+      final IntHashMap<List<FeatureCvTerm>> featureCvTerms,
+      final List<PubDbXRef>  pubDbXRefs,
+      final IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs,
+      final IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs,
+      final IntHashMap<List<FeaturePub>> featurePubs,
+      final Hashtable<String, Feature> id_store,
+      final GmodDAO dao,
+      final FeatureLoc featureloc,
+      final boolean gene_builder) throws ReadFormatException
+  {
     final int fmin          = featureloc.getFmin().intValue() + 1;
     final int fmax          = featureloc.getFmax().intValue();
     final int type_id       = feat.getCvTerm().getCvTermId();
     final Short strand      = featureloc.getStrand();
     final Integer phase     = featureloc.getPhase();
-    final String name       = feat.getUniqueName();
     final String typeName   = getCvtermName(type_id, dao, gene_builder);
+
+    if(fmin > fmax)
+      throw new ReadFormatException("start position is greater than end " +
+          "position: " + fmin + " > " + fmax + " for " + feat.getUniqueName());
+
+    final QualifierVector qualifiers = new QualifierVector();
+    final String gff_source = addChadoAttributes(
+        new QualifierAttributes(qualifiers),
+        feat, dbxrefs, synonym, featureCvTerms, pubDbXRefs,
+        featureCvTermDbXRefs, featureCvTermPubs, featurePubs, id_store, dao,
+        featureloc, gene_builder);
+
+    if(phase != null && phase.intValue() >= 0 && phase.intValue() <= 2)
+      addAttribute(qualifiers, "codon_start", Integer.toString(phase.intValue() + 1));
+
+    // cluster/ortholog/paralog qualifiers are loaded lazily
+    final QualifierVector clusters = new QualifierVector();
+    for(int i = qualifiers.size() - 1; i >= 0; i--)
+    {
+      if(MatchPanel.isClusterTag(qualifiers.get(i).getName()))
+        clusters.add(0, qualifiers.remove(i));
+    }
+
+    final String key;
+    if(typeName.equals("exon"))
+      key = EXONMODEL;
+    else
+      key = typeName;
+
+    try
+    {
+      final GFFStreamFeature gff_feature = new GFFStreamFeature(new Key(key),
+          new Location(new RangeVector(new Range(fmin, fmax)),
+                       strand != null && strand.shortValue() == -1),
+          qualifiers);
+
+      if(parentFeature != null)
+        gff_feature.setGffSeqName(parentFeature);
+      if(gff_source != null)
+        gff_feature.setGffSource(gff_source);
+      else
+        gff_feature.setGffSource("chado");
+      gff_feature.setLastModified(
+          new Timestamp(feat.getTimeLastModified().getTime()));
+
+      for(int i = 0; i < clusters.size(); i++)
+      {
+        final Qualifier qualifier = clusters.get(i);
+        final List<ClusterLazyQualifierValue> lazyValues =
+          new Vector<ClusterLazyQualifierValue>();
+        for(int j = 0; j < qualifier.getValues().size(); j++)
+          lazyValues.add(new ClusterLazyQualifierValue(
+              qualifier.getValues().get(j), qualifier.getName(), gff_feature));
+        gff_feature.setQualifier(
+            new QualifierLazyLoading(qualifier.getName(), lazyValues));
+      }
+      return gff_feature;
+    }
+    catch(InvalidRelationException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+    catch(OutOfRangeException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+    catch(uk.ac.sanger.artemis.io.EntryInformationException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+    catch(ReadOnlyException e)
+    {
+      throw new Error("internal error - unexpected exception: " + e);
+    }
+  }
+
+  /**
+   * Add the attributes of a chado feature, other than those from its
+   * location and timelastmodified, for chadoToGFF() and
+   * chadoToGFFStreamFeature().  These are the ID, name and parent, the
+   * properties, relationships, dbxrefs, synonyms, literature and controlled
+   * vocabulary terms.
+   * @param attributes     where the attributes are added
+   * @return the GFF source from the dbxrefs or null if there is none
+   */
+  private static String addChadoAttributes(
+      final ChadoAttributes attributes,
+      final Feature feat,
+      final IntHashMap<List<String>> dbxrefs,
+      final IntHashMap<List<FeatureSynonym>> synonym,
+      final IntHashMap<List<FeatureCvTerm>> featureCvTerms,
+      final List<PubDbXRef>  pubDbXRefs,
+      final IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs,
+      final IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs,
+      final IntHashMap<List<FeaturePub>> featurePubs,
+      final Hashtable<String, Feature> id_store,
+      final GmodDAO dao,
+      final FeatureLoc featureloc,
+      final boolean gene_builder)
+  {
     final Integer featureId = new Integer(feat.getFeatureId());
-    final String timelastmodified = Long.toString(feat.getTimeLastModified().getTime());
 
     String parent_id = null;
     String parent_relationship = null;
     int rank = -1;
-/*    if(feat.getFeatureRelationship() != null)
-    {
-      FeatureRelationship feat_relationship = feat.getFeatureRelationship();
-      parent_id = Integer.toString(feat_relationship.getFeatureByObjectId().getFeatureId());
-      long parent_type_id = feat_relationship.getCvTerm().getCvTermId();
-      
-      parent_relationship = feat_relationship.getCvTerm().getName();
-      
-      rank= feat_relationship.getRank();
-      if(parent_relationship == null)
-        parent_relationship = getCvtermName(parent_type_id, dao);
-    }
-    else */
-    
-    ByteBuffer clusterOrthoParalog = null;
+
+    // ortholog/paralog/cluster data
+    final List<FeatureRelationship> clusterOrthoParalog =
+      new Vector<FeatureRelationship>();
+    final List<String> clusterOrthoParalogNames = new Vector<String>();
     if(feat.getFeatureRelationshipsForSubjectId() != null)
     {
       Collection<FeatureRelationship> relations = feat.getFeatureRelationshipsForSubjectId();
-      Iterator<FeatureRelationship> it = relations.iterator();
       Set<Integer> featureRelationshipIds = new HashSet<Integer>();
-      //Set duplicates = new HashSet();
-      
-      while(it.hasNext())
+
+      for(FeatureRelationship fr: relations)
       {
-        final FeatureRelationship fr = it.next();
         final Integer featureRelationShipId = new Integer( fr.getFeatureRelationshipId() );
 
-        if(featureRelationshipIds.contains( featureRelationShipId ))
+        if(!featureRelationshipIds.add( featureRelationShipId ))
           continue;
-        
-        featureRelationshipIds.add(featureRelationShipId);
+
         final String cvTermName;
         if( fr.getCvTerm().getName() == null )
-        {
-          int parent_type_id = fr.getCvTerm().getCvTermId();
-          cvTermName = getCvtermName(parent_type_id, dao, gene_builder);
-        }
+          cvTermName = getCvtermName(fr.getCvTerm().getCvTermId(), dao, gene_builder);
         else
           cvTermName = fr.getCvTerm().getName();
-      
+
         if(cvTermName.equals("derives_from") || cvTermName.equals("part_of") ||
            cvTermName.equals("proper_part_of") || 
            cvTermName.equals("partof") || cvTermName.equals("producedby")) // flybase
@@ -1302,12 +1698,8 @@ public class DatabaseDocument extends Document
         }
         else
         {
-          if(clusterOrthoParalog == null)
-            clusterOrthoParalog = new ByteBuffer();
-          // ortholog/paralog/cluster data
-          int orthologueFeature = fr.getFeatureByObjectId().getFeatureId();
-          clusterOrthoParalog.append(cvTermName+"="+
-              GFF3Encoder.encode("object_id="+orthologueFeature+"; rank="+fr.getRank())+";");
+          clusterOrthoParalog.add(fr);
+          clusterOrthoParalogNames.add(cvTermName);
         }
       }
     }
@@ -1315,165 +1707,96 @@ public class DatabaseDocument extends Document
     // look up parent name
     if(parent_id != null && id_store != null &&  id_store.containsKey(parent_id))
       parent_id = id_store.get(parent_id).getUniqueName();
- 
-    // make gff format
-    
-    Vector<String> dbxref = null;
-    // append dbxrefs
-    if(dbxrefs != null &&
-       dbxrefs.containsKey(featureId))
-    {
-      dbxref = (Vector<String>)dbxrefs.get(featureId);
-      for(int j=0; j<dbxref.size(); j++)
-      {
-        if(dbxref.get(j).startsWith("GFF_source:"))
-        {
-          gff_source = dbxref.get(j).substring(11);
-          dbxref.removeElementAt(j);
-        }
-      }
-    }
 
-    this_buff.append(parentFeature + "\t"); // seqid
-    
-    if(gff_source != null)
-      this_buff.append(gff_source+"\t");    // source
-    else
-      this_buff.append("chado\t");
-    
-    if(typeName.equals("exon"))
-      this_buff.append(EXONMODEL + "\t");   // type
-    else
-      this_buff.append(typeName + "\t");    // type
-    this_buff.append(fmin + "\t");          // start
-    this_buff.append(fmax + "\t");          // end
-    this_buff.append(".\t");                // score
-    if(strand.equals( new Short((short)-1)) )                        // strand
-      this_buff.append("-\t");
-    else if(strand.equals( new Short((short)1)) )
-      this_buff.append("+\t");
-    else
-      this_buff.append(".\t");
+    attributes.add("ID", feat.getUniqueName());
+    attributes.add("feature_id", featureId.toString());
 
-    if(phase == null)
-      this_buff.append(".\t");               // phase
-    else
-      this_buff.append(phase+"\t"); 
-
-    this_buff.append("ID=" + name + ";");
-    this_buff.append("feature_id=" + featureId.toString() + ";");
-    
     if(feat.getName() != null)
-      this_buff.append("Name=" + feat.getName() + ";");
-   
+      attributes.add("Name", feat.getName());
+
     if(parent_id != null && !parent_id.equals("0"))
     {
       if(parent_relationship.equals("derives_from"))
-        this_buff.append("Derives_from=" + parent_id + ";");
+        attributes.add("Derives_from", parent_id);
       else
-        this_buff.append("Parent=" + parent_id + ";");
+        attributes.add("Parent", parent_id);
     }
 
-    this_buff.append("timelastmodified=" + timelastmodified + ";");
-    this_buff.append("isObsolete=" + Boolean.toString(feat.isObsolete()) + ";");
-    
+    attributes.add("isObsolete", Boolean.toString(feat.isObsolete()));
+
     if(featureloc.isFminPartial())
-      this_buff.append("Start_range=.,.;");
+      attributes.add("Start_range", ".,.");
     if(featureloc.isFmaxPartial())
-      this_buff.append("End_range=.,.;");
+      attributes.add("End_range", ".,.");
     // this is the chado feature_relationship.rank used
     // to order joined features e.g. exons
     if(rank > -1)
-      this_buff.append("feature_relationship_rank="+rank+";"); 
+      attributes.add("feature_relationship_rank", Integer.toString(rank));
 
-    //this_buff.append("feature_id="+feature_id+";");
-    
     // attributes
-    if(feat.getFeatureProps() != null &&
-       feat.getFeatureProps().size() > 0)
+    if(feat.getFeatureProps() != null)
     {
-      Collection<FeatureProp> featureprops = feat.getFeatureProps();
-      for(FeatureProp featprop : featureprops)
+      for(FeatureProp featprop : feat.getFeatureProps())
       {
         String qualifier_name = getCvtermName(featprop.getCvTerm().getCvTermId(), dao, gene_builder);
         if(qualifier_name == null)
           continue;
-        if(featprop.getValue() != null)
-          this_buff.append(GFF3Encoder.encode(qualifier_name)+ "=" +
-                           GFF3Encoder.encode(featprop.getValue())+";");
-        else
-          this_buff.append(GFF3Encoder.encode(qualifier_name)+";");
+        attributes.add(qualifier_name, featprop.getValue());
       }
     }
 
-    if(clusterOrthoParalog != null)
-      this_buff.append(clusterOrthoParalog);
-    
-    // append dbxrefs
-    boolean foundPrimaryDbXRef = false;
-    if(feat.getDbXRef() != null)
+    for(int i = 0; i < clusterOrthoParalog.size(); i++)
     {
-      this_buff.append("Dbxref=");
-      this_buff.append(GFF3Encoder.encode(
-          feat.getDbXRef().getDb().getName()+":"+feat.getDbXRef().getAccession()));
-      foundPrimaryDbXRef = true;
-      if(dbxref == null || dbxref.size() == 0)
-        this_buff.append(";");
+      final FeatureRelationship fr = clusterOrthoParalog.get(i);
+      attributes.add(clusterOrthoParalogNames.get(i), "object_id="+
+          fr.getFeatureByObjectId().getFeatureId()+"; rank="+fr.getRank());
     }
-    
-    if(dbxref != null && dbxref.size() > 0)
+
+    // dbxrefs
+    String gff_source = null;
+    if(feat.getDbXRef() != null)
+      attributes.add("Dbxref", 
+          feat.getDbXRef().getDb().getName()+":"+feat.getDbXRef().getAccession());
+
+    if(dbxrefs != null &&
+       dbxrefs.containsKey(featureId))
     {
-      if(foundPrimaryDbXRef)
-        this_buff.append(",");
-      else
-        this_buff.append("Dbxref=");
-      for(int j=0; j<dbxref.size(); j++)
+      for(String value: dbxrefs.get(featureId))
       {
-        this_buff.append(GFF3Encoder.encode(dbxref.get(j)));
-        if(j<dbxref.size()-1)
-          this_buff.append(",");
+        if(value.startsWith("GFF_source:"))
+          gff_source = value.substring(11);
+        else
+          attributes.add("Dbxref", value);
       }
-      this_buff.append(";");
     }
-    
-    // append synonyms
+
+    // synonyms
     if(synonym != null &&
        synonym.containsKey(featureId))
     {   
-      List<FeatureSynonym> v_synonyms = synonym.get(featureId);
-      for(FeatureSynonym alias: v_synonyms)
+      for(FeatureSynonym alias: synonym.get(featureId))
       {
-        this_buff.append( getCvtermName(alias.getSynonym().getCvTerm().getCvTermId(), dao, gene_builder) + "=" );
-        //this_buff.append(alias.getSynonym().getCvterm().getName()+"=");
-        this_buff.append(alias.getSynonym().getName());
-        
+        String value = alias.getSynonym().getName();
         if(!alias.isCurrent())
-          this_buff.append(GFF3Encoder.encode(";current=false"));
-        
-        //if(j<v_synonyms.size()-1)
-        this_buff.append(";");
+          value = value + ";current=false";
+        attributes.add(getCvtermName(
+            alias.getSynonym().getCvTerm().getCvTermId(), dao, gene_builder), value);
       }
     }
-    
+
     // /literature
     if(featurePubs != null &&
        featurePubs.containsKey(featureId))
     {
-      List<FeaturePub> v_featurePubs = featurePubs.get(featureId);
-      for(FeaturePub featurePub: v_featurePubs)
-      {
-        this_buff.append( "literature=" );
-        this_buff.append(featurePub.getPub().getUniqueName());
-        this_buff.append(";");
-      }
+      for(FeaturePub featurePub: featurePubs.get(featureId))
+        attributes.add("literature", featurePub.getPub().getUniqueName());
     }
-    
+
     // GO, controlled_curation, product
     if(featureCvTerms != null && 
        featureCvTerms.containsKey(featureId))
     {
-      List<FeatureCvTerm> v_feature_cvterms = featureCvTerms.get(featureId);
-      for(FeatureCvTerm feature_cvterm: v_feature_cvterms)
+      for(FeatureCvTerm feature_cvterm: featureCvTerms.get(featureId))
       {
         Integer featureCvTermId = new Integer( feature_cvterm.getFeatureCvTermId() );
         
@@ -1484,13 +1807,111 @@ public class DatabaseDocument extends Document
         List<FeatureCvTermPub> featureCvTermPubList = null;
         if(featureCvTermPubs != null)
           featureCvTermPubList = featureCvTermPubs.get(featureCvTermId);
-          
-        appendControlledVocabulary(this_buff, dao, feature_cvterm,
-                                   featureCvTermDbXRefList,featureCvTermPubList, pubDbXRefs, gene_builder);
+
+        // the attribute is made as for GFF, with the sub-values escaped
+        final ByteBuffer cv_buff = new ByteBuffer();
+        appendControlledVocabulary(cv_buff, dao, feature_cvterm,
+            featureCvTermDbXRefList, featureCvTermPubList, pubDbXRefs, gene_builder);
+        final String cv = new String(cv_buff.getBytes());
+        final int index = cv.indexOf('=');
+        attributes.addEncoded(cv.substring(0, index),
+                              cv.substring(index + 1, cv.length() - 1));
       }
-      //System.out.println(new String(this_buff.getBytes()));
     }
-    this_buff.append("\n");
+
+    return gff_source;
+  }
+
+  /**
+   * The attributes of a chado feature, which addChadoAttributes() adds
+   * either to a GFF line or to the qualifiers of a feature.
+   */
+  private interface ChadoAttributes
+  {
+    /**
+     * Add an attribute.
+     * @param name   the attribute name
+     * @param value  the value, which is not GFF encoded, or null if the
+     *               attribute has no value
+     */
+    void add(final String name, final String value);
+
+    /**
+     * Add an attribute with a value that is already GFF encoded.
+     */
+    void addEncoded(final String name, final String value);
+  }
+
+  /**
+   * Appends the attributes to the attributes column of a GFF line.
+   */
+  private static class GFFAttributes implements ChadoAttributes
+  {
+    private final ByteBuffer buff;
+
+    GFFAttributes(final ByteBuffer buff)
+    {
+      this.buff = buff;
+    }
+
+    public void add(final String name, final String value)
+    {
+      if(value == null)
+        buff.append(GFF3Encoder.encode(name)+";");
+      else
+        addEncoded(name, GFF3Encoder.encode(value));
+    }
+
+    public void addEncoded(final String name, final String value)
+    {
+      buff.append(GFF3Encoder.encode(name)+"="+value+";");
+    }
+  }
+
+  /**
+   * Adds the attributes to a QualifierVector, with the values as they are
+   * read from a GFF line.
+   */
+  private static class QualifierAttributes implements ChadoAttributes
+  {
+    private final QualifierVector qualifiers;
+
+    QualifierAttributes(final QualifierVector qualifiers)
+    {
+      this.qualifiers = qualifiers;
+    }
+
+    public void add(final String name, final String value)
+    {
+      addAttribute(qualifiers, name, (value == null ? null : value.trim()));
+    }
+
+    public void addEncoded(final String name, final String value)
+    {
+      add(name, GFF3Encoder.decode(value));
+    }
+  }
+
+  /**
+   * Add a value to the qualifier with the given name, or add a new qualifier
+   * if there isn't one, as for repeated attributes in a GFF line.
+   * @param qualifiers  the qualifiers of a feature
+   * @param name        the qualifier name
+   * @param value       the value or null if the qualifier has no value
+   */
+  private static void addAttribute(final QualifierVector qualifiers,
+                                   final String name, final String value)
+  {
+    final Qualifier qualifier = qualifiers.getQualifierByName(name);
+    if(qualifier == null)
+    {
+      if(value == null)
+        qualifiers.add(new Qualifier(name));
+      else
+        qualifiers.add(new Qualifier(name, value));
+    }
+    else if(value != null)
+      qualifier.addValue(value);
   }
   
   /**
@@ -2628,6 +3049,17 @@ public class DatabaseDocument extends Document
     return doc;
   }
   
+  /**
+   * Use the given data access object rather than connecting to the
+   * database. This is a hook for the tests, which read from a stand-in
+   * DAO, and is package-private so that it is not part of the API.
+   * @param dao
+   */
+  void setDAO(final GmodDAO dao)
+  {
+    this.localDAO = dao;
+  }
+
   /**
    * Get the data access object (DAO).
    * @return data access object
@@ -2635,6 +3067,8 @@ public class DatabaseDocument extends Document
   private GmodDAO getDAO()
      throws java.net.ConnectException, SQLException
   { 
+    if(localDAO != null)
+      return localDAO;
     if(!iBatis)
     {
       if(jdbcDAO == null)
@@ -2758,9 +3192,17 @@ public class DatabaseDocument extends Document
       }
       boolean unchanged;
       
+      //
+      // look up the features with one query for many names
+      final Hashtable<String, List<Feature>> features;
+      if(CHADO_BATCH_COMMIT)
+        features = getFeaturesByUniqueNames(sql, dao);
+      else
+        features = null;
+      
       //
       // check feature timestamps have not changed
-      Vector<String> names_checked = new Vector<String>();
+      HashSet<String> names_checked = new HashSet<String>();
       for(int i = 0; i < sql.size(); i++)
       {
         final ChadoTransaction tsn = sql.get(i);
@@ -2773,14 +3215,18 @@ public class DatabaseDocument extends Document
         {
           final String uniquename = (String) uniquenames[j];
           
-          if(uniquename == null || names_checked.contains(uniquename))
+          if(uniquename == null || !names_checked.add(uniquename))
             continue;
 
-          names_checked.add(uniquename);
           final String keyName = tsn.getFeatureKey();
 
-          unchanged = checkFeatureTimestamp(schema, uniquename, 
-              dao, keyName, featureIdStore, tsn);
+          if(features == null)
+            unchanged = checkFeatureTimestamp(schema, uniquename, 
+                dao, keyName, featureIdStore, tsn);
+          else
+            unchanged = checkFeatureTimestamp(uniquename,
+                findFeature(features, uniquename, keyName, dao),
+                featureIdStore, tsn);
           if(!unchanged)
           {
             if(useTransactions)
@@ -2791,6 +3237,8 @@ public class DatabaseDocument extends Document
       }  
 
       final Timestamp ts = new Timestamp(new java.util.Date().getTime());
+      final boolean useBatches = useTransactions && CHADO_BATCH_COMMIT;
+      int batchStart = -1;
       //
       // commit to database
       for(ncommit = 0; ncommit < sql.size(); ncommit++)
@@ -2798,20 +3246,50 @@ public class DatabaseDocument extends Document
         try
         {
           ChadoTransaction tsn = (ChadoTransaction) sql.get(ncommit);
+          if(useBatches)
+          {
+            // send the batch before a transaction that has to read from
+            // the database, or when it is full
+            if(batchStart > -1 &&
+               (!isBatchable(tsn) || ncommit-batchStart >= COMMIT_BATCH_SIZE))
+            {
+              executeBatch((IBatisDAO) dao, batchStart, ncommit, sql.size());
+              batchStart = -1;
+            }
+            if(batchStart < 0 && isBatchable(tsn))
+            {
+              ((IBatisDAO) dao).startBatch();
+              batchStart = ncommit;
+            }
+          }
           commitChadoTransaction(tsn, dao, ts);
         }
         catch (RuntimeException re)
         {
           if(!force)
+          {
+            // report the first transaction of the batch that failed
+            if(batchStart > -1)
+              ncommit = batchStart;
             throw re;
+          }
           logger4j.warn(constructExceptionMessage(re, sql, ncommit));
           logger4j.warn("NOW TRYING TO CONTINUE TO COMMIT");
         }
       }
+      
+      if(batchStart > -1)
+      {
+        ncommit = batchStart;
+        executeBatch((IBatisDAO) dao, batchStart, sql.size(), sql.size());
+        ncommit = sql.size();
+      }
 
       //
       // update timelastmodified timestamp
-      names_checked = new Vector<String>();
+      names_checked = new HashSet<String>();
+      if(useBatches)
+        ((IBatisDAO) dao).startBatch();
       
       
       //
@@ -2844,11 +3322,9 @@ public class DatabaseDocument extends Document
         for(int j=0; j<uniquenames.length; j++)
         {
           final String uniquename = (String) uniquenames[j];
-          if(uniquename == null || names_checked.contains(uniquename))
+          if(uniquename == null || !names_checked.add(uniquename))
             continue;
 
-          names_checked.add(uniquename);
-
           final Feature feature;
 
           // retrieve from featureId store
@@ -2875,6 +3351,9 @@ public class DatabaseDocument extends Document
         GFFStreamFeature gff_feature = (GFFStreamFeature) tsn.getGff_feature();
         gff_feature.setLastModified(ts);
       }
+      
+      if(useBatches)
+        ((IBatisDAO) dao).executeBatch();
 
       final String nocommit = System.getProperty("nocommit");
       if( useTransactions && 
@@ -2929,6 +3408,127 @@ public class DatabaseDocument extends Document
     return ncommit;
   }
   
+  /**
+   * Look up the features named in the transactions, with one query for
+   * each COMMIT_BATCH_SIZE names rather than one for each name.
+   * @param sql the collection of <code>ChadoTransaction</code> objects
+   * @param dao
+   * @return the features for each uniquename or null if the DAO cannot
+   *         look up more than one name at a time
+   */
+  private Hashtable<String, List<Feature>> getFeaturesByUniqueNames(
+      final Vector<ChadoTransaction> sql, final GmodDAO dao)
+  {
+    final LinkedHashSet<String> names = new LinkedHashSet<String>();
+    for(int i = 0; i < sql.size(); i++)
+    {
+      final Object uniquenames[] = getUniqueNames(sql.get(i));
+      if(uniquenames == null)
+        continue;
+      for(int j=0; j<uniquenames.length; j++)
+        if(uniquenames[j] != null)
+          names.add((String) uniquenames[j]);
+    }
+    
+    final Hashtable<String, List<Feature>> features =
+      new Hashtable<String, List<Feature>>();
+    final List<String> batch = new Vector<String>(COMMIT_BATCH_SIZE);
+    final Iterator<String> it = names.iterator();
+    while(it.hasNext())
+    {
+      batch.add(it.next());
+      if(batch.size() < COMMIT_BATCH_SIZE && it.hasNext())
+        continue;
+      
+      final List<Feature> found = dao.getFeaturesByUniqueNames(batch);
+      if(found == null)
+        return null;
+      for(int i = 0; i < found.size(); i++)
+      {
+        final Feature feature = found.get(i);
+        List<Feature> list = features.get(feature.getUniqueName());
+        if(list == null)
+        {
+          list = new Vector<Feature>(1);
+          features.put(feature.getUniqueName(), list);
+        }
+        list.add(feature);
+      }
+      batch.clear();
+    }
+    logger4j.debug("LOOKED UP "+names.size()+" FEATURES TO COMMIT");
+    return features;
+  }
+  
+  /**
+   * Find the feature with a uniquename and type from those looked up by
+   * getFeaturesByUniqueNames().
+   * @param features  the features for each uniquename
+   * @param uniquename
+   * @param keyName   the feature type or null to match any type
+   * @param dao
+   * @return the feature or null if there is not one
+   */
+  private Feature findFeature(final Hashtable<String, List<Feature>> features,
+                              final String uniquename,
+                              final String keyName,
+                              final GmodDAO dao)
+  {
+    final List<Feature> list = features.get(uniquename);
+    if(list == null)
+      return null;
+    
+    Feature feature = null;
+    for(int i = 0; i < list.size(); i++)
+    {
+      final Feature f = list.get(i);
+      if(keyName != null && 
+         (f.getCvTerm() == null || !keyName.equals(f.getCvTerm().getName())))
+        continue;
+      if(feature != null)
+        // more than one match so leave the single lookup to report it
+        return dao.getFeatureByUniqueName(uniquename, keyName);
+      feature = f;
+    }
+    return feature;
+  }
+  
+  /**
+   * Return true if a transaction only writes to the database, so that it
+   * can be sent in a batch with others.
+   * @param tsn
+   */
+  private boolean isBatchable(final ChadoTransaction tsn)
+  {
+    final Object featureObject = tsn.getFeatureObject();
+    if(featureObject instanceof FeatureProp ||
+       featureObject instanceof FeatureRelationship)
+      return true;
+    
+    return tsn.getType() == ChadoTransaction.DELETE &&
+           (featureObject instanceof Feature ||
+            featureObject instanceof FeatureDbXRef ||
+            featureObject instanceof FeaturePub);
+  }
+  
+  /**
+   * Send the batch of writes started at transaction <code>start</code>
+   * and report the progress of the commit.
+   * @param dao
+   * @param start the first transaction in the batch
+   * @param end   the transaction after the last one in the batch
+   * @param total the number of transactions being committed
+   */
+  private void executeBatch(final IBatisDAO dao, final int start, 
+                            final int end, final int total)
+  {
+    dao.executeBatch();
+    logger4j.debug("BATCH OF TRANSACTIONS "+(start+1)+" TO "+end+" SENT");
+    if(progress_listener != null)
+      progress_listener.progressMade("Committed to database: " + 
+                                     end + " of " + total);
+  }
+  
   /**
    * Get the uniquenames involved in a transaction
    * @param tsn
@@ -3092,13 +3692,27 @@ public class DatabaseDocument extends Document
                                        final Hashtable<String, Feature> featureIdStore,
                                        final ChadoTransaction tsn)
   {
-    final Timestamp timestamp  = tsn.getLastModified();
-    final Object featureObject = tsn.getFeatureObject();
-    
-    final Feature feature = dao.getFeatureByUniqueName(uniquename, keyName);
+    return checkFeatureTimestamp(uniquename,
+        dao.getFeatureByUniqueName(uniquename, keyName), featureIdStore, tsn);
+  }
+  
+  /**
+   * Check the <code>Timestamp</code> on a feature that has been read
+   * from the database.
+   * @param uniquename  the feature uniquename
+   * @param feature     the feature in the database or null if there is none
+   */
+  private boolean checkFeatureTimestamp(final String uniquename,
+                                        final Feature feature,
+                                        final Hashtable<String, Feature> featureIdStore,
+                                        final ChadoTransaction tsn)
+  {
     if(feature == null)
       return true;
     
+    final Timestamp timestamp  = tsn.getLastModified();
+    final Object featureObject = tsn.getFeatureObject();
+    
     featureIdStore.put(uniquename, feature);
     
     if(featureObject instanceof FeatureProp)
@@ -3346,6 +3960,85 @@ public class DatabaseDocument extends Document
   }
 
 
+  /**
+   * Chado features located on a source feature, with the dbxrefs, synonyms
+   * etc. read for them, that readFeatures() makes into GFFStreamFeatures in
+   * batches.
+   */
+  private static class ChadoFeatureReader
+  {
+    private final GmodDAO dao;
+    private final String srcFeatureName;
+    private final List<Feature> features;
+    private final InputStreamProgressListener progress_listener;
+    private Hashtable<String, Feature> id_store;
+    private IntHashMap<List<String>> dbxrefs;
+    private IntHashMap<List<FeatureSynonym>> synonym;
+    private IntHashMap<List<FeatureCvTerm>> featureCvTerms;
+    private IntHashMap<List<FeatureCvTermDbXRef>> featureCvTermDbXRefs;
+    private IntHashMap<List<FeatureCvTermPub>> featureCvTermPubs;
+    private IntHashMap<List<FeaturePub>> featurePubs;
+    private List<PubDbXRef> pubDbXRefs;
+    /** index of the next feature to make */
+    private int next = 0;
+
+    ChadoFeatureReader(final GmodDAO dao, final String srcFeatureName,
+                       final List<Feature> features,
+                       final InputStreamProgressListener progress_listener)
+    {
+      this.dao = dao;
+      this.srcFeatureName = srcFeatureName;
+      this.features = features;
+      this.progress_listener = progress_listener;
+    }
+
+    /**
+     * Make a reader for some of the features of another reader.
+     */
+    ChadoFeatureReader(final ChadoFeatureReader reader,
+                       final List<Feature> features)
+    {
+      this(reader.dao, reader.srcFeatureName, features, reader.progress_listener);
+      id_store = reader.id_store;
+      dbxrefs = reader.dbxrefs;
+      synonym = reader.synonym;
+      featureCvTerms = reader.featureCvTerms;
+      featureCvTermDbXRefs = reader.featureCvTermDbXRefs;
+      featureCvTermPubs = reader.featureCvTermPubs;
+      featurePubs = reader.featurePubs;
+      pubDbXRefs = reader.pubDbXRefs;
+    }
+
+    /**
+     * Make the next features into GFFStreamFeatures.
+     * @param max  the maximum number of features to make
+     * @return  the features or null if there are no more
+     */
+    FeatureVector readFeatures(final int max, final boolean gene_builder)
+        throws ReadFormatException
+    {
+      if(next >= features.size())
+        return null;
+
+      final int end = Math.min(features.size(), next + max);
+      final FeatureVector gff_features = new FeatureVector();
+      for(; next < end; next++)
+      {
+        final Feature feat = features.get(next);
+        gff_features.add(chadoToGFFStreamFeature(feat, srcFeatureName,
+            dbxrefs, synonym, featureCvTerms,
+            pubDbXRefs, featureCvTermDbXRefs, featureCvTermPubs,
+            featurePubs, id_store, dao, feat.getFeatureLoc(), gene_builder));
+
+        if(progress_listener != null &&
+           (next%10 == 0 || next == features.size()-1))
+          progress_listener.progressMade("Read from database: " + 
+                                         feat.getUniqueName());
+      }
+      return gff_features;
+    }
+  }
+
   /**
    * Return true if this looks like a single schema postgres
    * database
@@ -53,6 +53,16 @@ public class FastVector extends ArrayList
     return super.add(object);
   }
 
+  /**
+   *  Add an Object that the caller knows is not already in the vector,
+   *  without the check that add() makes.
+   **/
+  @SuppressWarnings("unchecked")
+  public void addUnchecked(Object object) 
+  {
+    super.add(object);
+  }
+
   /**
    *  Performs the same function as Vector.lastElement()
    **/
@@ -0,0 +1,134 @@
+/* IntHashMap.java
+ *
+ * This file is part of Artemis
+ *
+ * Copyright (C) 2014  Genome Research Limited
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package uk.ac.sanger.artemis.util;
+
+/**
+ *  A hash map with int keys, held in an array rather than as Integer
+ *  objects, for looking up chado rows by feature_id.  Values may not be
+ *  null and mappings can't be removed.  This class is not synchronized.
+ **/
+public class IntHashMap<V>
+{
+  private int[] keys;
+  private Object[] values;
+  private int size = 0;
+
+  public IntHashMap()
+  {
+    this(16);
+  }
+
+  /**
+   *  Create a new, empty map with room for the given number of mappings.
+   **/
+  public IntHashMap(final int expected_size)
+  {
+    int capacity = 16;
+    while(capacity < expected_size * 2)
+      capacity <<= 1;
+    keys = new int[capacity];
+    values = new Object[capacity];
+  }
+
+  /**
+   *  Return the value for the given key, or null if there isn't one.
+   **/
+  @SuppressWarnings("unchecked")
+  public V get(final int key)
+  {
+    return (V) values[indexOf(key)];
+  }
+
+  /**
+   *  Return true if there is a value for the given key.
+   **/
+  public boolean containsKey(final int key)
+  {
+    return values[indexOf(key)] != null;
+  }
+
+  /**
+   *  Set the value for the given key.
+   *  @return the previous value for the key, or null if there wasn't one.
+   **/
+  public V put(final int key, final V value)
+  {
+    if(value == null)
+      throw new NullPointerException();
+
+    int i = indexOf(key);
+    @SuppressWarnings("unchecked")
+    final V old_value = (V) values[i];
+    if(old_value == null)
+    {
+      if(2 * (size + 1) > keys.length)
+      {
+        rehash(keys.length * 2);
+        i = indexOf(key);
+      }
+      keys[i] = key;
+      ++size;
+    }
+    values[i] = value;
+    return old_value;
+  }
+
+  /**
+   *  Return the number of mappings.
+   **/
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   *  Return the slot holding the key, or the empty slot where it would go.
+   **/
+  private int indexOf(final int key)
+  {
+    final int mask = keys.length - 1;
+    // spread the bits so that runs of IDs don't cluster
+    final int hash = key * 0x9E3779B9;
+    int i = (hash ^ hash >>> 16) & mask;
+    while(values[i] != null && keys[i] != key)
+      i = (i + 1) & mask;
+    return i;
+  }
+
+  private void rehash(final int capacity)
+  {
+    final int[] old_keys = keys;
+    final Object[] old_values = values;
+    keys = new int[capacity];
+    values = new Object[capacity];
+    for(int i = 0; i < old_keys.length; ++i)
+    {
+      if(old_values[i] != null)
+      {
+        final int j = indexOf(old_keys[i]);
+        keys[j] = old_keys[i];
+        values[j] = old_values[i];
+      }
+    }
+  }
+}